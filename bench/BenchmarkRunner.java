@@ -0,0 +1,96 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Corre los microbenchmarks de los caminos calientes (protocolo, nodo y servidor central)
+ * y guarda los resultados en JSON.
+ *
+ * Uso: java bench.BenchmarkRunner [--solo protocolo|nodo|servidor] [--cuentas 1000,100000]
+ *      [--hilos 1,4,16] [--iteraciones 5] [--ms 1000] [--salida bench-results/<commit>.json]
+ */
+public class BenchmarkRunner {
+    
+    public static void main(String[] args) throws Exception {
+        String solo = null;
+        int[] cuentas = { 1000, 100000 };
+        int[] hilos = { 1, 4, 16 };
+        int iteraciones = 5;
+        long ms = 1000;
+        String salida = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--solo":
+                    solo = args[i + 1];
+                    break;
+                case "--cuentas":
+                    cuentas = parseList(args[i + 1]);
+                    break;
+                case "--hilos":
+                    hilos = parseList(args[i + 1]);
+                    break;
+                case "--iteraciones":
+                    iteraciones = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--ms":
+                    ms = Long.parseLong(args[i + 1]);
+                    break;
+                case "--salida":
+                    salida = args[i + 1];
+                    break;
+                default:
+                    System.out.println("Opción desconocida: " + args[i]);
+                    return;
+            }
+        }
+        
+        String commit = currentCommit();
+        Path file = Paths.get(salida != null ? salida : "bench-results/" + commit + ".json");
+        // Tantas iteraciones de calentamiento como de medición, como mínimo dos
+        Microbench bench = new Microbench(Math.max(2, iteraciones), iteraciones, ms);
+        
+        if (solo == null || solo.equals("protocolo")) {
+            ProtocolBenchmarks.run(bench, hilos);
+        }
+        if (solo == null || solo.equals("nodo")) {
+            NodeBenchmarks.run(bench, cuentas, hilos);
+        }
+        if (solo == null || solo.equals("servidor")) {
+            ServerBenchmarks.run(bench, cuentas, hilos);
+        }
+        
+        bench.writeJson(file, commit);
+        System.out.println("Resultados guardados en " + file);
+        System.exit(0); // Los nodos y flujos de prueba dejan hilos en segundo plano
+    }
+    
+    private static int[] parseList(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(v -> Integer.parseInt(v.trim())).toArray();
+    }
+    
+    /**
+     * Commit actual según git (o -Dbench.commit), para identificar la corrida.
+     */
+    private static String currentCommit() {
+        String configured = System.getProperty("bench.commit");
+        if (configured != null) {
+            return configured;
+        }
+        try {
+            Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line = reader.readLine();
+                if (process.waitFor() == 0 && line != null) {
+                    return line.trim();
+                }
+            }
+        } catch (Exception e) {
+            // Sin git disponible
+        }
+        return "desconocido";
+    }
+}
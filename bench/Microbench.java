@@ -0,0 +1,212 @@
+package bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Arnés de microbenchmarks en proceso, sin dependencias: mide el throughput de una
+ * operación con varios hilos a la vez, con iteraciones de calentamiento (para que el JIT
+ * compile el camino medido) y luego varias iteraciones de medición de duración fija.
+ *
+ * Cada operación devuelve un valor que se acumula por hilo y se publica al final, para que
+ * el JIT no elimine el trabajo como código muerto. Los resultados se guardan en JSON con un
+ * formato parecido al de JMH, para comparar corridas entre commits.
+ */
+public final class Microbench {
+    
+    /**
+     * Operación a medir. iteration es el número de invocación dentro del hilo, útil para
+     * recorrer datos preparados de antemano sin compartir estado entre hilos.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        Object run(int thread, long iteration) throws Exception;
+    }
+    
+    /**
+     * Resultado de un benchmark: operaciones por segundo de cada iteración de medición.
+     */
+    public static final class Result {
+        final String name;
+        final Map<String, String> params;
+        final int threads;
+        final double[] opsPerSecond;
+        
+        Result(String name, Map<String, String> params, int threads, double[] opsPerSecond) {
+            this.name = name;
+            this.params = params;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+        }
+        
+        public double mean() {
+            double sum = 0;
+            for (double v : opsPerSecond) sum += v;
+            return sum / opsPerSecond.length;
+        }
+        
+        /**
+         * Semiancho del intervalo de confianza del 99% de la media (aproximación normal).
+         */
+        public double error() {
+            int n = opsPerSecond.length;
+            if (n < 2) {
+                return Double.NaN;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (double v : opsPerSecond) squares += (v - mean) * (v - mean);
+            return 2.576 * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+        }
+        
+        /**
+         * Tiempo medio por operación visto por cada hilo, en nanosegundos.
+         */
+        public double nanosPerOp() {
+            return threads * 1e9 / mean();
+        }
+    }
+    
+    // Publicado al terminar cada iteración, para que el JIT no descarte los valores
+    static volatile int sink;
+    
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationMillis;
+    private final List<Result> results = new ArrayList<>();
+    
+    public Microbench(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationMillis = iterationMillis;
+    }
+    
+    public Result run(String name, Map<String, String> params, int threads, Operation operation) throws Exception {
+        System.out.printf(Locale.ROOT, "%s %s hilos=%d ... ", name, params, threads);
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(threads, operation);
+        }
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = iteration(threads, operation);
+        }
+        Result result = new Result(name, new LinkedHashMap<>(params), threads, scores);
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%.1f ± %.1f ops/s (%.1f ns/op)%n", result.mean(), result.error(),
+                result.nanosPerOp());
+        return result;
+    }
+    
+    /**
+     * Una iteración: todos los hilos arrancan juntos, operan hasta que vence el plazo y se
+     * suman sus operaciones. Devuelve operaciones por segundo.
+     */
+    private double iteration(int threads, Operation operation) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        long[] counts = new long[threads];
+        Exception[] failure = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(() -> {
+                int accumulator = 0;
+                long ops = 0;
+                try {
+                    start.await();
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(iterationMillis);
+                    // El reloj se consulta cada 64 operaciones para no medir sobre todo System.nanoTime
+                    do {
+                        for (int k = 0; k < 64; k++) {
+                            Object value = operation.run(thread, ops++);
+                            accumulator += (value == null) ? 0 : value.hashCode();
+                        }
+                    } while (System.nanoTime() < deadline);
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+                counts[thread] = ops;
+                sink = accumulator;
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        long total = 0;
+        for (long count : counts) total += count;
+        return total * 1e9 / elapsed;
+    }
+    
+    /**
+     * Guarda los resultados en JSON: uno por benchmark, con el commit y la JVM de la corrida.
+     */
+    public void writeJson(Path file, String commit) throws IOException {
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.write("  {\"benchmark\": " + quote(r.name));
+                out.write(", \"commit\": " + quote(commit));
+                out.write(", \"date\": " + quote(Instant.now().toString()));
+                out.write(", \"jvm\": " + quote(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")));
+                out.write(", \"threads\": " + r.threads);
+                out.write(", \"params\": {");
+                int p = 0;
+                for (Map.Entry<String, String> param : r.params.entrySet()) {
+                    out.write((p++ > 0 ? ", " : "") + quote(param.getKey()) + ": " + quote(param.getValue()));
+                }
+                out.write("}, \"mode\": \"thrpt\", \"warmupIterations\": " + warmupIterations);
+                out.write(", \"iterationMillis\": " + iterationMillis);
+                double error = r.error();
+                out.write(String.format(Locale.ROOT, ", \"primaryMetric\": {\"score\": %.3f, \"scoreError\": %s,"
+                        + " \"scoreUnit\": \"ops/s\", \"nanosPerOp\": %.3f, \"rawData\": [", r.mean(),
+                        Double.isNaN(error) ? "null" : String.format(Locale.ROOT, "%.3f", error), r.nanosPerOp()));
+                for (int k = 0; k < r.opsPerSecond.length; k++) {
+                    out.write(String.format(Locale.ROOT, "%s%.3f", k > 0 ? ", " : "", r.opsPerSecond[k]));
+                }
+                out.write("]}}" + (i < results.size() - 1 ? "," : "") + "\n");
+            }
+            out.write("]\n");
+        }
+    }
+    
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,171 @@
+package bench;
+
+import client.BankSession;
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
+import node.WorkerNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Caminos calientes del nodo trabajador, sobre un nodo en proceso con la cantidad de cuentas
+ * indicada. Las solicitudes llegan por su puerto, como las del servidor central, con una
+ * sesión por hilo por la interfaz local. Las transferencias incluyen el log (según
+ * -Dbanco.wal.sync) y el índice de movimientos.
+ */
+public final class NodeBenchmarks {
+    static final int FIRST_ACCOUNT = 100000;
+    static final int PREPARED_REQUESTS = 4096;
+    
+    private NodeBenchmarks() {
+    }
+    
+    public static void run(Microbench bench, int[] accountCounts, int[] threadCounts) throws Exception {
+        for (int accounts : accountCounts) {
+            Path dataDir = Files.createTempDirectory("banco-bench-nodo");
+            writeAccounts(dataDir, accounts);
+            int port = freePort();
+            WorkerNode node = new WorkerNode(0, port, dataDir.toString());
+            Thread serving = new Thread(node::start, "bench-nodo");
+            serving.setDaemon(true);
+            serving.start();
+            try (Sessions sessions = new Sessions(port, max(threadCounts))) {
+                sessions.awaitReady(new Message(OperationType.CONSULTAR_SALDO, FIRST_ACCOUNT));
+                
+                int[][] pares = preparePairs(accounts);
+                Map<String, String> params = Map.of("cuentas", String.valueOf(accounts));
+                for (int threads : threadCounts) {
+                    bench.run("nodo.consultarSaldo", params, threads, (thread, i) -> {
+                        int[] par = pares[(int) ((i * 31 + thread * 977) & (PREPARED_REQUESTS - 1))];
+                        return sessions.call(thread, new Message(OperationType.CONSULTAR_SALDO, par[0]));
+                    });
+                    bench.run("nodo.transferirFondos", params, threads, (thread, i) -> {
+                        int[] par = pares[(int) ((i * 31 + thread * 977) & (PREPARED_REQUESTS - 1))];
+                        return sessions.call(thread, new Message(OperationType.TRANSFERIR_FONDOS, par[0], par[1], 0.01));
+                    });
+                }
+            } finally {
+                node.stop();
+                deleteRecursively(dataDir);
+            }
+        }
+    }
+    
+    /**
+     * Pares origen-destino distintos tomados al azar (con semilla fija) entre las cuentas generadas.
+     */
+    static int[][] preparePairs(int accounts) {
+        Random random = new Random(42);
+        int[][] pares = new int[PREPARED_REQUESTS][];
+        for (int i = 0; i < PREPARED_REQUESTS; i++) {
+            int origen = FIRST_ACCOUNT + random.nextInt(accounts);
+            int destino = FIRST_ACCOUNT + (origen - FIRST_ACCOUNT + 1 + random.nextInt(accounts - 1)) % accounts;
+            pares[i] = new int[] { origen, destino };
+        }
+        return pares;
+    }
+    
+    static void writeAccounts(Path dataDir, int accounts) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dataDir.resolve("clientes.txt")))) {
+            out.println("# ID_CLIENTE | NOMBRE | EMAIL | TELÉFONO");
+            out.println("1|Cliente de prueba|bench@email.com|900000000");
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dataDir.resolve("cuentas.txt")))) {
+            out.println("# ID_CUENTA | ID_CLIENTE | SALDO | TIPO_CUENTA");
+            // Saldo alto para que ninguna transferencia falle por fondos insuficientes
+            for (int i = 0; i < accounts; i++) {
+                out.println((FIRST_ACCOUNT + i) + "|1|1000000000.00|Ahorros");
+            }
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dataDir.resolve("transacciones.txt")))) {
+            out.println("# ID_TRANSACC | ID_ORIG | ID_DEST | MONTO | FECHA_HORA | ESTADO");
+        }
+    }
+    
+    static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+    
+    static int max(int[] values) {
+        int max = 1;
+        for (int v : values) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+    
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    
+    /**
+     * Una sesión por hilo del benchmark, abierta la primera vez que el hilo la usa. Cada hilo
+     * usa solo la suya, así que no hace falta sincronizar.
+     */
+    static final class Sessions implements Closeable {
+        private final int port;
+        private final BankSession[] sessions;
+        
+        Sessions(int port, int threads) {
+            this.port = port;
+            this.sessions = new BankSession[threads];
+        }
+        
+        /**
+         * Espera a que el proceso del puerto responda bien a la solicitud indicada.
+         */
+        void awaitReady(Message probe) throws InterruptedException {
+            for (int attempt = 0; attempt < 600; attempt++) {
+                try (BankSession session = new BankSession("localhost", port, WireFormat.fromConfig())) {
+                    if (session.call(probe).isOk()) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    // Todavía no escucha
+                }
+                Thread.sleep(100);
+            }
+            throw new IllegalStateException("El proceso de prueba en el puerto " + port + " no arrancó");
+        }
+        
+        Object call(int thread, Message request) throws IOException {
+            BankSession session = sessions[thread];
+            if (session == null) {
+                session = new BankSession("localhost", port, WireFormat.fromConfig());
+                sessions[thread] = session;
+            }
+            Message response = session.call(request);
+            if (!response.isOk()) {
+                throw new IOException(response.getStatus());
+            }
+            return response.getResult();
+        }
+        
+        @Override
+        public void close() {
+            for (BankSession session : sessions) {
+                try {
+                    if (session != null) {
+                        session.close();
+                    }
+                } catch (IOException e) {
+                    // Ya estaba cerrada
+                }
+            }
+        }
+    }
+}
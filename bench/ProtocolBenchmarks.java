@@ -0,0 +1,51 @@
+package bench;
+
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Codificación y decodificación de mensajes del protocolo binario: la consulta y la
+ * transferencia viajan con layout fijo, el lote con valores etiquetados.
+ */
+public final class ProtocolBenchmarks {
+    private static final int LOTE = 100;
+    
+    private ProtocolBenchmarks() {
+    }
+    
+    public static void run(Microbench bench, int[] threadCounts) throws Exception {
+        Message consulta = new Message(OperationType.CONSULTAR_SALDO, 101);
+        Message transferencia = new Message(OperationType.TRANSFERIR_FONDOS, 101, 102, 250.75, 123456789L);
+        int[] origenes = new int[LOTE];
+        int[] destinos = new int[LOTE];
+        double[] montos = new double[LOTE];
+        for (int i = 0; i < LOTE; i++) {
+            origenes[i] = 101 + i;
+            destinos[i] = 201 + i;
+            montos[i] = i + 0.5;
+        }
+        Message lote = new Message(OperationType.TRANSFERIR_LOTE, origenes, destinos, montos);
+        
+        for (int threads : threadCounts) {
+            encodeDecode(bench, "consultarSaldo", consulta, threads);
+            encodeDecode(bench, "transferirFondos", transferencia, threads);
+            encodeDecode(bench, "transferirLote" + LOTE, lote, threads);
+        }
+    }
+    
+    private static void encodeDecode(Microbench bench, String mensaje, Message message, int threads) throws Exception {
+        Map<String, String> params = Map.of("mensaje", mensaje);
+        bench.run("protocolo.encode", params, threads, (thread, i) -> MessageCodec.encode(message).remaining());
+        
+        // El cuerpo sin el prefijo de longitud, como lo entrega MessageStream a decode
+        ByteBuffer frame = MessageCodec.encode(message);
+        frame.position(4);
+        ByteBuffer body = frame.slice();
+        bench.run("protocolo.decode", params, threads,
+                (thread, i) -> MessageCodec.decode(body.duplicate()).getType());
+    }
+}
\ No newline at end of file
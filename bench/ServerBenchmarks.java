@@ -0,0 +1,79 @@
+package bench;
+
+import common.utils.ExecutionMode;
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import node.WorkerNode;
+import server.CentralServer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Camino completo del servidor central, en proceso y por la interfaz local: elección del
+ * nodo (principal para las transferencias, réplica menos cargada para las lecturas),
+ * llamada al nodo y replicación, con distinta cantidad de nodos. Cada nodo tiene todas las
+ * cuentas, como los que levanta SystemStarter.
+ */
+public final class ServerBenchmarks {
+    private static final int[] NODE_COUNTS = { 3, 16 };
+    
+    private ServerBenchmarks() {
+    }
+    
+    public static void run(Microbench bench, int[] accountCounts, int[] threadCounts) throws Exception {
+        for (int nodes : NODE_COUNTS) {
+            for (int accounts : accountCounts) {
+                Path dataDir = Files.createTempDirectory("banco-bench-servidor");
+                // El servidor usa el puerto base y los nodos los siguientes
+                int serverPort = NodeBenchmarks.freePort();
+                WorkerNode[] workers = new WorkerNode[nodes];
+                CentralServer server = null;
+                try {
+                    for (int i = 0; i < nodes; i++) {
+                        Path nodeDir = Files.createDirectories(dataDir.resolve("node" + i));
+                        NodeBenchmarks.writeAccounts(nodeDir, accounts);
+                        workers[i] = new WorkerNode(i, serverPort + 1 + i, nodeDir.toString());
+                        Thread serving = new Thread(workers[i]::start, "bench-nodo-" + i);
+                        serving.setDaemon(true);
+                        serving.start();
+                    }
+                    server = new CentralServer(serverPort, serverPort + 1, nodes, ExecutionMode.fromConfig(),
+                            dataDir.resolve("coordinator").toString());
+                    Thread serving = new Thread(server::start, "bench-servidor");
+                    serving.setDaemon(true);
+                    serving.start();
+                    
+                    try (NodeBenchmarks.Sessions sessions = new NodeBenchmarks.Sessions(serverPort,
+                            NodeBenchmarks.max(threadCounts))) {
+                        sessions.awaitReady(new Message(OperationType.CONSULTAR_SALDO, NodeBenchmarks.FIRST_ACCOUNT));
+                        
+                        int[][] pares = NodeBenchmarks.preparePairs(accounts);
+                        Map<String, String> params = Map.of("nodos", String.valueOf(nodes), "cuentas", String.valueOf(accounts));
+                        for (int threads : threadCounts) {
+                            bench.run("servidor.consultarSaldo", params, threads, (thread, i) -> {
+                                int[] par = pares[(int) ((i * 31 + thread * 977) & (NodeBenchmarks.PREPARED_REQUESTS - 1))];
+                                return sessions.call(thread, new Message(OperationType.CONSULTAR_SALDO, par[0]));
+                            });
+                            bench.run("servidor.transferirFondos", params, threads, (thread, i) -> {
+                                int[] par = pares[(int) ((i * 31 + thread * 977) & (NodeBenchmarks.PREPARED_REQUESTS - 1))];
+                                return sessions.call(thread, new Message(OperationType.TRANSFERIR_FONDOS, par[0], par[1], 0.01));
+                            });
+                        }
+                    }
+                } finally {
+                    if (server != null) {
+                        server.stop();
+                    }
+                    for (WorkerNode worker : workers) {
+                        if (worker != null) {
+                            worker.stop();
+                        }
+                    }
+                    NodeBenchmarks.deleteRecursively(dataDir);
+                }
+            }
+        }
+    }
+}
@@ -2,18 +2,27 @@ package client;
 
 import common.utils.Message;
 import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
 
 import java.io.*;
-import java.net.Socket;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class BankClient {
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 9000;
+    private static final WireFormat WIRE_FORMAT = WireFormat.fromConfig();
     private static final Random random = new Random();
+    // Una sola sesión compartida: las solicitudes de todos los hilos se multiplexan sobre ella
+    private static BankSession session;
     
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
@@ -23,6 +32,13 @@ public class BankClient {
         System.out.print("Seleccione una opción: ");
         int option = scanner.nextInt();
         
+        try {
+            session = new BankSession(SERVER_HOST, SERVER_PORT, WIRE_FORMAT);
+        } catch (IOException e) {
+            System.out.println("Error al conectar con el servidor: " + e.getMessage());
+            return;
+        }
+        
         if (option == 1) {
             simulateConcurrentClients();
         } else {
@@ -37,7 +53,8 @@ public class BankClient {
             System.out.println("\n=== MENÚ CLIENTE BANCARIO ===");
             System.out.println("1. Consultar saldo");
             System.out.println("2. Realizar transferencia");
-            System.out.println("3. Salir");
+            System.out.println("3. Consultar movimientos");
+            System.out.println("4. Salir");
             System.out.print("Seleccione una opción: ");
             
             int option = scanner.nextInt();
@@ -50,7 +67,11 @@ public class BankClient {
                     realizarTransferencia(scanner);
                     break;
                 case 3:
+                    consultarMovimientos(scanner);
+                    break;
+                case 4:
                     System.out.println("¡Gracias por usar nuestro sistema bancario!");
+                    closeSession();
                     return;
                 default:
                     System.out.println("Opción no válida.");
@@ -62,16 +83,10 @@ public class BankClient {
         System.out.print("Ingrese el ID de la cuenta: ");
         int idCuenta = scanner.nextInt();
         
-        try (Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            
+        try {
             // Crear mensaje para consultar saldo
             Message message = new Message(OperationType.CONSULTAR_SALDO, idCuenta);
-            out.writeObject(message);
-            
-            // Recibir respuesta
-            Message response = (Message) in.readObject();
+            Message response = session.call(message);
             
             if (response.isOk()) {
                 System.out.println("Saldo de la cuenta " + idCuenta + ": " + response.getResult());
@@ -92,16 +107,10 @@ public class BankClient {
         System.out.print("Ingrese el monto a transferir: ");
         double monto = scanner.nextDouble();
         
-        try (Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            
+        try {
             // Crear mensaje para transferir fondos
             Message message = new Message(OperationType.TRANSFERIR_FONDOS, idOrigen, idDestino, monto);
-            out.writeObject(message);
-            
-            // Recibir respuesta
-            Message response = (Message) in.readObject();
+            Message response = session.call(message);
             
             if (response.isOk()) {
                 System.out.println("Transferencia realizada con éxito. Nuevo saldo: " + response.getResult());
@@ -114,6 +123,64 @@ public class BankClient {
         }
     }
     
+    /**
+     * Muestra el historial de la cuenta página por página; cada página se pide al servidor
+     * con el cursor de la anterior.
+     */
+    private static void consultarMovimientos(Scanner scanner) {
+        System.out.print("Ingrese el ID de la cuenta: ");
+        int idCuenta = scanner.nextInt();
+        System.out.print("Desde (AAAA-MM-DD, - para sin límite): ");
+        Long desde = parseFecha(scanner.next());
+        System.out.print("Hasta, sin incluir (AAAA-MM-DD, - para sin límite): ");
+        Long hasta = parseFecha(scanner.next());
+        
+        try {
+            long[] cursor = null;
+            do {
+                Message message = new Message(OperationType.CONSULTAR_MOVIMIENTOS, idCuenta, desde, hasta, cursor);
+                Message response = session.call(message);
+                if (!response.isOk()) {
+                    System.out.println("Error en la consulta: " + response.getStatus());
+                    return;
+                }
+                Object[] page = (Object[]) response.getResult();
+                long[] ids = (long[]) page[0];
+                int[] origenes = (int[]) page[1];
+                int[] destinos = (int[]) page[2];
+                double[] montos = (double[]) page[3];
+                long[] fechas = (long[]) page[4];
+                cursor = (long[]) page[5];
+                for (int i = 0; i < ids.length; i++) {
+                    LocalDateTime fecha = LocalDateTime.ofInstant(Instant.ofEpochMilli(fechas[i]), ZoneId.systemDefault());
+                    System.out.println(fecha + "  #" + ids[i] + "  " + origenes[i] + " -> " + destinos[i]
+                            + "  $" + String.format("%.2f", montos[i]));
+                }
+                if (ids.length == 0) {
+                    System.out.println("No hay movimientos.");
+                }
+                if (cursor != null) {
+                    System.out.print("¿Ver más? (s/n): ");
+                }
+            } while (cursor != null && scanner.next().equalsIgnoreCase("s"));
+            
+        } catch (Exception e) {
+            System.out.println("Error al conectar con el servidor: " + e.getMessage());
+        }
+    }
+    
+    private static Long parseFecha(String texto) {
+        if (texto.equals("-")) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(texto).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            System.out.println("Fecha inválida, se consulta sin ese límite");
+            return null;
+        }
+    }
+    
     private static void simulateConcurrentClients() {
         Scanner scanner = new Scanner(System.in);
         System.out.print("Número de clientes a simular: ");
@@ -157,17 +224,27 @@ public class BankClient {
         
         executor.shutdown();
         System.out.println("Simulación iniciada con " + numClients + " clientes.");
+        
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeSession();
+    }
+    
+    private static void closeSession() {
+        try {
+            session.close();
+        } catch (IOException e) {
+            System.out.println("Error al cerrar la sesión: " + e.getMessage());
+        }
     }
     
     private static void consultarSaldo(int idCuenta, int clientId) {
-        try (Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            
+        try {
             Message message = new Message(OperationType.CONSULTAR_SALDO, idCuenta);
-            out.writeObject(message);
-            
-            Message response = (Message) in.readObject();
+            Message response = session.call(message);
             System.out.println("Cliente " + clientId + " - Consulta saldo cuenta " + idCuenta + 
                     ": " + (response.isOk() ? response.getResult() : "Error: " + response.getStatus()));
             
@@ -177,14 +254,9 @@ public class BankClient {
     }
     
     private static void realizarTransferencia(int idOrigen, int idDestino, double monto, int clientId) {
-        try (Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            
+        try {
             Message message = new Message(OperationType.TRANSFERIR_FONDOS, idOrigen, idDestino, monto);
-            out.writeObject(message);
-            
-            Message response = (Message) in.readObject();
+            Message response = session.call(message);
             System.out.println("Cliente " + clientId + " - Transferencia " + idOrigen + " -> " + idDestino + 
                     " por $" + String.format("%.2f", monto) + ": " + 
                     (response.isOk() ? "Exitosa" : "Error: " + response.getStatus()));
@@ -0,0 +1,111 @@
+package client;
+
+import common.utils.Message;
+import common.utils.MessageStream;
+import common.utils.MessageStream.WireFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sesión de larga duración con el servidor central. Varias solicitudes pueden estar
+ * en vuelo a la vez sobre la misma conexión: cada una lleva un requestId y las
+ * respuestas se entregan a quien corresponde aunque lleguen en otro orden.
+ */
+public class BankSession implements Closeable {
+    private final Socket socket;
+    private final MessageStream stream;
+    private final Map<Long, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final Thread reader;
+    private volatile boolean closed;
+    
+    public BankSession(String host, int port, WireFormat format) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.stream = MessageStream.connect(socket, format);
+        this.reader = new Thread(this::readResponses, "bank-session-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+    
+    /**
+     * Envía una solicitud sin esperar la respuesta.
+     */
+    public CompletableFuture<Message> send(Message request) {
+        long requestId = nextRequestId.getAndIncrement();
+        request.setRequestId(requestId);
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        pending.put(requestId, future);
+        
+        if (closed) {
+            pending.remove(requestId);
+            future.completeExceptionally(new IOException("Sesión cerrada"));
+            return future;
+        }
+        
+        try {
+            stream.write(request);
+        } catch (IOException e) {
+            pending.remove(requestId);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    /**
+     * Envía una solicitud y espera su respuesta.
+     */
+    public Message call(Message request) throws IOException {
+        try {
+            return send(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido esperando respuesta");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        }
+    }
+    
+    public int pendingRequests() {
+        return pending.size();
+    }
+    
+    private void readResponses() {
+        IOException failure = null;
+        try {
+            while (!closed) {
+                Message response = stream.read();
+                CompletableFuture<Message> future = pending.remove(response.getRequestId());
+                if (future != null) {
+                    future.complete(response);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            closed = true;
+            // Las solicitudes que quedaron sin respuesta fallan en lugar de esperar para siempre
+            IOException cause = (failure != null) ? failure : new IOException("Sesión cerrada");
+            for (Long requestId : pending.keySet()) {
+                CompletableFuture<Message> future = pending.remove(requestId);
+                if (future != null) {
+                    future.completeExceptionally(cause);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        stream.close();
+    }
+}
\ No newline at end of file
@@ -6,14 +6,14 @@ import java.time.LocalDateTime;
 public class Transaccion implements Serializable {
     private static final long serialVersionUID = 1L;
     
-    private int idTransaccion;
+    private long idTransaccion;
     private int idOrigen;
     private int idDestino;
     private double monto;
     private LocalDateTime fechaHora;
     private String estado;
     
-    public Transaccion(int idTransaccion, int idOrigen, int idDestino, double monto, LocalDateTime fechaHora, String estado) {
+    public Transaccion(long idTransaccion, int idOrigen, int idDestino, double monto, LocalDateTime fechaHora, String estado) {
         this.idTransaccion = idTransaccion;
         this.idOrigen = idOrigen;
         this.idDestino = idDestino;
@@ -32,8 +32,8 @@ public class Transaccion implements Serializable {
     }
     
     // Getters y setters
-    public int getIdTransaccion() { return idTransaccion; }
-    public void setIdTransaccion(int idTransaccion) { this.idTransaccion = idTransaccion; }
+    public long getIdTransaccion() { return idTransaccion; }
+    public void setIdTransaccion(long idTransaccion) { this.idTransaccion = idTransaccion; }
     public int getIdOrigen() { return idOrigen; }
     public void setIdOrigen(int idOrigen) { this.idOrigen = idOrigen; }
     public int getIdDestino() { return idDestino; }
@@ -0,0 +1,146 @@
+package common.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Límite de solicitudes en curso (en cola o en ejecución) que se adapta a la latencia
+ * observada, al estilo de TCP Vegas: si la latencia reciente supera a la habitual es que se
+ * está formando cola, y el límite baja en esa proporción; si no, sube de a poco. La latencia
+ * habitual es un promedio largo y no la mínima vista, porque la mínima depende de la mezcla
+ * de operaciones (un acierto de la caché de saldos tarda microsegundos). Cuando una solicitud
+ * se descarta por sobrecarga (más abajo rechazaron, o la cola del pool se llenó) el límite
+ * baja de forma multiplicativa, como en AIMD.
+ *
+ * Admitir es un CAS sobre el contador de solicitudes en curso; el límite se recalcula una
+ * vez por ventana de muestras, bajo el monitor del limitador.
+ */
+public final class ConcurrencyLimiter {
+    private static final int WINDOW_MIN_SAMPLES = 10;
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final double BACKOFF = 0.9;
+    // La latencia reciente puede superar a la habitual en este factor sin que el límite baje
+    private static final double TOLERANCE = 1.5;
+    // Peso de cada ventana en el promedio largo (unas 50 ventanas, 5 segundos con carga)
+    private static final double LONG_RTT_WEIGHT = 0.04;
+    // Peso del cálculo nuevo frente al límite anterior, para que una ventana rara no lo mueva demasiado
+    private static final double SMOOTHING = 0.2;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongSupplier clock;
+    private volatile int limit;
+    
+    // Estado de la ventana actual, bajo el monitor
+    private double estimatedLimit;
+    private double longRttNanos;
+    private long windowStart;
+    private int windowSamples;
+    private long windowRttSum;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+    
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, System::nanoTime);
+    }
+    
+    /**
+     * Con el reloj dado (en nanosegundos) para medir las ventanas, en lugar de System.nanoTime.
+     */
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, LongSupplier clock) {
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+    
+    /**
+     * Reserva un lugar, o devuelve false si ya hay tantas solicitudes en curso como el límite.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Libera el lugar de una solicitud admitida. rttNanos va desde que se admitió hasta que se
+     * respondió (incluye la espera en cola); dropped indica que se descartó por sobrecarga.
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int current = inFlight.getAndDecrement();
+        sample(rttNanos, current, dropped);
+    }
+    
+    public int limit() {
+        return limit;
+    }
+    
+    public int inFlight() {
+        return inFlight.get();
+    }
+    
+    /**
+     * Solicitudes rechazadas por el límite desde el arranque.
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+    
+    private synchronized void sample(long rttNanos, int inFlightAtRelease, boolean dropped) {
+        windowSamples++;
+        windowRttSum += rttNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtRelease);
+        windowDropped |= dropped;
+        
+        long now = clock.getAsLong();
+        if (windowSamples < WINDOW_MIN_SAMPLES || now - windowStart < WINDOW_NANOS) {
+            return;
+        }
+        
+        double rtt = Math.max(1, (double) windowRttSum / windowSamples);
+        if (longRttNanos == 0) {
+            longRttNanos = rtt;
+        } else {
+            longRttNanos += (rtt - longRttNanos) * LONG_RTT_WEIGHT;
+            if (longRttNanos > 2 * rtt) {
+                // Terminó una sobrecarga larga: el promedio baja rápido hacia la latencia actual
+                longRttNanos = (longRttNanos + rtt) / 2;
+            }
+        }
+        
+        if (windowDropped) {
+            estimatedLimit = estimatedLimit * BACKOFF;
+        } else {
+            // Menor que 1 cuando la latencia reciente supera la tolerancia: baja en esa proporción
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rtt));
+            double target = estimatedLimit * gradient;
+            // Solo sube si el límite se está usando: con poca carga la latencia no dice nada
+            if (gradient == 1.0 && windowMaxInFlight * 2 >= estimatedLimit) {
+                target += Math.sqrt(estimatedLimit);
+            }
+            estimatedLimit = estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING;
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+        limit = (int) estimatedLimit;
+        
+        windowStart = now;
+        windowSamples = 0;
+        windowRttSum = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+}
\ No newline at end of file
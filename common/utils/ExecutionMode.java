@@ -0,0 +1,103 @@
+package common.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Modo de ejecución de los pools que hacen E/S bloqueante en el servidor y los nodos.
+ *
+ * PLATFORM usa pools fijos de hilos del sistema operativo (comportamiento original).
+ * VIRTUAL crea un hilo virtual por tarea; requiere Java 21 o superior y se resuelve por
+ * reflexión para que el código siga compilando con versiones anteriores. Si la JVM no
+ * los soporta, se usa un pool de hilos de plataforma sin límite fijo y se avisa.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+    
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutorFactory();
+    private static volatile boolean fallbackWarned;
+    
+    /**
+     * Modo configurado con -Dbanco.executor=platform|virtual (platform por defecto).
+     */
+    public static ExecutionMode fromConfig() {
+        String value = System.getProperty("banco.executor", "platform");
+        return "virtual".equalsIgnoreCase(value) ? VIRTUAL : PLATFORM;
+    }
+    
+    public static boolean virtualThreadsAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+    
+    /**
+     * Pool para procesar solicitudes. En modo PLATFORM tiene un número fijo de hilos.
+     */
+    public ExecutorService newTaskPool(String name, int platformThreads) {
+        if (this == VIRTUAL) {
+            return newVirtualPerTask(name);
+        }
+        return Executors.newFixedThreadPool(platformThreads, namedFactory(name));
+    }
+    
+    /**
+     * Como newTaskPool, pero en modo PLATFORM la cola admite como mucho queueCapacity tareas:
+     * con la cola llena, submit lanza RejectedExecutionException en lugar de acumular trabajo.
+     */
+    public ExecutorService newTaskPool(String name, int platformThreads, int queueCapacity) {
+        if (this == VIRTUAL) {
+            return newVirtualPerTask(name);
+        }
+        return new ThreadPoolExecutor(platformThreads, platformThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedFactory(name));
+    }
+    
+    /**
+     * Pool para hilos que viven lo que dura una conexión (lectores de sesiones).
+     */
+    public ExecutorService newConnectionPool(String name) {
+        if (this == VIRTUAL) {
+            return newVirtualPerTask(name);
+        }
+        return Executors.newCachedThreadPool(namedFactory(name));
+    }
+    
+    private static ExecutorService newVirtualPerTask(String name) {
+        if (NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Continúa con la alternativa de abajo
+            }
+        }
+        if (!fallbackWarned) {
+            fallbackWarned = true;
+            System.out.println("Hilos virtuales no disponibles en Java " + Runtime.version().feature()
+                    + "; se usan hilos de plataforma bajo demanda");
+        }
+        return Executors.newCachedThreadPool(namedFactory(name));
+    }
+    
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+    
+    private static ThreadFactory namedFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
\ No newline at end of file
@@ -1,53 +1,358 @@
 package common.utils;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Clase de utilidad para registrar logs del sistema
+ * Clase de utilidad para registrar logs del sistema.
+ *
+ * Los hilos que registran no escriben ni toman locks: dejan el registro en un buffer circular
+ * acotado (varios productores, un consumidor) y un único hilo escritor le da formato y lo
+ * escribe en el archivo y en la consola, en tandas, con un solo flush por tanda. Los slots del
+ * buffer se reutilizan, así que registrar no crea objetos aparte del mensaje.
+ *
+ * Configuración:
+ * -Dbanco.log.nivel=DEBUG|INFO|WARN|ERROR: nivel mínimo (INFO por defecto).
+ * -Dbanco.log.muestreo=N: se registra uno de cada N mensajes DEBUG e INFO, al azar (1 por defecto).
+ * -Dbanco.log.capacidad=N: registros en el buffer (8192 por defecto, se redondea a potencia de dos).
+ * -Dbanco.log.politica=descartar|esperar: con el buffer lleno, descartar el registro (por
+ * defecto) o esperar hasta -Dbanco.log.esperaMs a que haya lugar y recién entonces descartarlo.
+ * -Dbanco.log.consola=false: no repetir los registros en la salida estándar.
  */
 public class Logger {
+    
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR;
+        
+        static Level fromConfig() {
+            try {
+                return valueOf(System.getProperty("banco.log.nivel", "INFO").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return INFO;
+            }
+        }
+    }
+    
+    private static final Level MIN_LEVEL = Level.fromConfig();
+    private static final int SAMPLE_ONE_IN = Math.max(1, Integer.getInteger("banco.log.muestreo", 1));
+    private static final boolean WAIT_WHEN_FULL = "esperar".equalsIgnoreCase(
+            System.getProperty("banco.log.politica", "descartar"));
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("banco.log.esperaMs", 5));
+    private static final boolean CONSOLE = Boolean.parseBoolean(System.getProperty("banco.log.consola", "true"));
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("banco.log.capacidad", 8192) * 2 - 1));
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long WAIT_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
-    private static final Object lock = new Object();
-    private static PrintWriter writer;
-    private static String logFile = "system.log";
+    
+    /**
+     * Un lugar del buffer. sequence indica de quién es el turno: igual a la posición, libre para
+     * el productor que la reservó; posición + 1, listo para el escritor.
+     */
+    private static final class Slot {
+        volatile long sequence;
+        long timestampMillis;
+        Level level;
+        String component;
+        String message;
+        Throwable error;
+    }
+    
+    private static final Slot[] ring = new Slot[CAPACITY];
+    private static final int mask = CAPACITY - 1;
+    private static final AtomicLong tail = new AtomicLong();
+    // Solo lo modifica el escritor
+    private static volatile long head;
+    private static final LongAdder dropped = new LongAdder();
+    private static long reportedDropped;
+    
+    private static volatile String logFile = "system.log";
+    private static volatile boolean fileChanged;
+    private static volatile boolean writerIdle;
+    private static final Thread writerThread;
+    
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Slot();
+            ring[i].sequence = i;
+        }
+        writerThread = new Thread(Logger::writeLoop, "logger");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        // Lo que quedó en el buffer se escribe antes de salir
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(TimeUnit.SECONDS.toMillis(2)), "logger-flush"));
+    }
     
     public static void setLogFile(String filename) {
         logFile = filename;
-        try {
-            synchronized (lock) {
-                if (writer != null) {
-                    writer.close();
+        fileChanged = true;
+        LockSupport.unpark(writerThread);
+    }
+    
+    public static void log(String component, String message) {
+        log(Level.INFO, component, message, null);
+    }
+    
+    public static void error(String component, String message, Throwable e) {
+        log(Level.ERROR, component, message, e);
+    }
+    
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(MIN_LEVEL) >= 0;
+    }
+    
+    /**
+     * Registra sin bloquear (salvo con la política esperar). Devuelve false si el registro no
+     * se guardó: nivel deshabilitado, descartado por el muestreo o buffer lleno.
+     */
+    public static boolean log(Level level, String component, String message, Throwable e) {
+        if (!isEnabled(level)) {
+            return false;
+        }
+        if (SAMPLE_ONE_IN > 1 && level.compareTo(Level.WARN) < 0
+                && ThreadLocalRandom.current().nextInt(SAMPLE_ONE_IN) != 0) {
+            return false;
+        }
+        
+        long position = claim();
+        if (position < 0) {
+            dropped.increment();
+            return false;
+        }
+        Slot slot = ring[(int) (position & mask)];
+        slot.timestampMillis = System.currentTimeMillis();
+        slot.level = level;
+        slot.component = component;
+        slot.message = message;
+        slot.error = e;
+        slot.sequence = position + 1;
+        
+        if (writerIdle) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+    
+    /**
+     * Registros descartados por falta de lugar desde que arrancó el proceso.
+     */
+    public static long dropped() {
+        return dropped.sum();
+    }
+    
+    /**
+     * Espera hasta que el escritor haya escrito todo lo registrado hasta ahora, como mucho
+     * timeoutMs. Devuelve false si no alcanzó el tiempo.
+     */
+    public static boolean flush(long timeoutMs) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        LockSupport.unpark(writerThread);
+        while (head < target || !writerIdle) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+    
+    /**
+     * Reserva una posición del buffer, o -1 si está lleno y no hay que esperar (o venció la espera).
+     */
+    private static long claim() {
+        long waitUntil = 0;
+        while (true) {
+            long position = tail.get();
+            Slot slot = ring[(int) (position & mask)];
+            long sequence = slot.sequence;
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (sequence < position) {
+                // El slot todavía tiene un registro de la vuelta anterior: el buffer está lleno
+                if (!WAIT_WHEN_FULL) {
+                    return -1;
+                }
+                long now = System.nanoTime();
+                if (waitUntil == 0) {
+                    waitUntil = now + MAX_WAIT_NANOS;
+                    LockSupport.unpark(writerThread);
+                } else if (now > waitUntil) {
+                    return -1;
                 }
-                writer = new PrintWriter(new FileWriter(logFile, true), true);
+                // Cede el procesador en lugar de girar: el escritor necesita correr para liberar lugar
+                LockSupport.parkNanos(WAIT_STEP_NANOS);
             }
-        } catch (IOException e) {
-            System.err.println("Error configurando archivo de log: " + e.getMessage());
+            // Si no, otro productor tomó la posición: se reintenta con la siguiente
         }
     }
     
-    public static void log(String component, String message) {
-        try {
-            String timestamp = LocalDateTime.now().format(formatter);
-            String logMessage = timestamp + " [" + component + "] " + message;
+    private static void writeLoop() {
+        Writer file = null;
+        StringBuilder line = new StringBuilder(256);
+        TimestampFormatter timestamps = new TimestampFormatter();
+        
+        boolean openFailed = false;
+        
+        while (true) {
+            if (fileChanged) {
+                fileChanged = false;
+                openFailed = false;
+                closeQuietly(file);
+                file = null;
+            }
+            
+            // Se toma en cada tanda por si el proceso redirigió la salida estándar
+            PrintStream console = System.out;
+            int written = 0;
+            long position = head;
+            while (written < MAX_BATCH) {
+                Slot slot = ring[(int) (position & mask)];
+                if (slot.sequence != position + 1) {
+                    break; // Vacío, o el productor todavía está completando el registro
+                }
+                line.setLength(0);
+                timestamps.append(line, slot.timestampMillis);
+                line.append(" [").append(slot.component).append("] ");
+                if (slot.level != Level.INFO) {
+                    line.append(slot.level).append(": ");
+                }
+                line.append(slot.message);
+                if (slot.error != null) {
+                    line.append(" - ").append(slot.error);
+                }
+                line.append('\n');
+                
+                // El archivo se abre con el primer registro: un proceso que no registra nada no lo crea
+                if (file == null && !openFailed) {
+                    file = open();
+                    openFailed = (file == null);
+                }
+                
+                // Se liberan las referencias antes de devolver el slot a los productores
+                slot.component = null;
+                slot.message = null;
+                slot.error = null;
+                slot.sequence = position + CAPACITY;
+                position++;
+                written++;
+                
+                writeLine(file, line);
+                if (CONSOLE) {
+                    console.append(line);
+                }
+            }
+            head = position;
             
-            synchronized (lock) {
-                if (writer == null) {
-                    writer = new PrintWriter(new FileWriter(logFile, true), true);
+            long droppedNow = dropped.sum();
+            if (droppedNow != reportedDropped && written < MAX_BATCH) {
+                line.setLength(0);
+                timestamps.append(line, System.currentTimeMillis());
+                line.append(" [Logger] WARN: ").append(droppedNow - reportedDropped)
+                        .append(" registros descartados con el buffer lleno\n");
+                reportedDropped = droppedNow;
+                writeLine(file, line);
+            }
+            
+            if (written < MAX_BATCH) {
+                // Tanda terminada: un solo flush para todos los registros escritos
+                flushQuietly(file);
+                if (CONSOLE) {
+                    console.flush();
+                }
+                writerIdle = true;
+                Slot next = ring[(int) (head & mask)];
+                if (next.sequence != head + 1 && !fileChanged) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
                 }
-                writer.println(logMessage);
-                System.out.println(logMessage);
+                writerIdle = false;
             }
+        }
+    }
+    
+    private static Writer open() {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true),
+                    StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException e) {
+            System.err.println("Error configurando archivo de log: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private static void writeLine(Writer file, CharSequence line) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.append(line);
         } catch (IOException e) {
             System.err.println("Error escribiendo log: " + e.getMessage());
         }
     }
     
-    public static void error(String component, String message, Throwable e) {
-        log(component, "ERROR: " + message + " - " + e.getMessage());
+    private static void closeQuietly(Writer file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Error cerrando archivo de log: " + e.getMessage());
+        }
+    }
+    
+    private static void flushQuietly(Writer file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.flush();
+        } catch (IOException e) {
+            System.err.println("Error escribiendo log: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Formatea la fecha de los registros; la parte hasta los segundos se recalcula solo cuando
+     * cambia el segundo. Lo usa únicamente el hilo escritor.
+     */
+    private static final class TimestampFormatter {
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedPrefix;
+        
+        void append(StringBuilder sb, long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                String full = formatter.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+                cachedPrefix = full.substring(0, full.length() - 3);
+            }
+            int ms = Math.floorMod(millis, 1000);
+            sb.append(cachedPrefix);
+            if (ms < 100) sb.append('0');
+            if (ms < 10) sb.append('0');
+            sb.append(ms);
+        }
     }
 }
\ No newline at end of file
@@ -4,17 +4,45 @@ import java.io.Serializable;
 
 public class Message implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Estado de las solicitudes rechazadas por sobrecarga, sin procesar: se pueden reintentar más tarde
+    public static final String BUSY = "OCUPADO";
     
     public enum OperationType {
         CONSULTAR_SALDO,
         TRANSFERIR_FONDOS,
         RESPONSE,
         HEARTBEAT,
+        // Alta de un nodo en el servidor central: int id, String host, int puerto, String secreto del clúster
         REGISTER_NODE,
-        NODE_STATUS
+        // Métricas del nodo o del servidor (al servidor, opcionalmente con el id de un nodo).
+        // Responde Object[] con los nombres de las series y double[] con sus valores
+        NODE_STATUS,
+        // Lote de transferencias: int[] origenes, int[] destinos, double[] montos y, opcionalmente,
+        // long[] ids y long[] fechas (ms) asignados por el servidor
+        TRANSFERIR_LOTE,
+        // Saldos de varias cuentas: int[] cuentas y, opcionalmente, el plazo en milisegundos
+        CONSULTAR_SALDOS,
+        // Transferencias entre particiones (confirmación en dos fases coordinada por el servidor):
+        // PREPARAR: id, origen, destino, monto y si este nodo reserva el débito (boolean)
+        PREPARAR,
+        // CONFIRMAR: id, origen, destino, monto y la fecha (ms) decidida por el coordinador
+        CONFIRMAR,
+        // ABORTAR: id
+        ABORTAR,
+        // Ids de las reservas sin decisión con más de cierta antigüedad (long, en ms); responde long[]
+        RESERVAS_PENDIENTES,
+        // Flujo de replicación: long época, long primera secuencia, long[] ids, int[] origenes,
+        // int[] destinos, long[] montos en centavos, long[] fechas (ms)
+        REPLICAR,
+        // Historial de una cuenta, del más reciente al más antiguo: int cuenta, Long desde y Long
+        // hasta (ms, null sin límite), long[] cursor de la página anterior (null para la primera)
+        // y, opcionalmente, el tamaño de página. Responde long[] ids, int[] origenes, int[] destinos,
+        // double[] montos, long[] fechas (ms) y el cursor de la página siguiente (null si no hay más)
+        CONSULTAR_MOVIMIENTOS
     }
     
     private OperationType type;
+    private long requestId; // Correlaciona respuestas con solicitudes en una misma conexión
     private Object[] params;
     private Object result;
     private String status;  // "OK" o mensaje de error
@@ -28,6 +56,8 @@ public class Message implements Serializable {
     // Getters y setters
     public OperationType getType() { return type; }
     public void setType(OperationType type) { this.type = type; }
+    public long getRequestId() { return requestId; }
+    public void setRequestId(long requestId) { this.requestId = requestId; }
     public Object[] getParams() { return params; }
     public void setParams(Object[] params) { this.params = params; }
     public Object getResult() { return result; }
@@ -42,4 +72,15 @@ public class Message implements Serializable {
     public boolean isOk() {
         return "OK".equals(status);
     }
+    
+    /**
+     * Marca la respuesta como rechazada por sobrecarga; el motivo se agrega al estado.
+     */
+    public void setBusy(String reason) {
+        this.status = BUSY + ": " + reason;
+    }
+    
+    public boolean isBusy() {
+        return status != null && status.startsWith(BUSY);
+    }
 }
\ No newline at end of file
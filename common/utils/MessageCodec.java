@@ -0,0 +1,377 @@
+package common.utils;
+
+import common.utils.Message.OperationType;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codificación binaria compacta de {@link Message}.
+ *
+ * Formato de cada trama (big-endian):
+ * <pre>
+ *   int    longitud del resto de la trama
+ *   byte   versión del formato
+ *   byte   tipo de operación (ordinal de OperationType)
+ *   byte   flags (FLAG_*)
+ *   long   identificador de solicitud (desde la versión 2)
+ *   ...    id de transacción de TRANSFERIR_FONDOS: int, o long desde la versión 3 (FLAG_LONG_TX_ID)
+ *   ...    parámetros: layout fijo para CONSULTAR_SALDO / TRANSFERIR_FONDOS, o lista tipada
+ *   ...    resultado tipado (si FLAG_HAS_RESULT)
+ *   ...    estado como texto (si no está FLAG_OK)
+ * </pre>
+ *
+ * Los valores admitidos son null, Integer, Long, Double, Boolean, String, int[], long[],
+ * double[] y Object[] de esos mismos tipos. No hay un caso general con serialización Java:
+ * decodificar una trama nunca instancia clases arbitrarias.
+ */
+public final class MessageCodec {
+    public static final int VERSION = 3;
+    /** Versión más antigua que todavía se sabe leer y escribir */
+    public static final int MIN_VERSION = 1;
+    /** Tamaño máximo aceptado para una trama, para no reservar memoria con longitudes corruptas */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    /** Anidamiento máximo de Object[] al decodificar (el mismo maxdepth del filtro de MessageStream) */
+    static final int MAX_DEPTH = 16;
+    
+    private static final int FLAG_OK = 1;
+    private static final int FLAG_HAS_RESULT = 1 << 1;
+    private static final int FLAG_FIXED_LAYOUT = 1 << 2;
+    private static final int FLAG_HAS_TX_ID = 1 << 3;
+    private static final int FLAG_LONG_TX_ID = 1 << 4; // Id de transacción long (versión 3); sin este bit es int
+    
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_INT = 1;
+    private static final byte TAG_LONG = 2;
+    private static final byte TAG_DOUBLE = 3;
+    private static final byte TAG_BOOLEAN = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_INT_ARRAY = 6;
+    private static final byte TAG_LONG_ARRAY = 7;
+    private static final byte TAG_DOUBLE_ARRAY = 8;
+    private static final byte TAG_OBJECT_ARRAY = 9;
+    
+    private static final OperationType[] TYPES = OperationType.values();
+    
+    private MessageCodec() {
+    }
+    
+    /**
+     * Codifica el mensaje como una trama completa (incluido el prefijo de longitud),
+     * lista para escribirse en el socket.
+     */
+    public static ByteBuffer encode(Message message) {
+        return encode(message, VERSION);
+    }
+    
+    public static ByteBuffer encode(Message message, int version) {
+        FrameBuffer buf = new FrameBuffer(64);
+        buf.putInt(0); // Se completa al final con la longitud real
+        buf.put((byte) version);
+        buf.put((byte) message.getType().ordinal());
+        
+        Object[] params = message.getParams();
+        boolean fixed = hasFixedLayout(message.getType(), params);
+        int flags = 0;
+        if (message.isOk()) flags |= FLAG_OK;
+        if (message.getResult() != null) flags |= FLAG_HAS_RESULT;
+        if (fixed) flags |= FLAG_FIXED_LAYOUT;
+        if (fixed && message.getType() == OperationType.TRANSFERIR_FONDOS && params.length == 4) {
+            flags |= FLAG_HAS_TX_ID;
+            if (params[3] instanceof Long && version >= 3) flags |= FLAG_LONG_TX_ID;
+        }
+        buf.put((byte) flags);
+        if (version >= 2) {
+            buf.putLong(message.getRequestId());
+        }
+        
+        if (fixed) {
+            writeFixedParams(buf, message.getType(), params, (flags & FLAG_LONG_TX_ID) != 0);
+        } else {
+            int count = params == null ? 0 : params.length;
+            buf.putShort((short) count);
+            for (int i = 0; i < count; i++) {
+                writeValue(buf, params[i]);
+            }
+        }
+        
+        if (message.getResult() != null) {
+            writeValue(buf, message.getResult());
+        }
+        if (!message.isOk()) {
+            writeString(buf, message.getStatus() == null ? "" : message.getStatus());
+        }
+        
+        ByteBuffer frame = buf.toByteBuffer();
+        frame.putInt(0, frame.remaining() - 4);
+        return frame;
+    }
+    
+    /**
+     * Decodifica el cuerpo de una trama (sin el prefijo de longitud).
+     */
+    public static Message decode(ByteBuffer body) throws IOException {
+        try {
+            int version = body.get() & 0xFF;
+            if (version < MIN_VERSION || version > VERSION) {
+                throw new IOException("Versión de protocolo no soportada: " + version);
+            }
+            int typeIndex = body.get() & 0xFF;
+            if (typeIndex >= TYPES.length) {
+                throw new IOException("Tipo de operación desconocido: " + typeIndex);
+            }
+            OperationType type = TYPES[typeIndex];
+            int flags = body.get() & 0xFF;
+            long requestId = version >= 2 ? body.getLong() : 0;
+            
+            Object[] params;
+            if ((flags & FLAG_FIXED_LAYOUT) != 0) {
+                params = readFixedParams(body, type, version, flags);
+            } else {
+                int count = body.getShort() & 0xFFFF;
+                params = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    params[i] = readValue(body, 1);
+                }
+            }
+            
+            Message message = new Message(type, params);
+            message.setRequestId(requestId);
+            if ((flags & FLAG_HAS_RESULT) != 0) {
+                message.setResult(readValue(body, 1));
+            }
+            if ((flags & FLAG_OK) == 0) {
+                message.setError(readString(body));
+            }
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Trama truncada");
+        }
+    }
+    
+    /**
+     * Escribe una trama en un stream bloqueante.
+     */
+    public static void write(DataOutputStream out, Message message, int version) throws IOException {
+        ByteBuffer frame = encode(message, version);
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+    
+    /**
+     * Lee una trama completa de un stream bloqueante. Lanza EOFException si el otro extremo cerró.
+     */
+    public static Message read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Longitud de trama inválida: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(ByteBuffer.wrap(body));
+    }
+    
+    private static boolean hasFixedLayout(OperationType type, Object[] params) {
+        if (params == null) {
+            return false;
+        }
+        switch (type) {
+            case CONSULTAR_SALDO:
+                return params.length == 1 && params[0] instanceof Integer;
+            case TRANSFERIR_FONDOS:
+                return (params.length == 3 || params.length == 4)
+                        && params[0] instanceof Integer
+                        && params[1] instanceof Integer
+                        && params[2] instanceof Double
+                        && (params.length == 3 || params[3] instanceof Integer || params[3] instanceof Long);
+            default:
+                return false;
+        }
+    }
+    
+    private static void writeFixedParams(FrameBuffer buf, OperationType type, Object[] params, boolean longTxId) {
+        if (type == OperationType.CONSULTAR_SALDO) {
+            buf.putInt((Integer) params[0]);
+        } else {
+            buf.putInt((Integer) params[0]);
+            buf.putInt((Integer) params[1]);
+            buf.putDouble((Double) params[2]);
+            if (params.length == 4 && longTxId) {
+                buf.putLong((Long) params[3]);
+            } else if (params.length == 4) {
+                long idTransaccion = ((Number) params[3]).longValue();
+                if (idTransaccion != (int) idTransaccion) {
+                    // Un extremo con versión 2 leería mal el id: mejor no enviar la trama
+                    throw new IllegalArgumentException("Id de transacción " + idTransaccion
+                            + " fuera del rango de la versión de protocolo negociada");
+                }
+                buf.putInt((int) idTransaccion);
+            }
+        }
+    }
+    
+    private static Object[] readFixedParams(ByteBuffer body, OperationType type, int version, int flags) throws IOException {
+        switch (type) {
+            case CONSULTAR_SALDO:
+                return new Object[] { body.getInt() };
+            case TRANSFERIR_FONDOS:
+                int idOrigen = body.getInt();
+                int idDestino = body.getInt();
+                double monto = body.getDouble();
+                if ((flags & FLAG_HAS_TX_ID) != 0) {
+                    // Los ids int de versiones anteriores se entregan también como long
+                    long idTransaccion = (version >= 3 && (flags & FLAG_LONG_TX_ID) != 0) ? body.getLong() : body.getInt();
+                    return new Object[] { idOrigen, idDestino, monto, idTransaccion };
+                }
+                return new Object[] { idOrigen, idDestino, monto };
+            default:
+                throw new IOException("Layout fijo no definido para " + type);
+        }
+    }
+    
+    private static void writeValue(FrameBuffer buf, Object value) {
+        if (value == null) {
+            buf.put(TAG_NULL);
+        } else if (value instanceof Integer) {
+            buf.put(TAG_INT);
+            buf.putInt((Integer) value);
+        } else if (value instanceof Long) {
+            buf.put(TAG_LONG);
+            buf.putLong((Long) value);
+        } else if (value instanceof Double) {
+            buf.put(TAG_DOUBLE);
+            buf.putDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            buf.put(TAG_BOOLEAN);
+            buf.put((byte) (((Boolean) value) ? 1 : 0));
+        } else if (value instanceof String) {
+            buf.put(TAG_STRING);
+            writeString(buf, (String) value);
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            buf.put(TAG_INT_ARRAY);
+            buf.putInt(array.length);
+            for (int v : array) buf.putInt(v);
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            buf.put(TAG_LONG_ARRAY);
+            buf.putInt(array.length);
+            for (long v : array) buf.putLong(v);
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            buf.put(TAG_DOUBLE_ARRAY);
+            buf.putInt(array.length);
+            for (double v : array) buf.putDouble(v);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            buf.put(TAG_OBJECT_ARRAY);
+            buf.putInt(array.length);
+            for (Object v : array) writeValue(buf, v);
+        } else {
+            throw new IllegalArgumentException("Tipo de valor no soportado por el protocolo: " + value.getClass().getName());
+        }
+    }
+    
+    /**
+     * depth es el nivel del valor: 1 para un parámetro o el resultado. Una trama con arreglos
+     * anidados sin límite agotaría la pila del hilo que la decodifica.
+     */
+    private static Object readValue(ByteBuffer body, int depth) throws IOException {
+        byte tag = body.get();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_INT:
+                return body.getInt();
+            case TAG_LONG:
+                return body.getLong();
+            case TAG_DOUBLE:
+                return body.getDouble();
+            case TAG_BOOLEAN:
+                return body.get() != 0;
+            case TAG_STRING:
+                return readString(body);
+            case TAG_INT_ARRAY: {
+                int[] array = new int[readLength(body, 4)];
+                for (int i = 0; i < array.length; i++) array[i] = body.getInt();
+                return array;
+            }
+            case TAG_LONG_ARRAY: {
+                long[] array = new long[readLength(body, 8)];
+                for (int i = 0; i < array.length; i++) array[i] = body.getLong();
+                return array;
+            }
+            case TAG_DOUBLE_ARRAY: {
+                double[] array = new double[readLength(body, 8)];
+                for (int i = 0; i < array.length; i++) array[i] = body.getDouble();
+                return array;
+            }
+            case TAG_OBJECT_ARRAY: {
+                if (depth > MAX_DEPTH) {
+                    throw new IOException("Arreglos anidados en más de " + MAX_DEPTH + " niveles");
+                }
+                Object[] array = new Object[readLength(body, 1)];
+                for (int i = 0; i < array.length; i++) array[i] = readValue(body, depth + 1);
+                return array;
+            }
+            default:
+                throw new IOException("Tipo de valor desconocido: " + tag);
+        }
+    }
+    
+    /** Lee una longitud y verifica que quepa en lo que queda de la trama */
+    private static int readLength(ByteBuffer body, int elementSize) throws IOException {
+        int length = body.getInt();
+        if (length < 0 || (long) length * elementSize > body.remaining()) {
+            throw new IOException("Longitud inválida en la trama: " + length);
+        }
+        return length;
+    }
+    
+    private static void writeString(FrameBuffer buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+    }
+    
+    private static String readString(ByteBuffer body) throws IOException {
+        int length = readLength(body, 1);
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+    
+    /**
+     * Buffer de escritura que crece según se necesita (heap, para poder exponer el arreglo).
+     */
+    private static final class FrameBuffer {
+        private ByteBuffer buffer;
+        
+        FrameBuffer(int initialCapacity) {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+        
+        private void ensure(int extra) {
+            if (buffer.remaining() < extra) {
+                int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+                ByteBuffer larger = ByteBuffer.allocate(newCapacity);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        
+        void put(byte b) { ensure(1); buffer.put(b); }
+        void put(byte[] bytes) { ensure(bytes.length); buffer.put(bytes); }
+        void putShort(short v) { ensure(2); buffer.putShort(v); }
+        void putInt(int v) { ensure(4); buffer.putInt(v); }
+        void putLong(long v) { ensure(8); buffer.putLong(v); }
+        void putDouble(double v) { ensure(8); buffer.putDouble(v); }
+        
+        ByteBuffer toByteBuffer() {
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,208 @@
+package common.utils;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Canal de mensajes sobre un socket. Oculta si los mensajes viajan con el protocolo
+ * binario de {@link MessageCodec} o con serialización Java (formato anterior, que se
+ * mantiene como alternativa para poder comparar ambos).
+ *
+ * La negociación la inicia el cliente: con el formato binario envía un saludo
+ * (MAGIC + versión) y el servidor responde con la versión aceptada. Si lo primero que
+ * llega es la cabecera de un ObjectOutputStream, el servidor usa serialización Java.
+ *
+ * Con serialización Java solo se aceptan las clases que componen un Message (filtro de
+ * deserialización): un cliente no puede hacer que el servidor instancie clases arbitrarias.
+ *
+ * Cada mensaje lleva su requestId, así que varias solicitudes pueden estar en vuelo
+ * sobre el mismo canal. Las escrituras son thread-safe; las lecturas deben hacerse
+ * desde un único hilo lector.
+ */
+public abstract class MessageStream implements Closeable {
+    /** "BANK" en ASCII: no puede confundirse con la cabecera 0xACED de la serialización Java */
+    public static final int MAGIC = 0x42414E4B;
+    public static final int JAVA_STREAM_MAGIC = 0xACED;
+    // Clases que pueden aparecer en un Message serializado; cualquier otra se rechaza
+    private static final ObjectInputFilter MESSAGE_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;maxarray=16777216;"
+            + "common.utils.Message;common.utils.Message$OperationType;java.lang.Enum;"
+            + "java.lang.Number;java.lang.Integer;java.lang.Long;java.lang.Double;java.lang.Boolean;"
+            + "java.lang.String;java.lang.Object;!*");
+    
+    public enum WireFormat {
+        BINARY,
+        JAVA;
+        
+        /**
+         * Formato configurado con -Dbanco.wire=binary|java (binario por defecto).
+         */
+        public static WireFormat fromConfig() {
+            String value = System.getProperty("banco.wire", "binary");
+            return "java".equalsIgnoreCase(value) ? JAVA : BINARY;
+        }
+    }
+    
+    protected final Socket socket;
+    // ReentrantLock en lugar de synchronized para no fijar hilos virtuales a su portador mientras escriben
+    protected final ReentrantLock writeLock = new ReentrantLock();
+    
+    protected MessageStream(Socket socket) {
+        this.socket = socket;
+    }
+    
+    public abstract void write(Message message) throws IOException;
+    
+    /**
+     * Lee el siguiente mensaje. Lanza EOFException cuando el otro extremo cierra la conexión.
+     */
+    public abstract Message read() throws IOException;
+    
+    public abstract WireFormat format();
+    
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+    
+    /**
+     * Abre el canal del lado cliente con el formato indicado.
+     */
+    public static MessageStream connect(Socket socket, WireFormat format) throws IOException {
+        if (format == WireFormat.JAVA) {
+            return new JavaStream(socket, socket.getInputStream());
+        }
+        
+        BinaryStream stream = new BinaryStream(socket, socket.getInputStream());
+        stream.out.writeInt(MAGIC);
+        stream.out.writeByte(MessageCodec.VERSION);
+        stream.out.flush();
+        
+        int magic = stream.in.readInt();
+        int version = stream.in.readUnsignedByte();
+        if (magic != MAGIC || version < MessageCodec.MIN_VERSION || version > MessageCodec.VERSION) {
+            socket.close();
+            throw new IOException("El servidor no aceptó el protocolo binario versión " + MessageCodec.VERSION);
+        }
+        stream.version = version;
+        return stream;
+    }
+    
+    /**
+     * Abre el canal del lado servidor detectando el formato que eligió el cliente.
+     */
+    public static MessageStream accept(Socket socket) throws IOException {
+        return accept(socket, socket.getInputStream());
+    }
+    
+    /**
+     * Igual que {@link #accept(Socket)}, pero leyendo de un stream dado (por ejemplo, uno
+     * que antepone bytes que ya se leyeron del socket).
+     */
+    public static MessageStream accept(Socket socket, InputStream rawInput) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(rawInput);
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        if (first < 0 || second < 0) {
+            throw new EOFException("Conexión cerrada antes de negociar el protocolo");
+        }
+        input.reset();
+        
+        if (((first << 8) | second) == JAVA_STREAM_MAGIC) {
+            return new JavaStream(socket, input);
+        }
+        
+        BinaryStream stream = new BinaryStream(socket, input);
+        int magic = stream.in.readInt();
+        int version = stream.in.readUnsignedByte();
+        if (magic != MAGIC || version < MessageCodec.MIN_VERSION) {
+            throw new IOException("Saludo de protocolo desconocido");
+        }
+        // Se usa la versión más alta que entienden ambos extremos
+        stream.version = Math.min(version, MessageCodec.VERSION);
+        stream.out.writeInt(MAGIC);
+        stream.out.writeByte(stream.version);
+        stream.out.flush();
+        return stream;
+    }
+    
+    private static class BinaryStream extends MessageStream {
+        final DataInputStream in;
+        final DataOutputStream out;
+        int version = MessageCodec.VERSION;
+        
+        BinaryStream(Socket socket, InputStream input) throws IOException {
+            super(socket);
+            this.in = new DataInputStream(input instanceof BufferedInputStream ? input : new BufferedInputStream(input));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+        
+        @Override
+        public void write(Message message) throws IOException {
+            writeLock.lock();
+            try {
+                MessageCodec.write(out, message, version);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        
+        @Override
+        public Message read() throws IOException {
+            return MessageCodec.read(in);
+        }
+        
+        @Override
+        public WireFormat format() {
+            return WireFormat.BINARY;
+        }
+    }
+    
+    private static class JavaStream extends MessageStream {
+        private final ObjectOutputStream out;
+        private final InputStream input;
+        private ObjectInputStream in;
+        
+        JavaStream(Socket socket, InputStream input) throws IOException {
+            super(socket);
+            this.out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.out.flush();
+            this.input = input;
+        }
+        
+        @Override
+        public void write(Message message) throws IOException {
+            writeLock.lock();
+            try {
+                out.writeObject(message);
+                // reset() evita que el stream conserve referencias a mensajes anteriores
+                out.reset();
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        
+        @Override
+        public Message read() throws IOException {
+            // La cabecera del ObjectInputStream se lee de forma perezosa para no bloquear al conectar
+            if (in == null) {
+                in = new ObjectInputStream(input instanceof BufferedInputStream ? input : new BufferedInputStream(input));
+                in.setObjectInputFilter(MESSAGE_FILTER);
+            }
+            try {
+                return (Message) in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Mensaje inválido: " + e.getMessage(), e);
+            }
+        }
+        
+        @Override
+        public WireFormat format() {
+            return WireFormat.JAVA;
+        }
+    }
+}
\ No newline at end of file
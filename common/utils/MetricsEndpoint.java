@@ -0,0 +1,98 @@
+package common.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Publica las métricas de un proceso para el monitoreo: siempre como MXBean
+ * (banco:type=Metricas,name=componente) y, si se indica un puerto, en
+ * http://localhost:puerto/metrics con el formato de texto de Prometheus. El endpoint HTTP
+ * escucha solo en la interfaz local.
+ */
+public final class MetricsEndpoint implements Closeable {
+    /** Puerto HTTP de las métricas del servidor central (-Dbanco.metricas.puerto); el nodo i usa el siguiente más i */
+    public static final int BASE_PORT = Integer.getInteger("banco.metricas.puerto", -1);
+    
+    private final ObjectName objectName;
+    private final HttpServer http;
+    
+    private MetricsEndpoint(ObjectName objectName, HttpServer http) {
+        this.objectName = objectName;
+        this.http = http;
+    }
+    
+    /**
+     * Publica el registro. Los errores (puerto ocupado, nombre JMX inválido) se informan y
+     * el proceso sigue sin esa vía de publicación.
+     */
+    public static MetricsEndpoint publish(MetricsRegistry registry, String component, int httpPort) {
+        ObjectName objectName = null;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("banco:type=Metricas,name=" + component);
+            // Las pruebas que levantan el sistema varias veces en un mismo proceso reemplazan el anterior
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(registry, objectName);
+        } catch (JMException e) {
+            System.err.println("No se pudieron publicar las métricas de " + component + " por JMX: " + e.getMessage());
+            objectName = null;
+        }
+        
+        HttpServer http = null;
+        if (httpPort > 0) {
+            try {
+                http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+                http.createContext("/metrics", exchange -> {
+                    byte[] body = registry.prometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                // Un hilo propio y de demonio: no impide que el proceso termine
+                http.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, component + "-metricas");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+                http.start();
+                System.out.println("Métricas de " + component + " en http://localhost:" + httpPort + "/metrics");
+            } catch (IOException e) {
+                System.err.println("No se pudo abrir el endpoint de métricas de " + component + " en el puerto "
+                        + httpPort + ": " + e.getMessage());
+                http = null;
+            }
+        }
+        return new MetricsEndpoint(objectName, http);
+    }
+    
+    @Override
+    public void close() {
+        if (http != null) {
+            http.stop(0);
+            ((ExecutorService) http.getExecutor()).shutdown();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // Ya no estaba registrado
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+package common.utils;
+
+import java.util.Map;
+
+/**
+ * Vista JMX de las métricas de un proceso (jconsole, VisualVM o un agente de monitoreo).
+ */
+public interface MetricsMXBean {
+    
+    /**
+     * Valor actual de cada serie, con el mismo nombre que en el endpoint HTTP.
+     */
+    Map<String, Double> getValores();
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+package common.utils;
+
+import common.utils.Message.OperationType;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Métricas de un proceso (nodo o servidor central): contadores, medidores e histogramas de
+ * latencia. Registrar en el camino de una solicitud cuesta un LongAdder o un histograma sin
+ * locks; los valores se calculan recién cuando alguien los consulta (NODE_STATUS, HTTP o JMX).
+ *
+ * Cada serie se identifica con la sintaxis de Prometheus, nombre{etiqueta="valor"}; los
+ * histogramas se publican como resúmenes, con los percentiles 0.5, 0.99 y 0.999 en ms.
+ */
+public final class MetricsRegistry implements MetricsMXBean {
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+    
+    /**
+     * Series que se calculan al consultar, cuando no se conocen de antemano (por ejemplo, las
+     * cuentas con más espera de locks).
+     */
+    @FunctionalInterface
+    public interface Collector {
+        void collect(Map<String, Double> out);
+    }
+    
+    /**
+     * Cantidad, errores y latencia de cada tipo de operación atendida. Las series de los tipos
+     * indicados se crean de entrada, así registrar es indexar un arreglo.
+     */
+    public static final class OperationStats {
+        private final LongAdder[] total;
+        private final LongAdder[] errors;
+        private final LatencyHistogram[] latency;
+        
+        private OperationStats(MetricsRegistry registry, String prefix, OperationType[] types) {
+            int n = OperationType.values().length;
+            total = new LongAdder[n];
+            errors = new LongAdder[n];
+            latency = new LatencyHistogram[n];
+            for (OperationType type : types) {
+                int i = type.ordinal();
+                total[i] = registry.counter(series(prefix + "_operaciones_total", "tipo", type.name()));
+                errors[i] = registry.counter(series(prefix + "_errores_total", "tipo", type.name()));
+                latency[i] = registry.histogram(series(prefix + "_latencia_ms", "tipo", type.name()));
+            }
+        }
+        
+        public void record(OperationType type, long nanos, boolean ok) {
+            int i = type.ordinal();
+            if (total[i] == null) {
+                return; // Tipo no soportado: ya se respondió con error
+            }
+            total[i].increment();
+            if (!ok) {
+                errors[i].increment();
+            }
+            latency[i].recordNanos(nanos);
+        }
+    }
+    
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Collector> collectors = new CopyOnWriteArrayList<>();
+    
+    /**
+     * Nombre de serie con etiquetas: series("x", "nodo", "1") es x{nodo="1"}.
+     */
+    public static String series(String name, String... labels) {
+        if (labels.length == 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            sb.append(i > 0 ? "," : "").append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+    
+    public OperationStats operationStats(String prefix, OperationType... types) {
+        return new OperationStats(this, prefix, types);
+    }
+    
+    public LongAdder counter(String series) {
+        return counters.computeIfAbsent(series, k -> new LongAdder());
+    }
+    
+    public LatencyHistogram histogram(String series) {
+        return histograms.computeIfAbsent(series, k -> new LatencyHistogram());
+    }
+    
+    /**
+     * Publica un histograma que ya existe (reemplaza al que tuviera la serie).
+     */
+    public void register(String series, LatencyHistogram histogram) {
+        histograms.put(series, histogram);
+    }
+    
+    public void gauge(String series, DoubleSupplier value) {
+        gauges.put(series, value);
+    }
+    
+    /**
+     * Solicitudes esperando hilo en el pool: la cola de un pool fijo; con hilos virtuales cada
+     * tarea tiene su hilo, así que no hay cola.
+     */
+    public void queueDepthGauge(String series, ExecutorService pool) {
+        gauge(series, () -> (pool instanceof ThreadPoolExecutor) ? ((ThreadPoolExecutor) pool).getQueue().size() : 0);
+    }
+    
+    public void collector(Collector collector) {
+        collectors.add(collector);
+    }
+    
+    /**
+     * Valor actual de todas las series, ordenadas por nombre.
+     */
+    public Map<String, Double> snapshot() {
+        Map<String, Double> values = new TreeMap<>();
+        counters.forEach((series, counter) -> values.put(series, (double) counter.sum()));
+        gauges.forEach((series, gauge) -> values.put(series, gauge.getAsDouble()));
+        histograms.forEach((series, histogram) -> {
+            for (double quantile : QUANTILES) {
+                values.put(withLabel(series, "quantile", String.valueOf(quantile)), histogram.percentileMillis(quantile));
+            }
+            values.put(withSuffix(series, "_sum"), histogram.sumMillis());
+            values.put(withSuffix(series, "_count"), (double) histogram.count());
+            values.put(withSuffix(series, "_max"), histogram.maxMillis());
+        });
+        for (Collector collector : collectors) {
+            collector.collect(values);
+        }
+        return values;
+    }
+    
+    @Override
+    public Map<String, Double> getValores() {
+        return snapshot();
+    }
+    
+    /**
+     * Las series en el formato de texto de Prometheus.
+     */
+    public String prometheusText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Double> entry : snapshot().entrySet()) {
+            double value = entry.getValue();
+            sb.append(entry.getKey()).append(' ');
+            if (Double.isNaN(value)) {
+                sb.append("NaN");
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                sb.append((long) value);
+            } else {
+                sb.append(value);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Resultado de NODE_STATUS: los nombres de las series (Object[] de String) y sus valores
+     * (double[]) en el mismo orden.
+     */
+    public Object[] toStatus() {
+        Map<String, Double> values = snapshot();
+        Object[] names = new Object[values.size()];
+        double[] numbers = new double[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            names[i] = entry.getKey();
+            numbers[i++] = entry.getValue();
+        }
+        return new Object[] { names, numbers };
+    }
+    
+    private static String withLabel(String series, String label, String value) {
+        String pair = label + "=\"" + value + "\"";
+        int brace = series.indexOf('{');
+        if (brace < 0) {
+            return series + "{" + pair + "}";
+        }
+        return series.substring(0, series.length() - 1) + "," + pair + "}";
+    }
+    
+    private static String withSuffix(String series, String suffix) {
+        int brace = series.indexOf('{');
+        return (brace < 0) ? series + suffix : series.substring(0, brace) + suffix + series.substring(brace);
+    }
+    
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+package common.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generador de ids de transacción únicos entre nodos y reinicios, sin locks ni recorridos.
+ *
+ * Cada id es un long con tres partes: milisegundos desde EPOCH_MS (41 bits) | id del
+ * generador (10 bits) | secuencia dentro del milisegundo (12 bits). Cada proceso usa un id
+ * de generador distinto, así dos procesos nunca producen el mismo id, y cada generador da
+ * hasta 4096 ids por milisegundo con un compare-and-set sobre un único AtomicLong.
+ *
+ * Para no repetir ids si al reiniciar el reloj quedó atrás, el generador reserva por
+ * adelantado un tramo de tiempo y lo guarda en disco; al arrancar continúa después del
+ * último tramo reservado. Escribir la reserva cuesta un fsync cada LEASE_MS; se hace en un
+ * hilo aparte cuando queda la mitad del tramo, así nextId solo espera la escritura si el
+ * tramo llegó a vencer (el disco tardó más que media reserva). El archivo se
+ * reemplaza entero (se escribe uno temporal y se renombra), así una caída a mitad de la
+ * escritura deja la reserva anterior y no un archivo vacío.
+ */
+public final class TransactionIdGenerator {
+    /** 2025-01-01T00:00:00Z */
+    public static final long EPOCH_MS = 1735689600000L;
+    public static final int MAX_GENERATOR_ID = (1 << 10) - 1;
+    
+    private static final int SEQUENCE_BITS = 12;
+    private static final int GENERATOR_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long LEASE_MS = 10_000;
+    // La reserva se renueva en segundo plano cuando le queda este tiempo
+    private static final long RENEW_BEFORE_MS = LEASE_MS / 2;
+    private static final int LEASE_FILE_LENGTH = 8;
+    private static final ExecutorService RENEWER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transaction-id-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final long generatorBits;
+    private final Path leaseFile;
+    // Último valor entregado, sin el id del generador: milisegundo << SEQUENCE_BITS | secuencia
+    private final AtomicLong last = new AtomicLong();
+    private volatile long leasedUntil;
+    private final AtomicBoolean renewing = new AtomicBoolean();
+    
+    /**
+     * leaseFile guarda la reserva de tiempo; si es null no se persiste (el reloj debe ser monótono).
+     */
+    public TransactionIdGenerator(int generatorId, Path leaseFile) throws IOException {
+        if (generatorId < 0 || generatorId > MAX_GENERATOR_ID) {
+            throw new IllegalArgumentException("Id de generador fuera de rango: " + generatorId);
+        }
+        this.generatorBits = (long) generatorId << SEQUENCE_BITS;
+        this.leaseFile = leaseFile;
+        
+        long start = System.currentTimeMillis() - EPOCH_MS;
+        if (leaseFile != null && Files.exists(leaseFile)) {
+            start = Math.max(start, readLease(leaseFile) + 1);
+        }
+        last.set(start << SEQUENCE_BITS);
+        renewLease(start);
+    }
+    
+    public long nextId() {
+        while (true) {
+            long previous = last.get();
+            long now = System.currentTimeMillis() - EPOCH_MS;
+            long next = (now > (previous >>> SEQUENCE_BITS)) ? (now << SEQUENCE_BITS) : previous + 1;
+            // Si se agotan los 4096 ids del milisegundo, la suma pasa al siguiente milisegundo
+            if (last.compareAndSet(previous, next)) {
+                long millis = next >>> SEQUENCE_BITS;
+                if (millis >= leasedUntil - RENEW_BEFORE_MS) {
+                    if (millis >= leasedUntil) {
+                        renewLeaseQuietly(millis); // Venció: este id no se entrega sin la reserva en disco
+                    } else if (renewing.compareAndSet(false, true)) {
+                        RENEWER.execute(this::renewInBackground);
+                    }
+                }
+                return (millis << (GENERATOR_BITS + SEQUENCE_BITS)) | generatorBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+    
+    private void renewInBackground() {
+        try {
+            long now = System.currentTimeMillis() - EPOCH_MS;
+            renewLeaseQuietly(Math.max(now, last.get() >>> SEQUENCE_BITS));
+        } finally {
+            renewing.set(false);
+        }
+    }
+    
+    private synchronized void renewLease(long millis) throws IOException {
+        if (millis < leasedUntil - RENEW_BEFORE_MS) {
+            return; // Otro hilo ya la renovó
+        }
+        long until = millis + LEASE_MS;
+        if (leaseFile != null) {
+            Files.createDirectories(leaseFile.toAbsolutePath().getParent());
+            Path temp = leaseFile.resolveSibling(leaseFile.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(LEASE_FILE_LENGTH).putLong(0, until);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, leaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        leasedUntil = until;
+    }
+    
+    private static long readLease(Path leaseFile) throws IOException {
+        byte[] bytes = Files.readAllBytes(leaseFile);
+        if (bytes.length != LEASE_FILE_LENGTH) {
+            throw new IOException("Reserva de ids de transacción inválida en " + leaseFile + ": "
+                    + bytes.length + " bytes en lugar de " + LEASE_FILE_LENGTH
+                    + "; bórrela solo si el reloj no retrocedió desde la última ejecución");
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+    
+    private void renewLeaseQuietly(long millis) {
+        try {
+            renewLease(millis);
+        } catch (IOException e) {
+            // Sin reserva en disco los ids siguen siendo únicos mientras el reloj no retroceda
+            System.err.println("No se pudo guardar la reserva de ids de transacción: " + e.getMessage());
+            leasedUntil = millis + LEASE_MS;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,420 @@
+package common.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Log binario de solo-anexar con commit en grupo.
+ *
+ * Los registros se numeran con una secuencia creciente y se escriben desde un único hilo:
+ * mientras ese hilo hace FileChannel.force() de un lote, los nuevos registros se acumulan
+ * y el siguiente lote comparte una sola sincronización a disco.
+ *
+ * Formato de cada registro: int longitud | long secuencia | int CRC32 | bytes.
+ * El log se divide en segmentos "wal-&lt;primera secuencia&gt;.log" para poder descartar
+ * lo que ya quedó cubierto por un snapshot.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final int HEADER_LENGTH = 16;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    
+    /**
+     * Cuándo se considera confirmado un registro.
+     */
+    public enum SyncPolicy {
+        /** Quien escribe espera al force() que cubre su registro (agrupado con otros) */
+        PER_TRANSACTION,
+        /** No se espera; el hilo escritor hace force() cada intervalo */
+        INTERVAL,
+        /** No se espera ni se fuerza: el sistema operativo decide cuándo llega a disco */
+        ASYNC;
+        
+        /**
+         * Política configurada con -Dbanco.wal.sync=transaccion|intervalo|async.
+         */
+        public static SyncPolicy fromConfig() {
+            String value = System.getProperty("banco.wal.sync", "transaccion");
+            switch (value.toLowerCase()) {
+                case "intervalo":
+                case "interval":
+                    return INTERVAL;
+                case "async":
+                    return ASYNC;
+                default:
+                    return PER_TRANSACTION;
+            }
+        }
+    }
+    
+    /**
+     * Recibe los registros durante la recuperación.
+     */
+    public interface RecordHandler {
+        void apply(long sequence, ByteBuffer payload) throws IOException;
+    }
+    
+    private final Path directory;
+    private final SyncPolicy policy;
+    private final long syncIntervalMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingAvailable = lock.newCondition();
+    private final Condition progress = lock.newCondition();
+    // Protege el archivo del segmento actual: lo usan el hilo escritor y rotate()
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private List<byte[]> pending = new ArrayList<>();
+    private long pendingFirstSeq;
+    private long nextSeq;
+    private long writtenSeq;
+    private long forcedSeq;
+    private boolean syncRequested;
+    private IOException failure;
+    private boolean closed;
+    private FileChannel channel;
+    private final Thread writer;
+    
+    public WriteAheadLog(Path directory, SyncPolicy policy, long syncIntervalMs) throws IOException {
+        this(directory, policy, syncIntervalMs, 0);
+    }
+    
+    /**
+     * @param minSequence la secuencia nunca arranca por debajo de este valor (por ejemplo, la de un
+     *                    snapshot cuando el log se perdió), para no reutilizar números ya cubiertos
+     */
+    public WriteAheadLog(Path directory, SyncPolicy policy, long syncIntervalMs, long minSequence) throws IOException {
+        this.directory = directory;
+        this.policy = policy;
+        this.syncIntervalMs = syncIntervalMs;
+        Files.createDirectories(directory);
+        
+        long lastSeq = Math.max(scanLastSequence(), minSequence);
+        this.nextSeq = lastSeq + 1;
+        this.writtenSeq = lastSeq;
+        this.forcedSeq = lastSeq;
+        this.pendingFirstSeq = nextSeq;
+        this.channel = openSegment(nextSeq);
+        
+        this.writer = new Thread(this::writeLoop, "wal-writer-" + directory.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+    
+    public SyncPolicy policy() {
+        return policy;
+    }
+    
+    /**
+     * Agrega un registro al log y devuelve su número de secuencia. No espera a que llegue a disco.
+     */
+    public long append(byte[] payload) throws IOException {
+        lock.lock();
+        try {
+            checkUsable();
+            long seq = nextSeq++;
+            pending.add(payload);
+            pendingAvailable.signal();
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Espera lo que exija la política para considerar confirmado el registro indicado:
+     * con PER_TRANSACTION, hasta que un force() lo cubra; con las demás vuelve enseguida.
+     */
+    public void commit(long seq) throws IOException {
+        if (policy != SyncPolicy.PER_TRANSACTION) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (forcedSeq < seq) {
+                checkUsable();
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Espera a que todo lo agregado hasta ahora esté escrito y sincronizado, sea cual sea la política.
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            long target = nextSeq - 1;
+            while (forcedSeq < target) {
+                checkUsable();
+                syncRequested = true;
+                pendingAvailable.signal();
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return nextSeq - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("El log de escritura anticipada falló: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IOException("El log de escritura anticipada está cerrado");
+        }
+    }
+    
+    private void writeLoop() {
+        long lastForce = System.currentTimeMillis();
+        while (true) {
+            List<byte[]> batch;
+            long firstSeq;
+            boolean forceRequested;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed && !(syncRequested && forcedSeq < writtenSeq)) {
+                    if (policy == SyncPolicy.INTERVAL && forcedSeq < writtenSeq) {
+                        // Hay datos escritos sin sincronizar: se espera solo hasta el próximo force()
+                        long remaining = lastForce + syncIntervalMs - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        try {
+                            pendingAvailable.await(remaining, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    } else {
+                        pendingAvailable.awaitUninterruptibly();
+                    }
+                }
+                if (closed && pending.isEmpty() && forcedSeq == writtenSeq) {
+                    return;
+                }
+                batch = pending;
+                firstSeq = pendingFirstSeq;
+                pending = new ArrayList<>();
+                pendingFirstSeq = firstSeq + batch.size();
+                forceRequested = closed || syncRequested;
+                syncRequested = false;
+            } finally {
+                lock.unlock();
+            }
+            
+            try {
+                boolean force;
+                fileLock.lock();
+                try {
+                    if (!batch.isEmpty()) {
+                        writeBatch(batch, firstSeq);
+                    }
+                    long now = System.currentTimeMillis();
+                    force = policy == SyncPolicy.PER_TRANSACTION
+                            || forceRequested
+                            || (policy == SyncPolicy.INTERVAL && now - lastForce >= syncIntervalMs);
+                    if (force) {
+                        channel.force(false);
+                        lastForce = now;
+                    }
+                } finally {
+                    fileLock.unlock();
+                }
+                lock.lock();
+                try {
+                    writtenSeq = Math.max(writtenSeq, firstSeq + batch.size() - 1);
+                    if (force) {
+                        forcedSeq = writtenSeq;
+                    }
+                    progress.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    progress.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                System.err.println("Error escribiendo el log en " + directory + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+    
+    private void writeBatch(List<byte[]> batch, long firstSeq) throws IOException {
+        int size = 0;
+        for (byte[] payload : batch) {
+            size += HEADER_LENGTH + payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        long seq = firstSeq;
+        for (byte[] payload : batch) {
+            crc.reset();
+            crc.update(payload);
+            buffer.putInt(payload.length);
+            buffer.putLong(seq++);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(payload);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    /**
+     * Recorre los registros con secuencia mayor que afterSeq, en orden. Un registro
+     * incompleto o corrupto al final de un segmento (escritura interrumpida) se ignora.
+     */
+    public void replay(long afterSeq, RecordHandler handler) throws IOException {
+        for (Path segment : listSegments()) {
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                long size = in.size();
+                if (size == 0) {
+                    continue;
+                }
+                ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                CRC32 crc = new CRC32();
+                while (data.remaining() >= HEADER_LENGTH) {
+                    int length = data.getInt();
+                    long seq = data.getLong();
+                    int checksum = data.getInt();
+                    if (length < 0 || length > data.remaining()) {
+                        break;
+                    }
+                    ByteBuffer payload = data.slice();
+                    payload.limit(length);
+                    crc.reset();
+                    crc.update(payload.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    data.position(data.position() + length);
+                    if (seq > afterSeq) {
+                        handler.apply(seq, payload);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Empieza un segmento nuevo. Devuelve la última secuencia que quedó en los segmentos anteriores.
+     */
+    public long rotate() throws IOException {
+        lock.lock();
+        try {
+            long boundary = nextSeq - 1;
+            // Todo lo agregado hasta aquí debe quedar en el segmento viejo antes de cambiar de archivo
+            while (writtenSeq < boundary) {
+                checkUsable();
+                pendingAvailable.signal();
+                progress.awaitUninterruptibly();
+            }
+            fileLock.lock();
+            try {
+                channel.force(false);
+                channel.close();
+                channel = openSegment(nextSeq);
+            } finally {
+                fileLock.unlock();
+            }
+            forcedSeq = writtenSeq;
+            progress.signalAll();
+            return boundary;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Borra los segmentos cuyos registros tienen todos secuencia menor o igual a la indicada.
+     */
+    public void deleteSegmentsUpTo(long seq) throws IOException {
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            long nextFirst = firstSequenceOf(segments.get(i + 1));
+            if (nextFirst - 1 <= seq) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+    
+    private long scanLastSequence() throws IOException {
+        long[] last = { 0 };
+        List<Path> segments = listSegments();
+        if (!segments.isEmpty()) {
+            // Un segmento vacío al final todavía fija el punto de partida de la secuencia
+            last[0] = firstSequenceOf(segments.get(segments.size() - 1)) - 1;
+        }
+        replay(0, (seq, payload) -> last[0] = Math.max(last[0], seq));
+        return last[0];
+    }
+    
+    private FileChannel openSegment(long firstSeq) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX));
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+    
+    private static long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fileLock.lock();
+        try {
+            channel.close();
+        } finally {
+            fileLock.unlock();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,251 @@
+package node;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Cuentas de un nodo en arreglos planos indexados por una tabla hash de direccionamiento
+ * abierto con claves int (sin objetos por cuenta ni claves boxeadas).
+ *
+ * Los saldos se guardan en centavos como long para no acumular errores de redondeo.
+ * Cada cuenta ocupa una posición ("slot") fija; las búsquedas devuelven ese slot y el
+ * resto de las operaciones trabajan sobre él.
+ *
+ * Las cuentas solo se agregan durante la carga (un único hilo). Después la tabla no cambia
+ * de forma y los saldos se protegen con locks repartidos por franjas de slots, o bien se
+ * actualizan sin locks con las operaciones atómicas (ver {@link ConcurrencyMode}).
+ */
+final class AccountStore {
+    static final int NOT_FOUND = -1;
+    /** Resultado de {@link #tryDebit} cuando el saldo no alcanza */
+    static final long INSUFFICIENT = Long.MIN_VALUE;
+    
+    private static final VarHandle BALANCES = MethodHandles.arrayElementVarHandle(long[].class);
+    
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int LOCK_STRIPES = 1024;
+    
+    private int[] ids;
+    private int[] clientIds;
+    private long[] balances;
+    private byte[] typeCodes;
+    private final List<String> typeNames = new ArrayList<>();
+    private int size;
+    private final ReadWriteLock[] locks = new ReadWriteLock[LOCK_STRIPES];
+    
+    AccountStore(int expectedAccounts) {
+        allocate(tableSizeFor(expectedAccounts));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+    
+    static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+    
+    static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+    
+    /**
+     * Agrega o reemplaza una cuenta. Solo debe usarse durante la carga, antes de atender solicitudes.
+     */
+    void put(int idCuenta, int idCliente, long saldoCentavos, String tipoCuenta) {
+        if (idCuenta == EMPTY) {
+            throw new IllegalArgumentException("Id de cuenta inválido: " + idCuenta);
+        }
+        int slot = slotOf(idCuenta);
+        if (slot == NOT_FOUND) {
+            if ((size + 1) * 2 > ids.length) {
+                resize(ids.length * 2);
+            }
+            slot = findInsertSlot(idCuenta);
+            ids[slot] = idCuenta;
+            size++;
+        }
+        clientIds[slot] = idCliente;
+        balances[slot] = saldoCentavos;
+        typeCodes[slot] = typeCode(tipoCuenta);
+    }
+    
+    /**
+     * Slot de la cuenta o NOT_FOUND si no está en este nodo.
+     */
+    int slotOf(int idCuenta) {
+        int mask = ids.length - 1;
+        int slot = mix(idCuenta) & mask;
+        while (true) {
+            int id = ids[slot];
+            if (id == idCuenta) {
+                return slot;
+            }
+            if (id == EMPTY) {
+                return NOT_FOUND;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    /**
+     * Cantidad de slots; los que no tienen cuenta devuelven false en {@link #isUsed(int)}.
+     */
+    int capacity() {
+        return ids.length;
+    }
+    
+    boolean isUsed(int slot) {
+        return ids[slot] != EMPTY;
+    }
+    
+    int accountId(int slot) {
+        return ids[slot];
+    }
+    
+    int clientId(int slot) {
+        return clientIds[slot];
+    }
+    
+    String accountType(int slot) {
+        int code = typeCodes[slot];
+        return (code < 0) ? null : typeNames.get(code);
+    }
+    
+    /**
+     * Saldo en centavos. Debe leerse con el lock del slot tomado.
+     */
+    long balance(int slot) {
+        return balances[slot];
+    }
+    
+    /**
+     * Suma (o resta, si es negativo) al saldo. Debe llamarse con el lock de escritura del slot tomado.
+     */
+    void add(int slot, long centavos) {
+        balances[slot] += centavos;
+    }
+    
+    /**
+     * Lectura sin lock del saldo: un long se lee de forma atómica y la lectura volátil ve la
+     * última actualización hecha con {@link #tryDebit} o {@link #credit}.
+     */
+    long balanceVolatile(int slot) {
+        return (long) BALANCES.getVolatile(balances, slot);
+    }
+    
+    /**
+     * Debita sin lock solo si el saldo alcanza. Devuelve el saldo resultante o INSUFFICIENT
+     * sin modificar nada.
+     */
+    long tryDebit(int slot, long centavos) {
+        while (true) {
+            long current = (long) BALANCES.getVolatile(balances, slot);
+            if (current < centavos) {
+                return INSUFFICIENT;
+            }
+            long updated = current - centavos;
+            if (BALANCES.compareAndSet(balances, slot, current, updated)) {
+                return updated;
+            }
+            // Otro hilo cambió el saldo entre la lectura y el CAS: se vuelve a validar
+            Thread.onSpinWait();
+        }
+    }
+    
+    /**
+     * Acredita sin lock. Un crédito no puede dejar el saldo negativo, así que no hace falta validar.
+     */
+    void credit(int slot, long centavos) {
+        BALANCES.getAndAdd(balances, slot, centavos);
+    }
+    
+    /**
+     * Lock que protege el saldo del slot. Varios slots comparten cada lock.
+     */
+    ReadWriteLock lockFor(int slot) {
+        return locks[stripeOf(slot)];
+    }
+    
+    ReadWriteLock lockForStripe(int stripe) {
+        return locks[stripe];
+    }
+    
+    /**
+     * Orden global de los locks: tomarlos por franja creciente evita deadlocks.
+     */
+    int stripeOf(int slot) {
+        return slot & (LOCK_STRIPES - 1);
+    }
+    
+    private byte typeCode(String tipoCuenta) {
+        if (tipoCuenta == null) {
+            return -1;
+        }
+        int code = typeNames.indexOf(tipoCuenta);
+        if (code < 0) {
+            if (typeNames.size() == Byte.MAX_VALUE) {
+                throw new IllegalStateException("Demasiados tipos de cuenta distintos");
+            }
+            typeNames.add(tipoCuenta);
+            code = typeNames.size() - 1;
+        }
+        return (byte) code;
+    }
+    
+    private int findInsertSlot(int idCuenta) {
+        int mask = ids.length - 1;
+        int slot = mix(idCuenta) & mask;
+        while (ids[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private void resize(int newCapacity) {
+        int[] oldIds = ids;
+        int[] oldClientIds = clientIds;
+        long[] oldBalances = balances;
+        byte[] oldTypeCodes = typeCodes;
+        allocate(newCapacity);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != EMPTY) {
+                int slot = findInsertSlot(oldIds[i]);
+                ids[slot] = oldIds[i];
+                clientIds[slot] = oldClientIds[i];
+                balances[slot] = oldBalances[i];
+                typeCodes[slot] = oldTypeCodes[i];
+            }
+        }
+    }
+    
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        Arrays.fill(ids, EMPTY);
+        clientIds = new int[capacity];
+        balances = new long[capacity];
+        typeCodes = new byte[capacity];
+    }
+    
+    private static int tableSizeFor(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+    
+    private static int mix(int key) {
+        // Los ids de cuenta suelen ser consecutivos: se dispersan para no formar racimos largos
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,28 @@
+package node;
+
+/**
+ * Cómo protege un nodo los saldos de las cuentas.
+ *
+ * LOCKS toma el lock de lectura de la franja para consultar y los de escritura de ambas
+ * cuentas (ordenados) para transferir. OPTIMISTIC no bloquea: la consulta es una lectura
+ * volátil del saldo y la transferencia debita con compare-and-set (reintentando si otro
+ * hilo cambió el saldo entre medio) y luego acredita con una suma atómica. En ambos modos
+ * un saldo nunca queda negativo.
+ *
+ * Lo que OPTIMISTIC resigna es la foto entre cuentas: entre el débito y el crédito el monto
+ * no está en ninguna de las dos, y una consulta de varios saldos (CONSULTAR_SALDOS) puede
+ * verlo así. Con LOCKS esa consulta toma los locks de todas sus cuentas y ve cada
+ * transferencia del nodo entera o nada.
+ */
+public enum ConcurrencyMode {
+    LOCKS,
+    OPTIMISTIC;
+    
+    /**
+     * Modo configurado con -Dbanco.node.concurrency=locks|optimistic (locks por defecto).
+     */
+    public static ConcurrencyMode fromConfig() {
+        String value = System.getProperty("banco.node.concurrency", "locks");
+        return "optimistic".equalsIgnoreCase(value) ? OPTIMISTIC : LOCKS;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,74 @@
+package node;
+
+import common.utils.LatencyHistogram;
+import common.utils.MetricsRegistry;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Espera para tomar los locks de cuenta en las transferencias. Todas las esperas van al
+ * histograma; las que superan CONTENDED_NANOS (hubo contención de verdad) también se suman a
+ * las cuentas involucradas, y se publican las TOP_ACCOUNTS con más espera acumulada. Con
+ * millones de cuentas no se publica una serie por cuenta, y se siguen como mucho
+ * MAX_ACCOUNTS: el resto se acumula en cuenta="otras".
+ */
+final class LockContention {
+    private static final long CONTENDED_NANOS = 100_000;
+    private static final int MAX_ACCOUNTS = 10_000;
+    private static final int TOP_ACCOUNTS = 10;
+    
+    private final LatencyHistogram waits;
+    private final Map<Integer, LongAdder> waitByAccount = new ConcurrentHashMap<>();
+    private final LongAdder otherAccounts = new LongAdder();
+    
+    LockContention(LatencyHistogram waits) {
+        this.waits = waits;
+    }
+    
+    void record(long waitNanos) {
+        waits.recordNanos(waitNanos);
+    }
+    
+    void record(long waitNanos, int idOrigen, int idDestino) {
+        waits.recordNanos(waitNanos);
+        if (waitNanos < CONTENDED_NANOS) {
+            return;
+        }
+        addTo(idOrigen, waitNanos);
+        if (idDestino != idOrigen) {
+            addTo(idDestino, waitNanos);
+        }
+    }
+    
+    /**
+     * Espera acumulada, en ms, de las cuentas más disputadas.
+     */
+    void collect(String name, Map<String, Double> out) {
+        PriorityQueue<Map.Entry<Integer, Long>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<Integer, LongAdder> entry : waitByAccount.entrySet()) {
+            top.add(Map.entry(entry.getKey(), entry.getValue().sum()));
+            if (top.size() > TOP_ACCOUNTS) {
+                top.poll();
+            }
+        }
+        for (Map.Entry<Integer, Long> entry : top) {
+            out.put(MetricsRegistry.series(name, "cuenta", String.valueOf(entry.getKey())), entry.getValue() / 1e6);
+        }
+        out.put(MetricsRegistry.series(name, "cuenta", "otras"), otherAccounts.sum() / 1e6);
+    }
+    
+    private void addTo(int idCuenta, long waitNanos) {
+        LongAdder total = waitByAccount.get(idCuenta);
+        if (total == null) {
+            if (waitByAccount.size() >= MAX_ACCOUNTS) {
+                otherAccounts.add(waitNanos);
+                return;
+            }
+            total = waitByAccount.computeIfAbsent(idCuenta, k -> new LongAdder());
+        }
+        total.add(waitNanos);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+package node;
+
+import common.models.Transaccion;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice de movimientos por cuenta, ordenado por fecha (y por id de transacción para
+ * desempatar), para listar el historial de una cuenta por páginas sin recorrer todas las
+ * transacciones del nodo. Cada transferencia aparece en la cuenta de origen y en la de destino.
+ *
+ * Las listas por cuenta son skip lists concurrentes: las transferencias se agregan sin
+ * bloquear a quien está leyendo una página.
+ */
+final class MovementIndex {
+    
+    /**
+     * Posición de un movimiento en el índice; también es el cursor de paginación.
+     */
+    static final class Key implements Comparable<Key> {
+        final long fechaMs;
+        final long idTransaccion;
+        
+        Key(long fechaMs, long idTransaccion) {
+            this.fechaMs = fechaMs;
+            this.idTransaccion = idTransaccion;
+        }
+        
+        @Override
+        public int compareTo(Key other) {
+            int byDate = Long.compare(fechaMs, other.fechaMs);
+            return (byDate != 0) ? byDate : Long.compare(idTransaccion, other.idTransaccion);
+        }
+    }
+    
+    /**
+     * Una página del historial y el cursor para pedir la siguiente (null si no hay más).
+     */
+    static final class Page {
+        final List<Transaccion> movimientos;
+        final Key siguiente;
+        
+        Page(List<Transaccion> movimientos, Key siguiente) {
+            this.movimientos = movimientos;
+            this.siguiente = siguiente;
+        }
+    }
+    
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<Key, Transaccion>> porCuenta =
+            new ConcurrentHashMap<>();
+    
+    void add(Transaccion transaccion) {
+        Key key = keyOf(transaccion);
+        accountIndex(transaccion.getIdOrigen()).put(key, transaccion);
+        if (transaccion.getIdDestino() != transaccion.getIdOrigen()) {
+            accountIndex(transaccion.getIdDestino()).put(key, transaccion);
+        }
+    }
+    
+    void remove(Transaccion transaccion) {
+        Key key = keyOf(transaccion);
+        for (int idCuenta : new int[] { transaccion.getIdOrigen(), transaccion.getIdDestino() }) {
+            ConcurrentSkipListMap<Key, Transaccion> movimientos = porCuenta.get(idCuenta);
+            if (movimientos != null) {
+                movimientos.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * Hasta limite movimientos de la cuenta con fecha en [desdeMs, hastaMs), del más reciente
+     * al más antiguo. Con cursor, la página empieza en el movimiento siguiente al cursor.
+     */
+    Page page(int idCuenta, long desdeMs, long hastaMs, Key cursor, int limite) {
+        ConcurrentSkipListMap<Key, Transaccion> movimientos = porCuenta.get(idCuenta);
+        if (movimientos == null || desdeMs >= hastaMs) {
+            return new Page(Collections.emptyList(), null);
+        }
+        Key hasta = new Key(hastaMs, Long.MIN_VALUE);
+        if (cursor != null && cursor.compareTo(hasta) < 0) {
+            hasta = cursor;
+        }
+        Key desde = new Key(desdeMs, Long.MIN_VALUE);
+        if (desde.compareTo(hasta) >= 0) {
+            return new Page(Collections.emptyList(), null);
+        }
+        NavigableMap<Key, Transaccion> rango = movimientos.subMap(desde, true, hasta, false).descendingMap();
+        
+        List<Transaccion> pagina = new ArrayList<>(Math.min(limite, 64));
+        Key ultima = null;
+        for (Transaccion transaccion : rango.values()) {
+            if (pagina.size() == limite) {
+                return new Page(pagina, ultima);
+            }
+            pagina.add(transaccion);
+            ultima = keyOf(transaccion);
+        }
+        return new Page(pagina, null);
+    }
+    
+    static long fechaMs(Transaccion transaccion) {
+        LocalDateTime fechaHora = transaccion.getFechaHora();
+        return (fechaHora != null) ? fechaHora.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+    }
+    
+    private static Key keyOf(Transaccion transaccion) {
+        return new Key(fechaMs(transaccion), transaccion.getIdTransaccion());
+    }
+    
+    private ConcurrentSkipListMap<Key, Transaccion> accountIndex(int idCuenta) {
+        return porCuenta.computeIfAbsent(idCuenta, k -> new ConcurrentSkipListMap<>());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,327 @@
+package node;
+
+import common.models.Cliente;
+import common.models.Transaccion;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Snapshot binario del estado de un nodo (clientes, cuentas y transacciones).
+ *
+ * Formato (big-endian):
+ *   cabecera: int MAGIC | int FORMAT | long secuencia del log | long creado | int clientes
+ *             | int cuentas | int transacciones | int bytes de cadenas
+ *   cadenas:  short longitud + UTF-8, sin repetir (los tipos de cuenta y estados se comparten)
+ *   clientes: registros de 16 bytes (id, y desplazamientos de nombre, email y teléfono)
+ *   cuentas:  registros de 20 bytes (id, id cliente, saldo en centavos, desplazamiento del tipo)
+ *   transacciones: registros de 36 bytes (id long, origen, destino, monto, fecha en ms UTC, desplazamiento del estado)
+ *   reservas: int cantidad + registros de 32 bytes (id long, origen, destino, monto en centavos, fecha en ms)
+ *
+ * Las reservas son transferencias entre particiones preparadas y aún sin decisión; su débito
+ * ya está incluido en el saldo de la cuenta origen.
+ * Al arrancar el archivo se mapea en memoria por ventanas (un solo mapeo no puede pasar de
+ * 2 GB) y se recorre sin parsear texto. Se escribe
+ * en un archivo temporal que luego reemplaza al anterior, así nunca queda un snapshot a medias.
+ */
+final class SnapshotStore {
+    static final String FILE_NAME = "snapshot.bin";
+    
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int FORMAT = 1;
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int CLIENT_RECORD = 16;
+    private static final int ACCOUNT_RECORD = 20;
+    private static final int TRANSACTION_RECORD = 36;
+    private static final int RESERVATION_RECORD = 32;
+    private static final int NO_STRING = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    
+    /**
+     * Copia del estado tomada en un instante consistente con la secuencia del log.
+     */
+    static final class State {
+        final long walSequence;
+        final List<Cliente> clientes;
+        final int[] accountIds;
+        final int[] clientIds;
+        final long[] balances;
+        final String[] accountTypes;
+        final List<Transaccion> transacciones;
+        final List<TransferRecord> reservas;
+        
+        State(long walSequence, List<Cliente> clientes, int accountCount, List<Transaccion> transacciones,
+                List<TransferRecord> reservas) {
+            this.walSequence = walSequence;
+            this.clientes = clientes;
+            this.accountIds = new int[accountCount];
+            this.clientIds = new int[accountCount];
+            this.balances = new long[accountCount];
+            this.accountTypes = new String[accountCount];
+            this.transacciones = transacciones;
+            this.reservas = reservas;
+        }
+    }
+    
+    private SnapshotStore() {
+    }
+    
+    /**
+     * Copia el estado. Debe llamarse sin transferencias en curso: los saldos se copian
+     * porque cambian; clientes y transacciones no se modifican una vez creados.
+     */
+    static State capture(long walSequence, Collection<Cliente> clientes, AccountStore accounts,
+            Collection<Transaccion> transacciones, Collection<TransferRecord> reservas) {
+        State state = new State(walSequence, new ArrayList<>(clientes), accounts.size(), new ArrayList<>(transacciones),
+                new ArrayList<>(reservas));
+        int i = 0;
+        for (int slot = 0; slot < accounts.capacity(); slot++) {
+            if (accounts.isUsed(slot)) {
+                state.accountIds[i] = accounts.accountId(slot);
+                state.clientIds[i] = accounts.clientId(slot);
+                state.balances[i] = accounts.balance(slot);
+                state.accountTypes[i] = accounts.accountType(slot);
+                i++;
+            }
+        }
+        return state;
+    }
+    
+    static void write(Path directory, State state) throws IOException {
+        // Primero la tabla de cadenas, para conocer los desplazamientos de cada registro
+        Map<String, Integer> offsets = new HashMap<>();
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream strings = new DataOutputStream(stringBytes);
+        for (Cliente cliente : state.clientes) {
+            intern(cliente.getNombre(), offsets, strings);
+            intern(cliente.getEmail(), offsets, strings);
+            intern(cliente.getTelefono(), offsets, strings);
+        }
+        for (String tipoCuenta : state.accountTypes) {
+            intern(tipoCuenta, offsets, strings);
+        }
+        for (Transaccion transaccion : state.transacciones) {
+            intern(transaccion.getEstado(), offsets, strings);
+        }
+        strings.flush();
+        
+        Path temp = directory.resolve(FILE_NAME + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(state.walSequence);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(state.clientes.size());
+            out.writeInt(state.accountIds.length);
+            out.writeInt(state.transacciones.size());
+            out.writeInt(stringBytes.size());
+            stringBytes.writeTo(out);
+            
+            for (Cliente cliente : state.clientes) {
+                out.writeInt(cliente.getIdCliente());
+                out.writeInt(offsetOf(cliente.getNombre(), offsets));
+                out.writeInt(offsetOf(cliente.getEmail(), offsets));
+                out.writeInt(offsetOf(cliente.getTelefono(), offsets));
+            }
+            for (int i = 0; i < state.accountIds.length; i++) {
+                out.writeInt(state.accountIds[i]);
+                out.writeInt(state.clientIds[i]);
+                out.writeLong(state.balances[i]);
+                out.writeInt(offsetOf(state.accountTypes[i], offsets));
+            }
+            for (Transaccion transaccion : state.transacciones) {
+                out.writeLong(transaccion.getIdTransaccion());
+                out.writeInt(transaccion.getIdOrigen());
+                out.writeInt(transaccion.getIdDestino());
+                out.writeDouble(transaccion.getMonto());
+                LocalDateTime fechaHora = transaccion.getFechaHora();
+                out.writeLong(fechaHora != null ? fechaHora.toInstant(ZoneOffset.UTC).toEpochMilli() : NO_DATE);
+                out.writeInt(offsetOf(transaccion.getEstado(), offsets));
+            }
+            out.writeInt(state.reservas.size());
+            for (TransferRecord reserva : state.reservas) {
+                out.writeLong(reserva.idTransaccion);
+                out.writeInt(reserva.idOrigen);
+                out.writeInt(reserva.idDestino);
+                out.writeLong(reserva.montoCentavos);
+                out.writeLong(reserva.timestamp);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Carga el snapshot en los mapas dados. Devuelve la secuencia del log que cubre,
+     * o -1 si no hay snapshot en el directorio.
+     */
+    static long load(Path directory, Map<Integer, Cliente> clientes, AccountStore accounts,
+            Map<Long, Transaccion> transacciones, Map<Long, TransferRecord> reservas) throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH) {
+                throw new IOException("Snapshot inválido: " + path);
+            }
+            MappedInput data = new MappedInput(channel, 0);
+            if (data.getInt() != MAGIC) {
+                throw new IOException("Snapshot inválido: " + path);
+            }
+            int format = data.getInt();
+            if (format != FORMAT) {
+                throw new IOException("Formato de snapshot no soportado: " + format);
+            }
+            long walSequence = data.getLong();
+            data.getLong(); // momento de creación, solo informativo
+            int clientCount = data.getInt();
+            int accountCount = data.getInt();
+            int transactionCount = data.getInt();
+            int stringLength = data.getInt();
+            
+            long expected = (long) HEADER_LENGTH + stringLength + (long) clientCount * CLIENT_RECORD
+                    + (long) accountCount * ACCOUNT_RECORD + (long) transactionCount * TRANSACTION_RECORD + 4;
+            int reservationCount = (expected <= channel.size()) ? data.getIntAt(expected - 4) : 0;
+            expected += (long) reservationCount * RESERVATION_RECORD;
+            if (expected != channel.size()) {
+                throw new IOException("Snapshot truncado: " + path);
+            }
+            
+            ByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, stringLength);
+            data.skip(stringLength);
+            // Los tipos de cuenta y estados se repiten mucho: esos se decodifican una sola vez
+            Map<Integer, String> decoded = new HashMap<>();
+            
+            for (int i = 0; i < clientCount; i++) {
+                int idCliente = data.getInt();
+                String nombre = readString(strings, data.getInt(), null);
+                String email = readString(strings, data.getInt(), null);
+                String telefono = readString(strings, data.getInt(), null);
+                clientes.put(idCliente, new Cliente(idCliente, nombre, email, telefono));
+            }
+            for (int i = 0; i < accountCount; i++) {
+                int idCuenta = data.getInt();
+                int idCliente = data.getInt();
+                long saldoCentavos = data.getLong();
+                String tipoCuenta = readString(strings, data.getInt(), decoded);
+                accounts.put(idCuenta, idCliente, saldoCentavos, tipoCuenta);
+            }
+            for (int i = 0; i < transactionCount; i++) {
+                long idTransaccion = data.getLong();
+                int idOrigen = data.getInt();
+                int idDestino = data.getInt();
+                double monto = data.getDouble();
+                long millis = data.getLong();
+                String estado = readString(strings, data.getInt(), decoded);
+                LocalDateTime fechaHora = (millis == NO_DATE) ? null
+                        : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+                transacciones.put(idTransaccion,
+                        new Transaccion(idTransaccion, idOrigen, idDestino, monto, fechaHora, estado));
+            }
+            data.getInt(); // cantidad de reservas, ya leída
+            for (int i = 0; i < reservationCount; i++) {
+                long idTransaccion = data.getLong();
+                TransferRecord reserva = new TransferRecord(TransferRecord.KIND_PREPARE, idTransaccion, data.getInt(),
+                        data.getInt(), data.getLong(), data.getLong(), TransferRecord.DEBIT_APPLIED);
+                reservas.put(reserva.idTransaccion, reserva);
+            }
+            return walSequence;
+        }
+    }
+    
+    /**
+     * Lectura secuencial de un archivo mapeado de a ventanas de WINDOW bytes; al llegar al
+     * final de una se mapea la siguiente desde la posición actual, así un valor nunca queda
+     * partido entre dos.
+     */
+    private static final class MappedInput {
+        private static final long WINDOW = 1L << 28;
+        
+        private final FileChannel channel;
+        private MappedByteBuffer window;
+        private long windowStart;
+        
+        MappedInput(FileChannel channel, long position) throws IOException {
+            this.channel = channel;
+            map(position);
+        }
+        
+        private void map(long position) throws IOException {
+            windowStart = position;
+            long length = Math.min(WINDOW, channel.size() - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+        
+        private ByteBuffer need(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                map(windowStart + window.position());
+            }
+            return window;
+        }
+        
+        void skip(long bytes) throws IOException {
+            map(windowStart + window.position() + bytes);
+        }
+        
+        int getInt() throws IOException {
+            return need(4).getInt();
+        }
+        
+        long getLong() throws IOException {
+            return need(8).getLong();
+        }
+        
+        double getDouble() throws IOException {
+            return need(8).getDouble();
+        }
+        
+        /**
+         * Lee un int en una posición absoluta, sin mover la lectura secuencial.
+         */
+        int getIntAt(long position) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, 4).getInt();
+        }
+    }
+    
+    private static void intern(String value, Map<String, Integer> offsets, DataOutputStream strings) throws IOException {
+        if (value != null && !offsets.containsKey(value)) {
+            offsets.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            strings.writeShort(bytes.length);
+            strings.write(bytes);
+        }
+    }
+    
+    private static int offsetOf(String value, Map<String, Integer> offsets) {
+        return (value == null) ? NO_STRING : offsets.get(value);
+    }
+    
+    private static String readString(ByteBuffer strings, int offset, Map<Integer, String> decoded) {
+        if (offset == NO_STRING) {
+            return null;
+        }
+        String value = (decoded != null) ? decoded.get(offset) : null;
+        if (value == null) {
+            int length = strings.getShort(offset) & 0xFFFF;
+            byte[] bytes = new byte[length];
+            strings.get(offset + 2, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            if (decoded != null) {
+                decoded.put(offset, value);
+            }
+        }
+        return value;
+    }
+}
\ No newline at end of file
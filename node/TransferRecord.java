@@ -0,0 +1,92 @@
+package node;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Registro del log de escritura anticipada de un nodo: una transferencia ya validada,
+ * con las partes que se aplicaron en este nodo (débito, crédito o ambas).
+ *
+ * Las transferencias entre particiones dejan varios registros: KIND_PREPARE reserva el monto
+ * (lo debita de la cuenta origen), y luego KIND_COMMIT aplica el resto o KIND_ABORT devuelve
+ * la reserva.
+ *
+ * Formato (big-endian, 35 bytes): byte FORMAT | byte tipo | long id de transacción | int origen
+ * | int destino | long monto en centavos | long fecha en ms | byte flags.
+ */
+final class TransferRecord {
+    static final byte FORMAT = 1;
+    static final byte KIND_TRANSFER = 1;
+    static final byte KIND_PREPARE = 2;
+    static final byte KIND_COMMIT = 3;
+    static final byte KIND_ABORT = 4;
+    
+    static final byte DEBIT_APPLIED = 1;
+    static final byte CREDIT_APPLIED = 1 << 1;
+    
+    private static final int LENGTH = 1 + 1 + 8 + 4 + 4 + 8 + 8 + 1;
+    
+    final byte kind;
+    final long idTransaccion;
+    final int idOrigen;
+    final int idDestino;
+    final long montoCentavos;
+    final long timestamp;
+    final byte flags;
+    
+    TransferRecord(long idTransaccion, int idOrigen, int idDestino, long montoCentavos, long timestamp, byte flags) {
+        this(KIND_TRANSFER, idTransaccion, idOrigen, idDestino, montoCentavos, timestamp, flags);
+    }
+    
+    TransferRecord(byte kind, long idTransaccion, int idOrigen, int idDestino, long montoCentavos, long timestamp,
+            byte flags) {
+        this.kind = kind;
+        this.idTransaccion = idTransaccion;
+        this.idOrigen = idOrigen;
+        this.idDestino = idDestino;
+        this.montoCentavos = montoCentavos;
+        this.timestamp = timestamp;
+        this.flags = flags;
+    }
+    
+    boolean debitApplied() {
+        return (flags & DEBIT_APPLIED) != 0;
+    }
+    
+    boolean creditApplied() {
+        return (flags & CREDIT_APPLIED) != 0;
+    }
+    
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+        buffer.put(FORMAT);
+        buffer.put(kind);
+        buffer.putLong(idTransaccion);
+        buffer.putInt(idOrigen);
+        buffer.putInt(idDestino);
+        buffer.putLong(montoCentavos);
+        buffer.putLong(timestamp);
+        buffer.put(flags);
+        return buffer.array();
+    }
+    
+    /**
+     * Devuelve null si el registro no es de un formato o tipo que este nodo conozca.
+     */
+    static TransferRecord decode(ByteBuffer buffer) {
+        if (buffer.remaining() < LENGTH) {
+            return null;
+        }
+        byte format = buffer.get();
+        byte kind = buffer.get();
+        if (format != FORMAT || kind < KIND_TRANSFER || kind > KIND_ABORT) {
+            return null;
+        }
+        long idTransaccion = buffer.getLong();
+        int idOrigen = buffer.getInt();
+        int idDestino = buffer.getInt();
+        long montoCentavos = buffer.getLong();
+        long timestamp = buffer.getLong();
+        byte flags = buffer.get();
+        return new TransferRecord(kind, idTransaccion, idOrigen, idDestino, montoCentavos, timestamp, flags);
+    }
+}
\ No newline at end of file
@@ -1,75 +1,243 @@
 package node;
 
 import common.models.Cliente;
-import common.models.Cuenta;
 import common.models.Transaccion;
+import common.utils.ConcurrencyLimiter;
+import common.utils.ExecutionMode;
+import common.utils.Logger;
 import common.utils.Message;
 import common.utils.Message.OperationType;
+import common.utils.MessageStream;
+import common.utils.MetricsEndpoint;
+import common.utils.MetricsRegistry;
+import common.utils.TransactionIdGenerator;
+import common.utils.WriteAheadLog;
+import common.utils.WriteAheadLog.SyncPolicy;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class WorkerNode {
+    private static final int MAX_PIPELINED_PER_CONNECTION = 256;
+    private static final long WAL_SYNC_INTERVAL_MS = Long.getLong("banco.wal.intervalMs", 5);
+    private static final long CHECKPOINT_INTERVAL_SEC = Long.getLong("banco.snapshot.intervalSec", 60);
+    // Control de admisión del nodo (-Dbanco.admision=false lo desactiva): límite adaptativo de
+    // solicitudes nuevas en curso y cola acotada del pool de tareas
+    private static final boolean ADMISSION_ENABLED = Boolean.parseBoolean(System.getProperty("banco.admision", "true"));
+    private static final int ADMISSION_INITIAL_LIMIT = Integer.getInteger("banco.admision.nodo.limite", 64);
+    private static final int ADMISSION_MIN_LIMIT = Integer.getInteger("banco.admision.nodo.limiteMin", 16);
+    private static final int ADMISSION_MAX_LIMIT = Integer.getInteger("banco.admision.nodo.limiteMax", 1024);
+    private static final int TASK_QUEUE = Integer.getInteger("banco.admision.nodo.cola", 4096);
+    
     private final int nodeId;
     private final int port;
     private final String dataFilesPath;
     private final Map<Integer, Cliente> clientes = new ConcurrentHashMap<>();
-    private final Map<Integer, Cuenta> cuentas = new ConcurrentHashMap<>();
-    private final Map<Integer, Transaccion> transacciones = new ConcurrentHashMap<>();
-    private final Map<Integer, ReadWriteLock> accountLocks = new ConcurrentHashMap<>();
+    private final AccountStore accounts = new AccountStore(1024);
+    private final Map<Long, Transaccion> transacciones = new ConcurrentHashMap<>();
+    // Las mismas transacciones, por cuenta y ordenadas por fecha, para el historial paginado
+    private final MovementIndex movimientos = new MovementIndex();
+    // Transferencias entre particiones preparadas y todavía sin decisión del coordinador
+    private final Map<Long, TransferRecord> reservas = new ConcurrentHashMap<>();
+    // Transferencias que se están preparando o resolviendo; evita aplicar dos veces un PREPARAR,
+    // CONFIRMAR o ABORTAR repetido
+    private final Set<Long> resolviendo = ConcurrentHashMap.newKeySet();
+    // Posición en el flujo de replicación del servidor; los lotes que llegan adelantados esperan
+    // en replicacionPendiente hasta que se apliquen los anteriores
+    private long replicacionEpoca = -1;
+    private volatile long replicacionAplicada;
+    private final NavigableMap<Long, Object[]> replicacionPendiente = new TreeMap<>();
+    // Las transferencias toman el de lectura; el checkpoint, el de escritura para copiar un estado consistente
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // Un checkpoint a la vez: si dos se cruzaran, el más viejo podría escribirse después y el
+    // log ya estaría borrado hasta la secuencia del más nuevo
+    private final Lock snapshotLock = new ReentrantLock();
+    private final ScheduledExecutorService checkpointScheduler;
     private final ExecutorService taskPool;
+    private final ExecutorService connectionPool;
+    private volatile boolean running = true;
+    private volatile ServerSocket serverSocket;
+    private WriteAheadLog transferLog;
+    // Ids para las transferencias que llegan sin uno asignado por el servidor
+    private TransactionIdGenerator transactionIds;
+    private volatile long lastSnapshotSequence = -1;
+    private final ConcurrencyMode concurrencyMode;
+    // Contadores y latencias del nodo: se consultan con NODE_STATUS, por JMX o por HTTP
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final MetricsRegistry.OperationStats operationStats;
+    private final LockContention lockContention;
+    private MetricsEndpoint metricsEndpoint;
+    // null con el control de admisión desactivado
+    private final ConcurrencyLimiter admissionLimiter;
+    private final LongAdder queueOverflows = new LongAdder();
     
     public WorkerNode(int nodeId, int port, String dataFilesPath) {
+        this(nodeId, port, dataFilesPath, ExecutionMode.fromConfig());
+    }
+    
+    public WorkerNode(int nodeId, int port, String dataFilesPath, ExecutionMode executionMode) {
+        this(nodeId, port, dataFilesPath, executionMode, ConcurrencyMode.fromConfig());
+    }
+    
+    public WorkerNode(int nodeId, int port, String dataFilesPath, ExecutionMode executionMode,
+            ConcurrencyMode concurrencyMode) {
         this.nodeId = nodeId;
         this.port = port;
         this.dataFilesPath = dataFilesPath;
-        // Usar tantos hilos como cores tiene la máquina
-        this.taskPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.concurrencyMode = concurrencyMode;
+        // Con hilos de plataforma, tantos hilos como cores tiene la máquina;
+        // en modo virtual, un hilo virtual por solicitud
+        this.taskPool = executionMode.newTaskPool("node" + nodeId + "-task",
+                Runtime.getRuntime().availableProcessors(), TASK_QUEUE);
+        this.admissionLimiter = ADMISSION_ENABLED
+                ? new ConcurrencyLimiter(ADMISSION_INITIAL_LIMIT, ADMISSION_MIN_LIMIT, ADMISSION_MAX_LIMIT) : null;
+        // Un hilo liviano por conexión persistente: solo lee y escribe, el trabajo va al taskPool
+        this.connectionPool = executionMode.newConnectionPool("node" + nodeId + "-conn");
+        this.checkpointScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "node" + nodeId + "-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        this.operationStats = metrics.operationStats("banco_nodo", OperationType.CONSULTAR_SALDO,
+                OperationType.TRANSFERIR_FONDOS, OperationType.TRANSFERIR_LOTE, OperationType.CONSULTAR_SALDOS,
+                OperationType.PREPARAR, OperationType.CONFIRMAR, OperationType.ABORTAR,
+                OperationType.RESERVAS_PENDIENTES, OperationType.REPLICAR, OperationType.CONSULTAR_MOVIMIENTOS,
+                OperationType.NODE_STATUS);
+        this.lockContention = new LockContention(metrics.histogram("banco_nodo_espera_lock_ms"));
+        metrics.collector(out -> lockContention.collect("banco_nodo_espera_lock_cuenta_ms_total", out));
+        metrics.queueDepthGauge("banco_nodo_tareas_en_cola", taskPool);
+        metrics.gauge("banco_nodo_cuentas", accounts::size);
+        metrics.gauge("banco_nodo_transacciones", transacciones::size);
+        metrics.gauge("banco_nodo_reservas_pendientes", reservas::size);
+        metrics.gauge("banco_nodo_replicacion_aplicada", () -> replicacionAplicada);
+        metrics.gauge("banco_nodo_log_secuencia", () -> (transferLog != null) ? transferLog.lastSequence() : 0);
+        metrics.gauge("banco_nodo_snapshot_secuencia", () -> lastSnapshotSequence);
+        metrics.gauge("banco_nodo_log_descartados_total", Logger::dropped);
+        if (admissionLimiter != null) {
+            metrics.gauge("banco_nodo_admision_limite", admissionLimiter::limit);
+            metrics.gauge("banco_nodo_admision_en_curso", admissionLimiter::inFlight);
+            metrics.gauge(MetricsRegistry.series("banco_nodo_rechazadas_total", "motivo", "concurrencia"),
+                    admissionLimiter::rejected);
+        }
+        metrics.gauge(MetricsRegistry.series("banco_nodo_rechazadas_total", "motivo", "cola"), queueOverflows::sum);
     }
     
     public void start() {
-        // Cargar datos desde archivos
-        loadData();
+        try {
+            // Cargar datos desde el snapshot (o desde los archivos de texto la primera vez)
+            long snapshotSequence = loadData();
+            transacciones.values().forEach(movimientos::add);
+            // El servidor usa el generador 0; cada nodo, el siguiente a su id
+            transactionIds = new TransactionIdGenerator(nodeId + 1, Paths.get(dataFilesPath, "transaction-ids.lease"));
+            
+            // Reaplicar sobre esos datos las transferencias confirmadas que quedaron en el log
+            openTransferLog(snapshotSequence);
+            
+            // Tras importar los archivos de texto se guarda el snapshot para no volver a parsearlos
+            if (snapshotSequence < 0) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            System.err.println("Nodo " + nodeId + " - No se pudieron cargar los datos: " + e.getMessage());
+            return;
+        }
+        checkpointScheduler.scheduleWithFixedDelay(this::scheduledCheckpoint,
+                CHECKPOINT_INTERVAL_SEC, CHECKPOINT_INTERVAL_SEC, TimeUnit.SECONDS);
+        metricsEndpoint = MetricsEndpoint.publish(metrics, "nodo" + nodeId,
+                (MetricsEndpoint.BASE_PORT > 0) ? MetricsEndpoint.BASE_PORT + 1 + nodeId : -1);
         
         try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Nodo trabajador " + nodeId + " iniciado en puerto " + port);
+            this.serverSocket = serverSocket;
+            System.out.println("Nodo trabajador " + nodeId + " iniciado en puerto " + port
+                    + " (concurrencia " + concurrencyMode + ")");
             
-            while (true) {
+            while (running) {
                 Socket clientSocket = serverSocket.accept();
-                taskPool.submit(() -> handleRequest(clientSocket));
+                connectionPool.submit(() -> handleConnection(clientSocket));
             }
         } catch (IOException e) {
-            System.err.println("Error en nodo trabajador " + nodeId + ": " + e.getMessage());
+            if (running) {
+                System.err.println("Error en nodo trabajador " + nodeId + ": " + e.getMessage());
+            }
         }
     }
     
-    private void loadData() {
-        // Cargar clientes
-        loadClientes();
-        
-        // Cargar cuentas
-        loadCuentas();
-        
-        // Cargar transacciones
-        loadTransacciones();
+    /**
+     * Detiene el nodo (usado por las pruebas de carga que levantan el sistema en proceso).
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // Ya estaba cerrado
+        }
+        connectionPool.shutdownNow();
+        taskPool.shutdownNow();
+        checkpointScheduler.shutdownNow();
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+        }
+        try {
+            if (transferLog != null) {
+                checkpoint();
+                transferLog.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error cerrando el log del nodo " + nodeId + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Devuelve la secuencia del log que cubre el snapshot cargado, o -1 si se importaron
+     * los archivos de texto.
+     */
+    private long loadData() throws IOException {
+        long startTime = System.currentTimeMillis();
+        long snapshotSequence = SnapshotStore.load(Paths.get(dataFilesPath), clientes, accounts, transacciones,
+                reservas);
+        lastSnapshotSequence = snapshotSequence;
         
-        // Inicializar locks para cada cuenta
-        for (Integer idCuenta : cuentas.keySet()) {
-            accountLocks.put(idCuenta, new ReentrantReadWriteLock());
+        // Los archivos de texto solo se usan como formato de importación cuando no hay snapshot
+        if (snapshotSequence < 0) {
+            // Cargar clientes
+            loadClientes();
+            
+            // Cargar cuentas
+            loadCuentas();
+            
+            // Cargar transacciones
+            loadTransacciones();
         }
         
-        System.out.println("Nodo " + nodeId + " - Datos cargados: " + 
+        System.out.println("Nodo " + nodeId + " - Datos cargados " +
+                (snapshotSequence < 0 ? "desde archivos de texto" : "desde snapshot") + ": " +
                 clientes.size() + " clientes, " +
-                cuentas.size() + " cuentas, " +
-                transacciones.size() + " transacciones");
+                accounts.size() + " cuentas, " +
+                transacciones.size() + " transacciones en " +
+                (System.currentTimeMillis() - startTime) + " ms");
+        return snapshotSequence;
     }
     
     private void loadClientes() {
@@ -109,14 +277,14 @@ public class WorkerNode {
                     double saldo = Double.parseDouble(parts[2].trim());
                     String tipoCuenta = parts[3].trim();
                     
-                    cuentas.put(idCuenta, new Cuenta(idCuenta, idCliente, saldo, tipoCuenta));
+                    accounts.put(idCuenta, idCliente, AccountStore.toCents(saldo), tipoCuenta);
                 }
             }
         } catch (IOException e) {
             System.err.println("Error cargando cuentas: " + e.getMessage());
             // Crear algunas cuentas de ejemplo si no se puede cargar el archivo
-            cuentas.put(101, new Cuenta(101, 1, 1500.00, "Ahorros"));
-            cuentas.put(102, new Cuenta(102, 2, 3200.50, "Corriente"));
+            accounts.put(101, 1, AccountStore.toCents(1500.00), "Ahorros");
+            accounts.put(102, 2, AccountStore.toCents(3200.50), "Corriente");
         }
     }
     
@@ -128,7 +296,7 @@ public class WorkerNode {
                 
                 String[] parts = line.split("\\|");
                 if (parts.length >= 6) {
-                    int idTransaccion = Integer.parseInt(parts[0].trim());
+                    long idTransaccion = Long.parseLong(parts[0].trim());
                     int idOrigen = Integer.parseInt(parts[1].trim());
                     int idDestino = Integer.parseInt(parts[2].trim());
                     double monto = Double.parseDouble(parts[3].trim());
@@ -142,45 +310,202 @@ public class WorkerNode {
         } catch (IOException e) {
             System.err.println("Error cargando transacciones: " + e.getMessage());
             // Crear algunas transacciones de ejemplo si no se puede cargar el archivo
-            transacciones.put(1, new Transaccion(1, 101, 102, 500.00, 
+            transacciones.put(1L, new Transaccion(1, 101, 102, 500.00, 
                     LocalDateTime.parse("2025-05-02T14:30:00"), "Confirmada"));
-            transacciones.put(2, new Transaccion(2, 102, 101, 200.00, 
+            transacciones.put(2L, new Transaccion(2, 102, 101, 200.00, 
                     LocalDateTime.parse("2025-05-02T15:00:00"), "Pendiente"));
         }
     }
     
-    private void saveData() {
-        // En una implementación real, aquí se guardarían los datos actualizados en archivos
-        // o en una base de datos persistente
-        System.out.println("Nodo " + nodeId + " - Guardando datos...");
+    private void openTransferLog(long snapshotSequence) throws IOException {
+        long afterSequence = Math.max(snapshotSequence, 0);
+        transferLog = new WriteAheadLog(Paths.get(dataFilesPath, "wal"), SyncPolicy.fromConfig(),
+                WAL_SYNC_INTERVAL_MS, afterSequence);
+        
+        int[] replayed = { 0 };
+        transferLog.replay(afterSequence, (seq, payload) -> {
+            TransferRecord record = TransferRecord.decode(payload);
+            if (record == null) {
+                throw new IOException("Registro del log de transferencias inválido en la secuencia " + seq);
+            }
+            applyRecord(record);
+            replayed[0]++;
+        });
+        
+        System.out.println("Nodo " + nodeId + " - Log de transferencias (" + transferLog.policy() + "): "
+                + replayed[0] + " transferencias reaplicadas");
     }
     
-    private void handleRequest(Socket socket) {
-        try (ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
+    /**
+     * Guarda un snapshot consistente con el log y borra los segmentos del log que ya cubre.
+     * No toma el monitor del nodo: la replicación (handleReplicar) sigue aplicando lotes
+     * mientras el snapshot se escribe a disco.
+     */
+    private void checkpoint() throws IOException {
+        snapshotLock.lock();
+        try {
+            SnapshotStore.State state;
+            checkpointLock.writeLock().lock();
+            try {
+                if (transferLog.lastSequence() == lastSnapshotSequence) {
+                    return; // Nada nuevo desde el último snapshot
+                }
+                long sequence = transferLog.rotate();
+                state = SnapshotStore.capture(sequence, clientes.values(), accounts, transacciones.values(),
+                        reservas.values());
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
             
-            Message request = (Message) in.readObject();
-            Message response = null;
+            // La escritura a disco se hace sin bloquear las transferencias
+            long startTime = System.currentTimeMillis();
+            SnapshotStore.write(Paths.get(dataFilesPath), state);
+            lastSnapshotSequence = state.walSequence;
+            transferLog.deleteSegmentsUpTo(state.walSequence);
+            System.out.println("Nodo " + nodeId + " - Snapshot guardado hasta la secuencia " + state.walSequence
+                    + " en " + (System.currentTimeMillis() - startTime) + " ms");
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+    
+    private void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Nodo " + nodeId + " - Error guardando snapshot: " + e.getMessage());
+        }
+    }
+    
+    private void applyRecord(TransferRecord record) {
+        int slotOrigen = accounts.slotOf(record.idOrigen);
+        int slotDestino = accounts.slotOf(record.idDestino);
+        if (record.kind == TransferRecord.KIND_ABORT) {
+            // Se devuelve el monto reservado a la cuenta origen
+            if (slotOrigen != AccountStore.NOT_FOUND) {
+                addToBalance(slotOrigen, record.montoCentavos);
+            }
+            reservas.remove(record.idTransaccion);
+            return;
+        }
+        if (record.debitApplied() && slotOrigen != AccountStore.NOT_FOUND) {
+            addToBalance(slotOrigen, -record.montoCentavos);
+        }
+        if (record.creditApplied() && slotDestino != AccountStore.NOT_FOUND) {
+            addToBalance(slotDestino, record.montoCentavos);
+        }
+        if (record.kind == TransferRecord.KIND_PREPARE) {
+            reservas.put(record.idTransaccion, record);
+        } else {
+            reservas.remove(record.idTransaccion);
+            recordTransaction(record);
+        }
+    }
+    
+    /**
+     * Con locks debe llamarse con el lock de escritura del slot tomado; en modo optimista
+     * la suma es atómica.
+     */
+    private void addToBalance(int slot, long centavos) {
+        if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+            accounts.credit(slot, centavos);
+        } else {
+            accounts.add(slot, centavos);
+        }
+    }
+    
+    private void recordTransaction(TransferRecord record) {
+        LocalDateTime fechaHora = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp), ZoneId.systemDefault());
+        Transaccion transaccion = new Transaccion(record.idTransaccion, record.idOrigen, record.idDestino,
+                AccountStore.toAmount(record.montoCentavos), fechaHora, "Confirmada");
+        Transaccion anterior = transacciones.put(record.idTransaccion, transaccion);
+        if (anterior != null) {
+            movimientos.remove(anterior);
+        }
+        movimientos.add(transaccion);
+    }
+    
+    /**
+     * Atiende una conexión persistente (normalmente del pool del servidor central):
+     * lee solicitudes una tras otra hasta que el otro extremo cierra la conexión.
+     * Las solicitudes se procesan en paralelo y cada respuesta sale con su requestId.
+     */
+    private void handleConnection(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            // El formato (binario o serialización Java) lo elige quien abre la conexión
+            MessageStream stream = MessageStream.accept(socket);
+            Semaphore inFlight = new Semaphore(MAX_PIPELINED_PER_CONNECTION);
             
-            switch (request.getType()) {
-                case CONSULTAR_SALDO:
-                    response = handleConsultarSaldo(request);
-                    break;
-                case TRANSFERIR_FONDOS:
-                    response = handleTransferirFondos(request);
-                    break;
-                case HEARTBEAT:
-                    response = new Message(OperationType.RESPONSE);
-                    break;
-                default:
-                    response = new Message(OperationType.RESPONSE);
-                    response.setError("Operación no soportada por el nodo");
+            while (true) {
+                Message request;
+                try {
+                    request = stream.read();
+                } catch (EOFException e) {
+                    break; // El otro extremo cerró la conexión
+                }
+                
+                if (request.getType() == OperationType.HEARTBEAT) {
+                    // Los heartbeats se responden en el mismo hilo, sin pasar por el pool de tareas
+                    Message response = new Message(OperationType.RESPONSE);
+                    response.setRequestId(request.getRequestId());
+                    stream.write(response);
+                    continue;
+                }
+                
+                // Solo se rechaza trabajo nuevo; las decisiones de dos fases y la replicación se
+                // atienden siempre, o quedarían reservas colgadas y réplicas atrasadas
+                boolean limited = admissionLimiter != null && isSheddable(request.getType());
+                if (limited && !admissionLimiter.tryAcquire()) {
+                    stream.write(busy(request, "nodo " + nodeId + " sobrecargado"));
+                    continue;
+                }
+                long admittedAt = System.nanoTime();
+                Runnable task = () -> {
+                    Message response;
+                    try {
+                        response = handleRequest(request);
+                    } catch (RuntimeException e) {
+                        // Un error inesperado no deja al que llamó esperando hasta su timeout
+                        Logger.error("Nodo " + nodeId, "Error procesando " + request.getType(), e);
+                        response = new Message(OperationType.RESPONSE);
+                        response.setError("Error interno del nodo " + nodeId + ": " + e);
+                    } finally {
+                        if (limited) {
+                            admissionLimiter.release(System.nanoTime() - admittedAt, false);
+                        }
+                    }
+                    try {
+                        response.setRequestId(request.getRequestId());
+                        stream.write(response);
+                    } catch (IOException e) {
+                        Logger.error("Nodo " + nodeId, "Error enviando respuesta", e);
+                    } finally {
+                        inFlight.release();
+                    }
+                };
+                inFlight.acquire();
+                try {
+                    taskPool.submit(task);
+                } catch (RejectedExecutionException e) {
+                    queueOverflows.increment();
+                    if (limited) {
+                        inFlight.release();
+                        admissionLimiter.release(0, true);
+                        stream.write(busy(request, "cola de tareas del nodo " + nodeId + " llena"));
+                    } else {
+                        // Cola llena: se atiende en este hilo, que deja de leer mientras tanto
+                        task.run();
+                    }
+                }
             }
             
-            out.writeObject(response);
+            inFlight.acquire(MAX_PIPELINED_PER_CONNECTION);
             
         } catch (Exception e) {
-            System.err.println("Error procesando solicitud en nodo " + nodeId + ": " + e.getMessage());
+            if (running) {
+                System.err.println("Error procesando solicitud en nodo " + nodeId + ": " + e.getMessage());
+            }
         } finally {
             try {
                 socket.close();
@@ -190,6 +515,78 @@ public class WorkerNode {
         }
     }
     
+    private static boolean isSheddable(OperationType type) {
+        switch (type) {
+            case CONSULTAR_SALDO:
+            case TRANSFERIR_FONDOS:
+            case TRANSFERIR_LOTE:
+            case CONSULTAR_SALDOS:
+            case CONSULTAR_MOVIMIENTOS:
+            case PREPARAR:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private static Message busy(Message request, String reason) {
+        Message response = new Message(OperationType.RESPONSE);
+        response.setRequestId(request.getRequestId());
+        response.setBusy(reason);
+        return response;
+    }
+    
+    private Message handleRequest(Message request) {
+        long start = System.nanoTime();
+        Message response;
+        
+        switch (request.getType()) {
+            case CONSULTAR_SALDO:
+                response = handleConsultarSaldo(request);
+                break;
+            case TRANSFERIR_FONDOS:
+                response = handleTransferirFondos(request);
+                break;
+            case TRANSFERIR_LOTE:
+                response = handleTransferirLote(request);
+                break;
+            case CONSULTAR_SALDOS:
+                response = handleConsultarSaldos(request);
+                break;
+            case PREPARAR:
+                response = handlePreparar(request);
+                break;
+            case CONFIRMAR:
+                response = handleConfirmar(request);
+                break;
+            case ABORTAR:
+                response = handleAbortar(request);
+                break;
+            case RESERVAS_PENDIENTES:
+                response = handleReservasPendientes(request);
+                break;
+            case REPLICAR:
+                response = handleReplicar(request);
+                break;
+            case CONSULTAR_MOVIMIENTOS:
+                response = handleConsultarMovimientos(request);
+                break;
+            case NODE_STATUS:
+                response = new Message(OperationType.RESPONSE);
+                response.setResult(metrics.toStatus());
+                break;
+            case HEARTBEAT:
+                response = new Message(OperationType.RESPONSE);
+                break;
+            default:
+                response = new Message(OperationType.RESPONSE);
+                response.setError("Operación no soportada por el nodo");
+        }
+        
+        operationStats.record(request.getType(), System.nanoTime() - start, response.isOk());
+        return response;
+    }
+    
     private Message handleConsultarSaldo(Message request) {
         Message response = new Message(OperationType.RESPONSE);
         
@@ -197,18 +594,25 @@ public class WorkerNode {
             int idCuenta = (Integer) request.getParams()[0];
             
             // Verificar si tenemos la cuenta
-            Cuenta cuenta = cuentas.get(idCuenta);
-            if (cuenta == null) {
+            int slot = accounts.slotOf(idCuenta);
+            if (slot == AccountStore.NOT_FOUND) {
                 response.setError("Cuenta no encontrada en este nodo");
                 return response;
             }
             
+            if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+                response.setResult(AccountStore.toAmount(accounts.balanceVolatile(slot)));
+                return response;
+            }
+            
             // Adquirir lock de lectura
-            ReadWriteLock lock = accountLocks.get(idCuenta);
+            ReadWriteLock lock = accounts.lockFor(slot);
+            long lockStart = System.nanoTime();
             lock.readLock().lock();
+            lockContention.record(System.nanoTime() - lockStart, idCuenta, idCuenta);
             try {
                 // Devolver el saldo actual
-                response.setResult(cuenta.getSaldo());
+                response.setResult(AccountStore.toAmount(accounts.balance(slot)));
             } finally {
                 lock.readLock().unlock();
             }
@@ -220,6 +624,111 @@ public class WorkerNode {
         return response;
     }
     
+    /**
+     * Saldos de varias cuentas. El resultado trae, en el mismo orden, un double[] con los
+     * saldos (NaN si la cuenta no está) y un Object[] con el error de cada una (null si no hubo).
+     *
+     * Con LOCKS se toman a la vez los locks de lectura de todas las franjas (en orden, como las
+     * transferencias), así que los saldos de este nodo forman una foto: una transferencia entre
+     * dos de las cuentas se ve entera o no se ve. Con OPTIMISTIC cada saldo se lee por separado
+     * y la transferencia debita y acredita en dos pasos, así que el monto de una transferencia
+     * en curso puede no aparecer en ninguna de las dos cuentas: ese modo renuncia a la foto
+     * entre cuentas a cambio de no bloquear.
+     */
+    private Message handleConsultarSaldos(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        
+        try {
+            int[] idsCuenta = (int[]) request.getParams()[0];
+            double[] saldos = new double[idsCuenta.length];
+            Object[] errores = new Object[idsCuenta.length];
+            int[] slots = new int[idsCuenta.length];
+            for (int i = 0; i < idsCuenta.length; i++) {
+                slots[i] = accounts.slotOf(idsCuenta[i]);
+            }
+            
+            int[] stripes = (concurrencyMode == ConcurrencyMode.LOCKS) ? stripesFor(slots, new int[0]) : new int[0];
+            for (int stripe : stripes) {
+                accounts.lockForStripe(stripe).readLock().lock();
+            }
+            try {
+                for (int i = 0; i < idsCuenta.length; i++) {
+                    if (slots[i] == AccountStore.NOT_FOUND) {
+                        saldos[i] = Double.NaN;
+                        errores[i] = "Cuenta no encontrada en este nodo";
+                    } else if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+                        saldos[i] = AccountStore.toAmount(accounts.balanceVolatile(slots[i]));
+                    } else {
+                        saldos[i] = AccountStore.toAmount(accounts.balance(slots[i]));
+                    }
+                }
+            } finally {
+                for (int i = stripes.length - 1; i >= 0; i--) {
+                    accounts.lockForStripe(stripes[i]).readLock().unlock();
+                }
+            }
+            response.setResult(new Object[] { saldos, errores });
+            
+        } catch (Exception e) {
+            response.setError("Error consultando saldos: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Una página del historial de la cuenta, tomada del índice por cuenta; el tamaño de la
+     * página lo acota el servidor central.
+     */
+    private Message handleConsultarMovimientos(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        
+        try {
+            Object[] params = request.getParams();
+            int idCuenta = (Integer) params[0];
+            long desdeMs = (params[1] != null) ? ((Number) params[1]).longValue() : Long.MIN_VALUE;
+            long hastaMs = (params[2] != null) ? ((Number) params[2]).longValue() : Long.MAX_VALUE;
+            long[] cursor = (long[]) params[3];
+            int limite = (Integer) params[4];
+            if (accounts.slotOf(idCuenta) == AccountStore.NOT_FOUND) {
+                response.setError("Cuenta no encontrada en este nodo");
+                return response;
+            }
+            
+            MovementIndex.Page page = movimientos.page(idCuenta, desdeMs, hastaMs,
+                    (cursor != null) ? new MovementIndex.Key(cursor[0], cursor[1]) : null, limite);
+            int n = page.movimientos.size();
+            long[] ids = new long[n];
+            int[] origenes = new int[n];
+            int[] destinos = new int[n];
+            double[] montos = new double[n];
+            long[] fechas = new long[n];
+            for (int i = 0; i < n; i++) {
+                Transaccion transaccion = page.movimientos.get(i);
+                ids[i] = transaccion.getIdTransaccion();
+                origenes[i] = transaccion.getIdOrigen();
+                destinos[i] = transaccion.getIdDestino();
+                montos[i] = transaccion.getMonto();
+                fechas[i] = MovementIndex.fechaMs(transaccion);
+            }
+            long[] siguiente = (page.siguiente != null)
+                    ? new long[] { page.siguiente.fechaMs, page.siguiente.idTransaccion } : null;
+            response.setResult(new Object[] { ids, origenes, destinos, montos, fechas, siguiente });
+            
+        } catch (Exception e) {
+            response.setError("Error consultando movimientos: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Transferencia entre dos cuentas de este nodo. Si trae el id asignado por el servidor y esa
+     * transferencia ya está aplicada (el pool o el servidor la reenvían cuando se pierde la
+     * respuesta), no se vuelve a aplicar: se responde como la primera vez, con el saldo de la
+     * cuenta origen. La fecha también la pone el servidor, así todas las réplicas registran la
+     * misma; sin ella se usa la hora del nodo.
+     */
     private Message handleTransferirFondos(Message request) {
         Message response = new Message(OperationType.RESPONSE);
         
@@ -227,90 +736,641 @@ public class WorkerNode {
             Object[] params = request.getParams();
             int idOrigen = (Integer) params[0];
             int idDestino = (Integer) params[1];
-            double monto = (Double) params[2];
-            int idTransaccion = (params.length > 3) ? (Integer) params[3] : generateTransactionId();
+            long montoCentavos = AccountStore.toCents((Double) params[2]);
+            boolean idAsignado = params.length > 3;
+            long idTransaccion = idAsignado ? ((Number) params[3]).longValue() : transactionIds.nextId();
+            long fechaMs = (params.length > 4) ? ((Number) params[4]).longValue() : System.currentTimeMillis();
             
             // Verificar si tenemos las cuentas
-            Cuenta cuentaOrigen = cuentas.get(idOrigen);
-            Cuenta cuentaDestino = cuentas.get(idDestino);
+            int slotOrigen = accounts.slotOf(idOrigen);
+            int slotDestino = accounts.slotOf(idDestino);
             
-            if (cuentaOrigen == null) {
+            if (slotOrigen == AccountStore.NOT_FOUND) {
                 response.setError("Cuenta origen no encontrada en este nodo");
                 return response;
             }
             
-            if (cuentaDestino == null) {
-                // Si no tenemos la cuenta destino localmente, simplemente debitamos
-                // y confiamos en que el servidor central sincronizará con el nodo que tiene la cuenta destino
-                System.out.println("Cuenta destino no encontrada en este nodo. Se procesará solo el débito.");
+            if (slotDestino == AccountStore.NOT_FOUND) {
+                // Las transferencias entre particiones llegan como PREPARAR/CONFIRMAR: si la cuenta
+                // destino no está aquí, no existe, y debitar solo el origen perdería el dinero
+                response.setError("Cuenta destino no encontrada en este nodo");
+                return response;
             }
             
-            // Adquirir locks para ambas cuentas (prevenir deadlocks ordenando los IDs)
-            List<Integer> accountIds = new ArrayList<>();
-            accountIds.add(idOrigen);
-            if (cuentaDestino != null) {
-                accountIds.add(idDestino);
+            if (idAsignado && !resolviendo.add(idTransaccion)) {
+                response.setError("La transferencia " + idTransaccion + " ya se está aplicando");
+                return response;
+            }
+            try {
+                if (idAsignado && alreadyConfirmed(idTransaccion, idOrigen, idDestino, montoCentavos)) {
+                    response.setResult(AccountStore.toAmount(accounts.balanceVolatile(slotOrigen)));
+                    return response;
+                }
+                if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+                    return transferOptimistic(response, idTransaccion, idOrigen, idDestino,
+                            slotOrigen, slotDestino, montoCentavos, fechaMs);
+                }
+                return transferWithLocks(response, idTransaccion, idOrigen, idDestino,
+                        slotOrigen, slotDestino, montoCentavos, fechaMs);
+            } finally {
+                if (idAsignado) {
+                    resolviendo.remove(idTransaccion);
+                }
             }
-            Collections.sort(accountIds);
             
-            List<ReadWriteLock> locks = new ArrayList<>();
-            for (Integer id : accountIds) {
-                locks.add(accountLocks.get(id));
+        } catch (Exception e) {
+            response.setError("Error procesando transferencia: " + e.getMessage());
+            Logger.error("Nodo " + nodeId, "Error procesando transferencia", e);
+        }
+        
+        return response;
+    }
+    
+    private Message transferWithLocks(Message response, long idTransaccion, int idOrigen, int idDestino,
+            int slotOrigen, int slotDestino, long montoCentavos, long fechaMs) throws IOException {
+        // Adquirir locks para ambas cuentas (prevenir deadlocks ordenando por franja de lock;
+        // si las dos cuentas comparten franja basta con un lock)
+        List<ReadWriteLock> locks = new ArrayList<>(2);
+        int stripeOrigen = accounts.stripeOf(slotOrigen);
+        if (accounts.stripeOf(slotDestino) == stripeOrigen) {
+            locks.add(accounts.lockFor(slotOrigen));
+        } else if (stripeOrigen < accounts.stripeOf(slotDestino)) {
+            locks.add(accounts.lockFor(slotOrigen));
+            locks.add(accounts.lockFor(slotDestino));
+        } else {
+            locks.add(accounts.lockFor(slotDestino));
+            locks.add(accounts.lockFor(slotOrigen));
+        }
+        
+        long logSequence;
+        
+        // Adquirir locks de escritura en orden (después del de checkpoint, siempre en ese orden)
+        long lockStart = System.nanoTime();
+        checkpointLock.readLock().lock();
+        for (ReadWriteLock lock : locks) {
+            lock.writeLock().lock();
+        }
+        lockContention.record(System.nanoTime() - lockStart, idOrigen, idDestino);
+        
+        try {
+            // Validar saldo suficiente
+            if (accounts.balance(slotOrigen) < montoCentavos) {
+                response.setError("Saldo insuficiente");
+                return response;
             }
             
-            // Adquirir locks de escritura en orden
-            for (ReadWriteLock lock : locks) {
-                lock.writeLock().lock();
+            // Registrar en el log, realizar la transferencia y registrar la transacción
+            logSequence = logAndApply(idTransaccion, idOrigen, idDestino, slotDestino, montoCentavos, fechaMs);
+            
+            // Devolver el nuevo saldo de la cuenta origen
+            response.setResult(AccountStore.toAmount(accounts.balance(slotOrigen)));
+            
+        } finally {
+            // Liberar locks en orden inverso
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).writeLock().unlock();
+            }
+            checkpointLock.readLock().unlock();
+        }
+        
+        // La confirmación a disco se espera fuera de los locks: así las transferencias
+        // concurrentes se juntan en un mismo force() en lugar de sincronizar una por una
+        try {
+            transferLog.commit(logSequence);
+        } catch (IOException e) {
+            response.setError("La transferencia no pudo confirmarse en disco: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    /**
+     * Transferencia sin locks de cuenta: el débito se valida y aplica con un CAS sobre el
+     * saldo de origen, y el crédito es una suma atómica. Como nunca se retiene más de una
+     * cuenta a la vez no puede haber deadlocks.
+     */
+    private Message transferOptimistic(Message response, long idTransaccion, int idOrigen, int idDestino,
+            int slotOrigen, int slotDestino, long montoCentavos, long fechaMs) throws IOException {
+        long logSequence;
+        checkpointLock.readLock().lock();
+        try {
+            long[] saldoOrigen = new long[1];
+            logSequence = logAndApplyOptimistic(idTransaccion, idOrigen, idDestino,
+                    slotOrigen, slotDestino, montoCentavos, fechaMs, saldoOrigen);
+            if (logSequence < 0) {
+                response.setError("Saldo insuficiente");
+                return response;
+            }
+            response.setResult(AccountStore.toAmount(saldoOrigen[0]));
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        
+        try {
+            transferLog.commit(logSequence);
+        } catch (IOException e) {
+            response.setError("La transferencia no pudo confirmarse en disco: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    /**
+     * Registra en el log y aplica una transferencia ya validada. Debe llamarse con los locks
+     * de ambas cuentas y el de checkpoint tomados: así el orden del log es el mismo en que se
+     * aplican los cambios a cada cuenta. Si el registro falla, no se modifica nada.
+     */
+    private long logAndApply(long idTransaccion, int idOrigen, int idDestino, int slotDestino,
+            long montoCentavos, long fechaMs) throws IOException {
+        TransferRecord record = newTransferRecord(idTransaccion, idOrigen, idDestino, slotDestino, montoCentavos,
+                fechaMs);
+        long logSequence = transferLog.append(record.encode());
+        applyRecord(record);
+        return logSequence;
+    }
+    
+    /**
+     * Igual que {@link #logAndApply}, pero sin locks de cuenta (debe tenerse el de checkpoint).
+     * Devuelve la secuencia del log, o -1 si el saldo no alcanza; el saldo resultante de la
+     * cuenta origen queda en saldoOrigen[0].
+     */
+    private long logAndApplyOptimistic(long idTransaccion, int idOrigen, int idDestino, int slotOrigen,
+            int slotDestino, long montoCentavos, long fechaMs, long[] saldoOrigen) throws IOException {
+        long saldo = accounts.tryDebit(slotOrigen, montoCentavos);
+        if (saldo == AccountStore.INSUFFICIENT) {
+            return -1;
+        }
+        
+        TransferRecord record = newTransferRecord(idTransaccion, idOrigen, idDestino, slotDestino, montoCentavos,
+                fechaMs);
+        long logSequence;
+        try {
+            logSequence = transferLog.append(record.encode());
+        } catch (IOException e) {
+            // Sin registro en el log la transferencia no ocurrió: se devuelve el débito
+            accounts.credit(slotOrigen, montoCentavos);
+            throw e;
+        }
+        
+        // El log se reaplica sumando y restando, así que el orden entre cuentas no importa
+        if (slotDestino != AccountStore.NOT_FOUND) {
+            accounts.credit(slotDestino, montoCentavos);
+        }
+        recordTransaction(record);
+        saldoOrigen[0] = saldo;
+        return logSequence;
+    }
+    
+    private TransferRecord newTransferRecord(long idTransaccion, int idOrigen, int idDestino, int slotDestino,
+            long montoCentavos, long fechaMs) {
+        byte flags = TransferRecord.DEBIT_APPLIED;
+        if (slotDestino != AccountStore.NOT_FOUND) {
+            flags |= TransferRecord.CREDIT_APPLIED;
+        }
+        return new TransferRecord(idTransaccion, idOrigen, idDestino, montoCentavos, fechaMs, flags);
+    }
+    
+    /**
+     * Primera fase de una transferencia entre particiones. El nodo de la cuenta origen reserva
+     * el monto (lo debita y lo deja registrado en el log) y devuelve el saldo resultante; el de
+     * la cuenta destino solo verifica que la cuenta exista. Ninguno transfiere nada todavía:
+     * eso lo hace CONFIRMAR, o ABORTAR devuelve la reserva.
+     */
+    private Message handlePreparar(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        
+        try {
+            Object[] params = request.getParams();
+            long idTransaccion = ((Number) params[0]).longValue();
+            int idOrigen = (Integer) params[1];
+            int idDestino = (Integer) params[2];
+            long montoCentavos = AccountStore.toCents((Double) params[3]);
+            boolean reservarDebito = (Boolean) params[4];
+            
+            if (!reservarDebito) {
+                if (accounts.slotOf(idDestino) == AccountStore.NOT_FOUND) {
+                    response.setError("Cuenta destino no encontrada en este nodo");
+                }
+                return response;
             }
             
+            int slotOrigen = accounts.slotOf(idOrigen);
+            if (slotOrigen == AccountStore.NOT_FOUND) {
+                response.setError("Cuenta origen no encontrada en este nodo");
+                return response;
+            }
+            // El pool y la recuperación del coordinador pueden reenviar PREPARAR: el id se reclama
+            // antes de mirar si ya hay reserva, para que dos iguales no debiten dos veces
+            if (!resolviendo.add(idTransaccion)) {
+                response.setError("La transferencia " + idTransaccion + " ya se está preparando");
+                return response;
+            }
             try {
-                // Validar saldo suficiente
-                if (cuentaOrigen.getSaldo() < monto) {
-                    response.setError("Saldo insuficiente");
+                if (reservas.containsKey(idTransaccion)) {
+                    // PREPARAR repetido: la reserva ya está hecha
+                    response.setResult(AccountStore.toAmount(accounts.balanceVolatile(slotOrigen)));
                     return response;
                 }
                 
-                // Realizar la transferencia
-                cuentaOrigen.setSaldo(cuentaOrigen.getSaldo() - monto);
-                
-                if (cuentaDestino != null) {
-                    cuentaDestino.setSaldo(cuentaDestino.getSaldo() + monto);
+                TransferRecord record = new TransferRecord(TransferRecord.KIND_PREPARE, idTransaccion, idOrigen,
+                        idDestino, montoCentavos, System.currentTimeMillis(), TransferRecord.DEBIT_APPLIED);
+                long[] saldoOrigen = new long[1];
+                long logSequence = logAndApplyPart(record, true, saldoOrigen);
+                if (logSequence < 0) {
+                    response.setError("Saldo insuficiente");
+                    return response;
                 }
-                
-                // Registrar la transacción
-                Transaccion transaccion = new Transaccion(
-                    idTransaccion, idOrigen, idDestino, monto, LocalDateTime.now(), "Confirmada");
-                transacciones.put(idTransaccion, transaccion);
-                
-                // Guardar cambios en disco (en un sistema real)
-                saveData();
-                
-                // Devolver el nuevo saldo de la cuenta origen
-                response.setResult(cuentaOrigen.getSaldo());
-                
+                // La reserva tiene que estar en disco antes de votar que sí
+                transferLog.commit(logSequence);
+                response.setResult(AccountStore.toAmount(saldoOrigen[0]));
             } finally {
-                // Liberar locks en orden inverso
-                for (int i = locks.size() - 1; i >= 0; i--) {
-                    locks.get(i).writeLock().unlock();
+                resolviendo.remove(idTransaccion);
+            }
+            
+        } catch (Exception e) {
+            response.setError("Error preparando transferencia: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Segunda fase: aplica la transferencia decidida por el coordinador. Si este nodo tiene la
+     * reserva, el débito ya estaba hecho y solo falta el crédito; si no (nodo de la cuenta
+     * destino, o una réplica), se aplican las partes de las cuentas que tenga. Un CONFIRMAR
+     * repetido (el coordinador lo reenvía al recuperarse) no vuelve a aplicar nada. La fecha
+     * registrada es la que decidió el coordinador, la misma en todos los nodos.
+     */
+    private Message handleConfirmar(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        
+        try {
+            Object[] params = request.getParams();
+            long idTransaccion = ((Number) params[0]).longValue();
+            int idOrigen = (Integer) params[1];
+            int idDestino = (Integer) params[2];
+            long montoCentavos = AccountStore.toCents((Double) params[3]);
+            long fechaMs = (params.length > 4) ? ((Number) params[4]).longValue() : System.currentTimeMillis();
+            
+            if (!resolviendo.add(idTransaccion)) {
+                return response; // Otro CONFIRMAR igual se está aplicando
+            }
+            try {
+                byte flags;
+                if (reservas.containsKey(idTransaccion)) {
+                    flags = TransferRecord.CREDIT_APPLIED;
+                } else if (alreadyConfirmed(idTransaccion, idOrigen, idDestino, montoCentavos)) {
+                    return response;
+                } else {
+                    flags = TransferRecord.DEBIT_APPLIED | TransferRecord.CREDIT_APPLIED;
                 }
+                TransferRecord record = new TransferRecord(TransferRecord.KIND_COMMIT, idTransaccion, idOrigen,
+                        idDestino, montoCentavos, fechaMs, flags);
+                transferLog.commit(logAndApplyPart(record, false, new long[1]));
+            } finally {
+                resolviendo.remove(idTransaccion);
             }
             
         } catch (Exception e) {
-            response.setError("Error procesando transferencia: " + e.getMessage());
-            e.printStackTrace();
+            response.setError("Error confirmando transferencia: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Devuelve el monto reservado. Sin reserva no hay nada que deshacer (si el nodo nunca
+     * preparó la transferencia, o ya se abortó).
+     */
+    private Message handleAbortar(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        
+        try {
+            long idTransaccion = ((Number) request.getParams()[0]).longValue();
+            if (!resolviendo.add(idTransaccion)) {
+                return response;
+            }
+            try {
+                TransferRecord reserva = reservas.get(idTransaccion);
+                if (reserva != null) {
+                    TransferRecord record = new TransferRecord(TransferRecord.KIND_ABORT, idTransaccion,
+                            reserva.idOrigen, reserva.idDestino, reserva.montoCentavos, System.currentTimeMillis(),
+                            (byte) 0);
+                    transferLog.commit(logAndApplyPart(record, false, new long[1]));
+                }
+            } finally {
+                resolviendo.remove(idTransaccion);
+            }
+            
+        } catch (Exception e) {
+            response.setError("Error abortando transferencia: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Ids de las reservas que llevan más del tiempo indicado sin decisión; el coordinador
+     * las confirma o las aborta según lo que tenga registrado.
+     */
+    private Message handleReservasPendientes(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        long limite = System.currentTimeMillis() - ((Number) request.getParams()[0]).longValue();
+        
+        long[] ids = new long[reservas.size()];
+        int count = 0;
+        for (TransferRecord reserva : reservas.values()) {
+            if (reserva.timestamp <= limite && count < ids.length) {
+                ids[count++] = reserva.idTransaccion;
+            }
+        }
+        response.setResult(Arrays.copyOf(ids, count));
+        return response;
+    }
+    
+    /**
+     * Aplica un lote del flujo de replicación. Los lotes se aplican en orden de secuencia
+     * aunque se procesen en paralelo: uno adelantado queda guardado hasta que llegan los que
+     * faltan, y los cambios ya aplicados (reenvíos tras una reconexión) se saltean. Responde
+     * con la última secuencia aplicada y confirmada en disco.
+     */
+    private synchronized Message handleReplicar(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        
+        try {
+            Object[] params = request.getParams();
+            long epoca = (Long) params[0];
+            long primera = (Long) params[1];
+            if (epoca != replicacionEpoca) {
+                // Flujo nuevo (el servidor o este nodo se reiniciaron): se toma como punto de partida
+                replicacionEpoca = epoca;
+                replicacionAplicada = primera - 1;
+                replicacionPendiente.clear();
+            }
+            replicacionPendiente.put(primera, params);
+            
+            long lastLogSequence = -1;
+            Map.Entry<Long, Object[]> siguiente;
+            while ((siguiente = replicacionPendiente.firstEntry()) != null && siguiente.getKey() <= replicacionAplicada + 1) {
+                replicacionPendiente.pollFirstEntry();
+                Object[] lote = siguiente.getValue();
+                long[] ids = (long[]) lote[2];
+                int[] origenes = (int[]) lote[3];
+                int[] destinos = (int[]) lote[4];
+                long[] montos = (long[]) lote[5];
+                long[] fechas = (long[]) lote[6];
+                for (int i = 0; i < ids.length; i++) {
+                    long secuencia = siguiente.getKey() + i;
+                    if (secuencia <= replicacionAplicada) {
+                        continue;
+                    }
+                    // Tras reiniciar el nodo la posición se pierde: lo que ya está registrado no se repite
+                    if (!alreadyConfirmed(ids[i], origenes[i], destinos[i], montos[i])) {
+                        TransferRecord record = new TransferRecord(ids[i], origenes[i], destinos[i], montos[i],
+                                fechas[i], (byte) (TransferRecord.DEBIT_APPLIED | TransferRecord.CREDIT_APPLIED));
+                        lastLogSequence = logAndApplyPart(record, false, new long[1]);
+                    }
+                    replicacionAplicada = secuencia;
+                }
+            }
+            if (lastLogSequence >= 0) {
+                transferLog.commit(lastLogSequence);
+            }
+            response.setResult(replicacionAplicada);
+            
+        } catch (Exception e) {
+            response.setError("Error aplicando replicación: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    private boolean alreadyConfirmed(long idTransaccion, int idOrigen, int idDestino, long montoCentavos) {
+        Transaccion transaccion = transacciones.get(idTransaccion);
+        return transaccion != null && transaccion.getIdOrigen() == idOrigen && transaccion.getIdDestino() == idDestino
+                && AccountStore.toCents(transaccion.getMonto()) == montoCentavos;
+    }
+    
+    /**
+     * Registra en el log y aplica un paso de una transferencia entre particiones, con los locks
+     * del modo de concurrencia configurado. Con verificarFondos, si el saldo de la cuenta origen
+     * no alcanza no se registra nada y devuelve -1. El saldo resultante de la cuenta origen
+     * queda en saldoOrigen[0].
+     */
+    private long logAndApplyPart(TransferRecord record, boolean verificarFondos, long[] saldoOrigen)
+            throws IOException {
+        int slotOrigen = accounts.slotOf(record.idOrigen);
+        int slotDestino = accounts.slotOf(record.idDestino);
+        
+        long lockStart = System.nanoTime();
+        checkpointLock.readLock().lock();
+        int[] stripes = (concurrencyMode == ConcurrencyMode.LOCKS)
+                ? stripesFor(new int[] { slotOrigen }, new int[] { slotDestino }) : new int[0];
+        for (int stripe : stripes) {
+            accounts.lockForStripe(stripe).writeLock().lock();
+        }
+        if (stripes.length > 0) {
+            lockContention.record(System.nanoTime() - lockStart, record.idOrigen, record.idDestino);
+        }
+        try {
+            long logSequence;
+            if (verificarFondos && concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+                long saldo = accounts.tryDebit(slotOrigen, record.montoCentavos);
+                if (saldo == AccountStore.INSUFFICIENT) {
+                    return -1;
+                }
+                try {
+                    logSequence = transferLog.append(record.encode());
+                } catch (IOException e) {
+                    accounts.credit(slotOrigen, record.montoCentavos);
+                    throw e;
+                }
+                reservas.put(record.idTransaccion, record);
+                saldoOrigen[0] = saldo;
+                return logSequence;
+            }
+            
+            if (verificarFondos && accounts.balance(slotOrigen) < record.montoCentavos) {
+                return -1;
+            }
+            logSequence = transferLog.append(record.encode());
+            applyRecord(record);
+            if (slotOrigen != AccountStore.NOT_FOUND) {
+                saldoOrigen[0] = accounts.balanceVolatile(slotOrigen);
+            }
+            return logSequence;
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                accounts.lockForStripe(stripes[i]).writeLock().unlock();
+            }
+            checkpointLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Aplica un lote de transferencias. Con locks, los de todas las cuentas del lote se toman
+     * una sola vez (en orden de franja) y la espera a disco también es una sola, por la última
+     * secuencia escrita. Cada transferencia se valida por separado: el resultado trae, en el
+     * mismo orden del lote, un double[] con el nuevo saldo de cada cuenta origen (NaN si fue
+     * rechazada) y un Object[] con el motivo del rechazo (null si se aplicó). Con los ids del
+     * servidor, las transferencias que ya estaban aplicadas (un lote reenviado) no se repiten.
+     */
+    private Message handleTransferirLote(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        
+        try {
+            Object[] params = request.getParams();
+            int[] origenes = (int[]) params[0];
+            int[] destinos = (int[]) params[1];
+            double[] montos = (double[]) params[2];
+            long[] ids = (params.length > 3) ? (long[]) params[3] : null;
+            long[] fechas = (params.length > 4) ? (long[]) params[4] : null;
+            int n = origenes.length;
+            if (destinos.length != n || montos.length != n || (ids != null && ids.length != n)
+                    || (fechas != null && fechas.length != n)) {
+                response.setError("Lote inválido: los arreglos tienen distinto largo");
+                return response;
+            }
+            
+            double[] saldos = new double[n];
+            Object[] errores = new Object[n];
+            int[] slotsOrigen = new int[n];
+            int[] slotsDestino = new int[n];
+            Arrays.fill(saldos, Double.NaN);
+            for (int i = 0; i < n; i++) {
+                slotsOrigen[i] = accounts.slotOf(origenes[i]);
+                slotsDestino[i] = accounts.slotOf(destinos[i]);
+                if (slotsOrigen[i] == AccountStore.NOT_FOUND) {
+                    errores[i] = "Cuenta origen no encontrada en este nodo";
+                } else if (slotsDestino[i] == AccountStore.NOT_FOUND) {
+                    errores[i] = "Cuenta destino no encontrada en este nodo";
+                }
+            }
+            
+            // Mientras se aplica el lote sus ids quedan reservados, igual que en una transferencia suelta
+            boolean[] reclamados = new boolean[n];
+            if (ids != null) {
+                for (int i = 0; i < n; i++) {
+                    if (errores[i] == null) {
+                        reclamados[i] = resolviendo.add(ids[i]);
+                        if (!reclamados[i]) {
+                            errores[i] = "La transferencia " + ids[i] + " ya se está aplicando";
+                        }
+                    }
+                }
+            }
+            try {
+                applyBatch(origenes, destinos, montos, ids, fechas, slotsOrigen, slotsDestino, saldos, errores, response);
+            } finally {
+                for (int i = 0; i < n; i++) {
+                    if (reclamados[i]) {
+                        resolviendo.remove(ids[i]);
+                    }
+                }
+            }
+            
+        } catch (Exception e) {
+            response.setError("Error procesando lote de transferencias: " + e.getMessage());
         }
         
         return response;
     }
     
-    private synchronized int generateTransactionId() {
-        int maxId = 0;
-        for (Integer id : transacciones.keySet()) {
-            if (id > maxId) {
-                maxId = id;
+    /**
+     * Aplica las transferencias del lote que no tienen error y deja el resultado en response.
+     */
+    private void applyBatch(int[] origenes, int[] destinos, double[] montos, long[] ids, long[] fechas,
+            int[] slotsOrigen, int[] slotsDestino, double[] saldos, Object[] errores, Message response) {
+        int n = origenes.length;
+        long lastSequence = -1;
+        long ahora = System.currentTimeMillis();
+        long lockStart = System.nanoTime();
+        checkpointLock.readLock().lock();
+        int[] stripes = (concurrencyMode == ConcurrencyMode.LOCKS) ? stripesFor(slotsOrigen, slotsDestino) : new int[0];
+        for (int stripe : stripes) {
+            accounts.lockForStripe(stripe).writeLock().lock();
+        }
+        if (stripes.length > 0) {
+            // Los locks son del lote entero: la espera no se atribuye a ninguna cuenta
+            lockContention.record(System.nanoTime() - lockStart);
+        }
+        try {
+            long[] saldoOrigen = new long[1];
+            for (int i = 0; i < n; i++) {
+                if (errores[i] != null) {
+                    continue;
+                }
+                long idTransaccion = (ids != null) ? ids[i] : transactionIds.nextId();
+                long montoCentavos = AccountStore.toCents(montos[i]);
+                long fechaMs = (fechas != null) ? fechas[i] : ahora;
+                if (ids != null && alreadyConfirmed(idTransaccion, origenes[i], destinos[i], montoCentavos)) {
+                    saldos[i] = AccountStore.toAmount(accounts.balanceVolatile(slotsOrigen[i]));
+                    continue;
+                }
+                try {
+                    long sequence;
+                    if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+                        sequence = logAndApplyOptimistic(idTransaccion, origenes[i], destinos[i],
+                                slotsOrigen[i], slotsDestino[i], montoCentavos, fechaMs, saldoOrigen);
+                    } else if (accounts.balance(slotsOrigen[i]) < montoCentavos) {
+                        sequence = -1;
+                    } else {
+                        sequence = logAndApply(idTransaccion, origenes[i], destinos[i], slotsDestino[i], montoCentavos,
+                                fechaMs);
+                        saldoOrigen[0] = accounts.balance(slotsOrigen[i]);
+                    }
+                    
+                    if (sequence < 0) {
+                        errores[i] = "Saldo insuficiente";
+                    } else {
+                        lastSequence = sequence;
+                        saldos[i] = AccountStore.toAmount(saldoOrigen[0]);
+                    }
+                } catch (IOException e) {
+                    errores[i] = "No se pudo registrar la transferencia: " + e.getMessage();
+                }
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                accounts.lockForStripe(stripes[i]).writeLock().unlock();
+            }
+            checkpointLock.readLock().unlock();
+        }
+        
+        // Una sola espera a disco cubre todas las transferencias del lote
+        if (lastSequence >= 0) {
+            try {
+                transferLog.commit(lastSequence);
+            } catch (IOException e) {
+                response.setError("El lote no pudo confirmarse en disco: " + e.getMessage());
+                return;
+            }
+        }
+        response.setResult(new Object[] { saldos, errores });
+    }
+    
+    /**
+     * Franjas de lock de todas las cuentas locales indicadas, ordenadas y sin repetir.
+     */
+    private int[] stripesFor(int[] slotsOrigen, int[] slotsDestino) {
+        int[] stripes = new int[slotsOrigen.length + slotsDestino.length];
+        int count = 0;
+        for (int slot : slotsOrigen) {
+            if (slot != AccountStore.NOT_FOUND) {
+                stripes[count++] = accounts.stripeOf(slot);
+            }
+        }
+        for (int slot : slotsDestino) {
+            if (slot != AccountStore.NOT_FOUND) {
+                stripes[count++] = accounts.stripeOf(slot);
+            }
+        }
+        Arrays.sort(stripes, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || stripes[unique - 1] != stripes[i]) {
+                stripes[unique++] = stripes[i];
             }
         }
-        return maxId + 1;
+        return Arrays.copyOf(stripes, unique);
     }
     
     public static void main(String[] args) {
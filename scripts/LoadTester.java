@@ -1,11 +1,21 @@
 package scripts;
 
+import client.BankSession;
+import common.utils.DataInitializer;
+import common.utils.ExecutionMode;
 import common.utils.Message;
 import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
+import node.ConcurrencyMode;
+import node.WorkerNode;
+import server.CentralServer;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -17,8 +27,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class LoadTester {
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 9000;
+    private static final WireFormat WIRE_FORMAT = WireFormat.fromConfig();
     private static final int NUM_THREADS = 50;
     private static final int OPERATIONS_PER_THREAD = 100;
+    private static final int COMPARISON_PORT_BASE = 19000;
+    private static final int EMBEDDED_NODES = CentralServer.NODE_COUNT;
     private static final Random random = new Random();
     
     private static final AtomicInteger successCount = new AtomicInteger(0);
@@ -26,56 +39,291 @@ public class LoadTester {
     private static final AtomicInteger totalOperations = new AtomicInteger(0);
     
     public static void main(String[] args) {
+        if (args.length > 0 && "--comparar-modos".equals(args[0])) {
+            int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+            compareExecutionModes(clients);
+            return;
+        }
+        if (args.length > 1 && "--lote".equals(args[0])) {
+            int batchSize = Integer.parseInt(args[1]);
+            int batches = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+            runBatches(batchSize, batches);
+            return;
+        }
+        if (args.length > 0 && "--comparar-concurrencia".equals(args[0])) {
+            int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+            compareConcurrencyModes(clients);
+            return;
+        }
+        
         System.out.println("Iniciando prueba de carga...");
         System.out.println("Threads: " + NUM_THREADS);
         System.out.println("Operaciones por thread: " + OPERATIONS_PER_THREAD);
         System.out.println("Total operaciones: " + (NUM_THREADS * OPERATIONS_PER_THREAD));
         
-        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        LoadResult result = runLoad(SERVER_PORT, NUM_THREADS, true);
+        
+        System.out.println("\n\nPrueba de carga completada");
+        System.out.println("Tiempo total: " + result.elapsedSeconds + " segundos");
+        System.out.println("Operaciones exitosas: " + result.success);
+        System.out.println("Operaciones fallidas: " + result.failed);
+        System.out.println("Tasa de éxito: " + 
+                (result.success * 100.0 / (NUM_THREADS * OPERATIONS_PER_THREAD)) + "%");
+        System.out.println("Operaciones por segundo: " + result.opsPerSecond());
+        System.out.println("Latencia p50: " + result.p50Millis + " ms, p99: " + result.p99Millis + 
+                " ms, p99.9: " + result.p999Millis + " ms");
+    }
+    
+    /**
+     * Ejecuta la carga contra el servidor indicado y devuelve el resumen.
+     */
+    private static LoadResult runLoad(int serverPort, int numThreads, boolean showProgress) {
+        successCount.set(0);
+        failCount.set(0);
+        totalOperations.set(0);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        ClientSimulator[] simulators = new ClientSimulator[numThreads];
         long startTime = System.currentTimeMillis();
         
-        for (int i = 0; i < NUM_THREADS; i++) {
-            executor.submit(new ClientSimulator(i));
+        for (int i = 0; i < numThreads; i++) {
+            simulators[i] = new ClientSimulator(i, serverPort);
+            executor.submit(simulators[i]);
         }
         
         executor.shutdown();
         while (!executor.isTerminated()) {
             try {
                 Thread.sleep(500);
-                System.out.print("\rProgreso: " + totalOperations.get() + 
-                        " / " + (NUM_THREADS * OPERATIONS_PER_THREAD) + " operaciones");
+                if (showProgress) {
+                    System.out.print("\rProgreso: " + totalOperations.get() + 
+                            " / " + (numThreads * OPERATIONS_PER_THREAD) + " operaciones");
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
         }
         
         long endTime = System.currentTimeMillis();
-        double elapsedSeconds = (endTime - startTime) / 1000.0;
         
-        System.out.println("\n\nPrueba de carga completada");
-        System.out.println("Tiempo total: " + elapsedSeconds + " segundos");
-        System.out.println("Operaciones exitosas: " + successCount.get());
-        System.out.println("Operaciones fallidas: " + failCount.get());
-        System.out.println("Tasa de éxito: " + 
-                (successCount.get() * 100.0 / (NUM_THREADS * OPERATIONS_PER_THREAD)) + "%");
-        System.out.println("Operaciones por segundo: " + 
-                (NUM_THREADS * OPERATIONS_PER_THREAD / elapsedSeconds));
+        // Unir las latencias de todos los clientes para calcular percentiles
+        long[] latencies = new long[numThreads * OPERATIONS_PER_THREAD];
+        int count = 0;
+        for (ClientSimulator simulator : simulators) {
+            System.arraycopy(simulator.latenciesNanos, 0, latencies, count, simulator.recorded);
+            count += simulator.recorded;
+        }
+        Arrays.sort(latencies, 0, count);
+        
+        LoadResult result = new LoadResult();
+        result.elapsedSeconds = (endTime - startTime) / 1000.0;
+        result.success = successCount.get();
+        result.failed = failCount.get();
+        result.totalOperations = numThreads * OPERATIONS_PER_THREAD;
+        result.p50Millis = percentileMillis(latencies, count, 0.50);
+        result.p99Millis = percentileMillis(latencies, count, 0.99);
+        result.p999Millis = percentileMillis(latencies, count, 0.999);
+        return result;
+    }
+    
+    private static double percentileMillis(long[] sorted, int count, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(count - 1, Math.ceil(percentile * count) - 1);
+        return Math.round(sorted[Math.max(0, index)] / 10_000.0) / 100.0;
+    }
+    
+    /**
+     * Envía lotes de transferencias (TRANSFERIR_LOTE) de montos chicos entre las cuentas de
+     * prueba y mide cuántas transferencias por segundo se procesan con ese tamaño de lote.
+     */
+    private static void runBatches(int batchSize, int batches) {
+        System.out.println("Enviando " + batches + " lotes de " + batchSize + " transferencias...");
+        int applied = 0;
+        int rejected = 0;
+        long startTime = System.nanoTime();
+        try (BankSession session = new BankSession(SERVER_HOST, SERVER_PORT, WIRE_FORMAT)) {
+            for (int b = 0; b < batches; b++) {
+                int[] origenes = new int[batchSize];
+                int[] destinos = new int[batchSize];
+                double[] montos = new double[batchSize];
+                for (int i = 0; i < batchSize; i++) {
+                    origenes[i] = 101 + random.nextInt(10);
+                    destinos[i] = 101 + (origenes[i] - 101 + 1 + random.nextInt(9)) % 10;
+                    montos[i] = 0.01;
+                }
+                
+                Message response = session.call(new Message(OperationType.TRANSFERIR_LOTE, origenes, destinos, montos));
+                if (!response.isOk()) {
+                    System.out.println("Lote " + b + " rechazado: " + response.getStatus());
+                    rejected += batchSize;
+                    continue;
+                }
+                Object[] errores = (Object[]) ((Object[]) response.getResult())[1];
+                for (Object error : errores) {
+                    if (error == null) {
+                        applied++;
+                    } else {
+                        rejected++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error enviando lotes: " + e.getMessage());
+            return;
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println("Transferencias aplicadas: " + applied + ", rechazadas: " + rejected);
+        System.out.printf("Tiempo total: %.3f segundos, %.1f transferencias por segundo%n",
+                seconds, (applied + rejected) / seconds);
+    }
+    
+    /**
+     * Levanta el sistema completo en este proceso una vez por modo de ejecución
+     * (hilos de plataforma y hilos virtuales) y compara throughput y latencias de cola.
+     */
+    private static void compareExecutionModes(int numThreads) {
+        System.out.println("Comparando modos de ejecución con " + numThreads + " clientes concurrentes");
+        if (!ExecutionMode.virtualThreadsAvailable()) {
+            System.out.println("Aviso: esta JVM no tiene hilos virtuales; el modo VIRTUAL usará hilos de plataforma bajo demanda");
+        }
+        
+        Map<ExecutionMode, LoadResult> results = new EnumMap<>(ExecutionMode.class);
+        int portBase = COMPARISON_PORT_BASE;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            try {
+                results.put(mode, runEmbedded(mode, ConcurrencyMode.fromConfig(), portBase, numThreads));
+            } catch (Exception e) {
+                System.err.println("Error ejecutando el modo " + mode + ": " + e.getMessage());
+            }
+            portBase += 100;
+        }
+        printComparison(results);
+    }
+    
+    /**
+     * Igual que {@link #compareExecutionModes(int)}, pero comparando el control de concurrencia
+     * de los nodos (locks contra operaciones atómicas optimistas).
+     */
+    private static void compareConcurrencyModes(int numThreads) {
+        System.out.println("Comparando control de concurrencia de los nodos con " + numThreads + " clientes concurrentes");
+        
+        Map<ConcurrencyMode, LoadResult> results = new EnumMap<>(ConcurrencyMode.class);
+        int portBase = COMPARISON_PORT_BASE;
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            try {
+                results.put(mode, runEmbedded(ExecutionMode.fromConfig(), mode, portBase, numThreads));
+            } catch (Exception e) {
+                System.err.println("Error ejecutando el modo " + mode + ": " + e.getMessage());
+            }
+            portBase += 100;
+        }
+        printComparison(results);
+    }
+    
+    private static void printComparison(Map<? extends Enum<?>, LoadResult> results) {
+        System.out.println();
+        System.out.printf("%-10s %12s %10s %10s %10s %10s%n", "Modo", "Ops/seg", "Éxito %", "p50 ms", "p99 ms", "p99.9 ms");
+        for (Map.Entry<? extends Enum<?>, LoadResult> entry : results.entrySet()) {
+            LoadResult r = entry.getValue();
+            System.out.printf("%-10s %12.1f %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), r.opsPerSecond(),
+                    r.success * 100.0 / r.totalOperations, r.p50Millis, r.p99Millis, r.p999Millis);
+        }
+    }
+    
+    private static LoadResult runEmbedded(ExecutionMode mode, ConcurrencyMode concurrency, int portBase,
+            int numThreads) throws Exception {
+        Path dataDir = Files.createTempDirectory("banco-carga-" + mode.name().toLowerCase()
+                + "-" + concurrency.name().toLowerCase());
+        int serverPort = portBase;
+        int nodePortBase = portBase + 1;
+        
+        WorkerNode[] nodes = new WorkerNode[EMBEDDED_NODES];
+        for (int i = 0; i < EMBEDDED_NODES; i++) {
+            String nodePath = dataDir.resolve("node" + i).toString();
+            DataInitializer.initializeDataFiles(nodePath);
+            nodes[i] = new WorkerNode(i, nodePortBase + i, nodePath, mode, concurrency);
+            WorkerNode node = nodes[i];
+            new Thread(node::start, "embedded-node-" + i).start();
+        }
+        CentralServer server = new CentralServer(serverPort, nodePortBase, EMBEDDED_NODES, mode,
+                dataDir.resolve("coordinator").toString());
+        Thread serverThread = new Thread(server::start, "embedded-server");
+        serverThread.start();
+        
+        try {
+            waitForServer(serverPort);
+            System.out.println("Modo " + mode + "/" + concurrency + ": sistema levantado, ejecutando carga...");
+            return runLoad(serverPort, numThreads, false);
+        } finally {
+            server.stop();
+            for (WorkerNode node : nodes) {
+                node.stop();
+            }
+        }
+    }
+    
+    private static void waitForServer(int port) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try (BankSession session = new BankSession(SERVER_HOST, port, WIRE_FORMAT)) {
+                Message response = session.call(new Message(OperationType.CONSULTAR_SALDO, 101));
+                if (response.isOk()) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+            Thread.sleep(200);
+        }
+    }
+    
+    private static class LoadResult {
+        double elapsedSeconds;
+        int success;
+        int failed;
+        int totalOperations;
+        double p50Millis;
+        double p99Millis;
+        double p999Millis;
+        
+        double opsPerSecond() {
+            return totalOperations / elapsedSeconds;
+        }
     }
     
     private static class ClientSimulator implements Runnable {
         private final int clientId;
+        private final int serverPort;
+        private BankSession session;
+        final long[] latenciesNanos = new long[OPERATIONS_PER_THREAD];
+        int recorded;
         
-        public ClientSimulator(int clientId) {
+        public ClientSimulator(int clientId, int serverPort) {
             this.clientId = clientId;
+            this.serverPort = serverPort;
         }
         
         @Override
         public void run() {
+            // Cada cliente simulado mantiene una sesión abierta durante toda la prueba
+            try {
+                session = new BankSession(SERVER_HOST, serverPort, WIRE_FORMAT);
+            } catch (IOException e) {
+                failCount.addAndGet(OPERATIONS_PER_THREAD);
+                totalOperations.addAndGet(OPERATIONS_PER_THREAD);
+                return;
+            }
+            
             try {
                 for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
                     // Simular delay aleatorio entre operaciones (entre 10ms y 100ms)
                     Thread.sleep(10 + random.nextInt(90));
                     
+                    long start = System.nanoTime();
                     // Decidir aleatoriamente entre consulta y transferencia
                     if (random.nextDouble() < 0.7) { // 70% consultas, 30% transferencias
                         // Consultar saldo de una cuenta aleatoria (entre 101 y 110)
@@ -96,22 +344,24 @@ public class LoadTester {
                         realizarTransferencia(idOrigen, idDestino, monto);
                     }
                     
+                    latenciesNanos[recorded++] = System.nanoTime() - start;
                     totalOperations.incrementAndGet();
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    session.close();
+                } catch (IOException e) {
+                    // La prueba ya terminó para este cliente
+                }
             }
         }
         
         private void consultarSaldo(int idCuenta) {
-            try (Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-                 ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                 ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-                
+            try {
                 Message message = new Message(OperationType.CONSULTAR_SALDO, idCuenta);
-                out.writeObject(message);
-                
-                Message response = (Message) in.readObject();
+                Message response = session.call(message);
                 if (response.isOk()) {
                     successCount.incrementAndGet();
                 } else {
@@ -124,14 +374,9 @@ public class LoadTester {
         }
         
         private void realizarTransferencia(int idOrigen, int idDestino, double monto) {
-            try (Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-                 ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                 ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-                
+            try {
                 Message message = new Message(OperationType.TRANSFERIR_FONDOS, idOrigen, idDestino, monto);
-                out.writeObject(message);
-                
-                Message response = (Message) in.readObject();
+                Message response = session.call(message);
                 if (response.isOk()) {
                     successCount.incrementAndGet();
                 } else {
@@ -0,0 +1,430 @@
+package scripts;
+
+import client.BankSession;
+import common.utils.LatencyHistogram;
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
+import server.CentralServer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prueba de carga de lazo abierto: las solicitudes salen a una tasa fija, respondan o no las
+ * anteriores, como llegan los clientes reales. LoadTester, en cambio, espera cada respuesta
+ * antes de enviar la siguiente, así que cuando el sistema se satura baja la tasa y esconde la
+ * espera en cola.
+ *
+ * La latencia se mide desde el momento en que la solicitud debía salir según la tasa, no desde
+ * que salió: si el generador se atrasa (por ejemplo porque el socket no acepta más datos),
+ * ese atraso cuenta como latencia (corrección de "coordinated omission"). También se informa
+ * la latencia desde el envío real, para ver cuánto pesa la cola.
+ *
+ * La corrida tiene tres fases: rampa (la tasa sube linealmente desde un 10% del objetivo),
+ * calentamiento (a la tasa objetivo, para que el JIT y las cachés se estabilicen) y medición.
+ * Cada fase se informa por separado en el JSON de salida.
+ *
+ * Las respuestas OCUPADO (rechazo por sobrecarga del control de admisión) se cuentan aparte y
+ * no entran en las latencias: son rechazos inmediatos y harían parecer más rápido al sistema.
+ */
+public class OpenLoopLoadTester {
+    private static final int FIRST_ACCOUNT = 101;
+    
+    private static final class Options {
+        String host = "localhost";
+        int port = 9000;
+        double rate = 500;
+        double rampSeconds = 5;
+        double warmupSeconds = 5;
+        double durationSeconds = 30;
+        double readFraction = 0.7;
+        int firstAccount = FIRST_ACCOUNT;
+        int accounts = 10;
+        double zipfExponent = 0.99;
+        int sessions = 8;
+        int maxPending = 20000;
+        long seed = 42;
+        Path output;
+    }
+    
+    /**
+     * Contadores y latencias de una fase.
+     */
+    private static final class Phase {
+        final String name;
+        final double targetRate;
+        final LatencyHistogram consultas = new LatencyHistogram();
+        final LatencyHistogram transferencias = new LatencyHistogram();
+        // Latencia desde el envío real, sin la corrección por atraso del generador
+        final LatencyHistogram servicio = new LatencyHistogram();
+        final AtomicLong scheduled = new AtomicLong();
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong busy = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong maxLagNanos = new AtomicLong();
+        double elapsedSeconds;
+        
+        Phase(String name, double targetRate) {
+            this.name = name;
+            this.targetRate = targetRate;
+        }
+        
+        LatencyHistogram total() {
+            LatencyHistogram total = new LatencyHistogram();
+            total.add(consultas);
+            total.add(transferencias);
+            return total;
+        }
+    }
+    
+    private final Options options;
+    private final ZipfGenerator zipf;
+    private final SplittableRandom random;
+    private final List<BankSession> sessions = new ArrayList<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private int nextSession;
+    
+    private OpenLoopLoadTester(Options options) {
+        this.options = options;
+        this.zipf = new ZipfGenerator(options.accounts, options.zipfExponent);
+        this.random = new SplittableRandom(options.seed);
+    }
+    
+    public static void main(String[] args) {
+        if (args.length > 1 && "--generar-cuentas".equals(args[0])) {
+            int accounts = Integer.parseInt(args[1]);
+            String dataDir = (args.length > 2) ? args[2] : "./data";
+            try {
+                generateAccounts(Paths.get(dataDir), accounts);
+            } catch (IOException e) {
+                System.err.println("Error generando cuentas: " + e.getMessage());
+            }
+            return;
+        }
+        
+        Options options;
+        try {
+            options = parseOptions(args);
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            return;
+        }
+        
+        OpenLoopLoadTester tester = new OpenLoopLoadTester(options);
+        try {
+            List<Phase> phases = tester.run();
+            for (Phase phase : phases) {
+                printPhase(phase);
+            }
+            writeJson(options, phases);
+            System.out.println("Resultados guardados en " + options.output);
+        } catch (IOException e) {
+            System.err.println("Error en la prueba de carga: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(0);
+    }
+    
+    private List<Phase> run() throws IOException, InterruptedException {
+        WireFormat format = WireFormat.fromConfig();
+        for (int i = 0; i < options.sessions; i++) {
+            sessions.add(new BankSession(options.host, options.port, format));
+        }
+        System.out.printf(Locale.ROOT, "Carga abierta: %.0f ops/s, %.0f%% consultas, %d cuentas desde %d (zipf %.2f),"
+                + " %d sesiones%n", options.rate, options.readFraction * 100, options.accounts,
+                options.firstAccount, options.zipfExponent, options.sessions);
+        
+        List<Phase> phases = new ArrayList<>();
+        try {
+            if (options.rampSeconds > 0) {
+                phases.add(runPhase(new Phase("rampa", options.rate), options.rampSeconds, true));
+            }
+            if (options.warmupSeconds > 0) {
+                phases.add(runPhase(new Phase("calentamiento", options.rate), options.warmupSeconds, false));
+            }
+            phases.add(runPhase(new Phase("medicion", options.rate), options.durationSeconds, false));
+            awaitPending(TimeUnit.SECONDS.toNanos(10));
+        } finally {
+            for (BankSession session : sessions) {
+                session.close();
+            }
+        }
+        return phases;
+    }
+    
+    /**
+     * Envía solicitudes durante la fase según el horario de la tasa. El hilo solo espera si
+     * va adelantado; si va atrasado envía de inmediato hasta ponerse al día, sin saltear ninguna.
+     */
+    private Phase runPhase(Phase phase, double seconds, boolean ramp) {
+        System.out.println("Fase " + phase.name + " (" + seconds + " s)...");
+        long start = System.nanoTime();
+        long duration = (long) (seconds * 1e9);
+        double startRate = ramp ? options.rate / 10 : options.rate;
+        double offset = 0;
+        
+        while (offset < duration) {
+            long intended = start + (long) offset;
+            long now = System.nanoTime();
+            if (intended > now) {
+                LockSupport.parkNanos(intended - now);
+                now = System.nanoTime();
+            }
+            phase.maxLagNanos.accumulateAndGet(now - intended, Math::max);
+            issue(phase, intended);
+            
+            double rate = startRate + (options.rate - startRate) * (offset / duration);
+            offset += 1e9 / rate;
+        }
+        phase.elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        return phase;
+    }
+    
+    private void issue(Phase phase, long intended) {
+        phase.scheduled.incrementAndGet();
+        // Con el sistema saturado las solicitudes se acumulan sin límite; pasado el máximo se
+        // descartan y se cuentan aparte
+        if (pending.get() >= options.maxPending) {
+            phase.dropped.incrementAndGet();
+            return;
+        }
+        
+        boolean consulta = random.nextDouble() < options.readFraction;
+        Message request;
+        if (consulta) {
+            request = new Message(OperationType.CONSULTAR_SALDO, account());
+        } else {
+            int origen = account();
+            int destino = account();
+            if (destino == origen) {
+                destino = options.firstAccount + (origen - options.firstAccount + 1) % options.accounts;
+            }
+            request = new Message(OperationType.TRANSFERIR_FONDOS, origen, destino, 0.01);
+        }
+        
+        BankSession session = sessions.get(nextSession);
+        nextSession = (nextSession + 1) % sessions.size();
+        pending.incrementAndGet();
+        long sent = System.nanoTime();
+        session.send(request).whenComplete((response, error) -> {
+            long done = System.nanoTime();
+            pending.decrementAndGet();
+            if (error != null) {
+                phase.failed.incrementAndGet();
+                return;
+            }
+            if (response.isBusy()) {
+                phase.busy.incrementAndGet();
+                return;
+            }
+            (consulta ? phase.consultas : phase.transferencias).recordNanos(done - intended);
+            phase.servicio.recordNanos(done - sent);
+            if (response.isOk()) {
+                phase.ok.incrementAndGet();
+            } else {
+                phase.rejected.incrementAndGet();
+            }
+        });
+    }
+    
+    private int account() {
+        return options.firstAccount + zipf.next(random) - 1;
+    }
+    
+    private void awaitPending(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (pending.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        if (pending.get() > 0) {
+            System.out.println("Quedaron " + pending.get() + " solicitudes sin respuesta");
+        }
+    }
+    
+    private static void printPhase(Phase phase) {
+        LatencyHistogram total = phase.total();
+        System.out.printf(Locale.ROOT, "%-14s enviadas=%d ok=%d rechazadas=%d ocupadas=%d fallidas=%d descartadas=%d"
+                + " tasa=%.1f ops/s atraso max=%.2f ms%n", phase.name, phase.scheduled.get(), phase.ok.get(),
+                phase.rejected.get(), phase.busy.get(), phase.failed.get(), phase.dropped.get(),
+                total.count() / phase.elapsedSeconds, phase.maxLagNanos.get() / 1e6);
+        printLatencies("  total", total);
+        printLatencies("  consultas", phase.consultas);
+        printLatencies("  transferencias", phase.transferencias);
+        printLatencies("  sin corregir", phase.servicio);
+    }
+    
+    private static void printLatencies(String label, LatencyHistogram histogram) {
+        System.out.printf(Locale.ROOT, "%-18s n=%d p50=%.3f p99=%.3f p99.9=%.3f max=%.3f ms%n", label,
+                histogram.count(), histogram.percentileMillis(0.50), histogram.percentileMillis(0.99),
+                histogram.percentileMillis(0.999), histogram.maxMillis());
+    }
+    
+    private static void writeJson(Options options, List<Phase> phases) throws IOException {
+        Path file = options.output;
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"fecha\": \"" + Instant.now() + "\",\n");
+            out.write(String.format(Locale.ROOT, "  \"config\": {\"host\": \"%s\", \"puerto\": %d, \"tasa\": %.3f,"
+                    + " \"rampaSeg\": %.3f, \"calentamientoSeg\": %.3f, \"duracionSeg\": %.3f,"
+                    + " \"fraccionConsultas\": %.3f, \"primeraCuenta\": %d, \"cuentas\": %d, \"zipf\": %.3f,"
+                    + " \"sesiones\": %d, \"maxPendientes\": %d, \"semilla\": %d},%n", options.host, options.port,
+                    options.rate, options.rampSeconds, options.warmupSeconds, options.durationSeconds,
+                    options.readFraction, options.firstAccount, options.accounts, options.zipfExponent,
+                    options.sessions, options.maxPending, options.seed));
+            out.write("  \"fases\": [\n");
+            for (int i = 0; i < phases.size(); i++) {
+                Phase phase = phases.get(i);
+                LatencyHistogram total = phase.total();
+                out.write(String.format(Locale.ROOT, "    {\"fase\": \"%s\", \"tasaObjetivo\": %.3f, \"segundos\": %.3f,"
+                        + " \"enviadas\": %d, \"ok\": %d, \"rechazadas\": %d, \"ocupadas\": %d, \"fallidas\": %d,"
+                        + " \"descartadas\": %d, \"tasaLograda\": %.3f, \"atrasoMaxMs\": %.3f,%n", phase.name, phase.targetRate,
+                        phase.elapsedSeconds, phase.scheduled.get(), phase.ok.get(), phase.rejected.get(),
+                        phase.busy.get(), phase.failed.get(), phase.dropped.get(), total.count() / phase.elapsedSeconds,
+                        phase.maxLagNanos.get() / 1e6));
+                out.write("     \"latenciaMs\": {" + latencyJson("total", total) + ", "
+                        + latencyJson("consultas", phase.consultas) + ", "
+                        + latencyJson("transferencias", phase.transferencias) + ", "
+                        + latencyJson("sinCorregir", phase.servicio) + "}}");
+                out.write((i < phases.size() - 1 ? "," : "") + "\n");
+            }
+            out.write("  ]\n}\n");
+        }
+    }
+    
+    private static String latencyJson(String name, LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "\"%s\": {\"n\": %d, \"media\": %.3f, \"p50\": %.3f, \"p99\": %.3f,"
+                + " \"p999\": %.3f, \"max\": %.3f}", name, histogram.count(), histogram.meanMillis(),
+                histogram.percentileMillis(0.50), histogram.percentileMillis(0.99),
+                histogram.percentileMillis(0.999), histogram.maxMillis());
+    }
+    
+    /**
+     * Escribe los archivos de texto de una base de prueba con la cantidad de cuentas indicada
+     * (desde la 101, con saldo alto) en el directorio de datos y en el de cada nodo, para que
+     * SystemStarter los importe. No toca nodos que ya tienen snapshot, porque lo ignorarían.
+     */
+    private static void generateAccounts(Path dataDir, int accounts) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        dirs.add(dataDir);
+        for (int i = 0; i < CentralServer.NODE_COUNT; i++) {
+            Path nodeDir = dataDir.resolve("node" + i);
+            if (Files.exists(nodeDir.resolve("snapshot.bin"))) {
+                throw new IOException(nodeDir + " ya tiene snapshot; bórrelo (con su wal) antes de generar cuentas");
+            }
+            dirs.add(nodeDir);
+        }
+        for (Path dir : dirs) {
+            Files.createDirectories(dir);
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dir.resolve("clientes.txt")))) {
+                out.println("# ID_CLIENTE | NOMBRE | EMAIL | TELÉFONO");
+                out.println("1|Cliente de carga|carga@email.com|900000000");
+            }
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dir.resolve("cuentas.txt")))) {
+                out.println("# ID_CUENTA | ID_CLIENTE | SALDO | TIPO_CUENTA");
+                for (int i = 0; i < accounts; i++) {
+                    out.println((FIRST_ACCOUNT + i) + "|1|1000000.00|Ahorros");
+                }
+            }
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dir.resolve("transacciones.txt")))) {
+                out.println("# ID_TRANSACC | ID_ORIG | ID_DEST | MONTO | FECHA_HORA | ESTADO");
+            }
+        }
+        System.out.println(accounts + " cuentas generadas en " + dataDir + " y sus " + CentralServer.NODE_COUNT
+                + " nodos");
+    }
+    
+    private static Options parseOptions(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Falta el valor de " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--host":
+                    options.host = value;
+                    break;
+                case "--puerto":
+                    options.port = Integer.parseInt(value);
+                    break;
+                case "--tasa":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "--rampa":
+                    options.rampSeconds = Double.parseDouble(value);
+                    break;
+                case "--calentamiento":
+                    options.warmupSeconds = Double.parseDouble(value);
+                    break;
+                case "--duracion":
+                    options.durationSeconds = Double.parseDouble(value);
+                    break;
+                case "--consultas":
+                    options.readFraction = Double.parseDouble(value);
+                    break;
+                case "--primera-cuenta":
+                    options.firstAccount = Integer.parseInt(value);
+                    break;
+                case "--cuentas":
+                    options.accounts = Integer.parseInt(value);
+                    break;
+                case "--zipf":
+                    options.zipfExponent = Double.parseDouble(value);
+                    break;
+                case "--sesiones":
+                    options.sessions = Integer.parseInt(value);
+                    break;
+                case "--max-pendientes":
+                    options.maxPending = Integer.parseInt(value);
+                    break;
+                case "--semilla":
+                    options.seed = Long.parseLong(value);
+                    break;
+                case "--salida":
+                    options.output = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opción desconocida: " + arg);
+            }
+        }
+        if (options.rate <= 0 || options.durationSeconds <= 0 || options.sessions < 1 || options.accounts < 2
+                || options.readFraction < 0 || options.readFraction > 1) {
+            throw new IllegalArgumentException("Configuración inválida");
+        }
+        if (options.output == null) {
+            options.output = Paths.get("bench-results", "carga-" + System.currentTimeMillis() + ".json");
+        }
+        return options;
+    }
+    
+    private static void printUsage() {
+        System.out.println("Uso: OpenLoopLoadTester [--tasa ops/s] [--duracion s] [--rampa s] [--calentamiento s]");
+        System.out.println("       [--consultas fraccion] [--cuentas n] [--primera-cuenta id] [--zipf s]");
+        System.out.println("       [--sesiones n] [--max-pendientes n] [--semilla n] [--salida archivo.json]");
+        System.out.println("       [--host h] [--puerto p]");
+        System.out.println("     OpenLoopLoadTester --generar-cuentas n [directorio de datos]");
+    }
+}
\ No newline at end of file
@@ -11,7 +11,8 @@ import common.utils.DataInitializer;
  * Script para iniciar todo el sistema bancario distribuido
  */
 public class SystemStarter {
-    private static final int NODE_COUNT = 3;
+    // Configurable con -Dbanco.nodes; el servidor central lee la misma propiedad
+    private static final int NODE_COUNT = server.CentralServer.NODE_COUNT;
     private static final int NODE_PORT_BASE = 9100;
     
     public static void main(String[] args) {
@@ -0,0 +1,72 @@
+package scripts;
+
+import java.util.SplittableRandom;
+
+/**
+ * Genera rangos 1..n con distribución de Zipf (el rango k sale con probabilidad
+ * proporcional a 1/k^s), para que unas pocas cuentas concentren la mayor parte del tráfico
+ * como en un banco real. Usa el método de rechazo-inversión de Hörmann y Derflinger: no
+ * guarda tablas, así que sirve igual para diez cuentas que para millones, y casi nunca rechaza.
+ * Con s = 0 la distribución es uniforme.
+ */
+final class ZipfGenerator {
+    private final int n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double threshold;
+    
+    ZipfGenerator(int n, double exponent) {
+        if (n < 1 || exponent < 0) {
+            throw new IllegalArgumentException("Zipf requiere n >= 1 y exponente >= 0");
+        }
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1.0;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.threshold = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+    }
+    
+    int next(SplittableRandom random) {
+        if (exponent == 0) {
+            return 1 + random.nextInt(n);
+        }
+        while (true) {
+            double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) Math.max(1, Math.min(n, (long) (x + 0.5)));
+            if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+    
+    // Integral de h(x) = x^-s, escrita para que también valga con s = 1
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return expm1OverX((1.0 - exponent) * logX) * logX;
+    }
+    
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+    
+    private double hIntegralInverse(double x) {
+        double t = Math.max(-1.0, x * (1.0 - exponent));
+        return Math.exp(log1pOverX(t) * x);
+    }
+    
+    private static double log1pOverX(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+        return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+    }
+    
+    private static double expm1OverX(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+        return 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+    }
+}
\ No newline at end of file
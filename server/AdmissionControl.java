@@ -0,0 +1,125 @@
+package server;
+
+import common.utils.ConcurrencyLimiter;
+import common.utils.Message;
+import common.utils.Message.OperationType;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Control de admisión del servidor central: decide, antes de encolar una solicitud en el
+ * pool de procesamiento, si se atiende o se rechaza en el acto con estado OCUPADO. Pasa si
+ * el cliente tiene fichas en su balde (si hay límite por cliente) y si hay lugar bajo el
+ * límite adaptativo de solicitudes en curso. NODE_STATUS no se limita: es justamente la que
+ * sirve para ver una sobrecarga, y solo lee métricas.
+ */
+final class AdmissionControl {
+    private final ConcurrencyLimiter limiter;
+    private final ClientRateLimiter clientLimiter;
+    private final LongAdder overflows = new LongAdder();
+    
+    /**
+     * limiter o clientLimiter en null desactivan ese límite.
+     */
+    AdmissionControl(ConcurrencyLimiter limiter, ClientRateLimiter clientLimiter) {
+        this.limiter = limiter;
+        this.clientLimiter = clientLimiter;
+    }
+    
+    /**
+     * Devuelve la respuesta de rechazo, o null si la solicitud se atiende. En ese caso ocupa
+     * un lugar del límite hasta que se llame a complete u overflow.
+     */
+    Message admit(InetAddress client, Message request) {
+        if (isExempt(request.getType())) {
+            return null;
+        }
+        if (clientLimiter != null && client != null && !clientLimiter.tryAcquire(client, cost(request))) {
+            return busy(request, "límite de operaciones por segundo del cliente superado");
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            return busy(request, "servidor sobrecargado, reintente más tarde");
+        }
+        return null;
+    }
+    
+    /**
+     * Libera el lugar de una solicitud atendida. Una respuesta OCUPADO de un nodo cuenta como
+     * descarte, así el servidor también baja su límite.
+     */
+    void complete(Message request, long admittedAt, Message response) {
+        if (limiter != null && !isExempt(request.getType())) {
+            limiter.release(System.nanoTime() - admittedAt, response != null && response.isBusy());
+        }
+    }
+    
+    /**
+     * La solicitud fue admitida pero la cola del pool estaba llena: se libera su lugar y se
+     * responde OCUPADO.
+     */
+    Message overflow(Message request) {
+        overflows.increment();
+        if (limiter != null && !isExempt(request.getType())) {
+            limiter.release(0, true);
+        }
+        return busy(request, "cola de solicitudes llena, reintente más tarde");
+    }
+    
+    int limit() {
+        return (limiter != null) ? limiter.limit() : 0;
+    }
+    
+    int inFlight() {
+        return (limiter != null) ? limiter.inFlight() : 0;
+    }
+    
+    long rejectedByLimit() {
+        return (limiter != null) ? limiter.rejected() : 0;
+    }
+    
+    long rejectedByClient() {
+        return (clientLimiter != null) ? clientLimiter.rejected() : 0;
+    }
+    
+    long overflows() {
+        return overflows.sum();
+    }
+    
+    int clients() {
+        return (clientLimiter != null) ? clientLimiter.clients() : 0;
+    }
+    
+    void evictIdleClients(long maxIdleMs) {
+        if (clientLimiter != null) {
+            clientLimiter.evictIdle(maxIdleMs);
+        }
+    }
+    
+    private static boolean isExempt(OperationType type) {
+        return type == OperationType.NODE_STATUS;
+    }
+    
+    /**
+     * Fichas que gasta una solicitud: los lotes y las consultas múltiples, una por elemento.
+     */
+    private static int cost(Message request) {
+        Object[] params = request.getParams();
+        if (params != null && params.length > 0) {
+            if (request.getType() == OperationType.TRANSFERIR_LOTE && params[0] instanceof int[]) {
+                return Math.max(1, ((int[]) params[0]).length);
+            }
+            if (request.getType() == OperationType.CONSULTAR_SALDOS && params[0] instanceof int[]) {
+                return Math.max(1, ((int[]) params[0]).length);
+            }
+        }
+        return 1;
+    }
+    
+    private static Message busy(Message request, String reason) {
+        Message response = new Message(OperationType.RESPONSE);
+        response.setRequestId(request.getRequestId());
+        response.setBusy(reason);
+        return response;
+    }
+}
\ No newline at end of file
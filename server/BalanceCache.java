@@ -0,0 +1,181 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Caché de saldos del servidor central, para responder las consultas de cuentas muy leídas
+ * sin ir al nodo.
+ *
+ * Está dividida en segmentos por id de cuenta, cada uno un LRU acotado con su propio lock.
+ * Las entradas vencen tras un TTL. Cada transferencia invalida sus cuentas, y un contador de
+ * generación por franja evita que una lectura que empezó antes de la invalidación guarde un
+ * saldo ya viejo.
+ */
+final class BalanceCache {
+    private static final int SEGMENTS = 16;
+    private static final int GENERATION_STRIPES = 1024;
+    
+    private static final class Entry {
+        final double saldo;
+        final long expiresAt;
+        
+        Entry(double saldo, long expiresAt) {
+            this.saldo = saldo;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    /**
+     * LRU acotado; se accede solo con el monitor del segmento tomado.
+     */
+    private final class Segment {
+        // Orden de acceso: el primero es el menos usado
+        private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+        
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+        
+        Entry get(int idCuenta) {
+            return entries.get(idCuenta);
+        }
+        
+        void put(int idCuenta, Entry entry) {
+            entries.put(idCuenta, entry);
+            if (entries.size() > capacity) {
+                Iterator<Integer> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        
+        void remove(int idCuenta) {
+            entries.remove(idCuenta);
+        }
+    }
+    
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final long ttlNanos;
+    private final boolean enabled;
+    private final LongSupplier clock;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    
+    BalanceCache(int maxEntries, long ttlMs) {
+        this(maxEntries, ttlMs, System::nanoTime);
+    }
+    
+    BalanceCache(int maxEntries, long ttlMs, LongSupplier clock) {
+        this.clock = clock;
+        this.enabled = maxEntries > 0 && ttlMs > 0;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        int perSegment = Math.max(1, maxEntries / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+    
+    /**
+     * Saldo guardado y vigente, o null.
+     */
+    Double get(int idCuenta) {
+        if (!enabled) {
+            return null;
+        }
+        Segment segment = segmentFor(idCuenta);
+        synchronized (segment) {
+            Entry entry = segment.get(idCuenta);
+            if (entry != null && entry.expiresAt - clock.getAsLong() > 0) {
+                hits.increment();
+                return entry.saldo;
+            }
+            if (entry != null) {
+                segment.remove(idCuenta);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+    
+    /**
+     * Generación actual de la cuenta; debe leerse antes de consultar al nodo y pasarse a {@link #put}.
+     */
+    long generation(int idCuenta) {
+        return generations.get(stripeFor(idCuenta));
+    }
+    
+    /**
+     * Guarda el saldo leído del nodo, salvo que la cuenta (o otra de su franja) se haya
+     * invalidado desde que empezó la lectura.
+     */
+    void put(int idCuenta, double saldo, long generation) {
+        if (!enabled) {
+            return;
+        }
+        Segment segment = segmentFor(idCuenta);
+        synchronized (segment) {
+            if (generations.get(stripeFor(idCuenta)) == generation) {
+                segment.put(idCuenta, new Entry(saldo, clock.getAsLong() + ttlNanos));
+            }
+        }
+    }
+    
+    void invalidate(int idCuenta) {
+        if (!enabled) {
+            return;
+        }
+        Segment segment = segmentFor(idCuenta);
+        synchronized (segment) {
+            generations.incrementAndGet(stripeFor(idCuenta));
+            segment.remove(idCuenta);
+        }
+        invalidations.increment();
+    }
+    
+    long hits() {
+        return hits.sum();
+    }
+    
+    long misses() {
+        return misses.sum();
+    }
+    
+    long evictions() {
+        return evictions.sum();
+    }
+    
+    long invalidations() {
+        return invalidations.sum();
+    }
+    
+    String summary() {
+        long hitCount = hits();
+        long total = hitCount + misses();
+        return String.format("Caché de saldos: %d aciertos (%.1f%%), %d fallos, %d desalojos, %d invalidaciones",
+                hitCount, total == 0 ? 0.0 : hitCount * 100.0 / total, misses(), evictions(), invalidations());
+    }
+    
+    private Segment segmentFor(int idCuenta) {
+        return segments[(mix(idCuenta) >>> 16) & (SEGMENTS - 1)];
+    }
+    
+    private static int stripeFor(int idCuenta) {
+        return mix(idCuenta) & (GENERATION_STRIPES - 1);
+    }
+    
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
\ No newline at end of file
@@ -1,197 +1,516 @@
 package server;
 
+import common.utils.ConcurrencyLimiter;
+import common.utils.ExecutionMode;
+import common.utils.LatencyHistogram;
+import common.utils.Logger;
 import common.utils.Message;
 import common.utils.Message.OperationType;
+import common.utils.MessageStream;
+import common.utils.MetricsEndpoint;
+import common.utils.MetricsRegistry;
+import common.utils.TransactionIdGenerator;
+import server.NodeConnectionPool.NodeBusyException;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CentralServer {
     private static final int SERVER_PORT = 9000;
     private static final int NODE_PORT_BASE = 9100;
-    private static final int MAX_NODES = 3;
+    /** Cantidad de nodos trabajadores (-Dbanco.nodes), en puertos consecutivos desde NODE_PORT_BASE */
+    public static final int NODE_COUNT = Integer.getInteger("banco.nodes", 3);
+    private static final int REPLICATION_FACTOR = Integer.getInteger("banco.replicas", 2);
+    private static final int VIRTUAL_NODES = Integer.getInteger("banco.ring.vnodes", 128);
+    private static final int MAX_IN_FLIGHT_PER_NODE = 32;
+    private static final int NODE_CONNECT_TIMEOUT_MS = 1000;
+    private static final int NODE_READ_TIMEOUT_MS = 5000;
+    private static final long NODE_ACQUIRE_TIMEOUT_MS = 2000;
+    private static final long NODE_MAX_IDLE_MS = 60000;
+    private static final int MAX_PIPELINED_PER_CONNECTION = 256;
+    private static final long MULTI_GET_TIMEOUT_MS = Long.getLong("banco.saldos.timeoutMs", 500);
+    private static final long READ_TIMEOUT_MS = Long.getLong("banco.lectura.timeoutMs", 1000);
+    private static final double HEDGE_PERCENTILE = Double.parseDouble(System.getProperty("banco.hedge.percentil", "95"));
+    private static final int CACHE_MAX_ENTRIES = Integer.getInteger("banco.cache.entradas", 10000);
+    private static final long CACHE_TTL_MS = Long.getLong("banco.cache.ttlMs", 1000);
+    private static final int MOVEMENTS_DEFAULT_PAGE = 100;
+    private static final int MOVEMENTS_MAX_PAGE = Integer.getInteger("banco.movimientos.maxPagina", 1000);
+    // Detector de fallas: heartbeats cada HEARTBEAT_INTERVAL_MS sin tráfico, inactivo con phi > FAILURE_PHI
+    private static final long HEARTBEAT_INTERVAL_MS = Long.getLong("banco.fd.intervalMs", 500);
+    private static final double FAILURE_PHI = Double.parseDouble(System.getProperty("banco.fd.phi", "8"));
+    private static final long FAILURE_ACCEPTABLE_PAUSE_MS = Long.getLong("banco.fd.pausaMs", 1000);
+    private static final long FAILURE_MIN_STD_DEV_MS = 100;
+    private static final long PREPARE_TIMEOUT_MS = Long.getLong("banco.2pc.timeoutMs", 2000);
+    // Transferencias entre particiones de un mismo lote que se coordinan a la vez
+    private static final int BATCH_2PC_PARALLELISM = Integer.getInteger("banco.lote.2pcParalelas", 8);
+    // Antigüedad a partir de la cual una transferencia entre particiones sin terminar se resuelve de nuevo
+    private static final long PENDING_RESOLUTION_AGE_MS = 10000;
+    private static final int NIO_IO_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int CLIENT_HANDLER_THREADS = 50;
+    // Control de admisión (-Dbanco.admision=false lo desactiva): límite adaptativo de solicitudes
+    // en curso, cola acotada del pool y, si se indica una tasa, límite de operaciones por cliente
+    private static final boolean ADMISSION_ENABLED = Boolean.parseBoolean(System.getProperty("banco.admision", "true"));
+    private static final int ADMISSION_INITIAL_LIMIT = Integer.getInteger("banco.admision.limite", 100);
+    private static final int ADMISSION_MIN_LIMIT = Integer.getInteger("banco.admision.limiteMin", CLIENT_HANDLER_THREADS);
+    private static final int ADMISSION_MAX_LIMIT = Integer.getInteger("banco.admision.limiteMax", 2000);
+    private static final int CLIENT_HANDLER_QUEUE = Integer.getInteger("banco.admision.cola", 4096);
+    private static final double CLIENT_RATE = Double.parseDouble(System.getProperty("banco.admision.tasaCliente", "0"));
+    private static final double CLIENT_BURST = Double.parseDouble(System.getProperty("banco.admision.rafagaCliente",
+            String.valueOf(Math.max(1, CLIENT_RATE))));
+    private static final long CLIENT_MAX_IDLE_MS = 60000;
+    // Secreto compartido con los nodos para REGISTER_NODE; sin él el servidor no acepta registros
+    private static final String CLUSTER_SECRET = System.getProperty("banco.cluster.secreto", "");
+    
+    private final int serverPort;
+    private final ExecutionMode executionMode;
+    private volatile boolean running = true;
+    private volatile NioFrontEnd frontEnd;
+    private volatile ServerSocket blockingServerSocket;
     
     private Map<Integer, NodeInfo> activeNodes = new ConcurrentHashMap<>();
-    private Map<Integer, Set<Integer>> nodeDataPartitions = new ConcurrentHashMap<>();
+    private final ConsistentHashRing partitionRing = new ConsistentHashRing(VIRTUAL_NODES, REPLICATION_FACTOR);
     private ExecutorService clientHandlerPool;
+    private ExecutorService connectionPool;
+    // Envía en paralelo las partes de una operación que involucra a varios nodos
+    private final ExecutorService fanOutPool;
     private ScheduledExecutorService nodeMonitorPool;
-    private Random random = new Random();
-    private int nextTransactionId = 1;
+    private final NodeConnectionPool nodeConnections;
+    private final Path coordinatorLogPath;
+    private CoordinatorLog coordinatorLog;
+    // Transferencias entre particiones que todavía esperan los votos de los nodos
+    private final Set<Long> transferenciasEnCurso = ConcurrentHashMap.newKeySet();
+    // Un flujo de replicación ordenado por nodo; la época distingue cada arranque del servidor
+    private final long replicationEpoch = System.currentTimeMillis();
+    private final Map<Integer, ReplicationStream> replicationStreams = new ConcurrentHashMap<>();
+    private final HedgingPolicy readHedging = new HedgingPolicy(HEDGE_PERCENTILE, TimeUnit.MILLISECONDS.toNanos(1));
+    private long lastReportedReads;
+    // Saldos leídos recientemente; -Dbanco.cache.entradas=0 la desactiva
+    private final BalanceCache balanceCache = new BalanceCache(CACHE_MAX_ENTRIES, CACHE_TTL_MS);
+    private long lastReportedCacheLookups;
+    // Generador 0; los nodos usan los siguientes para las transferencias que reciben sin id
+    private TransactionIdGenerator transactionIds;
+    // Contadores y latencias del servidor: se consultan con NODE_STATUS, por JMX o por HTTP
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final MetricsRegistry.OperationStats operationStats = metrics.operationStats("banco_servidor",
+            OperationType.CONSULTAR_SALDO, OperationType.TRANSFERIR_FONDOS, OperationType.TRANSFERIR_LOTE,
+            OperationType.CONSULTAR_SALDOS, OperationType.CONSULTAR_MOVIMIENTOS, OperationType.NODE_STATUS,
+            OperationType.REGISTER_NODE);
+    private MetricsEndpoint metricsEndpoint;
+    private final AdmissionControl admission = new AdmissionControl(
+            ADMISSION_ENABLED ? new ConcurrencyLimiter(ADMISSION_INITIAL_LIMIT, ADMISSION_MIN_LIMIT, ADMISSION_MAX_LIMIT) : null,
+            (CLIENT_RATE > 0) ? new ClientRateLimiter(CLIENT_RATE, CLIENT_BURST) : null);
     
-    private static class NodeInfo {
+    static class NodeInfo {
         String host;
         int port;
-        boolean isActive;
-        long lastHeartbeat;
+        volatile boolean isActive;
+        // Toda respuesta del nodo (del pool o de su flujo de replicación) cuenta como señal de vida
+        final PhiAccrualDetector detector = new PhiAccrualDetector(HEARTBEAT_INTERVAL_MS,
+                FAILURE_MIN_STD_DEV_MS, FAILURE_ACCEPTABLE_PAUSE_MS);
+        final AtomicBoolean heartbeatInFlight = new AtomicBoolean();
+        // Carga del nodo vista desde el servidor, para elegir réplica en las lecturas
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile long latencyEwmaNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        // Latencia de cada llamada al nodo, para las métricas
+        final LatencyHistogram latency = new LatencyHistogram();
         
         public NodeInfo(String host, int port) {
             this.host = host;
             this.port = port;
             this.isActive = true;
-            this.lastHeartbeat = System.currentTimeMillis();
+        }
+        
+        /**
+         * Promedio móvil exponencial (peso 1/8 a la última muestra). Las actualizaciones
+         * concurrentes pueden perder alguna muestra, lo que no cambia la tendencia.
+         */
+        void recordLatency(long nanos) {
+            latency.recordNanos(nanos);
+            long current = latencyEwmaNanos;
+            latencyEwmaNanos = current + ((nanos - current) >> 3);
+        }
+        
+        /**
+         * Tiempo esperado para atender una solicitud más: la latencia reciente por las que ya
+         * tiene en curso (más la nueva).
+         */
+        long loadScore() {
+            return latencyEwmaNanos * (outstanding.get() + 1);
         }
     }
     
     public CentralServer() {
-        // Usar un pool de tamaño fijo para manejar conexiones de clientes
-        this.clientHandlerPool = Executors.newFixedThreadPool(50);
-        this.nodeMonitorPool = Executors.newScheduledThreadPool(1);
+        this(SERVER_PORT, NODE_PORT_BASE, ExecutionMode.fromConfig());
+    }
+    
+    public CentralServer(int serverPort, int nodePortBase, ExecutionMode executionMode) {
+        this(serverPort, nodePortBase, NODE_COUNT, executionMode);
+    }
+    
+    public CentralServer(int serverPort, int nodePortBase, int nodeCount, ExecutionMode executionMode) {
+        this(serverPort, nodePortBase, nodeCount, executionMode,
+                System.getProperty("banco.coordinator.dir", "./data/coordinator"));
+    }
+    
+    public CentralServer(int serverPort, int nodePortBase, int nodeCount, ExecutionMode executionMode,
+            String coordinatorLogPath) {
+        this.serverPort = serverPort;
+        this.coordinatorLogPath = Paths.get(coordinatorLogPath);
+        this.executionMode = executionMode;
+        // Pool de procesamiento: fijo con hilos de plataforma y cola acotada, o un hilo virtual por solicitud
+        this.clientHandlerPool = executionMode.newTaskPool("client-handler", CLIENT_HANDLER_THREADS, CLIENT_HANDLER_QUEUE);
+        // Un hilo lector por sesión de cliente; el procesamiento va al clientHandlerPool
+        this.connectionPool = executionMode.newConnectionPool("client-session");
+        this.fanOutPool = executionMode.newConnectionPool("node-fanout");
+        this.nodeMonitorPool = Executors.newScheduledThreadPool(2);
+        // Conexiones persistentes hacia los nodos, reutilizadas por todas las operaciones
+        this.nodeConnections = new NodeConnectionPool(MAX_IN_FLIGHT_PER_NODE, NODE_CONNECT_TIMEOUT_MS,
+                NODE_READ_TIMEOUT_MS, NODE_ACQUIRE_TIMEOUT_MS, MessageStream.WireFormat.fromConfig());
         
-        // Inicializar nodos
-        for (int i = 0; i < MAX_NODES; i++) {
-            activeNodes.put(i, new NodeInfo("localhost", NODE_PORT_BASE + i));
-            nodeDataPartitions.put(i, new HashSet<>());
+        // Inicializar nodos: cada cuenta se asigna por hashing consistente a un nodo principal
+        // y REPLICATION_FACTOR - 1 réplicas (todos los nodos tienen los datos completos por simplicidad)
+        for (int i = 0; i < nodeCount; i++) {
+            addNode(i, "localhost", nodePortBase + i);
         }
         
-        // Distribuir ranges de IDs de cuenta entre los nodos
-        // Cada nodo tendrá un tercio de las cuentas como principal
-        // y todos tendrán réplicas completas para simplicidad
-        for (int i = 0; i < MAX_NODES; i++) {
-            // Particiones principales (asumiendo IDs de cuenta del 101 al 200)
-            int rangeSize = 33; // ~100 cuentas / 3 nodos
-            int start = 101 + (i * rangeSize);
-            int end = (i == MAX_NODES - 1) ? 200 : start + rangeSize - 1;
-            
-            Set<Integer> partitions = nodeDataPartitions.get(i);
-            for (int id = start; id <= end; id++) {
-                partitions.add(id);
+        metrics.queueDepthGauge("banco_servidor_tareas_en_cola", clientHandlerPool);
+        metrics.gauge("banco_servidor_transferencias_en_curso", transferenciasEnCurso::size);
+        metrics.gauge("banco_servidor_lecturas_total", readHedging::reads);
+        metrics.gauge("banco_servidor_lecturas_repetidas_total", readHedging::hedges);
+        metrics.gauge("banco_servidor_lecturas_vencidas_total", readHedging::timeouts);
+        metrics.gauge("banco_servidor_cache_aciertos_total", balanceCache::hits);
+        metrics.gauge("banco_servidor_cache_fallos_total", balanceCache::misses);
+        metrics.gauge("banco_servidor_cache_desalojos_total", balanceCache::evictions);
+        metrics.gauge("banco_servidor_cache_invalidaciones_total", balanceCache::invalidations);
+        metrics.gauge("banco_servidor_log_descartados_total", Logger::dropped);
+        metrics.gauge("banco_servidor_admision_limite", admission::limit);
+        metrics.gauge("banco_servidor_admision_en_curso", admission::inFlight);
+        metrics.gauge("banco_servidor_admision_clientes", admission::clients);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_rechazadas_total", "motivo", "concurrencia"),
+                admission::rejectedByLimit);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_rechazadas_total", "motivo", "cliente"),
+                admission::rejectedByClient);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_rechazadas_total", "motivo", "cola"),
+                admission::overflows);
+    }
+    
+    /**
+     * Agrega un nodo trabajador al anillo de particiones. Solo pasan al nodo nuevo las cuentas
+     * de los tramos del anillo que le tocan; el resto conserva sus nodos. El flujo de replicación
+     * del nodo guarda su log junto al del coordinador.
+     */
+    public void addNode(int nodeId, String host, int port) {
+        NodeInfo node = new NodeInfo(host, port);
+        activeNodes.put(nodeId, node);
+        ReplicationStream stream = replicationStreams.get(nodeId);
+        if (stream != null) {
+            // El nodo se volvió a registrar: el mismo flujo sigue con lo pendiente hacia la dirección nueva
+            stream.retarget(node);
+        } else {
+            try {
+                stream = new ReplicationStream(nodeId, node, replicationEpoch, MessageStream.WireFormat.fromConfig(),
+                        NODE_CONNECT_TIMEOUT_MS, coordinatorLogPath.resolve("replicacion-" + nodeId));
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo abrir el log de replicación del nodo " + nodeId, e);
             }
+            replicationStreams.put(nodeId, stream);
         }
+        partitionRing.addNode(nodeId);
+        
+        String id = String.valueOf(nodeId);
+        metrics.register(MetricsRegistry.series("banco_servidor_latencia_nodo_ms", "nodo", id), node.latency);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_nodo_activo", "nodo", id), () -> node.isActive ? 1 : 0);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_nodo_en_curso", "nodo", id), node.outstanding::get);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_nodo_phi", "nodo", id),
+                () -> node.detector.phi(System.nanoTime()));
+        metrics.gauge(MetricsRegistry.series("banco_servidor_replicacion_retraso_cambios", "nodo", id),
+                stream::lagEntries);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_replicacion_retraso_ms", "nodo", id), stream::lagMillis);
+        metrics.gauge(MetricsRegistry.series("banco_servidor_replicacion_en_disco", "nodo", id), stream::spilled);
     }
     
     public void start() {
+        try {
+            coordinatorLog = new CoordinatorLog(coordinatorLogPath);
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el log del coordinador: " + e.getMessage());
+            return;
+        }
+        try {
+            transactionIds = new TransactionIdGenerator(0, coordinatorLogPath.resolve("transaction-ids.lease"));
+        } catch (IOException e) {
+            System.err.println("No se pudo iniciar el generador de ids de transacción: " + e.getMessage());
+            return;
+        }
+        List<CoordinatorLog.Decision> pendientes = coordinatorLog.pendingDecisions(0);
+        if (!pendientes.isEmpty()) {
+            System.out.println("Reenviando " + pendientes.size() + " transferencias confirmadas sin terminar");
+            nodeMonitorPool.execute(() -> pendientes.forEach(decision -> confirmar(decision, false)));
+        }
+        
         // Iniciar monitoreo de nodos
         startNodeMonitoring();
+        metricsEndpoint = MetricsEndpoint.publish(metrics, "servidor", MetricsEndpoint.BASE_PORT);
         
-        // Arrancar servidor central
-        try (ServerSocket serverSocket = new ServerSocket(SERVER_PORT)) {
-            System.out.println("Servidor central iniciado en puerto " + SERVER_PORT);
+        // -Dbanco.server.frontend=blocking conserva el modelo de un hilo por conexión
+        if ("blocking".equalsIgnoreCase(System.getProperty("banco.server.frontend", "nio"))) {
+            startBlocking();
+        } else {
+            startNio();
+        }
+    }
+    
+    private void startNio() {
+        try {
+            frontEnd = new NioFrontEnd(serverPort, NIO_IO_THREADS, MAX_PIPELINED_PER_CONNECTION,
+                    clientHandlerPool, admission, this::dispatch,
+                    (socket, input) -> connectionPool.submit(new ClientHandler(socket, input)));
+            System.out.println("Servidor central (NIO, " + NIO_IO_THREADS + " hilos de E/S, modo "
+                    + executionMode + ") iniciado en puerto " + serverPort);
+            System.out.println("Esperando conexiones de clientes...");
+            frontEnd.run();
+        } catch (IOException e) {
+            System.err.println("Error en el servidor central: " + e.getMessage());
+        }
+    }
+    
+    private void startBlocking() {
+        try (ServerSocket serverSocket = new ServerSocket(serverPort)) {
+            blockingServerSocket = serverSocket;
+            System.out.println("Servidor central (modo " + executionMode + ") iniciado en puerto " + serverPort);
             System.out.println("Esperando conexiones de clientes...");
             
-            while (true) {
+            while (running) {
                 Socket clientSocket = serverSocket.accept();
-                clientHandlerPool.submit(new ClientHandler(clientSocket));
+                connectionPool.submit(new ClientHandler(clientSocket, null));
             }
         } catch (IOException e) {
-            System.err.println("Error en el servidor central: " + e.getMessage());
+            if (running) {
+                System.err.println("Error en el servidor central: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Detiene el servidor (usado por las pruebas de carga que levantan el sistema en proceso).
+     */
+    public void stop() {
+        running = false;
+        if (frontEnd != null) {
+            frontEnd.stop();
+        }
+        try {
+            if (blockingServerSocket != null) {
+                blockingServerSocket.close();
+            }
+        } catch (IOException e) {
+            // Ya estaba cerrado
+        }
+        nodeMonitorPool.shutdownNow();
+        connectionPool.shutdownNow();
+        clientHandlerPool.shutdownNow();
+        fanOutPool.shutdownNow();
+        nodeConnections.close();
+        replicationStreams.values().forEach(ReplicationStream::close);
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+        }
+        try {
+            if (coordinatorLog != null) {
+                coordinatorLog.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error cerrando el log del coordinador: " + e.getMessage());
         }
     }
     
     private void startNodeMonitoring() {
+        nodeMonitorPool.scheduleAtFixedRate(this::checkNodes, 0, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
         nodeMonitorPool.scheduleAtFixedRate(() -> {
-            for (Map.Entry<Integer, NodeInfo> entry : activeNodes.entrySet()) {
-                int nodeId = entry.getKey();
-                NodeInfo node = entry.getValue();
-                
-                // Si no hemos recibido heartbeat en los últimos 10 segundos, marcar como inactivo
-                if (System.currentTimeMillis() - node.lastHeartbeat > 10000) {
-                    if (node.isActive) {
-                        System.out.println("Nodo " + nodeId + " marcado como inactivo");
-                        node.isActive = false;
-                    }
-                    
-                    // Intentar reconectar
-                    tryReconnectNode(nodeId, node);
+            // Descartar conexiones del pool cerradas o sin uso prolongado
+            nodeConnections.evictIdle(NODE_MAX_IDLE_MS);
+            admission.evictIdleClients(CLIENT_MAX_IDLE_MS);
+            
+            resolverTransferenciasPendientes();
+            
+            long reads = readHedging.reads();
+            if (reads != lastReportedReads) {
+                lastReportedReads = reads;
+                System.out.println(readHedging.summary());
+            }
+            long cacheLookups = balanceCache.hits() + balanceCache.misses();
+            if (cacheLookups != lastReportedCacheLookups) {
+                lastReportedCacheLookups = cacheLookups;
+                System.out.println(balanceCache.summary());
+            }
+            
+            for (Map.Entry<Integer, ReplicationStream> entry : replicationStreams.entrySet()) {
+                long lag = entry.getValue().lagEntries();
+                if (lag > 0) {
+                    System.out.println("Replicación hacia nodo " + entry.getKey() + ": " + lag
+                            + " cambios sin confirmar (" + entry.getValue().lagMillis() + " ms de retraso)");
                 }
-                
-                // Enviar heartbeat a nodos activos
-                if (node.isActive) {
-                    sendHeartbeat(nodeId, node);
+                try {
+                    entry.getValue().compact();
+                } catch (IOException e) {
+                    System.out.println("Error compactando el log de replicación del nodo " + entry.getKey()
+                            + ": " + e.getMessage());
                 }
             }
         }, 0, 5, TimeUnit.SECONDS);
     }
     
-    private void tryReconnectNode(int nodeId, NodeInfo node) {
-        try (Socket socket = new Socket(node.host, node.port);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            
-            Message message = new Message(OperationType.HEARTBEAT);
-            out.writeObject(message);
-            
-            Message response = (Message) in.readObject();
-            if (response.isOk()) {
-                System.out.println("Nodo " + nodeId + " reconectado.");
-                node.isActive = true;
-                node.lastHeartbeat = System.currentTimeMillis();
+    /**
+     * Marca inactivos los nodos cuyo silencio ya es improbable según su detector, y envía un
+     * heartbeat solo a los nodos de los que no se supo nada en el último medio intervalo (con
+     * tráfico, las respuestas normales alcanzan). Así las señales de vida llegan cada intervalo
+     * con o sin tráfico. A los inactivos se les envía uno por intervalo para detectar cuándo vuelven.
+     */
+    private void checkNodes() {
+        long now = System.nanoTime();
+        long interval = TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MS);
+        for (Map.Entry<Integer, NodeInfo> entry : activeNodes.entrySet()) {
+            int nodeId = entry.getKey();
+            NodeInfo node = entry.getValue();
+            if (node.isActive) {
+                double phi = node.detector.phi(now);
+                if (phi > FAILURE_PHI) {
+                    System.out.println(String.format("Nodo %d marcado como inactivo (phi %.1f, %d ms sin respuesta)",
+                            nodeId, phi, TimeUnit.NANOSECONDS.toMillis(node.detector.silenceNanos(now))));
+                    markInactive(node);
+                } else if (node.detector.silenceNanos(now) >= interval / 2) {
+                    sendHeartbeat(nodeId, node);
+                }
+            } else {
+                sendHeartbeat(nodeId, node);
             }
-        } catch (Exception e) {
-            // Nodo sigue sin responder
         }
     }
     
+    private void markInactive(NodeInfo node) {
+        node.isActive = false;
+        node.detector.reset();
+        nodeConnections.invalidate(node);
+    }
+    
+    /**
+     * Envía el heartbeat en segundo plano, uno por nodo a la vez, para que un nodo lento no
+     * demore la revisión de los demás.
+     */
     private void sendHeartbeat(int nodeId, NodeInfo node) {
-        try (Socket socket = new Socket(node.host, node.port);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            
-            Message message = new Message(OperationType.HEARTBEAT);
-            out.writeObject(message);
-            
-            Message response = (Message) in.readObject();
-            if (response.isOk()) {
-                node.lastHeartbeat = System.currentTimeMillis();
-            }
-        } catch (Exception e) {
-            System.out.println("Heartbeat fallido para nodo " + nodeId + ": " + e.getMessage());
-            node.isActive = false;
+        if (!node.heartbeatInFlight.compareAndSet(false, true)) {
+            return;
         }
+        fanOutPool.execute(() -> {
+            try {
+                Message response = nodeConnections.call(node, new Message(OperationType.HEARTBEAT));
+                if (response.isOk() && !node.isActive) {
+                    System.out.println("Nodo " + nodeId + " reconectado.");
+                    node.isActive = true;
+                }
+            } catch (NodeBusyException e) {
+                // Con el límite de solicitudes en vuelo lleno el nodo está saturado, no caído
+            } catch (Exception e) {
+                if (node.isActive) {
+                    System.out.println("Heartbeat fallido para nodo " + nodeId + ": " + e.getMessage());
+                    markInactive(node);
+                }
+            } finally {
+                node.heartbeatInFlight.set(false);
+            }
+        });
     }
     
-    // Encuentra los nodos que tienen la réplica del dato que queremos consultar
+    // Encuentra los nodos activos que tienen la réplica del dato que queremos consultar,
+    // en orden de preferencia: primero el principal y luego las réplicas. Las escrituras van
+    // al principal; las lecturas eligen réplica con pickReplica
     private List<Integer> findNodesForAccount(int accountId) {
-        List<Integer> nodeIds = new ArrayList<>();
-        
-        for (Map.Entry<Integer, NodeInfo> entry : activeNodes.entrySet()) {
-            int nodeId = entry.getKey();
-            NodeInfo node = entry.getValue();
-            
-            if (node.isActive && nodeDataPartitions.get(nodeId).contains(accountId)) {
+        int[] replicas = partitionRing.replicasFor(accountId);
+        List<Integer> nodeIds = new ArrayList<>(replicas.length);
+        for (int nodeId : replicas) {
+            NodeInfo node = activeNodes.get(nodeId);
+            if (node != null && node.isActive) {
                 nodeIds.add(nodeId);
             }
         }
-        
-        // Ordenar aleatoriamente para balanceo de carga
-        Collections.shuffle(nodeIds);
         return nodeIds;
     }
     
+    /**
+     * Atiende una sesión de cliente de larga duración. Lee solicitudes mientras la conexión
+     * siga abierta y las procesa en paralelo; cada respuesta se envía en cuanto está lista,
+     * con el mismo requestId de la solicitud, aunque salga en otro orden.
+     */
     private class ClientHandler implements Runnable {
         private Socket clientSocket;
+        private InputStream input;
+        // Limita las solicitudes en vuelo por sesión para no acumular trabajo sin control
+        private final Semaphore inFlight = new Semaphore(MAX_PIPELINED_PER_CONNECTION);
         
-        public ClientHandler(Socket clientSocket) {
+        public ClientHandler(Socket clientSocket, InputStream input) {
             this.clientSocket = clientSocket;
+            this.input = input;
         }
         
         @Override
         public void run() {
-            try (ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-                 ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream())) {
-                
-                Message request = (Message) in.readObject();
-                Message response;
+            try (MessageStream stream = (input != null)
+                    ? MessageStream.accept(clientSocket, input)
+                    : MessageStream.accept(clientSocket)) {
+                clientSocket.setTcpNoDelay(true);
+                InetAddress client = clientSocket.getInetAddress();
                 
-                switch (request.getType()) {
-                    case CONSULTAR_SALDO:
-                        response = procesarConsultaSaldo(request);
-                        break;
-                    case TRANSFERIR_FONDOS:
-                        response = procesarTransferencia(request);
-                        break;
-                    default:
-                        response = new Message(OperationType.RESPONSE);
-                        response.setError("Operación no soportada");
+                while (true) {
+                    Message request;
+                    try {
+                        request = stream.read();
+                    } catch (EOFException e) {
+                        break; // El cliente cerró la sesión
+                    }
+                    
+                    // Los rechazos se responden en el acto, sin pasar por el pool
+                    Message rejection = admission.admit(client, request);
+                    if (rejection != null) {
+                        stream.write(rejection);
+                        continue;
+                    }
+                    long admittedAt = System.nanoTime();
+                    inFlight.acquire();
+                    try {
+                        clientHandlerPool.submit(() -> {
+                            try {
+                                Message response = dispatch(request);
+                                admission.complete(request, admittedAt, response);
+                                stream.write(response);
+                            } catch (IOException e) {
+                                Logger.error("Servidor", "Error enviando respuesta al cliente", e);
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        inFlight.release();
+                        stream.write(admission.overflow(request));
+                    }
                 }
                 
-                out.writeObject(response);
+                // Esperar a que terminen las solicitudes pendientes antes de cerrar
+                inFlight.acquire(MAX_PIPELINED_PER_CONNECTION);
                 
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
                 System.err.println("Error procesando solicitud de cliente: " + e.getMessage());
-                e.printStackTrace();
             } finally {
                 try {
                     clientSocket.close();
@@ -200,162 +519,983 @@ public class CentralServer {
                 }
             }
         }
+    }
+    
+    /**
+     * Procesa una solicitud de cliente. Nunca lanza: un error inesperado se responde como error,
+     * así el que llamó no queda esperando y el control de admisión libera su lugar.
+     */
+    private Message dispatch(Message request) {
+        long start = System.nanoTime();
+        Message response;
+        try {
+            response = route(request);
+        } catch (RuntimeException e) {
+            Logger.error("Servidor", "Error procesando " + request.getType(), e);
+            response = new Message(OperationType.RESPONSE);
+            response.setError("Error interno del servidor: " + e);
+        }
         
-        private Message procesarConsultaSaldo(Message request) {
-            Message response = new Message(OperationType.RESPONSE);
-            try {
-                int idCuenta = (Integer) request.getParams()[0];
-                
-                // Buscar nodos que tengan este dato
-                List<Integer> nodesWithData = findNodesForAccount(idCuenta);
-                
-                if (nodesWithData.isEmpty()) {
-                    response.setError("No hay nodos disponibles para procesar la consulta");
+        operationStats.record(request.getType(), System.nanoTime() - start, response.isOk());
+        response.setRequestId(request.getRequestId());
+        return response;
+    }
+    
+    private Message route(Message request) {
+        Message response;
+        switch (request.getType()) {
+            case CONSULTAR_SALDO:
+                response = procesarConsultaSaldo(request);
+                break;
+            case TRANSFERIR_FONDOS:
+                response = procesarTransferencia(request);
+                break;
+            case TRANSFERIR_LOTE:
+                response = procesarTransferenciaLote(request);
+                break;
+            case CONSULTAR_SALDOS:
+                response = procesarConsultaSaldos(request);
+                break;
+            case CONSULTAR_MOVIMIENTOS:
+                response = procesarConsultaMovimientos(request);
+                break;
+            case NODE_STATUS:
+                response = procesarEstado(request);
+                break;
+            case REGISTER_NODE:
+                response = procesarRegistroNodo(request);
+                break;
+            default:
+                response = new Message(OperationType.RESPONSE);
+                response.setError("Operación no soportada");
+        }
+        return response;
+    }
+    
+    /**
+     * Métricas del servidor o, con el id de un nodo como parámetro, las de ese nodo (se le
+     * piden a él). El resultado es el de MetricsRegistry.toStatus: nombres y valores.
+     */
+    private Message procesarEstado(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        Object[] params = request.getParams();
+        if (params == null || params.length == 0 || params[0] == null) {
+            response.setResult(metrics.toStatus());
+            return response;
+        }
+        
+        int nodeId = ((Number) params[0]).intValue();
+        NodeInfo node = activeNodes.get(nodeId);
+        if (node == null) {
+            response.setError("Nodo desconocido: " + nodeId);
+            return response;
+        }
+        try {
+            Message nodeResponse = nodeConnections.call(node, new Message(OperationType.NODE_STATUS));
+            if (nodeResponse.isOk()) {
+                response.setResult(nodeResponse.getResult());
+            } else {
+                response.setError(nodeResponse.getStatus());
+            }
+        } catch (IOException e) {
+            response.setError("El nodo " + nodeId + " no respondió: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    /**
+     * Alta de un nodo trabajador: id, host, puerto y el secreto del clúster. Si ya estaba
+     * registrado con la misma dirección no cambia nada (el nodo puede registrarse de nuevo al
+     * reiniciar). Llega por el puerto de clientes, así que sin el secreto se rechaza: si no, un
+     * cliente podría desviar hacia sí las cuentas de un nodo.
+     */
+    private Message procesarRegistroNodo(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        try {
+            Object[] params = request.getParams();
+            if (CLUSTER_SECRET.isEmpty()) {
+                response.setError("Registro de nodos deshabilitado: falta -Dbanco.cluster.secreto en el servidor");
+                return response;
+            }
+            if (params.length < 4 || !(params[3] instanceof String) || !MessageDigest.isEqual(
+                    CLUSTER_SECRET.getBytes(StandardCharsets.UTF_8), ((String) params[3]).getBytes(StandardCharsets.UTF_8))) {
+                Logger.log(Logger.Level.WARN, "Servidor", "Registro de nodo rechazado: secreto inválido", null);
+                response.setError("Registro de nodo no autorizado");
+                return response;
+            }
+            int nodeId = (Integer) params[0];
+            String host = (String) params[1];
+            int port = (Integer) params[2];
+            NodeInfo existing = activeNodes.get(nodeId);
+            if (existing == null || !existing.host.equals(host) || existing.port != port) {
+                addNode(nodeId, host, port);
+                System.out.println("Nodo " + nodeId + " registrado en " + host + ":" + port);
+            }
+        } catch (Exception e) {
+            response.setError("Registro de nodo inválido: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    /**
+     * Elige, entre las réplicas activas de replicas que no estén en la máscara tried, la menos
+     * cargada de dos tomadas al azar ("power of two choices"): reparte las lecturas y aleja el
+     * tráfico de un nodo lento antes de que el detector de fallas lo marque inactivo, sin
+     * recorrer ni ordenar todas. Devuelve la posición en replicas, o -1 si no queda ninguna.
+     */
+    private int pickReplica(int[] replicas, long tried) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int first = -1;
+        int second = -1;
+        int candidates = 0;
+        for (int i = 0; i < replicas.length && i < 64; i++) {
+            NodeInfo node = activeNodes.get(replicas[i]);
+            if ((tried & (1L << i)) != 0 || node == null || !node.isActive) {
+                continue;
+            }
+            // Muestreo de reservorio: al terminar, first y second son dos candidatas al azar
+            candidates++;
+            int slot = (candidates <= 2) ? candidates - 1 : rnd.nextInt(candidates);
+            if (slot == 0) {
+                first = i;
+            } else if (slot == 1) {
+                second = i;
+            }
+        }
+        if (second < 0) {
+            return first;
+        }
+        long firstScore = activeNodes.get(replicas[first]).loadScore();
+        long secondScore = activeNodes.get(replicas[second]).loadScore();
+        return (secondScore < firstScore) ? second : first;
+    }
+    
+    /**
+     * Respuesta (o falla) de una de las réplicas consultadas por procesarConsultaSaldo.
+     */
+    private static final class ReadAttempt {
+        final int replica;
+        final Message response;
+        final Throwable error;
+        
+        ReadAttempt(int replica, Message response, Throwable error) {
+            this.replica = replica;
+            this.response = response;
+            this.error = error;
+        }
+    }
+    
+    /**
+     * Consulta el saldo en la primera réplica. Si no responde dentro del percentil configurado
+     * de las latencias recientes, la misma lectura se envía a la siguiente réplica y gana la
+     * primera respuesta; si una réplica falla, se pasa a la siguiente enseguida. Todo dentro
+     * de un plazo (parámetro opcional, en ms): un nodo trabado no retiene al que consulta.
+     *
+     * Antes se busca en la caché de saldos, salvo que la solicitud pida lectura fuerte con
+     * un parámetro opcional true. La lectura fuerte va solo al principal (el primer nodo activo
+     * de la cuenta, el que recibe las escrituras), sin repetirse en réplicas que pueden estar
+     * atrasadas. Por lo mismo, la caché solo se llena con saldos leídos del principal.
+     */
+    private Message procesarConsultaSaldo(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        try {
+            Object[] params = request.getParams();
+            int idCuenta = (Integer) params[0];
+            long timeoutMs = READ_TIMEOUT_MS;
+            boolean lecturaFuerte = false;
+            for (int i = 1; i < params.length; i++) {
+                if (params[i] instanceof Boolean) {
+                    lecturaFuerte = (Boolean) params[i];
+                } else if (params[i] instanceof Number) {
+                    timeoutMs = ((Number) params[i]).longValue();
+                }
+            }
+            
+            if (!lecturaFuerte) {
+                Double saldo = balanceCache.get(idCuenta);
+                if (saldo != null) {
+                    response.setResult(saldo);
                     return response;
                 }
+            }
+            long cacheGeneration = balanceCache.generation(idCuenta);
+            
+            // Réplicas que tienen este dato; se prueban de a una, eligiendo la menos cargada
+            int[] replicas = partitionRing.replicasFor(idCuenta);
+            int primary = primaryIndex(replicas);
+            int next = lecturaFuerte ? primary : pickReplica(replicas, 0);
+            if (next < 0) {
+                response.setError("No hay nodos disponibles para procesar la consulta");
+                return response;
+            }
+            
+            readHedging.countRead();
+            Message nodeRequest = new Message(OperationType.CONSULTAR_SALDO, idCuenta);
+            BlockingQueue<ReadAttempt> attempts = new ArrayBlockingQueue<>(replicas.length);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            long tried = 1L << next;
+            int launched = 1;
+            int finished = 0;
+            int hedge = -1;
+            String errorMsg = "No se pudo procesar la consulta en ningún nodo";
+            
+            launchRead(replicas[next], next, nodeRequest, attempts);
+            next = lecturaFuerte ? -1 : pickReplica(replicas, tried);
+            while (finished < launched) {
+                long remaining = deadline - System.nanoTime();
+                boolean canHedge = hedge < 0 && next >= 0;
+                long wait = canHedge ? Math.min(remaining, readHedging.hedgeDelayNanos()) : remaining;
+                ReadAttempt attempt = (wait > 0) ? attempts.poll(wait, TimeUnit.NANOSECONDS) : null;
                 
-                // Intentar en cada nodo hasta obtener respuesta
-                for (Integer nodeId : nodesWithData) {
-                    NodeInfo node = activeNodes.get(nodeId);
-                    
-                    try (Socket nodeSocket = new Socket(node.host, node.port);
-                         ObjectOutputStream nodeOut = new ObjectOutputStream(nodeSocket.getOutputStream());
-                         ObjectInputStream nodeIn = new ObjectInputStream(nodeSocket.getInputStream())) {
-                        
-                        nodeOut.writeObject(request);
-                        Message nodeResponse = (Message) nodeIn.readObject();
-                        
-                        if (nodeResponse.isOk()) {
-                            response.setResult(nodeResponse.getResult());
-                            return response;
-                        }
-                    } catch (Exception e) {
-                        // Si falla, marcar nodo como inactivo y probar con el siguiente
-                        node.isActive = false;
-                        System.out.println("Nodo " + nodeId + " marcado como inactivo tras error: " + e.getMessage());
+                if (attempt == null) {
+                    if (deadline - System.nanoTime() <= 0) {
+                        readHedging.countTimeout();
+                        response.setError("Ningún nodo respondió la consulta en " + timeoutMs + " ms");
+                        return response;
                     }
+                    // La réplica está tardando más de lo habitual: se repite en otra
+                    hedge = next;
+                    readHedging.countHedge();
+                    launchRead(replicas[next], next, nodeRequest, attempts);
+                    launched++;
+                    tried |= 1L << next;
+                    next = lecturaFuerte ? -1 : pickReplica(replicas, tried);
+                    continue;
                 }
                 
-                // Si llegamos aquí, todos los nodos fallaron
-                response.setError("No se pudo procesar la consulta en ningún nodo");
-                
-            } catch (Exception e) {
-                response.setError("Error al procesar consulta: " + e.getMessage());
+                finished++;
+                if (attempt.response != null && attempt.response.isOk()) {
+                    if (attempt.replica == hedge) {
+                        readHedging.countHedgeWin();
+                    }
+                    if (attempt.replica == primary) {
+                        balanceCache.put(idCuenta, (Double) attempt.response.getResult(), cacheGeneration);
+                    }
+                    response.setResult(attempt.response.getResult());
+                    return response;
+                }
+                if (attempt.error instanceof NodeBusyException) {
+                    errorMsg = Message.BUSY + ": " + attempt.error.getMessage();
+                } else if (attempt.error != null) {
+                    int nodeId = replicas[attempt.replica];
+                    markInactive(activeNodes.get(nodeId));
+                    Logger.log(Logger.Level.WARN, "Servidor", "Nodo " + nodeId + " marcado como inactivo tras error: "
+                            + attempt.error.getMessage(), null);
+                } else {
+                    errorMsg = attempt.response.getStatus();
+                }
+                // Falló: se pasa a otra réplica sin esperar
+                if (next >= 0) {
+                    launchRead(replicas[next], next, nodeRequest, attempts);
+                    launched++;
+                    tried |= 1L << next;
+                    next = lecturaFuerte ? -1 : pickReplica(replicas, tried);
+                }
             }
             
-            return response;
+            // Si llegamos aquí, todos los nodos fallaron
+            response.setError(errorMsg);
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.setError("Consulta interrumpida");
+        } catch (Exception e) {
+            response.setError("Error al procesar consulta: " + e.getMessage());
         }
         
-        private Message procesarTransferencia(Message request) {
-            Message response = new Message(OperationType.RESPONSE);
+        return response;
+    }
+    
+    /**
+     * Posición en replicas del principal actual: el primer nodo activo, igual que en
+     * findNodesForAccount. -1 si no hay ninguno activo.
+     */
+    private int primaryIndex(int[] replicas) {
+        for (int i = 0; i < replicas.length; i++) {
+            NodeInfo node = activeNodes.get(replicas[i]);
+            if (node != null && node.isActive) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private void launchRead(int nodeId, int replica, Message request, BlockingQueue<ReadAttempt> attempts) {
+        NodeInfo node = activeNodes.get(nodeId);
+        long start = System.nanoTime();
+        fanOutPool.execute(() -> {
             try {
-                int idOrigen = (Integer) request.getParams()[0];
-                int idDestino = (Integer) request.getParams()[1];
-                double monto = (Double) request.getParams()[2];
+                Message nodeResponse = nodeConnections.call(node, request);
+                readHedging.recordLatency(System.nanoTime() - start);
+                attempts.offer(new ReadAttempt(replica, nodeResponse, null));
+            } catch (Exception e) {
+                attempts.offer(new ReadAttempt(replica, null, e));
+            }
+        });
+    }
+    
+    private Message procesarTransferencia(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        try {
+            int idOrigen = (Integer) request.getParams()[0];
+            int idDestino = (Integer) request.getParams()[1];
+            double monto = (Double) request.getParams()[2];
+            
+            // Generar ID de transacción único; la fecha también se fija aquí, una sola vez, para que
+            // el nodo principal y las réplicas registren la misma
+            long idTransaccion = transactionIds.nextId();
+            long fechaMs = System.currentTimeMillis();
+            
+            // Verificar que tenemos nodos disponibles para ambas cuentas
+            List<Integer> nodesForOrigin = findNodesForAccount(idOrigen);
+            List<Integer> nodesForDest = findNodesForAccount(idDestino);
+            
+            if (nodesForOrigin.isEmpty() || nodesForDest.isEmpty()) {
+                response.setError("No hay nodos disponibles para procesar la transferencia");
+                return response;
+            }
+            
+            // Si las cuentas pertenecen a particiones distintas, cada nodo aplica su parte
+            if (!nodesForOrigin.get(0).equals(nodesForDest.get(0))) {
+                return procesarTransferenciaEntreParticiones(response, idTransaccion, idOrigen, idDestino, monto,
+                        fechaMs, nodesForOrigin.get(0), nodesForDest.get(0));
+            }
+            
+            // Agregar ID de transacción y fecha al mensaje
+            request.setParams(new Object[] { idOrigen, idDestino, monto, idTransaccion, fechaMs });
+            
+            // Intentar procesar la transferencia en un nodo que tenga la cuenta origen
+            boolean transferSuccess = false;
+            String errorMsg = "No se pudo procesar la transferencia";
+            double newBalance = 0;
+            int processedBy = -1;
+            
+            for (Integer nodeId : nodesForOrigin) {
+                NodeInfo node = activeNodes.get(nodeId);
                 
-                // Generar ID de transacción único
-                int idTransaccion;
-                synchronized (this) {
-                    idTransaccion = nextTransactionId++;
+                try {
+                    Message nodeResponse = nodeConnections.call(node, request);
+                    
+                    if (nodeResponse.isOk()) {
+                        transferSuccess = true;
+                        newBalance = (Double) nodeResponse.getResult();
+                        processedBy = nodeId;
+                        break;
+                    }
+                    // Un rechazo del principal (saldo insuficiente, OCUPADO) es la respuesta: una
+                    // réplica atrasada podría aceptar un débito que el principal ya rechazó
+                    errorMsg = nodeResponse.getStatus();
+                    break;
+                } catch (NodeBusyException e) {
+                    // La solicitud no salió: el principal está saturado, no caído
+                    errorMsg = Message.BUSY + ": " + e.getMessage();
+                    break;
+                } catch (Exception e) {
+                    // Solo si el nodo no respondió se intenta con la siguiente réplica
+                    markInactive(node);
+                    errorMsg = "Error de conexión con nodo: " + e.getMessage();
                 }
+            }
+            
+            if (transferSuccess) {
+                balanceCache.invalidate(idOrigen);
+                balanceCache.invalidate(idDestino);
+                response.setResult(newBalance);
                 
-                // Verificar que tenemos nodos disponibles para ambas cuentas
-                List<Integer> nodesForOrigin = findNodesForAccount(idOrigen);
-                List<Integer> nodesForDest = findNodesForAccount(idDestino);
-                
-                if (nodesForOrigin.isEmpty() || nodesForDest.isEmpty()) {
-                    response.setError("No hay nodos disponibles para procesar la transferencia");
+                // Las demás réplicas reciben el cambio por su flujo de replicación
+                replicate(idTransaccion, idOrigen, idDestino, Math.round(monto * 100), fechaMs, processedBy, processedBy);
+                syncReplication();
+            } else {
+                response.setError(errorMsg);
+            }
+            
+        } catch (Exception e) {
+            response.setError("Error al procesar transferencia: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Transferencia entre cuentas de particiones distintas, con confirmación en dos fases.
+     * Los dos PREPARAR salen en paralelo: el nodo origen reserva el monto y el destino verifica
+     * la cuenta. Con ambos votos a favor, la decisión se registra en el log del coordinador y
+     * ya se puede responder al cliente; los CONFIRMAR salen en segundo plano. Así la latencia
+     * es una ida y vuelta en paralelo más la escritura de la decisión. Los lotes pasan por aquí
+     * con cada una de sus transferencias entre particiones.
+     */
+    private Message procesarTransferenciaEntreParticiones(Message response, long idTransaccion, int idOrigen,
+            int idDestino, double monto, long fechaMs, int nodoOrigen, int nodoDestino) {
+        transferenciasEnCurso.add(idTransaccion);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PREPARE_TIMEOUT_MS);
+            CompletableFuture<Message> votoOrigen = callAsync(nodoOrigen,
+                    new Message(OperationType.PREPARAR, idTransaccion, idOrigen, idDestino, monto, true));
+            CompletableFuture<Message> votoDestino = callAsync(nodoDestino,
+                    new Message(OperationType.PREPARAR, idTransaccion, idOrigen, idDestino, monto, false));
+            Message respuestaOrigen = awaitVote(votoOrigen, nodoOrigen, deadline);
+            Message respuestaDestino = awaitVote(votoDestino, nodoDestino, deadline);
+            
+            if (respuestaOrigen.isOk() && respuestaDestino.isOk()) {
+                CoordinatorLog.Decision decision = new CoordinatorLog.Decision(idTransaccion, idOrigen, idDestino,
+                        Math.round(monto * 100), nodoOrigen, nodoDestino, fechaMs);
+                try {
+                    coordinatorLog.logCommit(decision);
+                } catch (IOException e) {
+                    fanOutPool.execute(() -> abortar(idTransaccion, nodoOrigen));
+                    response.setError("No se pudo registrar la decisión de la transferencia: " + e.getMessage());
                     return response;
                 }
-                
-                // Agregar ID de transacción al mensaje
-                Object[] paramsWithId = new Object[request.getParams().length + 1];
-                System.arraycopy(request.getParams(), 0, paramsWithId, 0, request.getParams().length);
-                paramsWithId[paramsWithId.length - 1] = idTransaccion;
-                request.setParams(paramsWithId);
-                
-                // Intentar procesar la transferencia en un nodo que tenga la cuenta origen
-                boolean transferSuccess = false;
-                String errorMsg = "No se pudo procesar la transferencia";
-                double newBalance = 0;
-                
-                for (Integer nodeId : nodesForOrigin) {
-                    NodeInfo node = activeNodes.get(nodeId);
-                    
-                    try (Socket nodeSocket = new Socket(node.host, node.port);
-                         ObjectOutputStream nodeOut = new ObjectOutputStream(nodeSocket.getOutputStream());
-                         ObjectInputStream nodeIn = new ObjectInputStream(nodeSocket.getInputStream())) {
-                        
-                        nodeOut.writeObject(request);
-                        Message nodeResponse = (Message) nodeIn.readObject();
-                        
-                        if (nodeResponse.isOk()) {
-                            transferSuccess = true;
-                            newBalance = (Double) nodeResponse.getResult();
-                            break;
-                        } else {
-                            errorMsg = nodeResponse.getStatus();
-                        }
-                    } catch (Exception e) {
-                        node.isActive = false;
-                        errorMsg = "Error de conexión con nodo: " + e.getMessage();
+                // El crédito se aplica después, con CONFIRMAR: la cuenta destino se vuelve a invalidar entonces
+                balanceCache.invalidate(idOrigen);
+                balanceCache.invalidate(idDestino);
+                response.setResult(respuestaOrigen.getResult());
+                fanOutPool.execute(() -> confirmar(decision, true));
+            } else {
+                // Aborto presunto: no se registra nada; solo el nodo origen tiene algo que deshacer
+                fanOutPool.execute(() -> abortar(idTransaccion, nodoOrigen));
+                response.setError(respuestaOrigen.isOk() ? respuestaDestino.getStatus() : respuestaOrigen.getStatus());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fanOutPool.execute(() -> abortar(idTransaccion, nodoOrigen));
+            response.setError("Transferencia interrumpida");
+        } finally {
+            transferenciasEnCurso.remove(idTransaccion);
+        }
+        return response;
+    }
+    
+    private CompletableFuture<Message> callAsync(int nodeId, Message request) {
+        NodeInfo node = activeNodes.get(nodeId);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return nodeConnections.call(node, request);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, fanOutPool);
+    }
+    
+    /**
+     * Respuesta del nodo a un PREPARAR; si no llega antes del plazo o falla la conexión,
+     * se devuelve como un voto en contra.
+     */
+    private Message awaitVote(CompletableFuture<Message> vote, int nodeId, long deadline) throws InterruptedException {
+        Message response;
+        try {
+            response = vote.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            response = new Message(OperationType.RESPONSE);
+            response.setError("El nodo " + nodeId + " no respondió a tiempo");
+        } catch (ExecutionException e) {
+            response = new Message(OperationType.RESPONSE);
+            if (e.getCause() instanceof NodeBusyException) {
+                response.setBusy(e.getCause().getMessage());
+            } else {
+                markInactive(activeNodes.get(nodeId));
+                response.setError("Error de conexión con nodo: " + e.getCause().getMessage());
+            }
+        }
+        return response;
+    }
+    
+    /**
+     * Envía la decisión a los dos participantes y, si ambos la aplicaron, registra el fin de
+     * la transferencia. Con replicas también la publica en el flujo de replicación de las demás
+     * réplicas de ambas cuentas.
+     */
+    private void confirmar(CoordinatorLog.Decision decision, boolean replicas) {
+        Message confirmacion = new Message(OperationType.CONFIRMAR, decision.idTransaccion, decision.idOrigen,
+                decision.idDestino, decision.monto(), decision.fechaMs);
+        CompletableFuture<Boolean> origen = CompletableFuture.supplyAsync(
+                () -> sendQuietly(decision.nodoOrigen, confirmacion), fanOutPool);
+        boolean destinoOk = sendQuietly(decision.nodoDestino, confirmacion);
+        balanceCache.invalidate(decision.idDestino);
+        if (origen.join() && destinoOk) {
+            try {
+                coordinatorLog.logEnd(decision.idTransaccion);
+            } catch (IOException e) {
+                Logger.error("Servidor", "No se pudo registrar el fin de la transferencia " + decision.idTransaccion, e);
+            }
+        }
+        
+        if (replicas) {
+            replicate(decision.idTransaccion, decision.idOrigen, decision.idDestino, decision.montoCentavos,
+                    decision.fechaMs, decision.nodoOrigen, decision.nodoDestino);
+            syncReplication();
+        }
+    }
+    
+    private void abortar(long idTransaccion, int nodeId) {
+        sendQuietly(nodeId, new Message(OperationType.ABORTAR, idTransaccion));
+    }
+    
+    private boolean sendQuietly(int nodeId, Message request) {
+        NodeInfo node = activeNodes.get(nodeId);
+        if (node == null || !node.isActive) {
+            return false;
+        }
+        try {
+            return nodeConnections.call(node, request).isOk();
+        } catch (NodeBusyException e) {
+            Logger.log(Logger.Level.WARN, "Servidor", "Nodo " + nodeId + " saturado, no se envió " + request.getType()
+                    + ": " + e.getMessage(), null);
+            return false;
+        } catch (Exception e) {
+            markInactive(node);
+            Logger.log(Logger.Level.WARN, "Servidor", "Error enviando " + request.getType() + " al nodo " + nodeId
+                    + ": " + e.getMessage(), null);
+            return false;
+        }
+    }
+    
+    /**
+     * Recuperación de transferencias entre particiones: reenvía las decisiones de confirmar que
+     * no terminaron y aborta las reservas de los nodos que el coordinador no confirmó (aborto
+     * presunto). Corre junto con el monitoreo de nodos.
+     */
+    private void resolverTransferenciasPendientes() {
+        if (coordinatorLog == null) {
+            return;
+        }
+        for (CoordinatorLog.Decision decision : coordinatorLog.pendingDecisions(PENDING_RESOLUTION_AGE_MS)) {
+            confirmar(decision, false);
+        }
+        
+        for (Map.Entry<Integer, NodeInfo> entry : activeNodes.entrySet()) {
+            if (!entry.getValue().isActive) {
+                continue;
+            }
+            try {
+                Message response = nodeConnections.call(entry.getValue(),
+                        new Message(OperationType.RESERVAS_PENDIENTES, PENDING_RESOLUTION_AGE_MS));
+                if (!response.isOk()) {
+                    continue;
+                }
+                for (long idTransaccion : (long[]) response.getResult()) {
+                    if (!transferenciasEnCurso.contains(idTransaccion)
+                            && coordinatorLog.decision(idTransaccion) == null) {
+                        System.out.println("Abortando transferencia " + idTransaccion + " sin decisión en nodo "
+                                + entry.getKey());
+                        abortar(idTransaccion, entry.getKey());
                     }
                 }
-                
-                if (transferSuccess) {
-                    response.setResult(newBalance);
-                    
-                    // Sincronizar la actualización con otros nodos en segundo plano
-                    CompletableFuture.runAsync(() -> {
-                        syncTransferToOtherNodes(request, nodesForOrigin.get(0));
-                    });
+            } catch (Exception e) {
+                // El heartbeat se encarga de marcar el nodo si no responde
+            }
+        }
+        
+        try {
+            coordinatorLog.compact();
+        } catch (IOException e) {
+            System.out.println("Error compactando el log del coordinador: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Publica una transferencia ya aplicada en los flujos de replicación de los demás nodos
+     * responsables de la cuenta origen o de la destino (sin los que ya la aplicaron).
+     */
+    private void replicate(long idTransaccion, int idOrigen, int idDestino, long montoCentavos, long fechaMs,
+            int aplicadaEn, int tambienAplicadaEn) {
+        int[] replicasOrigen = partitionRing.replicasFor(idOrigen);
+        int[] replicasDestino = partitionRing.replicasFor(idDestino);
+        for (int nodeId : replicasOrigen) {
+            if (nodeId != aplicadaEn && nodeId != tambienAplicadaEn) {
+                publish(nodeId, idTransaccion, idOrigen, idDestino, montoCentavos, fechaMs);
+            }
+        }
+        for (int nodeId : replicasDestino) {
+            if (nodeId != aplicadaEn && nodeId != tambienAplicadaEn && !contains(replicasOrigen, nodeId)) {
+                publish(nodeId, idTransaccion, idOrigen, idDestino, montoCentavos, fechaMs);
+            }
+        }
+    }
+    
+    private void publish(int nodeId, long idTransaccion, int idOrigen, int idDestino, long montoCentavos, long fechaMs) {
+        try {
+            replicationStreams.get(nodeId).publish(idTransaccion, idOrigen, idDestino, montoCentavos, fechaMs);
+        } catch (IOException e) {
+            Logger.error("Servidor", "No se pudo registrar la replicación de la transferencia " + idTransaccion
+                    + " hacia el nodo " + nodeId, e);
+        }
+    }
+    
+    /**
+     * Espera a que lo publicado en los flujos de replicación esté en disco (según la política
+     * de sincronización), antes de responder al cliente: así un reinicio del servidor no
+     * pierde cambios que las réplicas todavía no recibieron.
+     */
+    private void syncReplication() {
+        for (Map.Entry<Integer, ReplicationStream> entry : replicationStreams.entrySet()) {
+            try {
+                entry.getValue().sync();
+            } catch (IOException e) {
+                Logger.error("Servidor", "No se pudo sincronizar el log de replicación del nodo " + entry.getKey(), e);
+            }
+        }
+    }
+    
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Consulta los saldos de varias cuentas a la vez: agrupa las cuentas por nodo, consulta
+     * a todos los nodos en paralelo y junta las respuestas. Si un nodo no contesta dentro del
+     * plazo (segundo parámetro opcional, en ms), se devuelve lo que llegó y sus cuentas quedan
+     * con error. El resultado conserva el orden pedido: double[] con los saldos (NaN si no se
+     * obtuvo) y Object[] con el error de cada cuenta (null si no hubo).
+     *
+     * Los saldos de cuentas de un mismo nodo forman una foto solo en modo LOCKS (ver
+     * ConcurrencyMode); entre nodos distintos no hay foto común.
+     */
+    private Message procesarConsultaSaldos(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        try {
+            Object[] params = request.getParams();
+            int[] idsCuenta = (int[]) params[0];
+            long timeoutMs = (params.length > 1) ? ((Number) params[1]).longValue() : MULTI_GET_TIMEOUT_MS;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            int n = idsCuenta.length;
+            
+            double[] saldos = new double[n];
+            Object[] errores = new Object[n];
+            Arrays.fill(saldos, Double.NaN);
+            
+            Map<Integer, List<Integer>> byNode = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                int[] replicas = partitionRing.replicasFor(idsCuenta[i]);
+                int chosen = pickReplica(replicas, 0);
+                if (chosen < 0) {
+                    errores[i] = "No hay nodos disponibles para procesar la consulta";
                 } else {
-                    response.setError(errorMsg);
+                    byNode.computeIfAbsent(replicas[chosen], k -> new ArrayList<>()).add(i);
                 }
-                
-            } catch (Exception e) {
-                response.setError("Error al procesar transferencia: " + e.getMessage());
             }
             
-            return response;
+            Map<Integer, CompletableFuture<Message>> calls = new HashMap<>();
+            for (Map.Entry<Integer, List<Integer>> entry : byNode.entrySet()) {
+                NodeInfo node = activeNodes.get(entry.getKey());
+                List<Integer> items = entry.getValue();
+                int[] subIds = new int[items.size()];
+                for (int k = 0; k < subIds.length; k++) {
+                    subIds[k] = idsCuenta[items.get(k)];
+                }
+                Message subRequest = new Message(OperationType.CONSULTAR_SALDOS, (Object) subIds);
+                calls.put(entry.getKey(), CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return nodeConnections.call(node, subRequest);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, fanOutPool));
+            }
+            
+            for (Map.Entry<Integer, CompletableFuture<Message>> entry : calls.entrySet()) {
+                int nodeId = entry.getKey();
+                List<Integer> items = byNode.get(nodeId);
+                String error;
+                try {
+                    long remaining = Math.max(0, deadline - System.nanoTime());
+                    Message nodeResponse = entry.getValue().get(remaining, TimeUnit.NANOSECONDS);
+                    if (nodeResponse.isOk()) {
+                        Object[] result = (Object[]) nodeResponse.getResult();
+                        double[] nodeSaldos = (double[]) result[0];
+                        Object[] nodeErrores = (Object[]) result[1];
+                        for (int k = 0; k < items.size(); k++) {
+                            saldos[items.get(k)] = nodeSaldos[k];
+                            errores[items.get(k)] = nodeErrores[k];
+                        }
+                        continue;
+                    }
+                    error = nodeResponse.getStatus();
+                } catch (TimeoutException e) {
+                    // El nodo sigue respondiendo en segundo plano; su respuesta se descarta
+                    error = "El nodo " + nodeId + " no respondió en " + timeoutMs + " ms";
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof NodeBusyException) {
+                        error = Message.BUSY + ": " + e.getCause().getMessage();
+                    } else {
+                        markInactive(activeNodes.get(nodeId));
+                        error = "Error de conexión con nodo: " + e.getCause().getMessage();
+                    }
+                }
+                for (int i : items) {
+                    errores[i] = error;
+                }
+            }
+            
+            response.setResult(new Object[] { saldos, errores });
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.setError("Consulta interrumpida");
+        } catch (Exception e) {
+            response.setError("Error al procesar consulta de saldos: " + e.getMessage());
         }
         
-        private void syncTransferToOtherNodes(Message transferRequest, int sourceNodeId) {
-            // Este método simula la sincronización de la transacción a otros nodos que tienen réplicas
-            // En una implementación real, aquí se propagaría la transacción a todos los nodos con réplicas
+        return response;
+    }
+    
+    /**
+     * Una página del historial de una cuenta. El tamaño de la página se acota a
+     * MOVEMENTS_MAX_PAGE, así un historial largo nunca viaja en un solo mensaje: el cliente
+     * pide la siguiente con el cursor que trae cada respuesta. El cursor es la fecha y el id
+     * del último movimiento entregado, así que la página siguiente puede salir de otra réplica.
+     */
+    private Message procesarConsultaMovimientos(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        try {
+            Object[] params = request.getParams();
+            int idCuenta = (Integer) params[0];
+            Object desde = (params.length > 1) ? params[1] : null;
+            Object hasta = (params.length > 2) ? params[2] : null;
+            Object cursor = (params.length > 3) ? params[3] : null;
+            int limite = (params.length > 4 && params[4] != null) ? ((Number) params[4]).intValue() : MOVEMENTS_DEFAULT_PAGE;
+            limite = Math.max(1, Math.min(limite, MOVEMENTS_MAX_PAGE));
+            Message nodeRequest = new Message(OperationType.CONSULTAR_MOVIMIENTOS, idCuenta, desde, hasta, cursor, limite);
             
-            Object[] params = transferRequest.getParams();
-            int idOrigen = (Integer) params[0];
-            int idDestino = (Integer) params[1];
+            int[] replicas = partitionRing.replicasFor(idCuenta);
+            int chosen = pickReplica(replicas, 0);
+            if (chosen < 0) {
+                response.setError("No hay nodos disponibles para procesar la consulta");
+                return response;
+            }
             
-            // Sincronizar con otros nodos que tienen la cuenta origen
-            for (Map.Entry<Integer, NodeInfo> entry : activeNodes.entrySet()) {
-                int nodeId = entry.getKey();
-                NodeInfo node = entry.getValue();
+            String errorMsg = "No se pudo consultar los movimientos";
+            for (long tried = 0; chosen >= 0; tried |= 1L << chosen, chosen = pickReplica(replicas, tried)) {
+                NodeInfo node = activeNodes.get(replicas[chosen]);
+                try {
+                    Message nodeResponse = nodeConnections.call(node, nodeRequest);
+                    if (nodeResponse.isOk()) {
+                        response.setResult(nodeResponse.getResult());
+                        return response;
+                    }
+                    errorMsg = nodeResponse.getStatus();
+                } catch (NodeBusyException e) {
+                    // Saturado pero vivo: se prueba otra réplica sin marcarlo
+                    errorMsg = Message.BUSY + ": " + e.getMessage();
+                } catch (Exception e) {
+                    markInactive(node);
+                    errorMsg = "Error de conexión con nodo: " + e.getMessage();
+                }
+            }
+            response.setError(errorMsg);
+            
+        } catch (Exception e) {
+            response.setError("Error al procesar consulta de movimientos: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Procesa un lote de transferencias: lo divide según el nodo principal de cada cuenta
+     * origen y envía en paralelo una sola solicitud por nodo. Si un nodo no responde, sus
+     * transferencias se reintentan en la siguiente réplica con los mismos ids, así que el nodo
+     * que ya las había aplicado no las repite. Las transferencias entre cuentas de particiones
+     * distintas no entran en esas solicitudes: cada una pasa por la confirmación en dos fases,
+     * como una transferencia suelta. El lote no es atómico: cada transferencia se aplica o se
+     * rechaza por separado. El resultado conserva el orden del lote: double[] con el nuevo
+     * saldo de cada cuenta origen (NaN si falló) y Object[] con el error de cada transferencia
+     * (null si se aplicó).
+     */
+    private Message procesarTransferenciaLote(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        try {
+            Object[] params = request.getParams();
+            int[] origenes = (int[]) params[0];
+            int[] destinos = (int[]) params[1];
+            double[] montos = (double[]) params[2];
+            int n = origenes.length;
+            if (destinos.length != n || montos.length != n) {
+                response.setError("Lote inválido: los arreglos tienen distinto largo");
+                return response;
+            }
+            
+            // Un ID de transacción por elemento del lote, y la fecha que registrarán todas las réplicas
+            long[] ids = new long[n];
+            long[] fechas = new long[n];
+            long ahora = System.currentTimeMillis();
+            for (int i = 0; i < n; i++) {
+                ids[i] = transactionIds.nextId();
+                fechas[i] = ahora;
+            }
+            
+            double[] saldos = new double[n];
+            Object[] errores = new Object[n];
+            int[] processedBy = new int[n];
+            Arrays.fill(saldos, Double.NaN);
+            Arrays.fill(processedBy, -1);
+            
+            List<Integer> pending = new ArrayList<>(n);
+            List<Integer> entreParticiones = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                List<Integer> nodesForOrigin = findNodesForAccount(origenes[i]);
+                List<Integer> nodesForDest = findNodesForAccount(destinos[i]);
+                if (!nodesForOrigin.isEmpty() && !nodesForDest.isEmpty()
+                        && !nodesForOrigin.get(0).equals(nodesForDest.get(0))) {
+                    entreParticiones.add(i);
+                } else {
+                    pending.add(i);
+                }
+            }
+            CompletableFuture<Void> coordinadas = CompletableFuture.runAsync(
+                    () -> transferirEntreParticiones(entreParticiones, origenes, destinos, montos, ids, fechas, saldos,
+                            errores),
+                    fanOutPool);
+            
+            for (int attempt = 0; attempt < REPLICATION_FACTOR && !pending.isEmpty(); attempt++) {
+                // Agrupar por el primer nodo activo que tiene la cuenta origen
+                Map<Integer, List<Integer>> byNode = new HashMap<>();
+                for (int i : pending) {
+                    List<Integer> nodes = findNodesForAccount(origenes[i]);
+                    if (nodes.isEmpty()) {
+                        errores[i] = "No hay nodos disponibles para procesar la transferencia";
+                    } else {
+                        byNode.computeIfAbsent(nodes.get(0), k -> new ArrayList<>()).add(i);
+                    }
+                }
+                pending = new ArrayList<>();
                 
-                // Saltamos el nodo que ya procesó la transacción
-                if (nodeId == sourceNodeId || !node.isActive) {
-                    continue;
+                Map<Integer, CompletableFuture<Message>> calls = new HashMap<>();
+                for (Map.Entry<Integer, List<Integer>> entry : byNode.entrySet()) {
+                    NodeInfo node = activeNodes.get(entry.getKey());
+                    Message subBatch = subBatch(entry.getValue(), origenes, destinos, montos, ids, fechas);
+                    calls.put(entry.getKey(), CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return nodeConnections.call(node, subBatch);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, fanOutPool));
                 }
                 
-                if (nodeDataPartitions.get(nodeId).contains(idOrigen) || 
-                    nodeDataPartitions.get(nodeId).contains(idDestino)) {
-                    try (Socket nodeSocket = new Socket(node.host, node.port);
-                         ObjectOutputStream nodeOut = new ObjectOutputStream(nodeSocket.getOutputStream());
-                         ObjectInputStream nodeIn = new ObjectInputStream(nodeSocket.getInputStream())) {
-                        
-                        // Marcar el mensaje como sincronización
-                        Message syncMessage = new Message(transferRequest.getType(), params);
-                        nodeOut.writeObject(syncMessage);
-                        nodeIn.readObject(); // Leer respuesta pero no la necesitamos
-                        
-                    } catch (Exception e) {
-                        node.isActive = false;
-                        System.out.println("Error sincronizando nodo " + nodeId + ": " + e.getMessage());
+                for (Map.Entry<Integer, CompletableFuture<Message>> entry : calls.entrySet()) {
+                    int nodeId = entry.getKey();
+                    List<Integer> items = byNode.get(nodeId);
+                    try {
+                        Message nodeResponse = entry.getValue().join();
+                        if (!nodeResponse.isOk()) {
+                            for (int i : items) {
+                                errores[i] = nodeResponse.getStatus();
+                            }
+                            continue;
+                        }
+                        Object[] result = (Object[]) nodeResponse.getResult();
+                        double[] nodeSaldos = (double[]) result[0];
+                        Object[] nodeErrores = (Object[]) result[1];
+                        for (int k = 0; k < items.size(); k++) {
+                            int i = items.get(k);
+                            saldos[i] = nodeSaldos[k];
+                            errores[i] = nodeErrores[k];
+                            if (nodeErrores[k] == null) {
+                                processedBy[i] = nodeId;
+                            }
+                        }
+                    } catch (CompletionException e) {
+                        if (e.getCause() instanceof NodeBusyException) {
+                            // Las solicitudes no salieron: el nodo está saturado, no se cambia de réplica
+                            for (int i : items) {
+                                errores[i] = Message.BUSY + ": " + e.getCause().getMessage();
+                            }
+                            continue;
+                        }
+                        // El nodo no respondió: sus transferencias pasan a la siguiente réplica
+                        markInactive(activeNodes.get(nodeId));
+                        for (int i : items) {
+                            errores[i] = "Error de conexión con nodo: " + e.getCause().getMessage();
+                            pending.add(i);
+                        }
                     }
                 }
             }
+            
+            for (int i = 0; i < n; i++) {
+                if (processedBy[i] >= 0) {
+                    balanceCache.invalidate(origenes[i]);
+                    balanceCache.invalidate(destinos[i]);
+                }
+            }
+            coordinadas.join();
+            response.setResult(new Object[] { saldos, errores });
+            
+            // Las transferencias aplicadas pasan a las otras réplicas por su flujo de replicación
+            // (las coordinadas ya se publicaron al confirmarse)
+            for (int i = 0; i < n; i++) {
+                if (processedBy[i] >= 0) {
+                    replicate(ids[i], origenes[i], destinos[i], Math.round(montos[i] * 100), fechas[i],
+                            processedBy[i], processedBy[i]);
+                }
+            }
+            syncReplication();
+            
+        } catch (Exception e) {
+            response.setError("Error al procesar lote de transferencias: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Transferencias de un lote entre particiones distintas, con confirmación en dos fases;
+     * se coordinan de a BATCH_2PC_PARALLELISM para no agotar el límite de solicitudes en vuelo
+     * de los nodos. El resultado de cada una queda en saldos y errores.
+     */
+    private void transferirEntreParticiones(List<Integer> items, int[] origenes, int[] destinos, double[] montos,
+            long[] ids, long[] fechas, double[] saldos, Object[] errores) {
+        for (int from = 0; from < items.size(); from += BATCH_2PC_PARALLELISM) {
+            List<Integer> tanda = items.subList(from, Math.min(items.size(), from + BATCH_2PC_PARALLELISM));
+            List<CompletableFuture<Message>> respuestas = new ArrayList<>(tanda.size());
+            for (int i : tanda) {
+                respuestas.add(CompletableFuture.supplyAsync(() -> {
+                    List<Integer> nodesForOrigin = findNodesForAccount(origenes[i]);
+                    List<Integer> nodesForDest = findNodesForAccount(destinos[i]);
+                    Message response = new Message(OperationType.RESPONSE);
+                    if (nodesForOrigin.isEmpty() || nodesForDest.isEmpty()) {
+                        response.setError("No hay nodos disponibles para procesar la transferencia");
+                        return response;
+                    }
+                    return procesarTransferenciaEntreParticiones(response, ids[i], origenes[i], destinos[i],
+                            montos[i], fechas[i], nodesForOrigin.get(0), nodesForDest.get(0));
+                }, fanOutPool));
+            }
+            for (int k = 0; k < tanda.size(); k++) {
+                int i = tanda.get(k);
+                Message response = respuestas.get(k).join();
+                if (response.isOk()) {
+                    saldos[i] = (Double) response.getResult();
+                } else {
+                    errores[i] = response.getStatus();
+                }
+            }
+        }
+    }
+    
+    private static Message subBatch(List<Integer> items, int[] origenes, int[] destinos, double[] montos, long[] ids,
+            long[] fechas) {
+        int size = items.size();
+        int[] subOrigenes = new int[size];
+        int[] subDestinos = new int[size];
+        double[] subMontos = new double[size];
+        long[] subIds = new long[size];
+        long[] subFechas = new long[size];
+        for (int k = 0; k < size; k++) {
+            int i = items.get(k);
+            subOrigenes[k] = origenes[i];
+            subDestinos[k] = destinos[i];
+            subMontos[k] = montos[i];
+            subIds[k] = ids[i];
+            subFechas[k] = fechas[i];
         }
+        return new Message(OperationType.TRANSFERIR_LOTE, subOrigenes, subDestinos, subMontos, subIds, subFechas);
     }
     
     public static void main(String[] args) {
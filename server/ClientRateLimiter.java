@@ -0,0 +1,88 @@
+package server;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Límite de operaciones por segundo de cada cliente (dirección IP), con un balde de fichas:
+ * el balde se llena a razón de rate fichas por segundo hasta burst, y cada operación gasta
+ * las suyas (un lote, una por elemento). Así un cliente no acapara el servidor aunque abra
+ * muchas sesiones, y puede tener ráfagas cortas sin ser rechazado. Un lote más grande que el
+ * balde se admite solo con el balde lleno y lo deja en deuda: el cliente no vuelve a operar
+ * hasta que la recarga la cubra, así que su ritmo promedio sigue siendo rate.
+ */
+final class ClientRateLimiter {
+    
+    private static final class Bucket {
+        double tokens;
+        long lastRefill;
+        
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefill = now;
+        }
+    }
+    
+    private final double ratePerNano;
+    private final double burst;
+    private final Map<InetAddress, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongSupplier clock;
+    
+    ClientRateLimiter(double ratePerSecond, double burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+    
+    ClientRateLimiter(double ratePerSecond, double burst, LongSupplier clock) {
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.clock = clock;
+    }
+    
+    /**
+     * Gasta cost fichas del cliente, o devuelve false si no le alcanzan. Una operación que
+     * cuesta más que el balde completo necesita el balde lleno y se cobra completa: las fichas
+     * quedan en negativo.
+     */
+    boolean tryAcquire(InetAddress client, int cost) {
+        long now = clock.getAsLong();
+        Bucket bucket = buckets.computeIfAbsent(client, k -> new Bucket(burst, now));
+        double needed = Math.min(cost, burst);
+        synchronized (bucket) {
+            bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefill) * ratePerNano);
+            bucket.lastRefill = now;
+            if (bucket.tokens < needed) {
+                rejected.increment();
+                return false;
+            }
+            bucket.tokens -= cost;
+            return true;
+        }
+    }
+    
+    /**
+     * Quita los baldes de clientes que no operan hace más de maxIdleMs y que ya estarían
+     * llenos; uno todavía en deuda se conserva para no perdonarla.
+     */
+    void evictIdle(long maxIdleMs) {
+        long now = clock.getAsLong();
+        long limit = now - TimeUnit.MILLISECONDS.toNanos(maxIdleMs);
+        buckets.values().removeIf(bucket -> {
+            synchronized (bucket) {
+                return bucket.lastRefill < limit && bucket.tokens + (now - bucket.lastRefill) * ratePerNano >= burst;
+            }
+        });
+    }
+    
+    int clients() {
+        return buckets.size();
+    }
+    
+    long rejected() {
+        return rejected.sum();
+    }
+}
\ No newline at end of file
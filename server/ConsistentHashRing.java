@@ -0,0 +1,171 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Anillo de hashing consistente que asigna cada id de cuenta a una lista ordenada de nodos
+ * (primero el principal, luego las réplicas).
+ *
+ * Cada nodo ocupa varios puntos del anillo (nodos virtuales) para repartir la carga de forma
+ * pareja. Una cuenta pertenece al primer punto igual o posterior a su hash y sus réplicas son
+ * los siguientes nodos distintos en sentido horario; así, al agregar un nodo solo cambian de
+ * dueño las cuentas que caen en los tramos que toma el nodo nuevo.
+ *
+ * Las listas de réplicas se calculan al cambiar los nodos, no en cada consulta: buscar una
+ * cuenta es una búsqueda binaria sin crear objetos. Los cambios arman un anillo nuevo
+ * (copy-on-write), así que las consultas no necesitan locks.
+ */
+final class ConsistentHashRing {
+    private final int virtualNodes;
+    private final int replicationFactor;
+    private volatile Ring ring = new Ring(new long[0], new int[0][], new int[0]);
+    
+    private static final class Ring {
+        final long[] points;
+        // Para cada punto, los nodos responsables en orden de preferencia
+        final int[][] replicas;
+        final int[] nodeIds;
+        
+        Ring(long[] points, int[][] replicas, int[] nodeIds) {
+            this.points = points;
+            this.replicas = replicas;
+            this.nodeIds = nodeIds;
+        }
+    }
+    
+    ConsistentHashRing(int virtualNodes, int replicationFactor) {
+        if (virtualNodes < 1 || replicationFactor < 1) {
+            throw new IllegalArgumentException("Nodos virtuales y factor de replicación deben ser positivos");
+        }
+        this.virtualNodes = virtualNodes;
+        this.replicationFactor = replicationFactor;
+    }
+    
+    synchronized void addNode(int nodeId) {
+        int[] current = ring.nodeIds;
+        if (Arrays.binarySearch(current, nodeId) >= 0) {
+            return;
+        }
+        int[] nodeIds = Arrays.copyOf(current, current.length + 1);
+        nodeIds[current.length] = nodeId;
+        Arrays.sort(nodeIds);
+        ring = build(nodeIds);
+    }
+    
+    synchronized void removeNode(int nodeId) {
+        int[] current = ring.nodeIds;
+        if (Arrays.binarySearch(current, nodeId) < 0) {
+            return;
+        }
+        int[] nodeIds = new int[current.length - 1];
+        int i = 0;
+        for (int id : current) {
+            if (id != nodeId) {
+                nodeIds[i++] = id;
+            }
+        }
+        ring = build(nodeIds);
+    }
+    
+    /**
+     * Nodos responsables de la cuenta, empezando por el principal. El arreglo es compartido:
+     * no debe modificarse. Vacío si el anillo no tiene nodos.
+     */
+    int[] replicasFor(int accountId) {
+        Ring current = ring;
+        if (current.points.length == 0) {
+            return current.nodeIds;
+        }
+        int index = Arrays.binarySearch(current.points, hash(accountId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index == current.points.length) {
+            index = 0; // El anillo da la vuelta
+        }
+        return current.replicas[index];
+    }
+    
+    int primaryFor(int accountId) {
+        int[] replicas = replicasFor(accountId);
+        return (replicas.length == 0) ? -1 : replicas[0];
+    }
+    
+    int nodeCount() {
+        return ring.nodeIds.length;
+    }
+    
+    int replicationFactor() {
+        return replicationFactor;
+    }
+    
+    private Ring build(int[] nodeIds) {
+        int total = nodeIds.length * virtualNodes;
+        long[] packed = new long[total];
+        long[] points = new long[total];
+        int[] owners = new int[total];
+        
+        // Se ordenan los puntos junto con su dueño: primero por hash y, si empatan, por nodo
+        Long[] order = new Long[total];
+        int k = 0;
+        for (int nodeId : nodeIds) {
+            for (int v = 0; v < virtualNodes; v++) {
+                packed[k] = mix(((long) nodeId << 32) | v);
+                owners[k] = nodeId;
+                order[k] = (long) k;
+                k++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Long.compare(packed[a.intValue()], packed[b.intValue()]);
+            return (cmp != 0) ? cmp : Integer.compare(owners[a.intValue()], owners[b.intValue()]);
+        });
+        int[] sortedOwners = new int[total];
+        for (int i = 0; i < total; i++) {
+            int from = order[i].intValue();
+            points[i] = packed[from];
+            sortedOwners[i] = owners[from];
+        }
+        
+        int replicas = Math.min(replicationFactor, nodeIds.length);
+        int[][] preference = new int[total][];
+        for (int i = 0; i < total; i++) {
+            int[] list = new int[replicas];
+            int found = 0;
+            for (int step = 0; step < total && found < replicas; step++) {
+                int owner = sortedOwners[(i + step) % total];
+                if (!contains(list, found, owner)) {
+                    list[found++] = owner;
+                }
+            }
+            preference[i] = list;
+        }
+        return new Ring(points, preference, nodeIds);
+    }
+    
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static long hash(int accountId) {
+        return mix(accountId);
+    }
+    
+    /**
+     * Mezcla final de MurmurHash3: ids consecutivos quedan repartidos por todo el anillo.
+     */
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
\ No newline at end of file
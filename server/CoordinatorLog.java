@@ -0,0 +1,162 @@
+package server;
+
+import common.utils.WriteAheadLog;
+import common.utils.WriteAheadLog.SyncPolicy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Log del coordinador de transferencias entre particiones.
+ *
+ * Usa aborto presunto: solo se registra la decisión de confirmar (antes de responder al
+ * cliente) y el fin de la transferencia, cuando todos los participantes aplicaron la
+ * confirmación. Una transferencia sin decisión registrada se considera abortada. Al arrancar,
+ * las decisiones sin fin quedan pendientes y el servidor vuelve a enviar CONFIRMAR.
+ *
+ * Cada decisión es de una sola transferencia, también cuando llega dentro de un lote: el lote
+ * coordina por separado cada transferencia entre particiones, así que una puede confirmarse
+ * y otra del mismo lote abortarse. Lo atómico es cada transferencia, no el lote.
+ *
+ * Registros (big-endian): decisión de confirmar, byte KIND_COMMIT | long id | int origen
+ * | int destino | long monto en centavos | int nodo origen | int nodo destino | long fecha en ms;
+ * fin, byte KIND_END | long id.
+ */
+final class CoordinatorLog implements Closeable {
+    private static final byte KIND_COMMIT = 1;
+    private static final byte KIND_END = 2;
+    private static final int COMMIT_LENGTH = 1 + 8 + 4 + 4 + 8 + 4 + 4 + 8;
+    private static final int END_LENGTH = 1 + 8;
+    
+    /**
+     * Transferencia confirmada por el coordinador y los nodos que la prepararon.
+     */
+    static final class Decision {
+        final long idTransaccion;
+        final int idOrigen;
+        final int idDestino;
+        final long montoCentavos;
+        final int nodoOrigen;
+        final int nodoDestino;
+        // Fecha de la transferencia: la que registran todos los nodos al confirmarla
+        final long fechaMs;
+        final long decidedAt = System.currentTimeMillis();
+        
+        Decision(long idTransaccion, int idOrigen, int idDestino, long montoCentavos, int nodoOrigen, int nodoDestino,
+                long fechaMs) {
+            this.idTransaccion = idTransaccion;
+            this.idOrigen = idOrigen;
+            this.idDestino = idDestino;
+            this.montoCentavos = montoCentavos;
+            this.nodoOrigen = nodoOrigen;
+            this.nodoDestino = nodoDestino;
+            this.fechaMs = fechaMs;
+        }
+        
+        double monto() {
+            return montoCentavos / 100.0;
+        }
+    }
+    
+    private final WriteAheadLog log;
+    // Decisiones de confirmar cuyo fin todavía no se registró
+    private final Map<Long, Decision> pending = new ConcurrentHashMap<>();
+    
+    CoordinatorLog(Path directory) throws IOException {
+        log = new WriteAheadLog(directory, SyncPolicy.fromConfig(), 5);
+        log.replay(0, (seq, payload) -> {
+            int length = payload.remaining();
+            byte kind = payload.get();
+            if (kind == KIND_COMMIT && length == COMMIT_LENGTH) {
+                long idTransaccion = payload.getLong();
+                pending.put(idTransaccion, new Decision(idTransaccion, payload.getInt(), payload.getInt(),
+                        payload.getLong(), payload.getInt(), payload.getInt(), payload.getLong()));
+            } else if (kind == KIND_END && length == END_LENGTH) {
+                pending.remove(payload.getLong());
+            } else {
+                throw new IOException("Registro del log del coordinador inválido en la secuencia " + seq);
+            }
+        });
+    }
+    
+    /**
+     * Registra la decisión de confirmar y espera a que esté en disco: desde ese momento la
+     * transferencia ocurrió, aunque el servidor caiga antes de avisar a los nodos.
+     */
+    void logCommit(Decision decision) throws IOException {
+        pending.put(decision.idTransaccion, decision);
+        try {
+            log.commit(log.append(encodeCommit(decision)));
+        } catch (IOException e) {
+            pending.remove(decision.idTransaccion);
+            throw e;
+        }
+    }
+    
+    /**
+     * Registra que todos los participantes aplicaron la decisión. No espera al disco: si se
+     * pierde, la recuperación reenvía un CONFIRMAR que los nodos ignoran.
+     */
+    void logEnd(long idTransaccion) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(END_LENGTH);
+        buffer.put(KIND_END);
+        buffer.putLong(idTransaccion);
+        log.append(buffer.array());
+        pending.remove(idTransaccion);
+    }
+    
+    Decision decision(long idTransaccion) {
+        return pending.get(idTransaccion);
+    }
+    
+    /**
+     * Decisiones sin fin registrado tomadas hace más de edadMinimaMs.
+     */
+    List<Decision> pendingDecisions(long edadMinimaMs) {
+        long limite = System.currentTimeMillis() - edadMinimaMs;
+        List<Decision> result = new ArrayList<>();
+        for (Decision decision : pending.values()) {
+            if (decision.decidedAt <= limite) {
+                result.add(decision);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Descarta los segmentos viejos: empieza un segmento nuevo, vuelve a escribir en él las
+     * decisiones pendientes y borra los anteriores.
+     */
+    void compact() throws IOException {
+        long sequence = log.rotate();
+        for (Decision decision : new ArrayList<>(pending.values())) {
+            log.append(encodeCommit(decision));
+        }
+        log.sync();
+        log.deleteSegmentsUpTo(sequence);
+    }
+    
+    private static byte[] encodeCommit(Decision decision) {
+        ByteBuffer buffer = ByteBuffer.allocate(COMMIT_LENGTH);
+        buffer.put(KIND_COMMIT);
+        buffer.putLong(decision.idTransaccion);
+        buffer.putInt(decision.idOrigen);
+        buffer.putInt(decision.idDestino);
+        buffer.putLong(decision.montoCentavos);
+        buffer.putInt(decision.nodoOrigen);
+        buffer.putInt(decision.nodoDestino);
+        buffer.putLong(decision.fechaMs);
+        return buffer.array();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
\ No newline at end of file
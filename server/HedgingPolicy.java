@@ -0,0 +1,93 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cuándo repetir una lectura en otra réplica ("hedged request"): si la primera no respondió
+ * dentro de cierto percentil de las latencias recientes, probablemente está demorada y
+ * conviene no esperarla. El percentil se recalcula cada tantas muestras, así la espera se
+ * adapta a la carga sin ordenar nada por solicitud.
+ */
+final class HedgingPolicy {
+    private static final int SAMPLES = 1024;
+    private static final int RECOMPUTE_EVERY = 128;
+    private static final long INITIAL_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long[] samples = new long[SAMPLES];
+    private final AtomicLong recorded = new AtomicLong();
+    private volatile long delayNanos = INITIAL_DELAY_NANOS;
+    
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    
+    HedgingPolicy(double percentile, long minDelayNanos) {
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayNanos;
+    }
+    
+    /**
+     * Registra la latencia de una respuesta de nodo. Las escrituras concurrentes pueden pisarse
+     * alguna muestra, lo que no afecta al percentil.
+     */
+    void recordLatency(long nanos) {
+        long count = recorded.incrementAndGet();
+        samples[(int) ((count - 1) % SAMPLES)] = nanos;
+        if (count % RECOMPUTE_EVERY == 0) {
+            long[] copy = Arrays.copyOf(samples, (int) Math.min(count, SAMPLES));
+            Arrays.sort(copy);
+            int index = (int) Math.min(copy.length - 1, Math.round(copy.length * percentile / 100.0));
+            delayNanos = Math.max(minDelayNanos, copy[index]);
+        }
+    }
+    
+    long hedgeDelayNanos() {
+        return delayNanos;
+    }
+    
+    void countRead() {
+        reads.increment();
+    }
+    
+    void countHedge() {
+        hedges.increment();
+    }
+    
+    void countHedgeWin() {
+        hedgeWins.increment();
+    }
+    
+    void countTimeout() {
+        timeouts.increment();
+    }
+    
+    long reads() {
+        return reads.sum();
+    }
+    
+    long hedges() {
+        return hedges.sum();
+    }
+    
+    long hedgeWins() {
+        return hedgeWins.sum();
+    }
+    
+    long timeouts() {
+        return timeouts.sum();
+    }
+    
+    String summary() {
+        long total = reads();
+        long hedged = hedges();
+        return String.format("Lecturas: %d, repetidas en otra réplica: %d (%.1f%%), ganadas por la repetición: %d,"
+                + " vencidas: %d, espera antes de repetir: %.1f ms", total, hedged,
+                total == 0 ? 0.0 : hedged * 100.0 / total, hedgeWins(), timeouts(), delayNanos / 1e6);
+    }
+}
\ No newline at end of file
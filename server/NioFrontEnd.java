@@ -0,0 +1,431 @@
+package server;
+
+import common.utils.Message;
+import common.utils.MessageCodec;
+import common.utils.MessageStream;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Front-end no bloqueante del servidor central basado en selectores de java.nio.
+ *
+ * Un hilo acepta conexiones y las reparte entre unos pocos hilos de E/S (reactores).
+ * Cada reactor lee las tramas binarias de sus conexiones, las decodifica y las deja en
+ * la cola de trabajo del pool de procesamiento; las respuestas vuelven al canal sin que
+ * ningún hilo quede bloqueado esperando a un cliente concreto.
+ *
+ * Las conexiones que llegan con serialización Java se pasan al manejador bloqueante.
+ *
+ * Antes de encolar cada solicitud se consulta el control de admisión: las rechazadas se
+ * responden desde el reactor, sin ocupar el pool.
+ */
+class NioFrontEnd {
+    private static final int INITIAL_READ_BUFFER = 4096;
+    private static final int HANDSHAKE_LENGTH = 5; // MAGIC (int) + versión (byte)
+    
+    private final int port;
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+    private final AdmissionControl admission;
+    private final Function<Message, Message> dispatcher;
+    private final BiConsumer<Socket, InputStream> legacyHandler;
+    private final int maxPipelinedPerConnection;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private volatile boolean running = true;
+    private ServerSocketChannel serverChannel;
+    
+    public NioFrontEnd(int port, int ioThreads, int maxPipelinedPerConnection, ExecutorService workers,
+                       AdmissionControl admission, Function<Message, Message> dispatcher,
+                       BiConsumer<Socket, InputStream> legacyHandler) throws IOException {
+        this.port = port;
+        this.workers = workers;
+        this.admission = admission;
+        this.dispatcher = dispatcher;
+        this.legacyHandler = legacyHandler;
+        this.maxPipelinedPerConnection = maxPipelinedPerConnection;
+        this.reactors = new Reactor[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            reactors[i] = new Reactor(i);
+        }
+    }
+    
+    /**
+     * Arranca los reactores y atiende el accept() en el hilo actual hasta que se detenga.
+     */
+    public void run() throws IOException {
+        for (Reactor reactor : reactors) {
+            Thread thread = new Thread(reactor, "nio-reactor-" + reactor.index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            openConnections.incrementAndGet();
+            reactors[next].register(channel);
+            next = (next + 1) % reactors.length;
+        }
+    }
+    
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Ya estaba cerrado
+        }
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+    }
+    
+    public int openConnections() {
+        return openConnections.get();
+    }
+    
+    private enum State { DETECT, HANDSHAKE, FRAMES }
+    
+    /**
+     * Estado de una conexión de cliente. Solo el reactor dueño lee del canal; las escrituras
+     * pueden hacerse desde los hilos de trabajo mientras se sostiene el monitor de la conexión.
+     */
+    private class Connection {
+        final SocketChannel channel;
+        final InetAddress address;
+        final Reactor reactor;
+        SelectionKey key;
+        ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        final Queue<ByteBuffer> outbound = new ArrayDeque<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        State state = State.DETECT;
+        int version = MessageCodec.VERSION;
+        boolean readPaused;
+        volatile boolean closed;
+        
+        Connection(SocketChannel channel, Reactor reactor) {
+            this.channel = channel;
+            this.address = channel.socket().getInetAddress();
+            this.reactor = reactor;
+        }
+        
+        /**
+         * Envía una trama. Si el socket acepta todo, no hace falta despertar al reactor;
+         * si queda algo pendiente, se pide OP_WRITE para que el reactor termine de vaciarlo.
+         */
+        void send(ByteBuffer frame) {
+            boolean needWriteInterest = false;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    if (outbound.isEmpty()) {
+                        channel.write(frame);
+                    }
+                    if (frame.hasRemaining()) {
+                        needWriteInterest = outbound.isEmpty();
+                        outbound.add(frame);
+                    }
+                } catch (IOException e) {
+                    reactor.execute(this::close);
+                    return;
+                }
+            }
+            if (needWriteInterest) {
+                reactor.execute(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                });
+            }
+        }
+        
+        /** Vacía la cola de salida; devuelve true si quedó vacía. Se llama desde el reactor. */
+        boolean flush() throws IOException {
+            synchronized (this) {
+                while (!outbound.isEmpty()) {
+                    ByteBuffer frame = outbound.peek();
+                    channel.write(frame);
+                    if (frame.hasRemaining()) {
+                        return false;
+                    }
+                    outbound.poll();
+                }
+                return true;
+            }
+        }
+        
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                outbound.clear();
+            }
+            openConnections.decrementAndGet();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignorar
+            }
+        }
+    }
+    
+    /**
+     * Hilo de E/S con su propio selector.
+     */
+    private class Reactor implements Runnable {
+        final int index;
+        final Selector selector;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final List<Connection> handoffs = new ArrayList<>();
+        
+        Reactor(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+        
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection conn = new Connection(channel, this);
+                    conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                } catch (IOException e) {
+                    openConnections.decrementAndGet();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Ignorar
+                    }
+                }
+            });
+        }
+        
+        /** Ejecuta una tarea en el hilo del reactor (los cambios de interés se hacen aquí) */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+        
+        void stop() {
+            selector.wakeup();
+        }
+        
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            if (key.isWritable() && conn.flush()) {
+                                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read(conn);
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            conn.close();
+                        } catch (RuntimeException | Error e) {
+                            // Una trama que rompe la decodificación o el encolado cierra solo su
+                            // conexión; el reactor sigue atendiendo a las demás
+                            System.err.println("Error en conexión de " + conn.address + ", se cierra: " + e);
+                            conn.close();
+                        }
+                    }
+                    
+                    if (!handoffs.isEmpty()) {
+                        completeHandoffs();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error en reactor NIO " + index + ": " + e);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignorar
+            }
+        }
+        
+        private void read(Connection conn) throws IOException {
+            ByteBuffer buffer = conn.readBuffer;
+            int n = conn.channel.read(buffer);
+            if (n < 0) {
+                conn.close();
+                return;
+            }
+            buffer.flip();
+            try {
+                while (true) {
+                    if (conn.state == State.DETECT) {
+                        if (buffer.remaining() < 2) break;
+                        int prefix = ((buffer.get(buffer.position()) & 0xFF) << 8) | (buffer.get(buffer.position() + 1) & 0xFF);
+                        if (prefix == MessageStream.JAVA_STREAM_MAGIC) {
+                            // Cliente con serialización Java: se atiende con el manejador bloqueante
+                            conn.key.cancel();
+                            handoffs.add(conn);
+                            return;
+                        }
+                        conn.state = State.HANDSHAKE;
+                    } else if (conn.state == State.HANDSHAKE) {
+                        if (buffer.remaining() < HANDSHAKE_LENGTH) break;
+                        int magic = buffer.getInt();
+                        int version = buffer.get() & 0xFF;
+                        if (magic != MessageStream.MAGIC || version < MessageCodec.MIN_VERSION) {
+                            conn.close();
+                            return;
+                        }
+                        conn.version = Math.min(version, MessageCodec.VERSION);
+                        ByteBuffer reply = ByteBuffer.allocate(HANDSHAKE_LENGTH);
+                        reply.putInt(MessageStream.MAGIC).put((byte) conn.version).flip();
+                        conn.send(reply);
+                        conn.state = State.FRAMES;
+                    } else {
+                        if (buffer.remaining() < 4) break;
+                        int length = buffer.getInt(buffer.position());
+                        if (length <= 0 || length > MessageCodec.MAX_FRAME_LENGTH) {
+                            conn.close();
+                            return;
+                        }
+                        if (buffer.remaining() < 4 + length) {
+                            if (buffer.remaining() == buffer.capacity() && buffer.capacity() < 4 + length) {
+                                // Buffer lleno con parte de una trama más grande: crece al doble (sin
+                                // pasar de la trama) a medida que llegan los bytes, no por lo que
+                                // anuncia el encabezado
+                                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(4L + length, 2L * buffer.capacity()));
+                                larger.put(buffer);
+                                conn.readBuffer = larger;
+                                return;
+                            }
+                            break;
+                        }
+                        buffer.position(buffer.position() + 4);
+                        ByteBuffer body = buffer.slice();
+                        body.limit(length);
+                        buffer.position(buffer.position() + length);
+                        submit(conn, MessageCodec.decode(body));
+                    }
+                }
+            } finally {
+                if (buffer == conn.readBuffer) {
+                    buffer.compact();
+                    if (buffer.capacity() > INITIAL_READ_BUFFER && buffer.position() < INITIAL_READ_BUFFER) {
+                        // Ya se consumió la trama grande: se vuelve al tamaño inicial
+                        buffer.flip();
+                        conn.readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER).put(buffer);
+                    }
+                }
+            }
+        }
+        
+        private void submit(Connection conn, Message request) {
+            Message rejection = admission.admit(conn.address, request);
+            if (rejection != null) {
+                conn.send(MessageCodec.encode(rejection, conn.version));
+                return;
+            }
+            if (conn.inFlight.incrementAndGet() >= maxPipelinedPerConnection && !conn.readPaused) {
+                // Demasiadas solicitudes en vuelo: dejar de leer hasta que se liberen
+                conn.readPaused = true;
+                conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            long admittedAt = System.nanoTime();
+            try {
+                workers.execute(() -> {
+                    Message response = dispatcher.apply(request);
+                    admission.complete(request, admittedAt, response);
+                    conn.send(MessageCodec.encode(response, conn.version));
+                    if (conn.inFlight.decrementAndGet() < maxPipelinedPerConnection / 2) {
+                        execute(() -> resumeReading(conn));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Cola del pool llena: se responde OCUPADO desde el reactor
+                conn.send(MessageCodec.encode(admission.overflow(request), conn.version));
+                if (conn.inFlight.decrementAndGet() < maxPipelinedPerConnection / 2) {
+                    resumeReading(conn);
+                }
+            }
+        }
+        
+        private void resumeReading(Connection conn) {
+            if (conn.readPaused && conn.key.isValid()) {
+                conn.readPaused = false;
+                conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+        
+        /**
+         * Pasa a modo bloqueante las conexiones con serialización Java. Hace falta un
+         * selectNow() para que la cancelación de la clave se haga efectiva antes.
+         */
+        private void completeHandoffs() throws IOException {
+            selector.selectNow();
+            for (Connection conn : handoffs) {
+                // Lo ya leído quedó compactado al inicio del buffer
+                ByteBuffer buffer = conn.readBuffer;
+                buffer.flip();
+                byte[] prefix = new byte[buffer.remaining()];
+                buffer.get(prefix);
+                try {
+                    conn.channel.configureBlocking(true);
+                    InputStream input = new SequenceInputStream(new ByteArrayInputStream(prefix),
+                            conn.channel.socket().getInputStream());
+                    openConnections.decrementAndGet();
+                    legacyHandler.accept(conn.channel.socket(), input);
+                } catch (IOException e) {
+                    conn.close();
+                }
+            }
+            handoffs.clear();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,269 @@
+package server;
+
+import common.utils.Message;
+import common.utils.MessageStream;
+import common.utils.MessageStream.WireFormat;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool de conexiones persistentes desde el servidor central hacia los nodos trabajadores.
+ * Cada nodo tiene su propio conjunto de canales reutilizables y un límite de solicitudes en vuelo.
+ */
+class NodeConnectionPool {
+    private final int maxInFlightPerNode;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final long acquireTimeoutMs;
+    private final WireFormat wireFormat;
+    private final Map<CentralServer.NodeInfo, NodeChannels> channelsByNode = new ConcurrentHashMap<>();
+    
+    /**
+     * La solicitud no llegó a salir: el límite de solicitudes en vuelo del nodo siguió lleno
+     * durante todo el plazo de espera, o se interrumpió la espera. El nodo no falló, está
+     * saturado; quien llama debe tratarlo como OCUPADO y no marcarlo inactivo.
+     */
+    static class NodeBusyException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        NodeBusyException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * Canales de un nodo: conexiones ociosas (LIFO para mantener calientes las más usadas)
+     * y un semáforo que limita cuántas solicitudes pueden estar en vuelo a la vez.
+     */
+    private static class NodeChannels {
+        final LinkedBlockingDeque<NodeConnection> idle = new LinkedBlockingDeque<>();
+        final Semaphore inFlight;
+        
+        NodeChannels(int maxInFlight) {
+            this.inFlight = new Semaphore(maxInFlight);
+        }
+        
+        void closeIdle() {
+            NodeConnection conn;
+            while ((conn = idle.pollFirst()) != null) {
+                conn.close();
+            }
+        }
+    }
+    
+    /**
+     * Conexión de larga duración hacia un nodo. El protocolo se negocia una sola vez al abrirla.
+     */
+    private static class NodeConnection {
+        final Socket socket;
+        final MessageStream stream;
+        long lastUsed;
+        
+        NodeConnection(Socket socket, WireFormat format) throws IOException {
+            this.socket = socket;
+            this.stream = MessageStream.connect(socket, format);
+            this.lastUsed = System.currentTimeMillis();
+        }
+        
+        Message exchange(Message request) throws IOException {
+            stream.write(request);
+            Message response = stream.read();
+            lastUsed = System.currentTimeMillis();
+            return response;
+        }
+        
+        boolean isUsable() {
+            return !socket.isClosed() && socket.isConnected() && !socket.isInputShutdown();
+        }
+        
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignorar: la conexión se descarta de todas formas
+            }
+        }
+    }
+    
+    public NodeConnectionPool(int maxInFlightPerNode, int connectTimeoutMs, int readTimeoutMs, long acquireTimeoutMs,
+                              WireFormat wireFormat) {
+        this.maxInFlightPerNode = maxInFlightPerNode;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.wireFormat = wireFormat;
+    }
+    
+    /**
+     * Envía una solicitud al nodo y espera su respuesta usando una conexión del pool.
+     * Si una conexión reutilizada resulta estar cerrada por el nodo, se reintenta una vez
+     * con una conexión nueva (reconexión transparente), pero solo si reenviar la solicitud no
+     * puede aplicarla dos veces (ver {@link #isSafeToResend}): el nodo pudo haberla recibido y
+     * procesado antes de cerrar.
+     *
+     * Lleva en el nodo las solicitudes en curso y la latencia de las respuestas (también la de
+     * las que vencieron), que el servidor usa para elegir réplica.
+     */
+    public Message call(CentralServer.NodeInfo node, Message request) throws IOException {
+        NodeChannels channels = channelsByNode.computeIfAbsent(node, n -> new NodeChannels(maxInFlightPerNode));
+        
+        try {
+            if (!channels.inFlight.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new NodeBusyException("Límite de solicitudes en vuelo alcanzado para " + node.host + ":" + node.port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeBusyException("Interrumpido esperando una conexión al nodo");
+        }
+        
+        long start = System.nanoTime();
+        node.outstanding.incrementAndGet();
+        try {
+            NodeConnection conn = borrow(channels);
+            boolean reused = conn != null;
+            if (conn == null) {
+                conn = open(node);
+            }
+            
+            try {
+                Message response = conn.exchange(request);
+                received(node, start);
+                channels.idle.offerFirst(conn);
+                return response;
+            } catch (EOFException | SocketException e) {
+                conn.close();
+                if (!reused || !isSafeToResend(request)) {
+                    throw e;
+                }
+                // El nodo cerró la conexión mientras estaba ociosa: el resto de ociosas probablemente también
+                channels.closeIdle();
+            } catch (IOException e) {
+                // Timeouts y otros errores no se reintentan: la solicitud podría estar en curso en el nodo
+                conn.close();
+                throw e;
+            }
+            
+            NodeConnection fresh = open(node);
+            try {
+                Message response = fresh.exchange(request);
+                received(node, start);
+                channels.idle.offerFirst(fresh);
+                return response;
+            } catch (IOException e) {
+                fresh.close();
+                throw e;
+            }
+        } catch (SocketTimeoutException e) {
+            node.recordLatency(System.nanoTime() - start);
+            throw e;
+        } finally {
+            node.outstanding.decrementAndGet();
+            channels.inFlight.release();
+        }
+    }
+    
+    /**
+     * Consultas, y escrituras que el nodo reconoce si le llegan repetidas: transferencias con el
+     * id asignado por el servidor, las fases de la confirmación en dos fases y la replicación,
+     * que trae su secuencia. Una transferencia sin id se aplicaría otra vez.
+     */
+    private static boolean isSafeToResend(Message request) {
+        switch (request.getType()) {
+            case CONSULTAR_SALDO:
+            case CONSULTAR_SALDOS:
+            case CONSULTAR_MOVIMIENTOS:
+            case RESERVAS_PENDIENTES:
+            case NODE_STATUS:
+            case HEARTBEAT:
+            case PREPARAR:
+            case CONFIRMAR:
+            case ABORTAR:
+            case REPLICAR:
+                return true;
+            case TRANSFERIR_FONDOS:
+            case TRANSFERIR_LOTE:
+                return request.getParams() != null && request.getParams().length > 3;
+            default:
+                return false;
+        }
+    }
+    
+    private static void received(CentralServer.NodeInfo node, long start) {
+        long now = System.nanoTime();
+        node.recordLatency(now - start);
+        node.detector.heartbeat(now);
+    }
+    
+    private NodeConnection borrow(NodeChannels channels) {
+        NodeConnection conn;
+        while ((conn = channels.idle.pollFirst()) != null) {
+            if (conn.isUsable()) {
+                return conn;
+            }
+            conn.close();
+        }
+        return null;
+    }
+    
+    private NodeConnection open(CentralServer.NodeInfo node) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(node.host, node.port), connectTimeoutMs);
+            socket.setSoTimeout(readTimeoutMs);
+            return new NodeConnection(socket, wireFormat);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Cierra todas las conexiones ociosas de un nodo (por ejemplo, cuando se marca como inactivo).
+     */
+    public void invalidate(CentralServer.NodeInfo node) {
+        NodeChannels channels = channelsByNode.get(node);
+        if (channels != null) {
+            channels.closeIdle();
+        }
+    }
+    
+    /**
+     * Verificación de salud del pool: descarta las conexiones cerradas o que llevan
+     * demasiado tiempo sin usarse.
+     */
+    public void evictIdle(long maxIdleMillis) {
+        long now = System.currentTimeMillis();
+        for (NodeChannels channels : channelsByNode.values()) {
+            channels.idle.removeIf(conn -> {
+                if (!conn.isUsable() || now - conn.lastUsed > maxIdleMillis) {
+                    conn.close();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+    
+    public int idleConnections(CentralServer.NodeInfo node) {
+        NodeChannels channels = channelsByNode.get(node);
+        return channels == null ? 0 : channels.idle.size();
+    }
+    
+    public void close() {
+        for (NodeChannels channels : channelsByNode.values()) {
+            channels.closeIdle();
+        }
+        channelsByNode.clear();
+    }
+}
\ No newline at end of file
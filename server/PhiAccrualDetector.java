@@ -0,0 +1,106 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detector de fallas "phi accrual": en lugar de un plazo fijo, estima la distribución de los
+ * intervalos entre señales de vida del nodo y devuelve phi, que mide cuán improbable es que
+ * el silencio actual sea normal (phi = 8 equivale a una probabilidad de 1 en 10^8). Así un
+ * nodo que responde con regularidad se detecta caído rápido, y uno con latencias variables
+ * tiene más margen.
+ *
+ * Cualquier respuesta del nodo cuenta como señal de vida. Con tráfico llegan muchas por
+ * intervalo, por eso se toma como mucho una muestra cada medio intervalo: la distribución
+ * queda en la escala de los heartbeats, que solo se envían cuando no hubo tráfico.
+ */
+final class PhiAccrualDetector {
+    private static final int WINDOW = 200;
+    
+    private final long intervalNanos;
+    private final long minStdDevNanos;
+    private final long acceptablePauseNanos;
+    private final long[] intervals = new long[WINDOW];
+    private int count;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+    private long lastSampleAt;
+    private volatile long lastHeardAt;
+    
+    PhiAccrualDetector(long intervalMs, long minStdDevMs, long acceptablePauseMs) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.minStdDevNanos = TimeUnit.MILLISECONDS.toNanos(minStdDevMs);
+        this.acceptablePauseNanos = TimeUnit.MILLISECONDS.toNanos(acceptablePauseMs);
+        reset();
+    }
+    
+    /**
+     * Registra una señal de vida (heartbeat o cualquier respuesta del nodo).
+     */
+    synchronized void heartbeat(long nowNanos) {
+        if (lastSampleAt == 0) {
+            lastSampleAt = nowNanos;
+        } else if (nowNanos - lastSampleAt >= intervalNanos / 2) {
+            addInterval(nowNanos - lastSampleAt);
+            lastSampleAt = nowNanos;
+        }
+        lastHeardAt = nowNanos;
+    }
+    
+    /**
+     * Olvida lo aprendido; se usa al marcar el nodo inactivo, para que la pausa de la caída no
+     * cuente como un intervalo normal cuando vuelva.
+     */
+    synchronized void reset() {
+        count = 0;
+        next = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        lastSampleAt = 0;
+        lastHeardAt = 0;
+        // Arranca suponiendo heartbeats regulares, con un desvío de un cuarto del intervalo
+        addInterval(intervalNanos - intervalNanos / 4);
+        addInterval(intervalNanos + intervalNanos / 4);
+    }
+    
+    /**
+     * Tiempo desde la última señal de vida; 0 si todavía no hubo ninguna.
+     */
+    long silenceNanos(long nowNanos) {
+        long last = lastHeardAt;
+        return (last == 0) ? 0 : nowNanos - last;
+    }
+    
+    synchronized double phi(long nowNanos) {
+        long silence = silenceNanos(nowNanos);
+        if (silence == 0) {
+            return 0.0;
+        }
+        double mean = sum / count;
+        double variance = Math.max(0.0, sumOfSquares / count - mean * mean);
+        double stdDev = Math.max(Math.sqrt(variance), minStdDevNanos);
+        mean += acceptablePauseNanos;
+        
+        // Aproximación logística de la cola de la normal
+        double y = (silence - mean) / stdDev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (silence > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+    
+    private void addInterval(long nanos) {
+        if (count == WINDOW) {
+            long oldest = intervals[next];
+            sum -= oldest;
+            sumOfSquares -= (double) oldest * oldest;
+        } else {
+            count++;
+        }
+        intervals[next] = nanos;
+        next = (next + 1) % WINDOW;
+        sum += nanos;
+        sumOfSquares += (double) nanos * nanos;
+    }
+}
\ No newline at end of file
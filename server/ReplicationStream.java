@@ -0,0 +1,498 @@
+package server;
+
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream;
+import common.utils.MessageStream.WireFormat;
+import common.utils.WriteAheadLog;
+import common.utils.WriteAheadLog.SyncPolicy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Flujo de replicación hacia un nodo: las transferencias ya aplicadas por el nodo principal
+ * se numeran con una secuencia propia de esta réplica y se envían en lotes, por una única
+ * conexión y con varios lotes en vuelo a la vez. La réplica aplica los cambios de saldo en
+ * orden de secuencia (sin volver a validarlos) y responde con la última secuencia aplicada.
+ * Cada cambio lleva la fecha que le asignó el servidor, así la réplica registra la misma
+ * que el nodo principal.
+ *
+ * Lo enviado y no confirmado se conserva: si la conexión se corta, al reconectar se reenvía
+ * desde la última secuencia confirmada. La época (el arranque del servidor) permite a la
+ * réplica distinguir un flujo nuevo de uno ya conocido.
+ *
+ * Cada cambio se registra antes en un log propio del flujo, y la secuencia del log es la del
+ * flujo. En memoria se guardan como mucho MAX_BUFFERED cambios; si la réplica se atrasa más,
+ * los siguientes quedan solo en disco y se vuelven a leer del log a medida que se envían, así
+ * que no se descarta ninguno. Al reiniciar el servidor se reenvía lo que quedó en el log (la
+ * réplica saltea las transferencias que ya tiene registradas). Lo confirmado se borra del log
+ * al compactarlo.
+ *
+ * Formato de cada registro: long id | int origen | int destino | long monto en centavos | long fecha.
+ */
+final class ReplicationStream implements Closeable {
+    private static final int MAX_BATCH = 256;
+    private static final int MAX_IN_FLIGHT_BATCHES = 8;
+    private static final int MAX_BUFFERED = 1_000_000;
+    private static final long RECONNECT_DELAY_MS = 500;
+    private static final long RELOAD_RETRY_MS = 10;
+    private static final int RECORD_LENGTH = 8 + 4 + 4 + 8 + 8;
+    
+    private static final class Entry {
+        final long sequence;
+        final long idTransaccion;
+        final int idOrigen;
+        final int idDestino;
+        final long montoCentavos;
+        final long fechaMs;
+        
+        Entry(long sequence, long idTransaccion, int idOrigen, int idDestino, long montoCentavos, long fechaMs) {
+            this.sequence = sequence;
+            this.idTransaccion = idTransaccion;
+            this.idOrigen = idOrigen;
+            this.idDestino = idDestino;
+            this.montoCentavos = montoCentavos;
+            this.fechaMs = fechaMs;
+        }
+    }
+    
+    private final int nodeId;
+    private volatile CentralServer.NodeInfo node;
+    private final long epoch;
+    private final WireFormat wireFormat;
+    private final int connectTimeoutMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition sendable = lock.newCondition();
+    private final ArrayDeque<Entry> unsent = new ArrayDeque<>();
+    private final ArrayDeque<Entry> unacked = new ArrayDeque<>();
+    private final WriteAheadLog log;
+    // La relectura del log y la compactación no se cruzan: una no debe leer un segmento que la otra borra
+    private final ReentrantLock logLock = new ReentrantLock();
+    private long lastSequence;
+    // Los cambios con secuencia mayor están solo en el log, todavía no se cargaron en memoria
+    private long loadedSequence;
+    private long ackedSequence;
+    private long compactedSequence;
+    private int inFlightBatches;
+    // Hasta la primera confirmación de una conexión nueva se envía un solo lote, para que la
+    // réplica tome como punto de partida el primero y no uno que se procesó antes
+    private boolean connectionAcked;
+    private boolean spillReported;
+    private MessageStream stream;
+    private volatile boolean running = true;
+    private final Thread sender;
+    
+    ReplicationStream(int nodeId, CentralServer.NodeInfo node, long epoch, WireFormat wireFormat, int connectTimeoutMs,
+            Path logDirectory) throws IOException {
+        this.nodeId = nodeId;
+        this.node = node;
+        this.epoch = epoch;
+        this.wireFormat = wireFormat;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.log = new WriteAheadLog(logDirectory, SyncPolicy.fromConfig(), 5);
+        
+        // Lo que quedó en el log es lo que la réplica quizás no recibió: el hilo de envío lo carga de ahí
+        long[] first = { 0 };
+        log.replay(0, (seq, payload) -> {
+            decode(seq, payload);
+            if (first[0] == 0) {
+                first[0] = seq;
+            }
+        });
+        lastSequence = log.lastSequence();
+        loadedSequence = (first[0] > 0) ? first[0] - 1 : lastSequence;
+        ackedSequence = loadedSequence;
+        compactedSequence = loadedSequence;
+        if (lastSequence > loadedSequence) {
+            System.out.println("Replicación hacia nodo " + nodeId + ": " + (lastSequence - loadedSequence)
+                    + " cambios recuperados del log para reenviar");
+        }
+        
+        this.sender = new Thread(this::sendLoop, "replica-" + nodeId + "-envio");
+        sender.setDaemon(true);
+        sender.start();
+    }
+    
+    /**
+     * Registra y encola una transferencia aplicada. No espera al disco ni al envío: para lo
+     * primero está sync, lo segundo lo hace el hilo del flujo.
+     */
+    void publish(long idTransaccion, int idOrigen, int idDestino, long montoCentavos, long fechaMs) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+        record.putLong(idTransaccion);
+        record.putInt(idOrigen);
+        record.putInt(idDestino);
+        record.putLong(montoCentavos);
+        record.putLong(fechaMs);
+        
+        lock.lock();
+        try {
+            // Se agrega al log con el lock tomado para que el orden del log sea el de la cola
+            long sequence = log.append(record.array());
+            lastSequence = sequence;
+            if (loadedSequence == sequence - 1 && unsent.size() + unacked.size() < MAX_BUFFERED) {
+                unsent.addLast(new Entry(sequence, idTransaccion, idOrigen, idDestino, montoCentavos, fechaMs));
+                loadedSequence = sequence;
+                sendable.signal();
+            } else if (!spillReported) {
+                // La réplica lleva demasiado tiempo sin confirmar: lo nuevo queda solo en disco
+                spillReported = true;
+                System.out.println("Replicación hacia nodo " + nodeId + " atrasada: los cambios se guardan solo en disco");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Espera lo que exija la política de sincronización para que lo publicado hasta ahora
+     * sobreviva a un reinicio del servidor.
+     */
+    void sync() throws IOException {
+        long sequence;
+        lock.lock();
+        try {
+            sequence = lastSequence;
+        } finally {
+            lock.unlock();
+        }
+        log.commit(sequence);
+    }
+    
+    /**
+     * Apunta el flujo a otra dirección del nodo (se volvió a registrar): se reconecta y se
+     * reenvía desde la última secuencia confirmada, sin perder lo pendiente.
+     */
+    void retarget(CentralServer.NodeInfo node) {
+        this.node = node;
+        MessageStream current;
+        lock.lock();
+        try {
+            current = stream;
+        } finally {
+            lock.unlock();
+        }
+        disconnect(current);
+    }
+    
+    /**
+     * Borra del log los segmentos cuyos cambios ya confirmó la réplica.
+     */
+    void compact() throws IOException {
+        long acked;
+        lock.lock();
+        try {
+            acked = ackedSequence;
+            if (acked <= compactedSequence) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        logLock.lock();
+        try {
+            log.rotate();
+            log.deleteSegmentsUpTo(acked);
+            compactedSequence = acked;
+        } finally {
+            logLock.unlock();
+        }
+    }
+    
+    /**
+     * Cambios publicados que la réplica todavía no confirmó.
+     */
+    long lagEntries() {
+        lock.lock();
+        try {
+            return lastSequence - ackedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Antigüedad del cambio más viejo sin confirmar según su fecha, en milisegundos (0 si está al día).
+     */
+    long lagMillis() {
+        lock.lock();
+        try {
+            Entry oldest = !unacked.isEmpty() ? unacked.peekFirst() : unsent.peekFirst();
+            return (oldest == null) ? 0 : Math.max(0, System.currentTimeMillis() - oldest.fechaMs);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Cambios que por ahora están solo en el log, esperando lugar en memoria para enviarse.
+     */
+    long spilled() {
+        lock.lock();
+        try {
+            return lastSequence - loadedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void sendLoop() {
+        while (running) {
+            MessageStream current = null;
+            try {
+                current = connectIfNeeded();
+                if (reloadNeeded() && reload() == 0) {
+                    // Lo último todavía no llegó al archivo del log
+                    Thread.sleep(RELOAD_RETRY_MS);
+                    continue;
+                }
+                Message batch = nextBatch(current);
+                if (batch != null) {
+                    current.write(batch);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                disconnect(current);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    private MessageStream connectIfNeeded() throws IOException {
+        lock.lock();
+        try {
+            if (stream != null) {
+                return stream;
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        CentralServer.NodeInfo node = this.node;
+        Socket socket = new Socket();
+        MessageStream opened;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(node.host, node.port), connectTimeoutMs);
+            opened = MessageStream.connect(socket, wireFormat);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        
+        lock.lock();
+        try {
+            stream = opened;
+            inFlightBatches = 0;
+            connectionAcked = false;
+        } finally {
+            lock.unlock();
+        }
+        Thread reader = new Thread(() -> readAcks(opened), "replica-" + nodeId + "-acks");
+        reader.setDaemon(true);
+        reader.start();
+        return opened;
+    }
+    
+    private boolean reloadNeeded() {
+        lock.lock();
+        try {
+            return unsent.isEmpty() && loadedSequence < lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Carga del log los cambios que quedaron solo en disco, hasta llenar la memoria. Devuelve
+     * cuántos cargó.
+     */
+    private int reload() throws IOException {
+        long from;
+        int capacity;
+        lock.lock();
+        try {
+            from = loadedSequence;
+            capacity = MAX_BUFFERED - unsent.size() - unacked.size();
+        } finally {
+            lock.unlock();
+        }
+        
+        List<Entry> loaded = new ArrayList<>();
+        logLock.lock();
+        try {
+            log.replay(from, (seq, payload) -> {
+                if (loaded.size() < capacity) {
+                    loaded.add(decode(seq, payload));
+                }
+            });
+        } finally {
+            logLock.unlock();
+        }
+        
+        lock.lock();
+        try {
+            int count = 0;
+            for (Entry entry : loaded) {
+                if (entry.sequence != loadedSequence + 1) {
+                    break;
+                }
+                unsent.addLast(entry);
+                loadedSequence = entry.sequence;
+                count++;
+            }
+            if (loadedSequence == lastSequence) {
+                spillReported = false;
+            }
+            sendable.signal();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static Entry decode(long seq, ByteBuffer payload) throws IOException {
+        if (payload.remaining() != RECORD_LENGTH) {
+            throw new IOException("Registro del log de replicación inválido en la secuencia " + seq);
+        }
+        return new Entry(seq, payload.getLong(), payload.getInt(), payload.getInt(), payload.getLong(), payload.getLong());
+    }
+    
+    /**
+     * Espera a que haya cambios sin enviar y lugar en la ventana de lotes en vuelo, y arma el
+     * siguiente lote. Devuelve null si la conexión cambió mientras esperaba o si hay que cargar
+     * cambios del log.
+     */
+    private Message nextBatch(MessageStream current) throws InterruptedException {
+        lock.lock();
+        try {
+            while (running && stream == current
+                    && (unsent.isEmpty() && loadedSequence == lastSequence || inFlightBatches >= window())) {
+                sendable.await();
+            }
+            if (!running || stream != current || unsent.isEmpty()) {
+                return null;
+            }
+            int count = Math.min(MAX_BATCH, unsent.size());
+            long[] ids = new long[count];
+            int[] origenes = new int[count];
+            int[] destinos = new int[count];
+            long[] montos = new long[count];
+            long[] fechas = new long[count];
+            long firstSequence = unsent.peekFirst().sequence;
+            for (int i = 0; i < count; i++) {
+                Entry entry = unsent.pollFirst();
+                ids[i] = entry.idTransaccion;
+                origenes[i] = entry.idOrigen;
+                destinos[i] = entry.idDestino;
+                montos[i] = entry.montoCentavos;
+                fechas[i] = entry.fechaMs;
+                unacked.addLast(entry);
+            }
+            inFlightBatches++;
+            return new Message(OperationType.REPLICAR, epoch, firstSequence, ids, origenes, destinos, montos, fechas);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private int window() {
+        return connectionAcked ? MAX_IN_FLIGHT_BATCHES : 1;
+    }
+    
+    private void readAcks(MessageStream current) {
+        try {
+            while (running) {
+                Message response = current.read();
+                if (!response.isOk()) {
+                    throw new IOException(response.getStatus());
+                }
+                node.detector.heartbeat(System.nanoTime());
+                acknowledge(current, ((Number) response.getResult()).longValue());
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.out.println("Replicación hacia nodo " + nodeId + " interrumpida: " + e.getMessage());
+            }
+            disconnect(current);
+        }
+    }
+    
+    private void acknowledge(MessageStream current, long appliedSequence) {
+        lock.lock();
+        try {
+            if (stream != current) {
+                return;
+            }
+            while (!unacked.isEmpty() && unacked.peekFirst().sequence <= appliedSequence) {
+                unacked.pollFirst();
+            }
+            ackedSequence = Math.max(ackedSequence, appliedSequence);
+            inFlightBatches--;
+            connectionAcked = true;
+            sendable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Cierra la conexión y devuelve lo no confirmado al frente de la cola para reenviarlo.
+     */
+    private void disconnect(MessageStream current) {
+        lock.lock();
+        try {
+            if (current == null || stream != current) {
+                return;
+            }
+            stream = null;
+            for (Iterator<Entry> it = unacked.descendingIterator(); it.hasNext(); ) {
+                unsent.addFirst(it.next());
+            }
+            unacked.clear();
+            sendable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            current.close();
+        } catch (IOException e) {
+            // Ya estaba cerrada
+        }
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        sender.interrupt();
+        MessageStream current;
+        lock.lock();
+        try {
+            current = stream;
+        } finally {
+            lock.unlock();
+        }
+        disconnect(current);
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error cerrando el log de replicación del nodo " + nodeId + ": " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file
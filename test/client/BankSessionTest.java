@@ -0,0 +1,155 @@
+package client;
+
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream;
+import common.utils.MessageStream.WireFormat;
+import testing.Check;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BankSession contra un servidor de prueba que controla el orden de las respuestas: cada
+ * respuesta llega a su solicitud aunque vuelvan en otro orden o desde varios hilos, y al
+ * cerrarse la conexión las solicitudes pendientes fallan en lugar de esperar para siempre.
+ */
+public final class BankSessionTest {
+    
+    private BankSessionTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        for (WireFormat format : WireFormat.values()) {
+            respuestasDesordenadas(format);
+            variosHilos(format);
+            cierreDelServidor(format);
+        }
+    }
+    
+    // Orden en que el servidor de prueba responde las solicitudes que leyó
+    private interface Order {
+        List<Message> apply(List<Message> requests);
+    }
+    
+    /**
+     * Servidor de una sola conexión: lee count solicitudes y las responde en el orden que
+     * decide order (con el primer parámetro como resultado); con count negativo responde cada
+     * una al llegar hasta que se cierra la conexión, y con order null cierra sin responder.
+     */
+    private static ServerSocket serve(int count, Order order) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept(); MessageStream stream = MessageStream.accept(socket)) {
+                if (count < 0) {
+                    while (true) {
+                        stream.write(reply(stream.read()));
+                    }
+                }
+                List<Message> requests = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    requests.add(stream.read());
+                }
+                if (order != null) {
+                    for (Message request : order.apply(requests)) {
+                        stream.write(reply(request));
+                    }
+                }
+            } catch (IOException e) {
+                // El cliente cerró la sesión
+            }
+        }, "prueba-servidor");
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+    
+    private static Message reply(Message request) {
+        Message response = new Message(OperationType.RESPONSE);
+        response.setRequestId(request.getRequestId());
+        response.setResult(request.getParams()[0]);
+        return response;
+    }
+    
+    private static void respuestasDesordenadas(WireFormat format) throws Exception {
+        try (ServerSocket server = serve(100, requests -> {
+            List<Message> reversed = new ArrayList<>(requests);
+            Collections.reverse(reversed);
+            return reversed;
+        }); BankSession session = new BankSession("localhost", server.getLocalPort(), format)) {
+            List<CompletableFuture<Message>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(session.send(new Message(OperationType.CONSULTAR_SALDO, i)));
+            }
+            boolean matched = true;
+            for (int i = 0; i < 100; i++) {
+                matched &= Integer.valueOf(i).equals(futures.get(i).get(10, TimeUnit.SECONDS).getResult());
+            }
+            Check.isTrue(matched, "cada respuesta llega a su solicitud aunque vuelvan al revés, con " + format);
+            Check.equal(0, session.pendingRequests(), "no quedan solicitudes pendientes con " + format);
+        }
+    }
+    
+    private static void variosHilos(WireFormat format) throws Exception {
+        try (ServerSocket server = serve(-1, null);
+             BankSession session = new BankSession("localhost", server.getLocalPort(), format)) {
+            int threads = 8;
+            int perThread = 500;
+            boolean[] matched = new boolean[threads];
+            List<Thread> senders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                senders.add(new Thread(() -> {
+                    List<CompletableFuture<Message>> futures = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        futures.add(session.send(new Message(OperationType.CONSULTAR_SALDO, thread * perThread + i)));
+                    }
+                    matched[thread] = true;
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            Object result = futures.get(i).get(10, TimeUnit.SECONDS).getResult();
+                            matched[thread] &= Integer.valueOf(thread * perThread + i).equals(result);
+                        }
+                    } catch (Exception e) {
+                        matched[thread] = false;
+                    }
+                }));
+            }
+            senders.forEach(Thread::start);
+            boolean all = true;
+            for (int t = 0; t < threads; t++) {
+                senders.get(t).join();
+                all &= matched[t];
+            }
+            Check.isTrue(all, "solicitudes de varios hilos por la misma sesión, con " + format);
+        }
+    }
+    
+    private static void cierreDelServidor(WireFormat format) throws Exception {
+        try (ServerSocket server = serve(3, null);
+             BankSession session = new BankSession("localhost", server.getLocalPort(), format)) {
+            List<CompletableFuture<Message>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(session.send(new Message(OperationType.CONSULTAR_SALDO, i)));
+            }
+            for (CompletableFuture<Message> future : futures) {
+                Check.fails(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS),
+                        "una solicitud pendiente falla al cerrarse la conexión, con " + format);
+            }
+            Check.fails(IOException.class, () -> session.call(new Message(OperationType.CONSULTAR_SALDO, 9)),
+                    "una solicitud nueva falla en lugar de esperar, con " + format);
+        }
+    }
+}
\ No newline at end of file
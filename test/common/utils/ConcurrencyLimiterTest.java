@@ -0,0 +1,110 @@
+package common.utils;
+
+import testing.Check;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ajuste del ConcurrencyLimiter: admite hasta el límite, baja de forma multiplicativa con
+ * descartes, sube con latencia estable y carga, y baja cuando la latencia crece. Las ventanas
+ * se miden con un reloj manual, así que las pruebas no esperan ni dependen de la máquina.
+ */
+public final class ConcurrencyLimiterTest {
+    private static final long RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static long now;
+    
+    private ConcurrencyLimiterTest() {
+    }
+    
+    public static void main(String[] args) {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() {
+        admision();
+        descartes();
+        minimoYMaximo();
+        subeConLatenciaEstable();
+        bajaConLatenciaCreciente();
+    }
+    
+    private static ConcurrencyLimiter limiter(int initialLimit, int minLimit, int maxLimit) {
+        return new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, () -> now);
+    }
+    
+    /**
+     * Completa una ventana: adelanta el reloj su duración mínima y libera samples solicitudes
+     * con la latencia indicada, cada una con inFlight solicitudes en curso.
+     */
+    private static void window(ConcurrencyLimiter limiter, int samples, int inFlight, long rttNanos, boolean dropped) {
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < samples; i++) {
+            for (int j = 0; j < inFlight; j++) {
+                limiter.tryAcquire();
+            }
+            for (int j = 0; j < inFlight; j++) {
+                limiter.release(rttNanos, dropped);
+            }
+        }
+    }
+    
+    private static void admision() {
+        ConcurrencyLimiter limiter = limiter(3, 1, 10);
+        Check.isTrue(limiter.tryAcquire() && limiter.tryAcquire() && limiter.tryAcquire(), "admite hasta el límite");
+        Check.isTrue(!limiter.tryAcquire(), "rechaza por encima del límite");
+        Check.equal(3, limiter.inFlight(), "en curso");
+        Check.equal(1L, limiter.rejected(), "rechazadas");
+        limiter.release(RTT_NANOS, false);
+        Check.equal(2, limiter.inFlight(), "release libera un lugar");
+        Check.isTrue(limiter.tryAcquire(), "el lugar liberado se puede usar");
+        Check.equal(3, limiter.limit(), "menos muestras que una ventana no cambian el límite");
+    }
+    
+    private static void descartes() {
+        ConcurrencyLimiter limiter = limiter(100, 1, 1000);
+        window(limiter, 10, 1, RTT_NANOS, true);
+        Check.equal(90, limiter.limit(), "un descarte baja el límite un 10%");
+        window(limiter, 10, 1, RTT_NANOS, true);
+        Check.equal(81, limiter.limit(), "otro descarte lo vuelve a bajar");
+        
+        limiter.tryAcquire();
+        limiter.release(RTT_NANOS, true);
+        Check.equal(81, limiter.limit(), "el límite se recalcula una vez por ventana, no por muestra");
+    }
+    
+    private static void minimoYMaximo() {
+        ConcurrencyLimiter limiter = limiter(11, 10, 12);
+        window(limiter, 10, 1, RTT_NANOS, true);
+        window(limiter, 10, 1, RTT_NANOS, true);
+        Check.equal(10, limiter.limit(), "no baja del mínimo");
+        for (int i = 0; i < 5; i++) {
+            window(limiter, 10, 12, RTT_NANOS, false);
+        }
+        Check.equal(12, limiter.limit(), "no sube del máximo");
+        Check.equal(50, limiter(500, 1, 50).limit(), "el límite inicial se ajusta al rango");
+    }
+    
+    private static void subeConLatenciaEstable() {
+        ConcurrencyLimiter limiter = limiter(100, 1, 1000);
+        window(limiter, 10, 60, RTT_NANOS, false);
+        Check.isTrue(limiter.limit() > 100, "sube con latencia estable y el límite en uso: " + limiter.limit());
+        
+        ConcurrencyLimiter idle = limiter(100, 1, 1000);
+        window(idle, 10, 1, RTT_NANOS, false);
+        Check.equal(100, idle.limit(), "con poca carga no sube");
+    }
+    
+    private static void bajaConLatenciaCreciente() {
+        ConcurrencyLimiter limiter = limiter(100, 1, 1000);
+        window(limiter, 10, 1, RTT_NANOS, false);
+        int before = limiter.limit();
+        window(limiter, 10, 1, RTT_NANOS * 4, false);
+        Check.isTrue(limiter.limit() < before, "baja cuando se forma cola: " + before + " -> " + limiter.limit());
+        
+        ConcurrencyLimiter tolerant = limiter(100, 1, 1000);
+        window(tolerant, 10, 1, RTT_NANOS, false);
+        window(tolerant, 10, 1, RTT_NANOS * 5 / 4, false);
+        Check.equal(100, tolerant.limit(), "una suba de latencia dentro de la tolerancia no lo baja");
+    }
+}
\ No newline at end of file
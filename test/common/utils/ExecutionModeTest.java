@@ -0,0 +1,113 @@
+package common.utils;
+
+import testing.Check;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pools de ExecutionMode: con PLATFORM, hilos con nombre y un máximo fijo en ejecución, y la
+ * cola acotada rechaza en lugar de acumular; con VIRTUAL, una tarea bloqueada no demora a
+ * las demás (cada una tiene su hilo, virtual si la JVM los soporta).
+ */
+public final class ExecutionModeTest {
+    
+    private ExecutionModeTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        poolFijo();
+        colaAcotada();
+        hiloPorTarea();
+    }
+    
+    private static void poolFijo() throws Exception {
+        ExecutorService pool = ExecutionMode.PLATFORM.newTaskPool("prueba-pool", 2);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            Future<?>[] tasks = new Future<?>[6];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = pool.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                });
+            }
+            for (Future<?> task : tasks) {
+                task.get(10, TimeUnit.SECONDS);
+            }
+            Check.isTrue(maxRunning.get() <= 2, "no corren más tareas que hilos: " + maxRunning.get());
+            Thread thread = pool.submit(Thread::currentThread).get();
+            Check.isTrue(thread.getName().startsWith("prueba-pool-"), "los hilos llevan el nombre del pool");
+            Check.isTrue(thread.isDaemon(), "los hilos no impiden que termine el proceso");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private static void colaAcotada() throws Exception {
+        ExecutorService pool = ExecutionMode.PLATFORM.newTaskPool("prueba-cola", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            pool.submit(() -> {
+                started.countDown();
+                release.await();
+                return null;
+            });
+            started.await(10, TimeUnit.SECONDS);
+            pool.submit(() -> { });
+            Check.fails(RejectedExecutionException.class, () -> pool.submit(() -> { }),
+                    "con el hilo ocupado y la cola llena se rechaza");
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+    
+    private static void hiloPorTarea() throws Exception {
+        for (ExecutorService pool : new ExecutorService[] {
+                ExecutionMode.VIRTUAL.newTaskPool("prueba-virtual", 1),
+                ExecutionMode.VIRTUAL.newConnectionPool("prueba-virtual") }) {
+            try {
+                int tasks = 200;
+                CountDownLatch allStarted = new CountDownLatch(tasks);
+                CountDownLatch release = new CountDownLatch(1);
+                for (int i = 0; i < tasks; i++) {
+                    pool.submit(() -> {
+                        allStarted.countDown();
+                        release.await();
+                        return null;
+                    });
+                }
+                Check.isTrue(allStarted.await(10, TimeUnit.SECONDS),
+                        "las " + tasks + " tareas bloqueadas corren a la vez aunque se pidió un hilo");
+                release.countDown();
+                
+                if (ExecutionMode.virtualThreadsAvailable()) {
+                    Method isVirtual = Thread.class.getMethod("isVirtual");
+                    Thread thread = pool.submit(Thread::currentThread).get();
+                    Check.equal(Boolean.TRUE, isVirtual.invoke(thread),
+                            "con Java 21 o superior los hilos son virtuales");
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package common.utils;
+
+import testing.Check;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Percentiles del LatencyHistogram contra los exactos de las mismas muestras: nunca por
+ * debajo del valor real y a menos de 1,6% por encima.
+ */
+public final class LatencyHistogramTest {
+    private static final double MAX_ERROR = 1.0 / 64;
+    private static final double[] PERCENTILES = { 0.0, 0.5, 0.9, 0.99, 0.999, 1.0 };
+    
+    private LatencyHistogramTest() {
+    }
+    
+    public static void main(String[] args) {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() {
+        vacio();
+        valoresPequenosExactos();
+        uniforme();
+        aleatorio();
+        sumarHistogramas();
+        valoresEnormes();
+    }
+    
+    private static void record(LatencyHistogram histogram, long micros) {
+        histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+    
+    private static void vacio() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Check.equal(0L, histogram.count(), "sin muestras");
+        Check.near(0, histogram.meanMillis(), 0, "media sin muestras");
+        Check.near(0, histogram.percentileMillis(0.99), 0, "p99 sin muestras");
+        record(histogram, -5);
+        Check.near(0, histogram.maxMillis(), 0, "una duración negativa cuenta como cero");
+    }
+    
+    private static void valoresPequenosExactos() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 0; micros < 128; micros++) {
+            record(histogram, micros);
+        }
+        Check.near(0.063, histogram.percentileMillis(0.5), 1e-9, "mediana exacta por debajo de 128us");
+        Check.near(0.127, histogram.percentileMillis(1.0), 1e-9, "máximo exacto");
+        Check.near(0.0635, histogram.meanMillis(), 1e-9, "media exacta");
+    }
+    
+    private static void uniforme() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] samples = new long[100_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i + 1;
+            record(histogram, samples[i]);
+        }
+        check(histogram, samples, "1..100000us");
+        Check.near(100.0, histogram.maxMillis(), 1e-9, "máximo");
+        Check.near(50.0005, histogram.meanMillis(), 1e-9, "media");
+    }
+    
+    private static void aleatorio() {
+        Random random = new Random(42);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] samples = new long[50_000];
+        for (int i = 0; i < samples.length; i++) {
+            // Cola larga: la mayoría cerca de 1 ms, algunas de cientos de ms
+            samples[i] = (long) (1000 * Math.exp(random.nextGaussian() * 1.5));
+            record(histogram, samples[i]);
+        }
+        check(histogram, samples, "log-normal");
+    }
+    
+    private static void sumarHistogramas() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (int micros = 1; micros <= 20_000; micros++) {
+            record(micros % 2 == 0 ? a : b, micros * 7L);
+            record(all, micros * 7L);
+        }
+        a.add(b);
+        Check.equal(all.count(), a.count(), "cantidad al sumar");
+        Check.near(all.meanMillis(), a.meanMillis(), 1e-9, "media al sumar");
+        Check.near(all.maxMillis(), a.maxMillis(), 0, "máximo al sumar");
+        for (double p : PERCENTILES) {
+            Check.near(all.percentileMillis(p), a.percentileMillis(p), 0, "p" + p * 100 + " al sumar");
+        }
+    }
+    
+    private static void valoresEnormes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        record(histogram, 10);
+        record(histogram, 1L << 45);
+        Check.near((1L << 45) / 1000.0, histogram.maxMillis(), 0, "el máximo se guarda aunque exceda las cubetas");
+        Check.near(histogram.maxMillis(), histogram.percentileMillis(1.0), 0, "el p100 no supera el máximo");
+    }
+    
+    private static void check(LatencyHistogram histogram, long[] samples, String name) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        Check.equal((long) samples.length, histogram.count(), "cantidad, " + name);
+        for (double p : PERCENTILES) {
+            int rank = Math.max(1, (int) Math.ceil(p * sorted.length));
+            double exact = sorted[rank - 1] / 1000.0;
+            double estimate = histogram.percentileMillis(p);
+            Check.isTrue(estimate >= exact, "p" + p * 100 + " no subestima, " + name + ": " + estimate + " < " + exact);
+            Check.isTrue(estimate <= exact * (1 + MAX_ERROR) + 1e-9,
+                    "p" + p * 100 + " con error menor a 1,6%, " + name + ": " + estimate + " contra " + exact);
+        }
+    }
+}
\ No newline at end of file
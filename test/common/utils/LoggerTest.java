@@ -0,0 +1,150 @@
+package common.utils;
+
+import testing.Check;
+import testing.TestNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Logger: formato de los registros, cambio de archivo, y varios hilos registrando más de lo
+ * que entra en el buffer circular: lo aceptado se escribe completo y en orden, y lo descartado
+ * se cuenta y se informa.
+ */
+public final class LoggerTest {
+    private static final Pattern PREFIX = Pattern.compile("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3} ");
+    private static final Pattern DROPPED = Pattern.compile("\\[Logger\\] WARN: (\\d+) registros descartados");
+    
+    private LoggerTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-log");
+        // Los registros de la prueba no se repiten en la consola
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            formato(dir);
+            variosProductores(dir);
+        } finally {
+            Logger.flush(5000);
+            System.setOut(out);
+            Logger.setLogFile("system.log");
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static List<String> lines(Path file) throws IOException {
+        return Files.exists(file) ? Files.readAllLines(file, StandardCharsets.UTF_8) : new ArrayList<>();
+    }
+    
+    private static void formato(Path dir) throws Exception {
+        Path file = dir.resolve("formato.log");
+        Logger.setLogFile(file.toString());
+        Check.isTrue(Logger.log(Logger.Level.WARN, "Prueba", "aviso", null), "WARN se registra");
+        Logger.error("Prueba", "falló", new IOException("disco lleno"));
+        Logger.log("Prueba", "informativo");
+        if (!Logger.isEnabled(Logger.Level.DEBUG)) {
+            Check.isTrue(!Logger.log(Logger.Level.DEBUG, "Prueba", "detalle", null),
+                    "un nivel deshabilitado no se registra");
+        }
+        Check.isTrue(Logger.flush(5000), "flush termina");
+        
+        List<String> lines = lines(file);
+        Check.equal(3, lines.size(), "tres registros en el archivo");
+        if (lines.size() == 3) {
+            boolean fechas = true;
+            for (String line : lines) {
+                fechas &= PREFIX.matcher(line).lookingAt();
+            }
+            Check.isTrue(fechas, "cada línea empieza con la fecha hasta los milisegundos");
+            Check.isTrue(lines.get(0).endsWith(" [Prueba] WARN: aviso"), "nivel y componente: " + lines.get(0));
+            Check.isTrue(lines.get(1).endsWith(" [Prueba] ERROR: falló - java.io.IOException: disco lleno"),
+                    "el error va al final: " + lines.get(1));
+            Check.isTrue(lines.get(2).endsWith(" [Prueba] informativo"), "INFO no lleva el nivel: " + lines.get(2));
+        }
+        
+        Path otro = dir.resolve("otro.log");
+        Logger.setLogFile(otro.toString());
+        Logger.log("Prueba", "en el otro archivo");
+        Logger.flush(5000);
+        Check.equal(3, lines(file).size(), "tras cambiar de archivo no se escribe en el anterior");
+        Check.equal(1, lines(otro).size(), "sino en el nuevo");
+    }
+    
+    /**
+     * Cuatro hilos registran 5000 mensajes cada uno, más que la capacidad del buffer, sin
+     * esperar al escritor. Cada mensaje aceptado aparece una vez y en el orden de su hilo.
+     */
+    private static void variosProductores(Path dir) throws Exception {
+        Path file = dir.resolve("productores.log");
+        Logger.setLogFile(file.toString());
+        Logger.flush(5000);
+        int threads = 4;
+        int perThread = 5000;
+        long droppedBefore = Logger.dropped();
+        int[] accepted = new int[threads];
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    if (Logger.log(Logger.Level.INFO, "Hilo" + thread, Integer.toString(i), null)) {
+                        accepted[thread]++;
+                    }
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Check.isTrue(Logger.flush(10_000), "flush termina");
+        
+        int[] written = new int[threads];
+        int[] last = new int[threads];
+        Arrays.fill(last, -1);
+        boolean ordered = true;
+        long reported = 0;
+        for (String line : lines(file)) {
+            Matcher dropped = DROPPED.matcher(line);
+            if (dropped.find()) {
+                reported += Long.parseLong(dropped.group(1));
+                continue;
+            }
+            int start = line.indexOf("[Hilo");
+            if (start < 0) {
+                continue;
+            }
+            int thread = line.charAt(start + 5) - '0';
+            int i = Integer.parseInt(line.substring(line.indexOf("] ", start) + 2));
+            ordered &= i > last[thread];
+            last[thread] = i;
+            written[thread]++;
+        }
+        
+        int total = 0;
+        for (int t = 0; t < threads; t++) {
+            Check.equal(accepted[t], written[t], "registros aceptados y escritos del hilo " + t);
+            total += accepted[t];
+        }
+        Check.isTrue(ordered, "cada hilo aparece en el orden en que registró");
+        long dropped = Logger.dropped() - droppedBefore;
+        Check.equal((long) threads * perThread - total, dropped, "los rechazados se cuentan como descartados");
+        Check.equal(dropped, reported, "y se informan en el archivo");
+    }
+}
\ No newline at end of file
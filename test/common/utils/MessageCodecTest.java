@@ -0,0 +1,179 @@
+package common.utils;
+
+import common.utils.Message.OperationType;
+import testing.Check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Ida y vuelta de MessageCodec: lo que se codifica se decodifica igual, en las versiones de
+ * protocolo que se siguen aceptando, y las tramas inválidas se rechazan con IOException.
+ */
+public final class MessageCodecTest {
+    
+    private MessageCodecTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        consultaConLayoutFijo();
+        transferenciaConIdLong();
+        transferenciaConIdEnVersionesAnteriores();
+        transferenciaConFecha();
+        loteYReplicacionConArreglos();
+        respuestasConResultadoYError();
+        streamBloqueante();
+        tramasInvalidas();
+        anidamiento();
+    }
+    
+    private static Message roundTrip(Message message, int version) throws IOException {
+        ByteBuffer frame = MessageCodec.encode(message, version);
+        Check.equal(frame.remaining() - 4, frame.getInt(0), "el prefijo es la longitud del resto de la trama");
+        frame.position(4);
+        return MessageCodec.decode(frame.slice());
+    }
+    
+    private static void consultaConLayoutFijo() throws IOException {
+        Message consulta = new Message(OperationType.CONSULTAR_SALDO, 101);
+        consulta.setRequestId(42);
+        for (int version = MessageCodec.MIN_VERSION; version <= MessageCodec.VERSION; version++) {
+            Message decoded = roundTrip(consulta, version);
+            Check.equal(OperationType.CONSULTAR_SALDO, decoded.getType(), "tipo en versión " + version);
+            Check.equal(new Object[] { 101 }, decoded.getParams(), "parámetros en versión " + version);
+            Check.equal(version >= 2 ? 42L : 0L, decoded.getRequestId(), "requestId en versión " + version);
+            Check.isTrue(decoded.isOk(), "estado OK en versión " + version);
+        }
+    }
+    
+    private static void transferenciaConIdLong() throws IOException {
+        long id = (7L << 40) | 123;
+        Message decoded = roundTrip(new Message(OperationType.TRANSFERIR_FONDOS, 101, 102, 250.75, id), 3);
+        Check.equal(new Object[] { 101, 102, 250.75, id }, decoded.getParams(), "transferencia con id long");
+    }
+    
+    private static void transferenciaConIdEnVersionesAnteriores() throws IOException {
+        // En las versiones 1 y 2 el id viaja como int y se entrega como long
+        Message decoded = roundTrip(new Message(OperationType.TRANSFERIR_FONDOS, 101, 102, 1.5, 99L), 2);
+        Check.equal(new Object[] { 101, 102, 1.5, 99L }, decoded.getParams(), "id que entra en un int, versión 2");
+        Check.fails(IllegalArgumentException.class,
+                () -> MessageCodec.encode(new Message(OperationType.TRANSFERIR_FONDOS, 101, 102, 1.5, 1L << 40), 2),
+                "un id fuera del rango int no se envía en versión 2");
+        decoded = roundTrip(new Message(OperationType.TRANSFERIR_FONDOS, 101, 102, 1.5), 1);
+        Check.equal(new Object[] { 101, 102, 1.5 }, decoded.getParams(), "transferencia sin id, versión 1");
+    }
+    
+    private static void transferenciaConFecha() throws IOException {
+        Object[] params = { 101, 102, 10.0, 5L, 1_700_000_000_123L };
+        Message decoded = roundTrip(new Message(OperationType.TRANSFERIR_FONDOS, params), MessageCodec.VERSION);
+        Check.equal(params, decoded.getParams(), "transferencia con id y fecha");
+    }
+    
+    private static void loteYReplicacionConArreglos() throws IOException {
+        Object[] lote = { new int[] { 101, 102 }, new int[] { 103, 104 }, new double[] { 1.25, 2.5 },
+                new long[] { 10L, 11L }, new long[] { 1000L, 2000L } };
+        Message decoded = roundTrip(new Message(OperationType.TRANSFERIR_LOTE, lote), MessageCodec.VERSION);
+        Check.equal(lote, decoded.getParams(), "lote con ids y fechas");
+        
+        Object[] replicar = { 5L, 1L, new long[] { 10L }, new int[] { 101 }, new int[] { 102 }, new long[] { 125L },
+                new long[] { 1000L } };
+        decoded = roundTrip(new Message(OperationType.REPLICAR, replicar), MessageCodec.VERSION);
+        Check.equal(replicar, decoded.getParams(), "lote de replicación");
+        
+        decoded = roundTrip(new Message(OperationType.CONSULTAR_SALDOS, new int[0], null, true, "texto ñ"),
+                MessageCodec.VERSION);
+        Check.equal(new Object[] { new int[0], null, true, "texto ñ" }, decoded.getParams(),
+                "arreglo vacío, null, boolean y texto no ASCII");
+    }
+    
+    private static void respuestasConResultadoYError() throws IOException {
+        Message respuesta = new Message(OperationType.RESPONSE);
+        respuesta.setRequestId(Long.MAX_VALUE);
+        Object[] resultado = { new double[] { 1.5, Double.NaN }, new Object[] { null, "Cuenta no encontrada" } };
+        respuesta.setResult(resultado);
+        Message decoded = roundTrip(respuesta, MessageCodec.VERSION);
+        Check.equal(resultado, decoded.getResult(), "resultado anidado");
+        Check.equal(Long.MAX_VALUE, decoded.getRequestId(), "requestId");
+        
+        Message error = new Message(OperationType.RESPONSE);
+        error.setError("Saldo insuficiente");
+        decoded = roundTrip(error, MessageCodec.VERSION);
+        Check.isTrue(!decoded.isOk(), "una respuesta con error no está OK");
+        Check.equal("Saldo insuficiente", decoded.getStatus(), "texto del error");
+        Check.equal(null, decoded.getResult(), "sin resultado");
+        
+        Message ocupado = new Message(OperationType.RESPONSE);
+        ocupado.setBusy("cola llena");
+        Check.isTrue(roundTrip(ocupado, MessageCodec.VERSION).isBusy(), "OCUPADO se conserva");
+    }
+    
+    private static void streamBloqueante() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageCodec.write(out, new Message(OperationType.CONSULTAR_SALDO, 1), MessageCodec.VERSION);
+        MessageCodec.write(out, new Message(OperationType.HEARTBEAT), MessageCodec.VERSION);
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Check.equal(OperationType.CONSULTAR_SALDO, MessageCodec.read(in).getType(), "primera trama del stream");
+        Check.equal(OperationType.HEARTBEAT, MessageCodec.read(in).getType(), "segunda trama del stream");
+        Check.fails(java.io.EOFException.class, () -> MessageCodec.read(in), "fin del stream");
+        
+        Check.fails(IOException.class, () -> MessageCodec.read(new DataInputStream(
+                new ByteArrayInputStream(new byte[] { 0x7f, 0, 0, 0 }))), "longitud mayor que el máximo");
+    }
+    
+    private static void tramasInvalidas() {
+        ByteBuffer frame = MessageCodec.encode(new Message(OperationType.TRANSFERIR_FONDOS, 101, 102, 3.0, 8L));
+        byte[] body = new byte[frame.remaining() - 4];
+        frame.position(4);
+        frame.get(body);
+        
+        for (int length = 0; length < body.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(body, 0, length).slice();
+            Check.fails(IOException.class, () -> MessageCodec.decode(truncated), "trama truncada a " + length + " bytes");
+        }
+        
+        byte[] version = body.clone();
+        version[0] = (byte) (MessageCodec.VERSION + 1);
+        Check.fails(IOException.class, () -> MessageCodec.decode(ByteBuffer.wrap(version)), "versión futura");
+        
+        byte[] type = body.clone();
+        type[1] = (byte) 0xff;
+        Check.fails(IOException.class, () -> MessageCodec.decode(ByteBuffer.wrap(type)), "tipo desconocido");
+    }
+    
+    private static void anidamiento() throws IOException {
+        Object anidado = null;
+        for (int depth = 0; depth < MessageCodec.MAX_DEPTH; depth++) {
+            anidado = new Object[] { anidado };
+        }
+        Message respuesta = new Message(OperationType.RESPONSE);
+        respuesta.setResult(anidado);
+        Check.equal(anidado, roundTrip(respuesta, MessageCodec.VERSION).getResult(), "anidamiento hasta el máximo");
+        
+        // Una trama chica con arreglos de un elemento anidados hasta agotar la pila
+        int levels = 100_000;
+        ByteBuffer body = ByteBuffer.allocate(13 + levels * 5 + 1);
+        body.put((byte) MessageCodec.VERSION);
+        body.put((byte) OperationType.RESPONSE.ordinal());
+        body.put((byte) 3); // FLAG_OK | FLAG_HAS_RESULT
+        body.putLong(0);
+        body.putShort((short) 0);
+        for (int i = 0; i < levels; i++) {
+            body.put((byte) 9); // TAG_OBJECT_ARRAY
+            body.putInt(1);
+        }
+        body.put((byte) 0);
+        body.flip();
+        Check.fails(IOException.class, () -> MessageCodec.decode(body), "anidamiento sin límite");
+    }
+}
\ No newline at end of file
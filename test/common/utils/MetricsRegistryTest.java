@@ -0,0 +1,135 @@
+package common.utils;
+
+import common.utils.Message.OperationType;
+import testing.Check;
+import testing.TestNode;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MetricsRegistry: nombres de series con etiquetas, contadores, medidores, resúmenes de
+ * histogramas y estadísticas por operación, en el mapa, en texto de Prometheus y en la
+ * respuesta de NODE_STATUS de un nodo.
+ */
+public final class MetricsRegistryTest {
+    
+    private MetricsRegistryTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        series();
+        contadoresYMedidores();
+        histogramas();
+        estadisticasPorOperacion();
+        textoDePrometheus();
+        estadoDelNodo();
+    }
+    
+    private static void series() {
+        Check.equal("x", MetricsRegistry.series("x"), "sin etiquetas");
+        Check.equal("x{nodo=\"1\",tipo=\"A\"}", MetricsRegistry.series("x", "nodo", "1", "tipo", "A"), "con etiquetas");
+        Check.equal("x{v=\"a\\\"b\\\\c\\n\"}", MetricsRegistry.series("x", "v", "a\"b\\c\n"),
+                "las comillas, barras y saltos de línea se escapan");
+    }
+    
+    private static void contadoresYMedidores() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("pedidos_total").add(3);
+        metrics.counter("pedidos_total").increment();
+        AtomicInteger cola = new AtomicInteger(7);
+        metrics.gauge("cola", cola::get);
+        metrics.collector(out -> out.put("calculada{cuenta=\"5\"}", 2.5));
+        
+        Map<String, Double> values = metrics.snapshot();
+        Check.equal(4.0, values.get("pedidos_total"), "el contador es el mismo para la misma serie");
+        Check.equal(7.0, values.get("cola"), "medidor");
+        Check.equal(2.5, values.get("calculada{cuenta=\"5\"}"), "serie de un collector");
+        cola.set(9);
+        Check.equal(9.0, metrics.snapshot().get("cola"), "el medidor se lee al consultar");
+    }
+    
+    private static void histogramas() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        LatencyHistogram latency = metrics.histogram(MetricsRegistry.series("latencia_ms", "tipo", "A"));
+        for (int i = 0; i < 10; i++) {
+            latency.recordNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        Map<String, Double> values = metrics.snapshot();
+        Check.equal(10.0, values.get("latencia_ms_count{tipo=\"A\"}"),
+                "cantidad, con el sufijo antes de las etiquetas");
+        Check.near(20.0, values.get("latencia_ms_sum{tipo=\"A\"}"), 0.5, "suma en ms");
+        Check.isTrue(values.containsKey("latencia_ms_max{tipo=\"A\"}"), "máximo");
+        for (String quantile : new String[] { "0.5", "0.99", "0.999" }) {
+            Double value = values.get("latencia_ms{tipo=\"A\",quantile=\"" + quantile + "\"}");
+            Check.isTrue(value != null && Math.abs(value - 2.0) < 0.2, "percentil " + quantile + ": " + value);
+        }
+        
+        LatencyHistogram external = new LatencyHistogram();
+        external.recordNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.register("externo_ms", external);
+        Check.equal(1.0, metrics.snapshot().get("externo_ms_count"), "un histograma registrado se publica");
+    }
+    
+    private static void estadisticasPorOperacion() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        MetricsRegistry.OperationStats stats = metrics.operationStats("banco", OperationType.CONSULTAR_SALDO,
+                OperationType.TRANSFERIR_FONDOS);
+        stats.record(OperationType.CONSULTAR_SALDO, 1000, true);
+        stats.record(OperationType.CONSULTAR_SALDO, 1000, true);
+        stats.record(OperationType.TRANSFERIR_FONDOS, 1000, false);
+        stats.record(OperationType.HEARTBEAT, 1000, true);
+        
+        Map<String, Double> values = metrics.snapshot();
+        Check.equal(2.0, values.get("banco_operaciones_total{tipo=\"CONSULTAR_SALDO\"}"), "operaciones de un tipo");
+        Check.equal(0.0, values.get("banco_errores_total{tipo=\"CONSULTAR_SALDO\"}"), "sin errores");
+        Check.equal(1.0, values.get("banco_errores_total{tipo=\"TRANSFERIR_FONDOS\"}"), "errores de otro tipo");
+        Check.equal(2.0, values.get("banco_latencia_ms_count{tipo=\"CONSULTAR_SALDO\"}"), "latencias registradas");
+        Check.isTrue(!values.containsKey("banco_operaciones_total{tipo=\"HEARTBEAT\"}"),
+                "un tipo que no se indicó no crea series");
+    }
+    
+    private static void textoDePrometheus() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("b_total").add(12);
+        metrics.gauge("a", () -> 0.25);
+        metrics.gauge("c", () -> Double.NaN);
+        Check.equal("a 0.25\nb_total 12\nc NaN\n", metrics.prometheusText(),
+                "una línea por serie, en orden, con los enteros sin decimales");
+        
+        Object[] status = metrics.toStatus();
+        Object[] names = (Object[]) status[0];
+        double[] numbers = (double[]) status[1];
+        Check.equal(new Object[] { "a", "b_total", "c" }, names, "nombres en NODE_STATUS");
+        Check.equal(12.0, numbers[1], "valores en el mismo orden");
+    }
+    
+    private static void estadoDelNodo() throws Exception {
+        try (TestNode node = new TestNode(0, 100.0, 1, 2).start()) {
+            node.saldo(1);
+            Message response = node.call(OperationType.NODE_STATUS);
+            Check.isTrue(response.isOk(), "NODE_STATUS responde");
+            Object[] result = (Object[]) response.getResult();
+            Object[] names = (Object[]) result[0];
+            double[] numbers = (double[]) result[1];
+            Check.equal(names.length, numbers.length, "un valor por serie");
+            double cuentas = Double.NaN;
+            double consultas = Double.NaN;
+            for (int i = 0; i < names.length; i++) {
+                if ("banco_nodo_cuentas".equals(names[i])) {
+                    cuentas = numbers[i];
+                } else if ("banco_nodo_operaciones_total{tipo=\"CONSULTAR_SALDO\"}".equals(names[i])) {
+                    consultas = numbers[i];
+                }
+            }
+            Check.equal(2.0, cuentas, "cuentas del nodo");
+            Check.isTrue(consultas >= 1, "la consulta de saldo quedó contada: " + consultas);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+package common.utils;
+
+import testing.Check;
+import testing.TestNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransactionIdGenerator: ids únicos con varios hilos y generadores, más de 4096 por
+ * milisegundo, y al reiniciar ids posteriores a la última reserva guardada aunque el reloj
+ * haya quedado atrás.
+ */
+public final class TransactionIdGeneratorTest {
+    private static final int GENERATOR_SHIFT = 12;
+    private static final int MILLIS_SHIFT = 22;
+    
+    private TransactionIdGeneratorTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        partes();
+        unicosConVariosHilos();
+        variosGeneradores();
+        reinicio();
+        relojAtrasado();
+        reservaInvalida();
+    }
+    
+    private static void partes() throws Exception {
+        TransactionIdGenerator generator = new TransactionIdGenerator(37, null);
+        long before = System.currentTimeMillis();
+        long id = generator.nextId();
+        long after = System.currentTimeMillis();
+        long millis = (id >>> MILLIS_SHIFT) + TransactionIdGenerator.EPOCH_MS;
+        Check.isTrue(id > 0, "el id es positivo");
+        Check.isTrue(millis >= before && millis <= after, "los bits altos son el milisegundo actual");
+        Check.equal(37L, (id >>> GENERATOR_SHIFT) & TransactionIdGenerator.MAX_GENERATOR_ID, "id del generador");
+        Check.fails(IllegalArgumentException.class, () -> new TransactionIdGenerator(-1, null), "generador negativo");
+        Check.fails(IllegalArgumentException.class,
+                () -> new TransactionIdGenerator(TransactionIdGenerator.MAX_GENERATOR_ID + 1, null),
+                "generador fuera de rango");
+    }
+    
+    /**
+     * Ocho hilos piden 50.000 ids cada uno (mucho más que 4096 por milisegundo): ninguno se
+     * repite y cada hilo los ve crecer.
+     */
+    private static void unicosConVariosHilos() throws Exception {
+        TransactionIdGenerator generator = new TransactionIdGenerator(1, null);
+        int threads = 8;
+        int perThread = 50_000;
+        long[][] ids = new long[threads][perThread];
+        boolean[] crecientes = new boolean[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers.add(new Thread(() -> {
+                crecientes[thread] = true;
+                for (int i = 0; i < perThread; i++) {
+                    ids[thread][i] = generator.nextId();
+                    crecientes[thread] &= i == 0 || ids[thread][i] > ids[thread][i - 1];
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Set<Long> unicos = new HashSet<>();
+        boolean todosCrecientes = true;
+        for (int t = 0; t < threads; t++) {
+            todosCrecientes &= crecientes[t];
+            for (long id : ids[t]) {
+                unicos.add(id);
+            }
+        }
+        Check.equal(threads * perThread, unicos.size(), "ningún id se repite");
+        Check.isTrue(todosCrecientes, "cada hilo ve los ids crecer");
+    }
+    
+    private static void variosGeneradores() throws Exception {
+        TransactionIdGenerator a = new TransactionIdGenerator(0, null);
+        TransactionIdGenerator b = new TransactionIdGenerator(1, null);
+        Set<Long> unicos = new HashSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            unicos.add(a.nextId());
+            unicos.add(b.nextId());
+        }
+        Check.equal(40_000, unicos.size(), "dos generadores nunca dan el mismo id");
+    }
+    
+    private static void reinicio() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-ids");
+        try {
+            Path lease = dir.resolve("ids.lease");
+            long ultimo = new TransactionIdGenerator(3, lease).nextId();
+            long reservado = readLease(lease);
+            Check.isTrue(reservado > ultimo >>> MILLIS_SHIFT,
+                    "la reserva queda guardada más adelante que el último id");
+            Check.isTrue(!Files.exists(dir.resolve("ids.lease.tmp")), "no queda el temporal");
+            
+            long primero = new TransactionIdGenerator(3, lease).nextId();
+            Check.isTrue(primero > ultimo, "tras reiniciar los ids siguen creciendo");
+            Check.isTrue(primero >>> MILLIS_SHIFT > reservado, "y empiezan después de la reserva anterior");
+            Check.isTrue(readLease(lease) > reservado, "el reinicio guarda una reserva nueva");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void relojAtrasado() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-ids");
+        try {
+            Path lease = dir.resolve("ids.lease");
+            // Como si la ejecución anterior hubiera corrido con el reloj una hora adelantado
+            long adelantado = System.currentTimeMillis() - TransactionIdGenerator.EPOCH_MS + TimeUnit.HOURS.toMillis(1);
+            Files.write(lease, ByteBuffer.allocate(8).putLong(adelantado).array());
+            TransactionIdGenerator generator = new TransactionIdGenerator(3, lease);
+            long id = generator.nextId();
+            Check.isTrue(id >>> MILLIS_SHIFT > adelantado,
+                    "los ids empiezan después de la reserva aunque el reloj esté atrás");
+            Check.isTrue(generator.nextId() > id, "y siguen creciendo");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void reservaInvalida() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-ids");
+        try {
+            Path lease = dir.resolve("ids.lease");
+            Files.write(lease, new byte[3]);
+            Check.fails(IOException.class, () -> new TransactionIdGenerator(3, lease),
+                    "una reserva cortada no se ignora en silencio");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static long readLease(Path lease) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(lease)).getLong();
+    }
+}
\ No newline at end of file
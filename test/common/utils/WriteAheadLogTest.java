@@ -0,0 +1,195 @@
+package common.utils;
+
+import common.utils.WriteAheadLog.SyncPolicy;
+import testing.Check;
+import testing.TestNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Recuperación del WriteAheadLog: lo confirmado se relee en orden al reabrir, un registro
+ * cortado o corrupto al final de un segmento se ignora y la secuencia nunca retrocede.
+ */
+public final class WriteAheadLogTest {
+    
+    private WriteAheadLogTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            reabrirYReleer(policy);
+        }
+        registroCortadoAlFinal();
+        registroCorrupto();
+        rotarYBorrarSegmentos();
+        secuenciaMinima();
+    }
+    
+    private static void reabrirYReleer(SyncPolicy policy) throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-wal");
+        try {
+            try (WriteAheadLog wal = new WriteAheadLog(dir, policy, 5)) {
+                for (int i = 1; i <= 100; i++) {
+                    long seq = wal.append(payload(i));
+                    Check.equal((long) i, seq, "secuencia del registro " + i + " con " + policy);
+                    wal.commit(seq);
+                }
+                wal.sync();
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, policy, 5)) {
+                Check.equal(100L, wal.lastSequence(), "última secuencia al reabrir con " + policy);
+                Check.equal(expected(1, 100), replay(wal, 0), "se releen todos los registros en orden con " + policy);
+                Check.equal(expected(91, 100), replay(wal, 90), "replay desde una secuencia con " + policy);
+                Check.equal(101L, wal.append(payload(101)), "la secuencia continúa con " + policy);
+                wal.sync();
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, policy, 5)) {
+                Check.equal(expected(1, 101), replay(wal, 0), "se releen ambos segmentos con " + policy);
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void registroCortadoAlFinal() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-wal");
+        try {
+            write(dir, 10);
+            Path segment = segments(dir).get(0);
+            long size = Files.size(segment);
+            // El último registro queda a medio escribir, como si el proceso hubiera muerto
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(size - 3);
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.PER_TRANSACTION, 5)) {
+                Check.equal(9L, wal.lastSequence(), "el registro cortado no cuenta");
+                Check.equal(expected(1, 9), replay(wal, 0), "se releen los registros completos");
+                wal.commit(wal.append(payload(10)));
+                Check.equal(2, segments(dir).size(), "lo nuevo va a otro segmento, no detrás del registro cortado");
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.PER_TRANSACTION, 5)) {
+                Check.equal(expected(1, 10), replay(wal, 0), "el registro reescrito se relee una sola vez");
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void registroCorrupto() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-wal");
+        try {
+            write(dir, 10);
+            Path segment = segments(dir).get(0);
+            int recordLength = (int) Files.size(segment) / 10;
+            // Se altera un byte de los datos del registro 6: no coincide el CRC
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[] { 'X' }), 5L * recordLength + recordLength - 1);
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.PER_TRANSACTION, 5)) {
+                Check.equal(expected(1, 5), replay(wal, 0), "el replay se detiene en el registro corrupto");
+                Check.equal(6L, wal.append(payload(6)), "la secuencia sigue desde el último registro válido");
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void rotarYBorrarSegmentos() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-wal");
+        try {
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.INTERVAL, 5)) {
+                for (int i = 1; i <= 5; i++) {
+                    wal.append(payload(i));
+                }
+                Check.equal(5L, wal.rotate(), "rotate devuelve la última secuencia del segmento viejo");
+                for (int i = 6; i <= 8; i++) {
+                    wal.append(payload(i));
+                }
+                wal.sync();
+                
+                wal.deleteSegmentsUpTo(4);
+                Check.equal(expected(1, 8), replay(wal, 0), "no se borra un segmento con registros sin cubrir");
+                wal.deleteSegmentsUpTo(5);
+                Check.equal(expected(6, 8), replay(wal, 0), "se borra el segmento cubierto");
+                
+                wal.rotate();
+                wal.deleteSegmentsUpTo(8);
+                Check.equal(expected(9, 8), replay(wal, 0), "sin registros después de borrar todo lo cubierto");
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.INTERVAL, 5)) {
+                Check.equal(8L, wal.lastSequence(), "el segmento vacío conserva la secuencia");
+                Check.equal(9L, wal.append(payload(9)), "no se reutilizan secuencias borradas");
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void secuenciaMinima() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-wal");
+        try {
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.ASYNC, 5, 1000)) {
+                Check.equal(1000L, wal.lastSequence(), "sin log se parte de la secuencia mínima");
+                Check.equal(1001L, wal.append(payload(1001)), "primer registro después de la mínima");
+                wal.sync();
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.ASYNC, 5, 10)) {
+                Check.equal(1001L, wal.lastSequence(), "una mínima menor que el log no hace retroceder");
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void write(Path dir, int count) throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.PER_TRANSACTION, 5)) {
+            for (int i = 1; i <= count; i++) {
+                wal.append(payload(i));
+            }
+            wal.sync();
+        }
+    }
+    
+    private static byte[] payload(int i) {
+        return String.format("registro-%04d", i).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static List<String> expected(int from, int to) {
+        List<String> records = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            records.add(i + ":" + new String(payload(i), StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+    
+    private static List<String> replay(WriteAheadLog wal, long afterSeq) throws IOException {
+        List<String> records = new ArrayList<>();
+        wal.replay(afterSeq, (seq, payload) -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            records.add(seq + ":" + new String(bytes, StandardCharsets.UTF_8));
+        });
+        return records;
+    }
+    
+    private static List<Path> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> Files.isRegularFile(path)).sorted().collect(Collectors.toList());
+        }
+    }
+}
\ No newline at end of file
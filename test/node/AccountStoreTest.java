@@ -0,0 +1,248 @@
+package node;
+
+import testing.Check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * AccountStore: búsqueda por id con la tabla creciendo, reemplazo de cuentas, tipos de cuenta
+ * compartidos y conversión a centavos sin errores de redondeo. También los débitos con
+ * compare-and-set y los locks por franja con varios hilos a la vez.
+ */
+public final class AccountStoreTest {
+    
+    private AccountStoreTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        altasYBusquedas();
+        reemplazo();
+        tiposDeCuenta();
+        centavos();
+        debitoSinLock();
+        debitosConcurrentes();
+        franjas();
+        transferenciasConLocks();
+    }
+    
+    private static void altasYBusquedas() {
+        AccountStore accounts = new AccountStore(4);
+        int initialCapacity = accounts.capacity();
+        // Ids consecutivos, dispersos y negativos
+        for (int i = 0; i < 10_000; i++) {
+            accounts.put(idOf(i), i, i * 100L, "AHORROS");
+        }
+        Check.equal(10_000, accounts.size(), "cantidad de cuentas");
+        Check.isTrue(accounts.capacity() > initialCapacity, "la tabla creció: " + accounts.capacity());
+        Check.isTrue(accounts.capacity() >= 2 * accounts.size(), "la tabla queda a lo sumo a medio llenar");
+        
+        boolean todas = true;
+        for (int i = 0; i < 10_000; i++) {
+            int slot = accounts.slotOf(idOf(i));
+            todas &= slot != AccountStore.NOT_FOUND && accounts.accountId(slot) == idOf(i)
+                    && accounts.clientId(slot) == i && accounts.balance(slot) == i * 100L;
+        }
+        Check.isTrue(todas, "cada cuenta conserva sus datos tras crecer la tabla");
+        Check.equal(AccountStore.NOT_FOUND, accounts.slotOf(123_456_789), "una cuenta que no está");
+        
+        int usados = 0;
+        for (int slot = 0; slot < accounts.capacity(); slot++) {
+            if (accounts.isUsed(slot)) {
+                usados++;
+            }
+        }
+        Check.equal(10_000, usados, "slots usados");
+        Check.fails(IllegalArgumentException.class, () -> accounts.put(Integer.MIN_VALUE, 1, 0, null),
+                "el id reservado para slots vacíos no es una cuenta");
+    }
+    
+    private static int idOf(int i) {
+        return (i % 3 == 0) ? i : (i % 3 == 1) ? i * 7919 : -i;
+    }
+    
+    private static void reemplazo() {
+        AccountStore accounts = new AccountStore(16);
+        accounts.put(5, 1, 1000, "AHORROS");
+        int slot = accounts.slotOf(5);
+        accounts.put(5, 2, 2500, "CORRIENTE");
+        Check.equal(1, accounts.size(), "reemplazar no agrega una cuenta");
+        Check.equal(slot, accounts.slotOf(5), "la cuenta mantiene su slot");
+        Check.equal(2, accounts.clientId(slot), "cliente reemplazado");
+        Check.equal(2500L, accounts.balance(slot), "saldo reemplazado");
+        Check.equal("CORRIENTE", accounts.accountType(slot), "tipo reemplazado");
+        
+        accounts.add(slot, -500);
+        Check.equal(2000L, accounts.balance(slot), "add resta con un monto negativo");
+        accounts.add(slot, 1);
+        Check.equal(2001L, accounts.balanceVolatile(slot), "la lectura volátil ve el mismo saldo");
+    }
+    
+    private static void tiposDeCuenta() {
+        AccountStore accounts = new AccountStore(16);
+        accounts.put(1, 1, 0, "AHORROS");
+        accounts.put(2, 1, 0, null);
+        accounts.put(3, 1, 0, new String("AHORROS"));
+        Check.equal("AHORROS", accounts.accountType(accounts.slotOf(1)), "tipo");
+        Check.equal(null, accounts.accountType(accounts.slotOf(2)), "sin tipo");
+        Check.isTrue(accounts.accountType(accounts.slotOf(1)) == accounts.accountType(accounts.slotOf(3)),
+                "un tipo repetido se guarda una sola vez");
+        
+        AccountStore muchos = new AccountStore(256);
+        for (int i = 0; i < Byte.MAX_VALUE; i++) {
+            muchos.put(i, 1, 0, "TIPO" + i);
+        }
+        Check.fails(IllegalStateException.class, () -> muchos.put(1000, 1, 0, "UNO MAS"),
+                "los tipos de cuenta distintos tienen un máximo");
+    }
+    
+    private static void centavos() {
+        Check.equal(10L, AccountStore.toCents(0.1), "0.1 son 10 centavos");
+        Check.equal(30L, AccountStore.toCents(0.1 + 0.2), "0.1 + 0.2 son 30 centavos");
+        Check.equal(12_345_678_901L, AccountStore.toCents(123_456_789.01), "montos grandes");
+        Check.equal(-250L, AccountStore.toCents(-2.5), "montos negativos");
+        Check.equal(0.3, AccountStore.toAmount(30), "30 centavos son 0.3");
+        
+        long saldo = 0;
+        for (int i = 0; i < 1000; i++) {
+            saldo += AccountStore.toCents(0.1);
+        }
+        Check.equal(100.0, AccountStore.toAmount(saldo), "mil depósitos de 0.1 suman 100 exactos");
+    }
+    
+    private static void debitoSinLock() {
+        AccountStore accounts = new AccountStore(16);
+        accounts.put(1, 1, 1000, null);
+        int slot = accounts.slotOf(1);
+        Check.equal(400L, accounts.tryDebit(slot, 600), "tryDebit devuelve el saldo resultante");
+        Check.equal(AccountStore.INSUFFICIENT, accounts.tryDebit(slot, 401), "sin fondos no debita");
+        Check.equal(400L, accounts.balanceVolatile(slot), "y no cambia el saldo");
+        Check.equal(0L, accounts.tryDebit(slot, 400), "puede dejar el saldo en cero");
+        accounts.credit(slot, 250);
+        Check.equal(250L, accounts.balanceVolatile(slot), "credit suma");
+    }
+    
+    /**
+     * Varios hilos debitan y acreditan la misma cuenta sin locks: ningún débito se pierde ni
+     * se duplica, y el saldo nunca pasa por debajo de cero.
+     */
+    private static void debitosConcurrentes() throws Exception {
+        AccountStore accounts = new AccountStore(16);
+        accounts.put(1, 1, 10_000, null);
+        int slot = accounts.slotOf(1);
+        AtomicLong debitados = new AtomicLong();
+        AtomicLong acreditados = new AtomicLong();
+        AtomicLong negativos = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            boolean acredita = t % 4 == 0;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    if (acredita && i % 10 == 0) {
+                        accounts.credit(slot, 1);
+                        acreditados.incrementAndGet();
+                    } else {
+                        long saldo = accounts.tryDebit(slot, 3);
+                        if (saldo != AccountStore.INSUFFICIENT) {
+                            debitados.addAndGet(3);
+                            if (saldo < 0) {
+                                negativos.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+        Check.equal(0L, negativos.get(), "ningún débito deja el saldo negativo");
+        Check.equal(10_000 + acreditados.get() - debitados.get(), accounts.balanceVolatile(slot),
+                "el saldo final cuadra con los débitos y créditos hechos");
+        Check.isTrue(accounts.balanceVolatile(slot) < 3, "los débitos siguieron hasta agotar el saldo: "
+                + accounts.balanceVolatile(slot));
+    }
+    
+    private static void franjas() {
+        AccountStore accounts = new AccountStore(4096);
+        boolean enRango = true;
+        boolean mismoLock = true;
+        for (int slot = 0; slot < accounts.capacity(); slot++) {
+            int stripe = accounts.stripeOf(slot);
+            enRango &= stripe >= 0 && stripe < 1024;
+            mismoLock &= accounts.lockFor(slot) == accounts.lockForStripe(stripe);
+        }
+        Check.isTrue(enRango, "las franjas están en [0, 1024)");
+        Check.isTrue(mismoLock, "lockFor es el lock de la franja del slot");
+        Check.isTrue(accounts.lockFor(3) == accounts.lockFor(3 + 1024), "slots a 1024 de distancia comparten lock");
+        Check.isTrue(accounts.lockFor(3) != accounts.lockFor(4), "slots vecinos no comparten lock");
+    }
+    
+    /**
+     * Transferencias entre cuentas al azar con los locks de escritura de ambas franjas tomados
+     * en orden creciente, como en el nodo: terminan sin deadlock y el total se conserva.
+     */
+    private static void transferenciasConLocks() throws Exception {
+        AccountStore accounts = new AccountStore(64);
+        for (int id = 0; id < 64; id++) {
+            accounts.put(id, id, 1000, null);
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    int origen = accounts.slotOf(random.nextInt(64));
+                    int destino = accounts.slotOf(random.nextInt(64));
+                    int primera = Math.min(accounts.stripeOf(origen), accounts.stripeOf(destino));
+                    int segunda = Math.max(accounts.stripeOf(origen), accounts.stripeOf(destino));
+                    ReadWriteLock a = accounts.lockForStripe(primera);
+                    ReadWriteLock b = accounts.lockForStripe(segunda);
+                    a.writeLock().lock();
+                    b.writeLock().lock();
+                    try {
+                        long monto = random.nextInt(1, 50);
+                        if (accounts.balance(origen) >= monto) {
+                            accounts.add(origen, -monto);
+                            accounts.add(destino, monto);
+                        }
+                    } finally {
+                        b.writeLock().unlock();
+                        a.writeLock().unlock();
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+        long total = 0;
+        boolean ningunoNegativo = true;
+        for (int id = 0; id < 64; id++) {
+            int slot = accounts.slotOf(id);
+            accounts.lockFor(slot).readLock().lock();
+            try {
+                total += accounts.balance(slot);
+                ningunoNegativo &= accounts.balance(slot) >= 0;
+            } finally {
+                accounts.lockFor(slot).readLock().unlock();
+            }
+        }
+        Check.equal(64_000L, total, "el total se conserva");
+        Check.isTrue(ningunoNegativo, "ningún saldo queda negativo");
+    }
+    
+    private static void runAll(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(60_000);
+            Check.isTrue(!thread.isAlive(), "el hilo terminó a tiempo");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+package node;
+
+import common.models.Transaccion;
+import testing.Check;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Paginación del MovementIndex: las páginas recorren el historial completo, sin repetir ni
+ * saltear movimientos, del más reciente al más antiguo y respetando el rango de fechas.
+ */
+public final class MovementIndexTest {
+    private static final long BASE_MS = 1_700_000_000_000L;
+    
+    private MovementIndexTest() {
+    }
+    
+    public static void main(String[] args) {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() {
+        recorridoCompleto();
+        multiploExactoDelLimite();
+        rangoDeFechas();
+        empatesPorFecha();
+        origenYDestino();
+        cursorEstableConAltasNuevas();
+    }
+    
+    private static Transaccion transaccion(long id, int origen, int destino, long fechaMs) {
+        LocalDateTime fecha = LocalDateTime.ofInstant(Instant.ofEpochMilli(fechaMs), ZoneId.systemDefault());
+        return new Transaccion(id, origen, destino, 10.0, fecha, "COMPLETADA");
+    }
+    
+    private static List<Long> ids(List<Transaccion> movimientos) {
+        List<Long> ids = new ArrayList<>();
+        for (Transaccion transaccion : movimientos) {
+            ids.add(transaccion.getIdTransaccion());
+        }
+        return ids;
+    }
+    
+    /**
+     * Pide páginas hasta que el cursor vuelve en null y devuelve los ids en orden, o null si
+     * alguna página superó el límite.
+     */
+    private static List<Long> todas(MovementIndex index, int cuenta, long desde, long hasta, int limite, int[] paginas) {
+        List<Long> ids = new ArrayList<>();
+        MovementIndex.Key cursor = null;
+        do {
+            MovementIndex.Page page = index.page(cuenta, desde, hasta, cursor, limite);
+            if (page.movimientos.size() > limite) {
+                return null;
+            }
+            ids.addAll(ids(page.movimientos));
+            cursor = page.siguiente;
+            paginas[0]++;
+        } while (cursor != null);
+        return ids;
+    }
+    
+    private static List<Long> descendentes(long desde, long hasta) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = hasta; id >= desde; id--) {
+            ids.add(id);
+        }
+        return ids;
+    }
+    
+    private static void recorridoCompleto() {
+        MovementIndex index = new MovementIndex();
+        for (long id = 1; id <= 250; id++) {
+            index.add(transaccion(id, 101, 200 + (int) (id % 3), BASE_MS + id * 1000));
+        }
+        int[] paginas = { 0 };
+        List<Long> ids = todas(index, 101, 0, Long.MAX_VALUE, 100, paginas);
+        Check.equal(descendentes(1, 250), ids, "250 movimientos en orden descendente, sin repetir");
+        Check.equal(3, paginas[0], "tres páginas de hasta 100");
+        
+        MovementIndex.Page first = index.page(101, 0, Long.MAX_VALUE, null, 100);
+        Check.equal(100, first.movimientos.size(), "primera página completa");
+        Check.isTrue(first.siguiente != null, "hay cursor cuando quedan movimientos");
+        Check.equal(0, index.page(999, 0, Long.MAX_VALUE, null, 100).movimientos.size(), "cuenta sin movimientos");
+    }
+    
+    private static void multiploExactoDelLimite() {
+        MovementIndex index = new MovementIndex();
+        for (long id = 1; id <= 200; id++) {
+            index.add(transaccion(id, 101, 102, BASE_MS + id));
+        }
+        int[] paginas = { 0 };
+        Check.equal(descendentes(1, 200), todas(index, 101, 0, Long.MAX_VALUE, 100, paginas),
+                "200 movimientos con límite 100");
+        Check.equal(2, paginas[0], "la última página completa no deja un cursor a una página vacía");
+    }
+    
+    private static void rangoDeFechas() {
+        MovementIndex index = new MovementIndex();
+        for (long id = 1; id <= 50; id++) {
+            index.add(transaccion(id, 101, 102, BASE_MS + id * 1000));
+        }
+        int[] paginas = { 0 };
+        // desde incluido, hasta excluido
+        Check.equal(descendentes(10, 19), todas(index, 101, BASE_MS + 10_000, BASE_MS + 20_000, 3, paginas),
+                "rango [desde, hasta) por páginas de 3");
+        Check.equal(4, paginas[0], "diez movimientos en páginas de 3");
+        Check.equal(0, index.page(101, BASE_MS + 20_000, BASE_MS + 20_000, null, 10).movimientos.size(),
+                "rango vacío");
+        Check.equal(0, index.page(101, BASE_MS + 60_000, Long.MAX_VALUE, null, 10).movimientos.size(),
+                "rango posterior a todos los movimientos");
+    }
+    
+    private static void empatesPorFecha() {
+        MovementIndex index = new MovementIndex();
+        for (long id = 1; id <= 7; id++) {
+            index.add(transaccion(id, 101, 102, BASE_MS));
+        }
+        index.add(transaccion(8, 101, 102, BASE_MS - 1));
+        int[] paginas = { 0 };
+        Check.equal(List.of(7L, 6L, 5L, 4L, 3L, 2L, 1L, 8L), todas(index, 101, 0, Long.MAX_VALUE, 2, paginas),
+                "con la misma fecha se ordena por id, y el cursor no pierde ni repite empates");
+    }
+    
+    private static void origenYDestino() {
+        MovementIndex index = new MovementIndex();
+        Transaccion transferencia = transaccion(1, 101, 102, BASE_MS);
+        Transaccion propia = transaccion(2, 103, 103, BASE_MS + 1);
+        index.add(transferencia);
+        index.add(propia);
+        Check.equal(List.of(1L), ids(index.page(101, 0, Long.MAX_VALUE, null, 10).movimientos), "en el origen");
+        Check.equal(List.of(1L), ids(index.page(102, 0, Long.MAX_VALUE, null, 10).movimientos), "en el destino");
+        Check.equal(List.of(2L), ids(index.page(103, 0, Long.MAX_VALUE, null, 10).movimientos),
+                "una transferencia a la misma cuenta aparece una vez");
+        
+        index.remove(transferencia);
+        index.remove(propia);
+        Check.equal(0, index.page(101, 0, Long.MAX_VALUE, null, 10).movimientos.size(), "quitado del origen");
+        Check.equal(0, index.page(102, 0, Long.MAX_VALUE, null, 10).movimientos.size(), "quitado del destino");
+        Check.equal(0, index.page(103, 0, Long.MAX_VALUE, null, 10).movimientos.size(), "quitada la propia");
+    }
+    
+    private static void cursorEstableConAltasNuevas() {
+        MovementIndex index = new MovementIndex();
+        for (long id = 1; id <= 30; id++) {
+            index.add(transaccion(id, 101, 102, BASE_MS + id));
+        }
+        MovementIndex.Page first = index.page(101, 0, Long.MAX_VALUE, null, 10);
+        // Llegan transferencias nuevas mientras el cliente recorre el historial
+        for (long id = 31; id <= 40; id++) {
+            index.add(transaccion(id, 101, 102, BASE_MS + id));
+        }
+        MovementIndex.Page second = index.page(101, 0, Long.MAX_VALUE, first.siguiente, 10);
+        Check.equal(descendentes(11, 20), ids(second.movimientos), "la segunda página sigue donde terminó la primera");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package node;
+
+import client.BankSession;
+import common.utils.ExecutionMode;
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
+import testing.Check;
+import testing.TestNode;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * CONSULTAR_SALDOS en un nodo: un saldo o un error por cuenta, en el orden pedido, y con
+ * locks una sola foto de todas las cuentas aunque haya transferencias entre ellas.
+ */
+public final class MultiAccountQueryTest {
+    
+    private MultiAccountQueryTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        resultadosPorCuenta();
+        fotoConsistente();
+    }
+    
+    private static Object[] consultar(TestNode node, int... cuentas) throws Exception {
+        Message response = node.call(OperationType.CONSULTAR_SALDOS, (Object) cuentas);
+        Check.isTrue(response.isOk(), "CONSULTAR_SALDOS responde: " + response.getStatus());
+        return (Object[]) response.getResult();
+    }
+    
+    private static void resultadosPorCuenta() throws Exception {
+        try (TestNode node = new TestNode(0, 100.0, 1, 2, 3, 4, 5).start()) {
+            node.call(OperationType.TRANSFERIR_FONDOS, 1, 5, 30.0);
+            Object[] result = consultar(node, 5, 1, 99, 3, 5);
+            double[] saldos = (double[]) result[0];
+            Object[] errores = (Object[]) result[1];
+            Check.equal(new double[] { 130.0, 70.0, Double.NaN, 100.0, 130.0 }, saldos,
+                    "un saldo por cuenta, en el orden pedido y con repetidas");
+            Check.equal(null, errores[0], "sin error para una cuenta del nodo");
+            Check.equal("Cuenta no encontrada en este nodo", errores[2], "error solo para la cuenta que no está");
+            
+            Object[] vacio = consultar(node);
+            Check.equal(0, ((double[]) vacio[0]).length, "una consulta vacía da resultados vacíos");
+        }
+    }
+    
+    /**
+     * Mientras se mueve plata entre las cuentas 1 y 2, la suma de los dos saldos leídos en
+     * una misma consulta no cambia (solo con locks; OPTIMISTIC no promete la foto).
+     */
+    private static void fotoConsistente() throws Exception {
+        if (ConcurrencyMode.fromConfig() != ConcurrencyMode.LOCKS) {
+            return;
+        }
+        try (TestNode node = new TestNode(0, ExecutionMode.VIRTUAL, 100.0, 1, 2).start()) {
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread transfers = new Thread(() -> {
+                try (BankSession session = new BankSession("localhost", node.port(), WireFormat.fromConfig())) {
+                    for (int i = 0; running.get(); i++) {
+                        int origen = (i % 2 == 0) ? 1 : 2;
+                        session.call(new Message(OperationType.TRANSFERIR_FONDOS, origen, 3 - origen, 7.5));
+                    }
+                } catch (Exception e) {
+                    running.set(false);
+                }
+            });
+            transfers.start();
+            boolean constante = true;
+            try {
+                for (int i = 0; i < 500; i++) {
+                    double[] saldos = (double[]) consultar(node, 1, 2)[0];
+                    constante &= saldos[0] + saldos[1] == 200.0;
+                }
+            } finally {
+                running.set(false);
+                transfers.join();
+            }
+            Check.isTrue(constante, "la suma de las dos cuentas es siempre 200");
+            Check.near(200.0, node.saldo(1) + node.saldo(2), 1e-9, "el total se conserva");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,192 @@
+package node;
+
+import common.models.Cliente;
+import common.models.Transaccion;
+import testing.Check;
+import testing.TestNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ida y vuelta del SnapshotStore: lo que se captura y escribe se carga igual (cadenas
+ * compartidas o nulas, fechas nulas, reservas), y un archivo truncado o ajeno se rechaza.
+ */
+public final class SnapshotStoreTest {
+    
+    private SnapshotStoreTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        sinSnapshot();
+        idaYVuelta();
+        reemplazaAlAnterior();
+        truncado();
+        ajeno();
+    }
+    
+    /**
+     * Estado de un nodo: lo que SnapshotStore captura y lo que load completa.
+     */
+    private static final class Estado {
+        final Map<Integer, Cliente> clientes = new HashMap<>();
+        final AccountStore accounts = new AccountStore(16);
+        final Map<Long, Transaccion> transacciones = new HashMap<>();
+        final Map<Long, TransferRecord> reservas = new HashMap<>();
+        
+        SnapshotStore.State capture(long sequence) {
+            return SnapshotStore.capture(sequence, clientes.values(), accounts, transacciones.values(),
+                    reservas.values());
+        }
+        
+        long load(Path dir) throws IOException {
+            return SnapshotStore.load(dir, clientes, accounts, transacciones, reservas);
+        }
+    }
+    
+    private static Estado ejemplo(int cuentas) {
+        Estado estado = new Estado();
+        estado.clientes.put(1, new Cliente(1, "Ana Pérez", "ana@correo.com", "555-0101"));
+        estado.clientes.put(2, new Cliente(2, "Bruno", null, null));
+        for (int i = 0; i < cuentas; i++) {
+            String tipo = (i % 3 == 0) ? null : (i % 3 == 1) ? "AHORROS" : "CORRIENTE";
+            estado.accounts.put(100 + i, 1 + i % 2, 10_000L * i + 1, tipo);
+        }
+        estado.transacciones.put(7L,
+                new Transaccion(7L, 100, 101, 12.34, LocalDateTime.of(2025, 3, 1, 10, 30, 15), "CONFIRMADA"));
+        estado.transacciones.put(8L, new Transaccion(8L, 101, 100, 0.01, null, "CONFIRMADA"));
+        estado.transacciones.put(9L, new Transaccion(9L, 102, 100, 5, LocalDateTime.of(2025, 3, 2, 0, 0), null));
+        estado.reservas.put(20L, new TransferRecord(TransferRecord.KIND_PREPARE, 20L, 100, 999, 1500,
+                1_740_000_000_000L, TransferRecord.DEBIT_APPLIED));
+        return estado;
+    }
+    
+    private static void sinSnapshot() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-snapshot");
+        try {
+            Check.equal(-1L, new Estado().load(dir), "sin archivo devuelve -1");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void idaYVuelta() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-snapshot");
+        try {
+            Estado original = ejemplo(50);
+            SnapshotStore.write(dir, original.capture(42));
+            Check.isTrue(!Files.exists(dir.resolve(SnapshotStore.FILE_NAME + ".tmp")), "no queda el temporal");
+            
+            Estado cargado = new Estado();
+            Check.equal(42L, cargado.load(dir), "secuencia del log");
+            
+            Check.equal(original.clientes.size(), cargado.clientes.size(), "clientes");
+            for (Cliente cliente : original.clientes.values()) {
+                Cliente leido = cargado.clientes.get(cliente.getIdCliente());
+                Check.equal(cliente.getNombre(), leido.getNombre(), "nombre del cliente " + cliente.getIdCliente());
+                Check.equal(cliente.getEmail(), leido.getEmail(), "email del cliente " + cliente.getIdCliente());
+                Check.equal(cliente.getTelefono(), leido.getTelefono(),
+                        "teléfono del cliente " + cliente.getIdCliente());
+            }
+            
+            Check.equal(original.accounts.size(), cargado.accounts.size(), "cuentas");
+            for (int id = 100; id < 150; id++) {
+                int a = original.accounts.slotOf(id);
+                int b = cargado.accounts.slotOf(id);
+                Check.isTrue(b != AccountStore.NOT_FOUND, "cuenta " + id + " cargada");
+                Check.equal(original.accounts.balance(a), cargado.accounts.balance(b), "saldo de la cuenta " + id);
+                Check.equal(original.accounts.clientId(a), cargado.accounts.clientId(b), "cliente de la cuenta " + id);
+                Check.equal(original.accounts.accountType(a), cargado.accounts.accountType(b),
+                        "tipo de la cuenta " + id);
+            }
+            
+            Check.equal(original.transacciones.size(), cargado.transacciones.size(), "transacciones");
+            for (Transaccion transaccion : original.transacciones.values()) {
+                Transaccion leida = cargado.transacciones.get(transaccion.getIdTransaccion());
+                String id = "transacción " + transaccion.getIdTransaccion();
+                Check.equal(transaccion.getIdOrigen(), leida.getIdOrigen(), "origen de la " + id);
+                Check.equal(transaccion.getIdDestino(), leida.getIdDestino(), "destino de la " + id);
+                Check.equal(transaccion.getMonto(), leida.getMonto(), "monto de la " + id);
+                Check.equal(transaccion.getFechaHora(), leida.getFechaHora(), "fecha de la " + id);
+                Check.equal(transaccion.getEstado(), leida.getEstado(), "estado de la " + id);
+            }
+            
+            TransferRecord reserva = cargado.reservas.get(20L);
+            Check.isTrue(reserva != null && cargado.reservas.size() == 1, "la reserva se carga");
+            Check.equal(TransferRecord.KIND_PREPARE, reserva.kind, "tipo de la reserva");
+            Check.equal(100, reserva.idOrigen, "origen de la reserva");
+            Check.equal(999, reserva.idDestino, "destino de la reserva");
+            Check.equal(1500L, reserva.montoCentavos, "monto de la reserva");
+            Check.equal(1_740_000_000_000L, reserva.timestamp, "fecha de la reserva");
+            Check.isTrue(reserva.debitApplied() && !reserva.creditApplied(), "la reserva ya tiene el débito aplicado");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void reemplazaAlAnterior() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-snapshot");
+        try {
+            Estado estado = ejemplo(5);
+            SnapshotStore.write(dir, estado.capture(10));
+            estado.accounts.add(estado.accounts.slotOf(100), 700);
+            estado.reservas.clear();
+            SnapshotStore.write(dir, estado.capture(11));
+            
+            Estado cargado = new Estado();
+            Check.equal(11L, cargado.load(dir), "se carga el último snapshot");
+            Check.equal(701L, cargado.accounts.balance(cargado.accounts.slotOf(100)), "con el saldo del último");
+            Check.equal(0, cargado.reservas.size(), "y sin las reservas ya resueltas");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void truncado() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-snapshot");
+        try {
+            SnapshotStore.write(dir, ejemplo(20).capture(1));
+            Path file = dir.resolve(SnapshotStore.FILE_NAME);
+            long size = Files.size(file);
+            for (long cut : new long[] { size - 1, size - 40, size / 2, 40 }) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(cut);
+                }
+                Check.fails(IOException.class, () -> new Estado().load(dir), "snapshot cortado en " + cut + " bytes");
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void ajeno() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-snapshot");
+        try {
+            Path file = dir.resolve(SnapshotStore.FILE_NAME);
+            Files.write(file, new byte[10]);
+            Check.fails(IOException.class, () -> new Estado().load(dir), "archivo más corto que la cabecera");
+            
+            SnapshotStore.write(dir, ejemplo(3).capture(1));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, 0x12345678), 0);
+            }
+            Check.fails(IOException.class, () -> new Estado().load(dir), "marca de formato ajena");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,163 @@
+package server;
+
+import testing.Check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BalanceCache con un reloj manual: aciertos, vencimiento por TTL, tamaño acotado, y que una
+ * lectura que empezó antes de una invalidación no deje guardado un saldo viejo, tampoco con
+ * lecturas e invalidaciones en paralelo.
+ */
+public final class BalanceCacheTest {
+    private static long now;
+    
+    private BalanceCacheTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        aciertosYFallos();
+        vencimiento();
+        tamanoAcotado();
+        desactivada();
+        lecturaAnteriorALaInvalidacion();
+        invalidacionDeLaFranja();
+        lecturasEInvalidacionesEnParalelo();
+    }
+    
+    private static BalanceCache cache(int maxEntries, long ttlMs) {
+        now = TimeUnit.SECONDS.toNanos(1);
+        return new BalanceCache(maxEntries, ttlMs, () -> now);
+    }
+    
+    private static void aciertosYFallos() {
+        BalanceCache cache = cache(1000, 1000);
+        Check.equal(null, cache.get(1), "vacía");
+        cache.put(1, 150.5, cache.generation(1));
+        Check.equal(150.5, cache.get(1), "guarda el saldo");
+        Check.equal(null, cache.get(2), "otra cuenta no está");
+        cache.invalidate(1);
+        Check.equal(null, cache.get(1), "invalidar la quita");
+        Check.equal(1L, cache.hits(), "aciertos");
+        Check.equal(3L, cache.misses(), "fallos");
+        Check.equal(1L, cache.invalidations(), "invalidaciones");
+    }
+    
+    private static void vencimiento() {
+        BalanceCache cache = cache(1000, 100);
+        cache.put(1, 10.0, cache.generation(1));
+        now += TimeUnit.MILLISECONDS.toNanos(99);
+        Check.equal(10.0, cache.get(1), "vigente antes del TTL");
+        now += TimeUnit.MILLISECONDS.toNanos(1);
+        Check.equal(null, cache.get(1), "vencida al cumplirse el TTL");
+        cache.put(1, 11.0, cache.generation(1));
+        Check.equal(11.0, cache.get(1), "se vuelve a guardar tras vencer");
+    }
+    
+    private static void tamanoAcotado() {
+        BalanceCache cache = cache(64, 1000);
+        for (int id = 0; id < 1000; id++) {
+            cache.put(id, id, cache.generation(id));
+        }
+        int guardadas = 0;
+        for (int id = 0; id < 1000; id++) {
+            if (cache.get(id) != null) {
+                guardadas++;
+            }
+        }
+        Check.isTrue(guardadas <= 64, "no guarda más que el máximo: " + guardadas);
+        Check.equal(1000L - guardadas, cache.evictions(), "el resto se desalojó");
+        Check.equal(999.0, cache.get(999), "la última guardada sigue");
+    }
+    
+    private static void desactivada() {
+        BalanceCache cache = cache(0, 1000);
+        cache.put(1, 10.0, cache.generation(1));
+        Check.equal(null, cache.get(1), "sin entradas no guarda nada");
+        cache = cache(1000, 0);
+        cache.put(1, 10.0, cache.generation(1));
+        Check.equal(null, cache.get(1), "sin TTL no guarda nada");
+    }
+    
+    private static void lecturaAnteriorALaInvalidacion() {
+        BalanceCache cache = cache(1000, 1000);
+        long generation = cache.generation(7);
+        // Mientras el nodo respondía, una transferencia cambió el saldo
+        cache.invalidate(7);
+        cache.put(7, 100.0, generation);
+        Check.equal(null, cache.get(7), "el saldo leído antes de la invalidación no se guarda");
+        cache.put(7, 90.0, cache.generation(7));
+        Check.equal(90.0, cache.get(7), "una lectura posterior sí");
+    }
+    
+    private static void invalidacionDeLaFranja() {
+        BalanceCache cache = cache(1000, 1000);
+        int otra = -1;
+        for (int id = 1; id < 1_000_000 && otra < 0; id++) {
+            long before = cache.generation(id);
+            cache.invalidate(0);
+            if (cache.generation(id) != before) {
+                otra = id;
+            }
+        }
+        Check.isTrue(otra > 0, "hay otra cuenta en la franja de la cuenta 0");
+        long generation = cache.generation(otra);
+        cache.invalidate(0);
+        cache.put(otra, 5.0, generation);
+        Check.equal(null, cache.get(otra), "invalidar otra cuenta de la franja también descarta la lectura");
+    }
+    
+    /**
+     * Un hilo cambia el saldo "del nodo" e invalida; otros leen como el servidor (generación,
+     * saldo, put). Al terminar, lo guardado es el saldo actual o nada.
+     */
+    private static void lecturasEInvalidacionesEnParalelo() throws Exception {
+        BalanceCache cache = new BalanceCache(1000, 60_000);
+        int cuentas = 8;
+        AtomicLong[] saldos = new AtomicLong[cuentas];
+        for (int i = 0; i < cuentas; i++) {
+            saldos[i] = new AtomicLong();
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(new Thread(() -> {
+                int i = 0;
+                while (running.get()) {
+                    int id = i++ % cuentas;
+                    if (cache.get(id) == null) {
+                        long generation = cache.generation(id);
+                        long saldo = saldos[id].get();
+                        Thread.yield();
+                        cache.put(id, saldo, generation);
+                    }
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        for (int i = 0; i < 200_000; i++) {
+            int id = i % cuentas;
+            saldos[id].incrementAndGet();
+            cache.invalidate(id);
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        boolean alDia = true;
+        for (int id = 0; id < cuentas; id++) {
+            Double cached = cache.get(id);
+            alDia &= cached == null || cached == saldos[id].get();
+        }
+        Check.isTrue(alDia, "ninguna cuenta quedó con un saldo viejo en la caché");
+    }
+}
\ No newline at end of file
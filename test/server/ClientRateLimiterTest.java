@@ -0,0 +1,103 @@
+package server;
+
+import testing.Check;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClientRateLimiter con un reloj manual: ráfagas hasta el balde, recarga a razón de rate, lotes
+ * que cuestan más que el balde y baldes de clientes distintos.
+ */
+public final class ClientRateLimiterTest {
+    private static long now;
+    
+    private ClientRateLimiterTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        rafagaYRecarga();
+        loteMasGrandeQueElBalde();
+        clientesSeparados();
+        desalojo();
+    }
+    
+    private static ClientRateLimiter limiter(double rate, double burst) {
+        now = TimeUnit.SECONDS.toNanos(1);
+        return new ClientRateLimiter(rate, burst, () -> now);
+    }
+    
+    private static void advanceMs(long ms) {
+        now += TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+    
+    private static void rafagaYRecarga() throws Exception {
+        InetAddress client = InetAddress.getByName("10.0.0.1");
+        ClientRateLimiter limiter = limiter(10, 5);
+        for (int i = 0; i < 5; i++) {
+            Check.isTrue(limiter.tryAcquire(client, 1), "la ráfaga cabe en el balde: " + i);
+        }
+        Check.isTrue(!limiter.tryAcquire(client, 1), "con el balde vacío se rechaza");
+        advanceMs(100);
+        Check.isTrue(limiter.tryAcquire(client, 1), "en 100 ms se recarga una ficha");
+        Check.isTrue(!limiter.tryAcquire(client, 1), "y solo una");
+        advanceMs(10_000);
+        for (int i = 0; i < 5; i++) {
+            Check.isTrue(limiter.tryAcquire(client, 1), "la recarga no pasa del balde: " + i);
+        }
+        Check.isTrue(!limiter.tryAcquire(client, 1), "el balde tiene burst fichas como máximo");
+        Check.equal(3L, limiter.rejected(), "rechazadas");
+    }
+    
+    private static void loteMasGrandeQueElBalde() throws Exception {
+        InetAddress client = InetAddress.getByName("10.0.0.1");
+        ClientRateLimiter limiter = limiter(10, 5);
+        Check.isTrue(limiter.tryAcquire(client, 50), "un lote de 50 pasa con el balde lleno");
+        Check.isTrue(!limiter.tryAcquire(client, 1), "y deja al cliente en deuda");
+        advanceMs(4_500);
+        Check.isTrue(!limiter.tryAcquire(client, 1), "la deuda de 45 fichas tarda 4,5 s en cubrirse");
+        advanceMs(100);
+        Check.isTrue(limiter.tryAcquire(client, 1), "cubierta la deuda vuelve a operar");
+        
+        limiter = limiter(10, 5);
+        Check.isTrue(limiter.tryAcquire(client, 1), "una operación");
+        Check.isTrue(!limiter.tryAcquire(client, 50), "un lote más grande que el balde necesita el balde lleno");
+        
+        limiter = limiter(10, 5);
+        int admitidas = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire(client, 50)) {
+                admitidas += 50;
+            }
+            advanceMs(100);
+        }
+        Check.isTrue(admitidas <= 10 * 10 + 50, "los lotes no superan el ritmo en 10 s: " + admitidas);
+    }
+    
+    private static void clientesSeparados() throws Exception {
+        InetAddress a = InetAddress.getByName("10.0.0.1");
+        InetAddress b = InetAddress.getByName("10.0.0.2");
+        ClientRateLimiter limiter = limiter(10, 2);
+        Check.isTrue(limiter.tryAcquire(a, 2), "el cliente a gasta su balde");
+        Check.isTrue(!limiter.tryAcquire(a, 1), "a queda sin fichas");
+        Check.isTrue(limiter.tryAcquire(b, 2), "b tiene su propio balde");
+        Check.equal(2, limiter.clients(), "dos clientes");
+    }
+    
+    private static void desalojo() throws Exception {
+        InetAddress a = InetAddress.getByName("10.0.0.1");
+        InetAddress b = InetAddress.getByName("10.0.0.2");
+        ClientRateLimiter limiter = limiter(10, 5);
+        limiter.tryAcquire(a, 1);
+        limiter.tryAcquire(b, 100);
+        advanceMs(2_000);
+        limiter.evictIdle(1_000);
+        Check.equal(1, limiter.clients(), "se quita el balde lleno y se conserva el que está en deuda");
+        Check.isTrue(!limiter.tryAcquire(b, 1), "la deuda no se perdona");
+    }
+}
\ No newline at end of file
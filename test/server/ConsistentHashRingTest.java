@@ -0,0 +1,142 @@
+package server;
+
+import testing.Check;
+
+import java.util.Arrays;
+
+/**
+ * Ubicación de cuentas en el ConsistentHashRing: réplicas distintas y deterministas, carga
+ * pareja, y al cambiar los nodos solo se mueven las cuentas del nodo que entra o sale.
+ */
+public final class ConsistentHashRingTest {
+    private static final int VIRTUAL_NODES = 128;
+    private static final int ACCOUNTS = 100_000;
+    private static final int FIRST_ACCOUNT = 100_000;
+    
+    private ConsistentHashRingTest() {
+    }
+    
+    public static void main(String[] args) {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() {
+        replicasDistintas();
+        repartoParejo();
+        agregarNodo();
+        quitarNodo();
+        casosLimite();
+    }
+    
+    private static ConsistentHashRing ring(int replicationFactor, int... nodes) {
+        ConsistentHashRing ring = new ConsistentHashRing(VIRTUAL_NODES, replicationFactor);
+        for (int node : nodes) {
+            ring.addNode(node);
+        }
+        return ring;
+    }
+    
+    private static void replicasDistintas() {
+        ConsistentHashRing ring = ring(3, 0, 1, 2, 3, 4);
+        // El orden en que se agregan los nodos no cambia la ubicación
+        ConsistentHashRing same = ring(3, 4, 2, 0, 3, 1, 2);
+        boolean distinct = true;
+        boolean primary = true;
+        boolean deterministic = true;
+        for (int account = FIRST_ACCOUNT; account < FIRST_ACCOUNT + ACCOUNTS; account++) {
+            int[] replicas = ring.replicasFor(account);
+            distinct &= replicas.length == 3 && Arrays.stream(replicas).distinct().count() == 3;
+            primary &= ring.primaryFor(account) == replicas[0];
+            deterministic &= Arrays.equals(replicas, same.replicasFor(account));
+        }
+        Check.isTrue(distinct, "cada cuenta tiene tantas réplicas distintas como el factor de replicación");
+        Check.isTrue(primary, "el principal es la primera réplica");
+        Check.isTrue(deterministic, "la ubicación no depende del orden de alta de los nodos");
+        Check.equal(5, same.nodeCount(), "un nodo agregado dos veces cuenta una vez");
+    }
+    
+    private static void repartoParejo() {
+        int nodes = 8;
+        ConsistentHashRing ring = ring(2, 0, 1, 2, 3, 4, 5, 6, 7);
+        int[] primaries = new int[nodes];
+        for (int account = FIRST_ACCOUNT; account < FIRST_ACCOUNT + ACCOUNTS; account++) {
+            primaries[ring.primaryFor(account)]++;
+        }
+        double fair = (double) ACCOUNTS / nodes;
+        for (int node = 0; node < nodes; node++) {
+            double share = primaries[node] / fair;
+            Check.isTrue(share > 0.75 && share < 1.25, "el nodo " + node + " es principal de "
+                    + primaries[node] + " cuentas, se esperaban unas " + (int) fair);
+        }
+    }
+    
+    private static void agregarNodo() {
+        ConsistentHashRing ring = ring(2, 0, 1, 2);
+        int[][] before = placement(ring);
+        ring.addNode(3);
+        int[][] after = placement(ring);
+        
+        int moved = 0;
+        boolean onlyToNewNode = true;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            if (before[i][0] != after[i][0]) {
+                moved++;
+                onlyToNewNode &= after[i][0] == 3;
+            }
+        }
+        Check.isTrue(onlyToNewNode, "las cuentas que cambian de principal pasan al nodo nuevo");
+        double fraction = (double) moved / ACCOUNTS;
+        Check.isTrue(fraction > 0.15 && fraction < 0.35,
+                "al pasar de 3 a 4 nodos se mueve cerca de un cuarto de las cuentas: " + fraction);
+    }
+    
+    private static void quitarNodo() {
+        ConsistentHashRing ring = ring(2, 0, 1, 2, 3);
+        int[][] before = placement(ring);
+        ring.removeNode(2);
+        int[][] after = placement(ring);
+        
+        boolean onlyFromRemoved = true;
+        boolean promoted = true;
+        boolean absent = true;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            if (before[i][0] != after[i][0]) {
+                onlyFromRemoved &= before[i][0] == 2;
+                // La réplica que ya tenía los datos pasa a ser la principal
+                promoted &= after[i][0] == before[i][1];
+            }
+            absent &= after[i][0] != 2 && after[i][1] != 2;
+        }
+        Check.isTrue(onlyFromRemoved, "solo cambian de principal las cuentas del nodo que sale");
+        Check.isTrue(promoted, "la réplica anterior queda como principal");
+        Check.isTrue(absent, "el nodo que sale no aparece en ninguna lista");
+        Check.equal(3, ring.nodeCount(), "cantidad de nodos después de quitar uno");
+        ring.removeNode(2);
+        Check.equal(3, ring.nodeCount(), "quitar un nodo que no está no cambia nada");
+    }
+    
+    private static void casosLimite() {
+        ConsistentHashRing empty = new ConsistentHashRing(VIRTUAL_NODES, 2);
+        Check.equal(-1, empty.primaryFor(FIRST_ACCOUNT), "sin nodos no hay principal");
+        Check.equal(0, empty.replicasFor(FIRST_ACCOUNT).length, "sin nodos no hay réplicas");
+        
+        ConsistentHashRing small = ring(3, 7, 9);
+        Check.equal(2, small.replicasFor(FIRST_ACCOUNT).length, "con menos nodos que réplicas se usan todos");
+        small.removeNode(7);
+        small.removeNode(9);
+        Check.equal(-1, small.primaryFor(FIRST_ACCOUNT), "al quitar todos los nodos no hay principal");
+        
+        Check.fails(IllegalArgumentException.class, () -> new ConsistentHashRing(0, 2), "sin nodos virtuales");
+        Check.fails(IllegalArgumentException.class, () -> new ConsistentHashRing(VIRTUAL_NODES, 0),
+                "factor de replicación cero");
+    }
+    
+    private static int[][] placement(ConsistentHashRing ring) {
+        int[][] placement = new int[ACCOUNTS][];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            placement[i] = ring.replicasFor(FIRST_ACCOUNT + i).clone();
+        }
+        return placement;
+    }
+}
\ No newline at end of file
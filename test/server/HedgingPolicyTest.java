@@ -0,0 +1,95 @@
+package server;
+
+import testing.Check;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HedgingPolicy: la espera antes de repetir una lectura es el percentil pedido de las
+ * latencias recientes, se recalcula cada 128 muestras, no baja del mínimo y olvida las
+ * muestras más viejas que la ventana.
+ */
+public final class HedgingPolicyTest {
+    
+    private HedgingPolicyTest() {
+    }
+    
+    public static void main(String[] args) {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() {
+        esperaInicial();
+        percentil();
+        minimo();
+        ventana();
+        contadores();
+    }
+    
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+    
+    private static void esperaInicial() {
+        HedgingPolicy policy = new HedgingPolicy(95, ms(1));
+        Check.equal(ms(20), policy.hedgeDelayNanos(), "sin muestras espera 20 ms");
+        for (int i = 1; i < 128; i++) {
+            policy.recordLatency(ms(500));
+        }
+        Check.equal(ms(20), policy.hedgeDelayNanos(), "con menos de 128 muestras no se recalcula");
+    }
+    
+    private static void percentil() {
+        HedgingPolicy p95 = new HedgingPolicy(95, ms(1));
+        HedgingPolicy p50 = new HedgingPolicy(50, ms(1));
+        for (int i = 1; i <= 128; i++) {
+            p95.recordLatency(ms(i));
+            p50.recordLatency(ms(i));
+        }
+        Check.equal(ms(123), p95.hedgeDelayNanos(), "p95 de 1..128 ms");
+        Check.equal(ms(65), p50.hedgeDelayNanos(), "p50 de 1..128 ms");
+        
+        HedgingPolicy p100 = new HedgingPolicy(100, ms(1));
+        for (int i = 1; i <= 128; i++) {
+            p100.recordLatency(ms(i));
+        }
+        Check.equal(ms(128), p100.hedgeDelayNanos(), "p100 es la máxima, incluida la última muestra");
+    }
+    
+    private static void minimo() {
+        HedgingPolicy policy = new HedgingPolicy(95, ms(5));
+        for (int i = 0; i < 128; i++) {
+            policy.recordLatency(TimeUnit.MICROSECONDS.toNanos(200));
+        }
+        Check.equal(ms(5), policy.hedgeDelayNanos(), "no baja del mínimo");
+    }
+    
+    private static void ventana() {
+        HedgingPolicy policy = new HedgingPolicy(95, ms(1));
+        for (int i = 0; i < 1024; i++) {
+            policy.recordLatency(ms(100));
+        }
+        Check.equal(ms(100), policy.hedgeDelayNanos(), "con carga lenta");
+        for (int i = 0; i < 1024; i++) {
+            policy.recordLatency(ms(2));
+        }
+        Check.equal(ms(2), policy.hedgeDelayNanos(), "1024 muestras después ya no recuerda las lentas");
+    }
+    
+    private static void contadores() {
+        HedgingPolicy policy = new HedgingPolicy(95, ms(1));
+        for (int i = 0; i < 10; i++) {
+            policy.countRead();
+        }
+        policy.countHedge();
+        policy.countHedge();
+        policy.countHedgeWin();
+        policy.countTimeout();
+        Check.equal(10L, policy.reads(), "lecturas");
+        Check.equal(2L, policy.hedges(), "repetidas");
+        Check.equal(1L, policy.hedgeWins(), "ganadas por la repetición");
+        Check.equal(1L, policy.timeouts(), "vencidas");
+        Check.isTrue(policy.summary().contains("repetidas en otra réplica: 2 ("), policy.summary());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+package server;
+
+import testing.Check;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PhiAccrualDetector con intervalos sintéticos, sin relojes reales: las marcas de tiempo se
+ * pasan a mano, así que los resultados son siempre los mismos. Usa los valores por defecto
+ * del servidor (heartbeat cada 500 ms, desvío mínimo de 100 ms, pausa aceptable de 1000 ms).
+ */
+public final class PhiAccrualDetectorTest {
+    private static final long START = TimeUnit.SECONDS.toNanos(1);
+    private static final double THRESHOLD = 8;
+    
+    private PhiAccrualDetectorTest() {
+    }
+    
+    public static void main(String[] args) {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() {
+        sinSenalesPhiEsCero();
+        heartbeatsRegularesCruzanElUmbralEnElPuntoEsperado();
+        phiCreceConElSilencio();
+        heartbeatsIrregularesDanMasMargen();
+        elTraficoNoAchicaLosIntervalos();
+        resetOlvidaLoAprendido();
+    }
+    
+    private static PhiAccrualDetector detector() {
+        return new PhiAccrualDetector(500, 100, 1000);
+    }
+    
+    /**
+     * Envía count heartbeats separados por los intervalos dados (en ms, en ciclo) y devuelve
+     * el instante del último.
+     */
+    private static long beat(PhiAccrualDetector detector, int count, long... intervalsMs) {
+        long now = START;
+        detector.heartbeat(now);
+        for (int i = 1; i < count; i++) {
+            now += ms(intervalsMs[i % intervalsMs.length]);
+            detector.heartbeat(now);
+        }
+        return now;
+    }
+    
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+    
+    private static void sinSenalesPhiEsCero() {
+        Check.equal(0.0, detector().phi(START), "phi sin ninguna señal de vida");
+    }
+    
+    private static void heartbeatsRegularesCruzanElUmbralEnElPuntoEsperado() {
+        PhiAccrualDetector detector = detector();
+        long last = beat(detector, 100, 500);
+        
+        Check.isTrue(detector.phi(last + ms(500)) < 1, "un intervalo normal de silencio no es sospechoso");
+        Check.isTrue(detector.phi(last + ms(1500)) < 1, "la pausa aceptable no es sospechosa");
+        // El desvío de los intervalos es menor que el mínimo: el umbral queda entre 5 y 6 desvíos
+        // de 100 ms por encima de la media más la pausa aceptable (1500 ms)
+        Check.isTrue(detector.phi(last + ms(2000)) < THRESHOLD, "a 5 desvíos todavía no cruza el umbral");
+        Check.isTrue(detector.phi(last + ms(2100)) > THRESHOLD, "a 6 desvíos ya cruzó el umbral");
+    }
+    
+    private static void phiCreceConElSilencio() {
+        PhiAccrualDetector detector = detector();
+        long last = beat(detector, 100, 500);
+        double previous = 0;
+        for (long silence = 10; silence <= 3000; silence += 10) {
+            double phi = detector.phi(last + ms(silence));
+            Check.isTrue(phi >= previous, "phi no baja cuando el silencio crece (" + silence + " ms)");
+            previous = phi;
+        }
+    }
+    
+    private static void heartbeatsIrregularesDanMasMargen() {
+        PhiAccrualDetector regular = detector();
+        long lastRegular = beat(regular, 100, 500);
+        PhiAccrualDetector irregular = detector();
+        // Misma media, desvío de 200 ms
+        long lastIrregular = beat(irregular, 100, 300, 700);
+        
+        Check.isTrue(irregular.phi(lastIrregular + ms(2100)) < THRESHOLD,
+                "con intervalos irregulares el mismo silencio no cruza el umbral");
+        Check.isTrue(irregular.phi(lastIrregular + ms(2100)) < regular.phi(lastRegular + ms(2100)),
+                "con intervalos irregulares phi crece más despacio");
+        Check.isTrue(irregular.phi(lastIrregular + ms(3000)) > THRESHOLD,
+                "con intervalos irregulares el umbral se cruza más tarde");
+    }
+    
+    private static void elTraficoNoAchicaLosIntervalos() {
+        PhiAccrualDetector detector = detector();
+        // Una respuesta cada 10 ms durante 50 s: solo cuenta una muestra cada medio intervalo
+        long last = beat(detector, 5000, 10);
+        Check.isTrue(detector.phi(last + ms(500)) < 1, "tras mucho tráfico, medio segundo de silencio no es sospechoso");
+        Check.isTrue(detector.phi(last + ms(1500)) < THRESHOLD, "ni la pausa aceptable");
+    }
+    
+    private static void resetOlvidaLoAprendido() {
+        PhiAccrualDetector detector = detector();
+        long last = beat(detector, 100, 500);
+        detector.reset();
+        Check.equal(0L, detector.silenceNanos(last + ms(5000)), "tras reset no hay última señal");
+        Check.equal(0.0, detector.phi(last + ms(5000)), "tras reset phi es cero");
+        
+        detector.heartbeat(last + ms(5000));
+        Check.isTrue(detector.phi(last + ms(5500)) < 1, "la pausa de la caída no cuenta como intervalo");
+    }
+}
\ No newline at end of file
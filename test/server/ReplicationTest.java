@@ -0,0 +1,137 @@
+package server;
+
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
+import testing.Check;
+import testing.TestNode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Replicación hacia un nodo: los lotes se aplican en orden de secuencia aunque lleguen
+ * desordenados, los reenvíos no se aplican dos veces, y el flujo del servidor entrega todo lo
+ * publicado aunque la réplica esté caída o el servidor se reinicie.
+ */
+public final class ReplicationTest {
+    private static final int ORIGEN = 101;
+    private static final int DESTINO = 102;
+    private static final long FECHA_MS = 1_700_000_000_000L;
+    
+    private ReplicationTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        ordenYReenvios();
+        flujoDelServidor();
+    }
+    
+    /**
+     * Lote de REPLICAR con transferencias de 1,00 de ORIGEN a DESTINO, con ids desde primera + 1000.
+     */
+    private static Message replicar(TestNode node, long epoca, long primera, int cantidad) throws Exception {
+        long[] ids = new long[cantidad];
+        int[] origenes = new int[cantidad];
+        int[] destinos = new int[cantidad];
+        long[] montos = new long[cantidad];
+        long[] fechas = new long[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            ids[i] = primera + i + 1000;
+            origenes[i] = ORIGEN;
+            destinos[i] = DESTINO;
+            montos[i] = 100;
+            fechas[i] = FECHA_MS + primera + i;
+        }
+        return node.call(OperationType.REPLICAR, epoca, primera, ids, origenes, destinos, montos, fechas);
+    }
+    
+    private static void checkBalances(TestNode node, int aplicadas, String message) throws Exception {
+        Check.near(500.0 - aplicadas, node.saldo(ORIGEN), 1e-9, "saldo del origen, " + message);
+        Check.near(500.0 + aplicadas, node.saldo(DESTINO), 1e-9, "saldo del destino, " + message);
+    }
+    
+    private static void ordenYReenvios() throws Exception {
+        try (TestNode replica = new TestNode(1, 500.0, ORIGEN, DESTINO).start()) {
+            Check.equal(1L, replicar(replica, 1, 1, 1).getResult(), "el primer lote de la época fija el punto de partida");
+            
+            Check.equal(1L, replicar(replica, 1, 4, 2).getResult(), "un lote adelantado espera al que falta");
+            checkBalances(replica, 1, "con un lote adelantado");
+            
+            Check.equal(5L, replicar(replica, 1, 2, 2).getResult(), "al llegar el que faltaba se aplican los dos");
+            checkBalances(replica, 5, "después de completar el hueco");
+            
+            Check.equal(5L, replicar(replica, 1, 2, 3).getResult(), "un lote reenviado se saltea");
+            Check.equal(6L, replicar(replica, 1, 5, 2).getResult(), "de un lote solapado se aplica solo lo nuevo");
+            checkBalances(replica, 6, "después de los reenvíos");
+            
+            // Otra época (el servidor se reinició) reenvía lo que quedó en su log
+            Check.equal(8L, replicar(replica, 2, 1, 8).getResult(), "la época nueva parte de su primer lote");
+            checkBalances(replica, 8, "en la época nueva se saltean las transferencias ya registradas");
+            
+            replica.stop();
+            replica.start();
+            Check.equal(8L, replicar(replica, 2, 1, 8).getResult(), "después de reiniciar el nodo");
+            checkBalances(replica, 8, "después de reiniciar el nodo, sin repetir transferencias");
+        }
+    }
+    
+    private static void flujoDelServidor() throws Exception {
+        Path logDir = Files.createTempDirectory("banco-test-replicacion");
+        try (TestNode replica = new TestNode(1, 500.0, ORIGEN, DESTINO).start()) {
+            CentralServer.NodeInfo info = new CentralServer.NodeInfo("localhost", replica.port());
+            try (ReplicationStream stream = new ReplicationStream(1, info, 1, WireFormat.fromConfig(), 1000, logDir)) {
+                publish(stream, 1, 300);
+                stream.sync();
+                awaitCaughtUp(stream, "300 cambios");
+                checkBalances(replica, 300, "con el flujo al día");
+                Check.equal(0L, stream.lagMillis(), "sin atraso en milisegundos");
+                
+                // La réplica se cae: lo publicado mientras tanto espera en el log del flujo
+                replica.stop();
+                publish(stream, 301, 100);
+                Thread.sleep(200);
+                Check.equal(100L, stream.lagEntries(), "cambios pendientes con la réplica caída");
+                replica.start();
+                awaitCaughtUp(stream, "después de reiniciar la réplica");
+                checkBalances(replica, 400, "lo publicado con la réplica caída llega al volver");
+            }
+            
+            // El servidor se reinicia sin haber compactado: el flujo nuevo reenvía todo su log
+            try (ReplicationStream stream = new ReplicationStream(1, info, 2, WireFormat.fromConfig(), 1000, logDir)) {
+                Check.equal(400L, stream.lagEntries(), "lo retenido en el log se recupera para reenviar");
+                awaitCaughtUp(stream, "reenvío tras el reinicio");
+                checkBalances(replica, 400, "los cambios reenviados no se aplican dos veces");
+                stream.compact();
+            }
+            
+            try (ReplicationStream stream = new ReplicationStream(1, info, 3, WireFormat.fromConfig(), 1000, logDir)) {
+                Check.equal(0L, stream.lagEntries(), "lo confirmado y compactado no se reenvía");
+                publish(stream, 401, 1);
+                awaitCaughtUp(stream, "después de compactar");
+                checkBalances(replica, 401, "la secuencia sigue después de compactar");
+            }
+        } finally {
+            TestNode.deleteRecursively(logDir);
+        }
+    }
+    
+    private static void publish(ReplicationStream stream, long primero, int cantidad) throws Exception {
+        for (long id = primero; id < primero + cantidad; id++) {
+            stream.publish(id, ORIGEN, DESTINO, 100, System.currentTimeMillis());
+        }
+    }
+    
+    private static void awaitCaughtUp(ReplicationStream stream, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (stream.lagEntries() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Check.equal(0L, stream.lagEntries(), "la réplica confirma todo, " + message);
+    }
+}
\ No newline at end of file
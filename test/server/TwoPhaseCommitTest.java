@@ -0,0 +1,238 @@
+package server;
+
+import client.BankSession;
+import common.utils.ExecutionMode;
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
+import common.utils.WriteAheadLog;
+import common.utils.WriteAheadLog.SyncPolicy;
+import testing.Check;
+import testing.TestNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confirmación en dos fases con aborto presunto: el log del coordinador recuerda solo las
+ * decisiones de confirmar hasta su fin, y los nodos reservan en PREPARAR, aplican una sola vez
+ * en CONFIRMAR y devuelven la reserva en ABORTAR, también después de reiniciarse.
+ */
+public final class TwoPhaseCommitTest {
+    private static final int ORIGEN = 101;
+    private static final int DESTINO = 201;
+    
+    private TwoPhaseCommitTest() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        run();
+        Check.exit();
+    }
+    
+    public static void run() throws Exception {
+        logDelCoordinador();
+        compactarLog();
+        logCorrupto();
+        confirmarEnDosNodos();
+        abortarReserva();
+        prepararRepetidoEnParalelo();
+        reservaSobreviveAlReinicio();
+    }
+    
+    private static CoordinatorLog.Decision decision(long id) {
+        return new CoordinatorLog.Decision(id, ORIGEN, DESTINO, 1250, 0, 1, 1_700_000_000_000L + id);
+    }
+    
+    private static void logDelCoordinador() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-coordinador");
+        try {
+            try (CoordinatorLog log = new CoordinatorLog(dir)) {
+                log.logCommit(decision(1));
+                log.logCommit(decision(2));
+                log.logCommit(decision(3));
+                log.logEnd(2);
+                Check.equal(null, log.decision(2), "una decisión con fin ya no está pendiente");
+                Check.equal(null, log.decision(99), "sin decisión registrada la transferencia se presume abortada");
+            }
+            try (CoordinatorLog log = new CoordinatorLog(dir)) {
+                CoordinatorLog.Decision recovered = log.decision(1);
+                Check.isTrue(recovered != null, "la decisión de confirmar sobrevive al reinicio");
+                Check.equal(1250L, recovered.montoCentavos, "monto recuperado");
+                Check.equal(DESTINO, recovered.idDestino, "destino recuperado");
+                Check.equal(1, recovered.nodoDestino, "nodo destino recuperado");
+                Check.equal(1_700_000_000_001L, recovered.fechaMs, "la fecha decidida se recupera");
+                Check.equal(null, log.decision(2), "el fin registrado sobrevive al reinicio");
+                Check.equal(2, log.pendingDecisions(0).size(), "pendientes después del reinicio");
+                Check.equal(0, log.pendingDecisions(60_000).size(), "ninguna pendiente es tan vieja");
+                log.logEnd(1);
+                log.logEnd(3);
+                Check.equal(0, log.pendingDecisions(0).size(), "sin pendientes al terminar todas");
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void compactarLog() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-coordinador");
+        try {
+            try (CoordinatorLog log = new CoordinatorLog(dir)) {
+                for (long id = 1; id <= 100; id++) {
+                    log.logCommit(decision(id));
+                    if (id != 50) {
+                        log.logEnd(id);
+                    }
+                }
+                log.compact();
+            }
+            try (CoordinatorLog log = new CoordinatorLog(dir)) {
+                List<CoordinatorLog.Decision> pending = log.pendingDecisions(0);
+                Check.equal(1, pending.size(), "compactar conserva solo las decisiones pendientes");
+                Check.equal(50L, pending.get(0).idTransaccion, "la decisión pendiente es la correcta");
+                Check.equal(1_700_000_000_050L, pending.get(0).fechaMs, "con su fecha");
+            }
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void logCorrupto() throws Exception {
+        Path dir = Files.createTempDirectory("banco-test-coordinador");
+        try {
+            // Un registro con CRC válido pero de un tipo que el coordinador no conoce
+            try (WriteAheadLog wal = new WriteAheadLog(dir, SyncPolicy.PER_TRANSACTION, 5)) {
+                wal.commit(wal.append(new byte[] { 9, 0, 0 }));
+            }
+            Check.fails(IOException.class, () -> new CoordinatorLog(dir).close(), "registro desconocido");
+        } finally {
+            TestNode.deleteRecursively(dir);
+        }
+    }
+    
+    private static void confirmarEnDosNodos() throws Exception {
+        try (TestNode origen = new TestNode(0, 100.0, ORIGEN).start();
+             TestNode destino = new TestNode(1, 100.0, DESTINO).start()) {
+            long id = 1000;
+            Message votoOrigen = origen.call(OperationType.PREPARAR, id, ORIGEN, DESTINO, 30.0, true);
+            Message votoDestino = destino.call(OperationType.PREPARAR, id, ORIGEN, DESTINO, 30.0, false);
+            Check.isTrue(votoOrigen.isOk() && votoDestino.isOk(), "ambos nodos votan que sí");
+            Check.near(70.0, (Double) votoOrigen.getResult(), 1e-9, "PREPARAR devuelve el saldo reservado");
+            Check.near(70.0, origen.saldo(ORIGEN), 1e-9, "el monto queda reservado en el origen");
+            Check.near(100.0, destino.saldo(DESTINO), 1e-9, "el destino no cambia al preparar");
+            Check.equal(new long[] { id }, origen.call(OperationType.RESERVAS_PENDIENTES, 0L).getResult(),
+                    "la reserva aparece como pendiente");
+            
+            Check.isTrue(origen.call(OperationType.PREPARAR, id, ORIGEN, DESTINO, 30.0, true).isOk(),
+                    "un PREPARAR repetido vuelve a votar que sí");
+            Check.near(70.0, origen.saldo(ORIGEN), 1e-9, "sin reservar dos veces");
+            
+            for (int attempt = 0; attempt < 2; attempt++) {
+                // El coordinador reenvía CONFIRMAR al recuperarse: se aplica una sola vez
+                long fecha = 1_700_000_000_000L;
+                Check.isTrue(origen.call(OperationType.CONFIRMAR, id, ORIGEN, DESTINO, 30.0, fecha).isOk(),
+                        "CONFIRMAR en el origen, intento " + attempt);
+                Check.isTrue(destino.call(OperationType.CONFIRMAR, id, ORIGEN, DESTINO, 30.0, fecha).isOk(),
+                        "CONFIRMAR en el destino, intento " + attempt);
+                Check.near(70.0, origen.saldo(ORIGEN), 1e-9, "saldo del origen, intento " + attempt);
+                Check.near(130.0, destino.saldo(DESTINO), 1e-9, "saldo del destino, intento " + attempt);
+            }
+            Check.equal(new long[0], origen.call(OperationType.RESERVAS_PENDIENTES, 0L).getResult(),
+                    "la reserva se resolvió");
+            
+            origen.call(OperationType.ABORTAR, id);
+            Check.near(70.0, origen.saldo(ORIGEN), 1e-9, "un ABORTAR tardío no deshace lo confirmado");
+            
+            Message sinFondos = origen.call(OperationType.PREPARAR, id + 1, ORIGEN, DESTINO, 500.0, true);
+            Check.isTrue(!sinFondos.isOk(), "sin fondos el origen vota que no");
+            Check.equal(new long[0], origen.call(OperationType.RESERVAS_PENDIENTES, 0L).getResult(),
+                    "un voto negativo no deja reserva");
+            Check.isTrue(!destino.call(OperationType.PREPARAR, id + 2, ORIGEN, 999, 1.0, false).isOk(),
+                    "el destino vota que no si la cuenta no existe");
+        }
+    }
+    
+    private static void abortarReserva() throws Exception {
+        try (TestNode origen = new TestNode(0, 100.0, ORIGEN).start()) {
+            long id = 2000;
+            origen.call(OperationType.PREPARAR, id, ORIGEN, DESTINO, 40.0, true);
+            Check.near(60.0, origen.saldo(ORIGEN), 1e-9, "reservado antes de abortar");
+            for (int attempt = 0; attempt < 2; attempt++) {
+                Check.isTrue(origen.call(OperationType.ABORTAR, id).isOk(), "ABORTAR, intento " + attempt);
+                Check.near(100.0, origen.saldo(ORIGEN), 1e-9, "la reserva se devuelve una vez, intento " + attempt);
+            }
+            Check.isTrue(origen.call(OperationType.ABORTAR, id + 1).isOk(), "ABORTAR sin reserva no falla");
+            Check.near(100.0, origen.saldo(ORIGEN), 1e-9, "ABORTAR sin reserva no cambia nada");
+        }
+    }
+    
+    private static void prepararRepetidoEnParalelo() throws Exception {
+        double inicial = 5000.0;
+        int transferencias = 500;
+        int copias = 8;
+        try (TestNode origen = new TestNode(0, ExecutionMode.VIRTUAL, inicial, ORIGEN).start()) {
+            // Una conexión por copia, como el reenvío del pool por una conexión nueva o el de la
+            // recuperación del coordinador, que llegan mientras se atiende el original
+            BankSession[] sesiones = new BankSession[copias];
+            for (int i = 0; i < copias; i++) {
+                sesiones[i] = new BankSession("localhost", origen.port(), WireFormat.fromConfig());
+            }
+            try {
+                int votosSi = 0;
+                for (long id = 1; id <= transferencias; id++) {
+                    List<CompletableFuture<Message>> votos = new ArrayList<>();
+                    for (BankSession sesion : sesiones) {
+                        votos.add(sesion.send(new Message(OperationType.PREPARAR, id, ORIGEN, DESTINO, 1.0, true)));
+                    }
+                    for (CompletableFuture<Message> voto : votos) {
+                        if (voto.get(10, TimeUnit.SECONDS).isOk()) {
+                            votosSi++;
+                        }
+                    }
+                }
+                Check.isTrue(votosSi >= transferencias, "al menos una copia de cada PREPARAR vota que sí");
+            } finally {
+                for (BankSession sesion : sesiones) {
+                    sesion.close();
+                }
+            }
+            Check.near(inicial - transferencias, origen.saldo(ORIGEN), 1e-9,
+                    "cada transferencia se reserva una vez aunque PREPARAR llegue repetido en paralelo");
+            long[] pendientes = (long[]) origen.call(OperationType.RESERVAS_PENDIENTES, 0L).getResult();
+            Check.equal(transferencias, pendientes.length, "una reserva por transferencia");
+            
+            for (long id : pendientes) {
+                origen.call(OperationType.ABORTAR, id);
+            }
+            Check.near(inicial, origen.saldo(ORIGEN), 1e-9, "abortar devuelve todo lo reservado");
+        }
+    }
+    
+    private static void reservaSobreviveAlReinicio() throws Exception {
+        try (TestNode origen = new TestNode(0, 100.0, ORIGEN).start()) {
+            origen.call(OperationType.PREPARAR, 3000L, ORIGEN, DESTINO, 10.0, true);
+            origen.call(OperationType.PREPARAR, 3001L, ORIGEN, DESTINO, 20.0, true);
+            origen.stop();
+            origen.start();
+            long[] pendientes = (long[]) origen.call(OperationType.RESERVAS_PENDIENTES, 0L).getResult();
+            Arrays.sort(pendientes);
+            Check.equal(new long[] { 3000L, 3001L }, pendientes, "las reservas se recuperan del log");
+            Check.near(70.0, origen.saldo(ORIGEN), 1e-9, "el saldo recuperado incluye las reservas");
+            
+            // El coordinador no tiene decisión para 3000 (aborto presunto) y sí para 3001
+            origen.call(OperationType.ABORTAR, 3000L);
+            origen.call(OperationType.CONFIRMAR, 3001L, ORIGEN, DESTINO, 20.0, System.currentTimeMillis());
+            origen.stop();
+            origen.start();
+            Check.equal(new long[0], origen.call(OperationType.RESERVAS_PENDIENTES, 0L).getResult(),
+                    "las decisiones también se recuperan");
+            Check.near(80.0, origen.saldo(ORIGEN), 1e-9, "abortada devuelta, confirmada debitada");
+        }
+    }
+}
\ No newline at end of file
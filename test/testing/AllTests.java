@@ -0,0 +1,39 @@
+package testing;
+
+/**
+ * Corre todas las pruebas. Las pruebas están en test/, en el paquete de la clase que prueban,
+ * y no dependen de nada fuera del JDK:
+ *
+ *   javac -d out $(find . -name '*.java') && java -cp out testing.AllTests
+ *
+ * Cada clase de prueba también se puede correr sola con su main.
+ */
+public final class AllTests {
+    
+    private AllTests() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        common.utils.MessageCodecTest.run();
+        common.utils.WriteAheadLogTest.run();
+        common.utils.LatencyHistogramTest.run();
+        common.utils.ConcurrencyLimiterTest.run();
+        common.utils.TransactionIdGeneratorTest.run();
+        common.utils.LoggerTest.run();
+        common.utils.MetricsRegistryTest.run();
+        common.utils.ExecutionModeTest.run();
+        client.BankSessionTest.run();
+        node.MovementIndexTest.run();
+        node.SnapshotStoreTest.run();
+        node.AccountStoreTest.run();
+        node.MultiAccountQueryTest.run();
+        server.ConsistentHashRingTest.run();
+        server.PhiAccrualDetectorTest.run();
+        server.ClientRateLimiterTest.run();
+        server.BalanceCacheTest.run();
+        server.HedgingPolicyTest.run();
+        server.TwoPhaseCommitTest.run();
+        server.ReplicationTest.run();
+        Check.exit();
+    }
+}
\ No newline at end of file
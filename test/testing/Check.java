@@ -0,0 +1,91 @@
+package testing;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Verificaciones de las pruebas, sin dependencias: cada falla se informa con su mensaje y
+ * se cuenta, y al final exit termina con código distinto de cero si hubo alguna.
+ */
+public final class Check {
+    
+    /**
+     * Código a ejecutar que se espera que lance una excepción.
+     */
+    @FunctionalInterface
+    public interface Action {
+        void run() throws Exception;
+    }
+    
+    private static int checks;
+    private static int failures;
+    
+    private Check() {
+    }
+    
+    public static void isTrue(boolean condition, String message) {
+        checks++;
+        if (!condition) {
+            fail(message);
+        }
+    }
+    
+    /**
+     * Compara con Objects.deepEquals, así que también sirve para arreglos.
+     */
+    public static void equal(Object expected, Object actual, String message) {
+        checks++;
+        if (!Objects.deepEquals(expected, actual)) {
+            fail(message + ": se esperaba " + format(expected) + " y se obtuvo " + format(actual));
+        }
+    }
+    
+    public static void near(double expected, double actual, double tolerance, String message) {
+        checks++;
+        if (!(Math.abs(expected - actual) <= tolerance)) {
+            fail(message + ": se esperaba " + expected + " ± " + tolerance + " y se obtuvo " + actual);
+        }
+    }
+    
+    public static void fails(Class<? extends Throwable> expected, Action action, String message) {
+        checks++;
+        try {
+            action.run();
+            fail(message + ": no lanzó " + expected.getSimpleName());
+        } catch (Throwable e) {
+            if (!expected.isInstance(e)) {
+                fail(message + ": se esperaba " + expected.getSimpleName() + " y se lanzó " + e);
+            }
+        }
+    }
+    
+    /**
+     * Muestra el resumen y termina el proceso: código 1 si alguna verificación falló.
+     */
+    public static void exit() {
+        System.out.println(checks + " verificaciones, " + failures + " fallidas");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+    
+    private static void fail(String message) {
+        failures++;
+        StackTraceElement caller = callerOf(Thread.currentThread().getStackTrace());
+        System.out.println("FALLA " + (caller != null ? caller.getClassName() + ":" + caller.getLineNumber() + " " : "")
+                + message);
+    }
+    
+    private static StackTraceElement callerOf(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            if (!element.getClassName().equals(Check.class.getName())
+                    && !element.getClassName().equals(Thread.class.getName())) {
+                return element;
+            }
+        }
+        return null;
+    }
+    
+    private static String format(Object value) {
+        String text = Arrays.deepToString(new Object[] { value });
+        return text.substring(1, text.length() - 1);
+    }
+}
\ No newline at end of file
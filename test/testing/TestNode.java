@@ -0,0 +1,130 @@
+package testing;
+
+import client.BankSession;
+import common.utils.ExecutionMode;
+import common.utils.Message;
+import common.utils.Message.OperationType;
+import common.utils.MessageStream.WireFormat;
+import node.WorkerNode;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Nodo trabajador en proceso para las pruebas, sobre un directorio temporal con las cuentas
+ * indicadas (todas con el mismo saldo). Se le habla por su puerto, como el servidor central.
+ */
+public final class TestNode implements AutoCloseable {
+    private final int nodeId;
+    private final Path dataDir;
+    private final int port;
+    private final ExecutionMode executionMode;
+    private WorkerNode node;
+    private BankSession session;
+    
+    public TestNode(int nodeId, double saldo, int... cuentas) throws IOException {
+        this(nodeId, ExecutionMode.PLATFORM, saldo, cuentas);
+    }
+    
+    /**
+     * Con ExecutionMode.VIRTUAL cada solicitud tiene su propio hilo, aunque la máquina tenga un
+     * solo core: sirve para las pruebas de solicitudes concurrentes.
+     */
+    public TestNode(int nodeId, ExecutionMode executionMode, double saldo, int... cuentas) throws IOException {
+        this.nodeId = nodeId;
+        this.executionMode = executionMode;
+        this.dataDir = Files.createTempDirectory("banco-prueba-nodo");
+        this.port = freePort();
+        writeAccounts(dataDir, saldo, cuentas);
+    }
+    
+    public int port() {
+        return port;
+    }
+    
+    /**
+     * Arranca el nodo (o lo vuelve a arrancar sobre los mismos datos) y espera a que atienda.
+     */
+    public TestNode start() throws Exception {
+        node = new WorkerNode(nodeId, port, dataDir.toString(), executionMode);
+        Thread serving = new Thread(node::start, "prueba-nodo-" + nodeId);
+        serving.setDaemon(true);
+        serving.start();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                session = new BankSession("localhost", port, WireFormat.fromConfig());
+                session.call(new Message(OperationType.HEARTBEAT));
+                return this;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("El nodo de prueba no arrancó");
+    }
+    
+    public void stop() throws IOException {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (node != null) {
+            node.stop();
+            node = null;
+        }
+    }
+    
+    public Message call(OperationType type, Object... params) throws IOException {
+        return session.call(new Message(type, params));
+    }
+    
+    public double saldo(int cuenta) throws IOException {
+        Message response = call(OperationType.CONSULTAR_SALDO, cuenta);
+        if (!response.isOk()) {
+            throw new IOException(response.getStatus());
+        }
+        return (Double) response.getResult();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        stop();
+        deleteRecursively(dataDir);
+    }
+    
+    public static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+    
+    public static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    
+    private static void writeAccounts(Path dataDir, double saldo, int[] cuentas) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dataDir.resolve("clientes.txt")))) {
+            out.println("# ID_CLIENTE | NOMBRE | EMAIL | TELÉFONO");
+            out.println("1|Cliente de prueba|prueba@email.com|900000000");
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dataDir.resolve("cuentas.txt")))) {
+            out.println("# ID_CUENTA | ID_CLIENTE | SALDO | TIPO_CUENTA");
+            for (int cuenta : cuentas) {
+                out.println(cuenta + "|1|" + String.format(Locale.ROOT, "%.2f", saldo) + "|Ahorros");
+            }
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dataDir.resolve("transacciones.txt")))) {
+            out.println("# ID_TRANSACC | ID_ORIG | ID_DEST | MONTO | FECHA_HORA | ESTADO");
+        }
+    }
+}
\ No newline at end of file